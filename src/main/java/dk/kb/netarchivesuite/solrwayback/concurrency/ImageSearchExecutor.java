@@ -2,89 +2,122 @@ package dk.kb.netarchivesuite.solrwayback.concurrency;
 
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.apache.solr.common.SolrDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import dk.kb.netarchivesuite.solrwayback.facade.Facade;
+import dk.kb.netarchivesuite.solrwayback.export.ContentStreams;
 import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntryDescriptor;
 import dk.kb.netarchivesuite.solrwayback.service.dto.IndexDoc;
+import dk.kb.netarchivesuite.solrwayback.solr.NetarchiveSolrClient;
+import dk.kb.netarchivesuite.solrwayback.util.Processing;
+import dk.kb.netarchivesuite.solrwayback.util.SolrUtils;
 
 
+/**
+ * Resolves images from search results, where the results are either images or HTML pages linking to images.
+ * <p>
+ * The {@code links_images} and {@code crawl_date} for the HTML pages are taken directly from the search results
+ * (see {@link SolrUtils#indexDocFieldList}), so no extra lookup is needed per page. Pages without {@code crawl_date}
+ * are looked up in Solr to get the fields. The image links for each page
+ * are resolved using batched multi-queries with time proximity deduplication, with the pages processed in parallel
+ * by {@link Processing#batch(Stream)}.
+ */
 public class ImageSearchExecutor {
-    
-    static ExecutorService executorService = Executors.newFixedThreadPool(20); // 20 solr calls at a time 
-   
+
     private static final Logger log = LoggerFactory.getLogger(ImageSearchExecutor.class);
-    
+
+    /**
+     * The maximum number of images to resolve for any single HTML page.
+     */
+    public static final int MAX_IMAGES_PER_PAGE = 50;
+
+    /**
+     * Resolve images from the given documents and return them as a list.
+     * @param docs search results. Only images and HTML pages are used.
+     * @return unique images, based on {@code hash}.
+     * @see #streamImages(List, int)
+     */
     public static  ArrayList<ArcEntryDescriptor> extractImages(List<IndexDoc> docs)  throws Exception{
-   
-       Set<Callable<ArrayList<ArcEntryDescriptor>>> callables = new HashSet<>();
-              
-       for (final IndexDoc current : docs){
-       
-           callables.add(new Callable<ArrayList<ArcEntryDescriptor>>() {
-           @Override
-           public ArrayList<ArcEntryDescriptor> call() throws Exception {
-                             
-                   if ("html".equals(current.getContentTypeNorm())){                           
-                     log.info("getting images from:"+current.getUrl_norm());
-                       
-                       ArrayList<ArcEntryDescriptor> images = Facade.getImagesForHtmlPageNewThreaded(current.getSource_file_path(),current.getOffset());
-                       return images;                      
-                                           
-                   }
-                   else if ("image".equals(current.getContentTypeNorm())){                        
-                       String source_file_path = current.getSource_file_path();
-                       ArcEntryDescriptor desc= new ArcEntryDescriptor();
-                       desc.setSource_file_path(source_file_path);
-                       desc.setHash(current.getHash());
-                       desc.setOffset(current.getOffset());                       
-                       desc.setUrl_norm(current.getUrl_norm());
-                       ArrayList<ArcEntryDescriptor> single = new ArrayList<> ();
-                       single.add(desc);
-                       return single;
-                   }
-                   else{
-                       return new ArrayList<>(); //Empty, but the callable must return it
-                   }                                                                   
-           }
-       });      
-            
-       }
-       
-       //start all the executes.
-       List<Future<ArrayList<ArcEntryDescriptor>>> futures = executorService.invokeAll(callables);
+        long startTime = System.currentTimeMillis();
+        ArrayList<ArcEntryDescriptor> images = streamImages(docs, MAX_IMAGES_PER_PAGE).
+                collect(Collectors.toCollection(ArrayList::new));
+        log.debug("extractImages(#docs={}) resolved {} images in {} ms",
+                  docs.size(), images.size(), System.currentTimeMillis()-startTime);
+        return images;
+    }
+
+    /**
+     * Resolve images from the given documents. Direct image hits are delivered first, followed by images from the
+     * HTML pages as they are resolved. Duplicates are removed on the fly using {@link ArcEntryDescriptor#equals},
+     * which compares {@code hash}. Images without {@code hash} are treated as a single image.
+     * <p>
+     * The returned stream is lazy: Images from HTML pages are resolved when the stream is consumed.
+     * @param docs             search results. Only images and HTML pages are used.
+     * @param maxImagesPerPage the maximum number of images to resolve for any single HTML page.
+     * @return a stream of unique images, based on {@code hash}.
+     */
+    public static Stream<ArcEntryDescriptor> streamImages(List<IndexDoc> docs, int maxImagesPerPage) {
+        return streamImages(docs, page -> createPageCallback(page, maxImagesPerPage));
+    }
+
+    /**
+     * @param docs       search results. Only images and HTML pages are used.
+     * @param pageImages creates a callable delivering the images for a HTML page, with the fields from
+     *                   {@link SolrUtils#arcEntryDescriptorFieldList}.
+     * @see #streamImages(List, int)
+     */
+    static Stream<ArcEntryDescriptor> streamImages(
+            List<IndexDoc> docs, Function<IndexDoc, Callable<Stream<SolrDocument>>> pageImages) {
+        Stream<ArcEntryDescriptor> directImages = docs.stream().
+                filter(doc -> "image".equals(doc.getContentTypeNorm())).
+                map(ImageSearchExecutor::indexDoc2ArcEntryDescriptor);
 
-       // Extract all results and sort then by weight
-       List<ArcEntryDescriptor> allList = new ArrayList<>();
-       for(Future<ArrayList<ArcEntryDescriptor>> future : futures) {
-        try{
-           ArrayList<ArcEntryDescriptor> hits = future.get();
-           if (hits != null){
-             allList.addAll(hits);
-           }
-           else{
-               log.error("Error invoking async future Solr call... Check Solr log");
-           }
-        }
-        catch(Exception e){
-            log.error("error getting future...");
-        }
-           
-       }
+        // Pages with crawl_date but without links_images have no images, pages without crawl_date are looked up
+        Stream<Callable<Stream<SolrDocument>>> htmlCallbacks = docs.stream().
+                filter(doc -> "html".equals(doc.getContentTypeNorm())).
+                filter(doc -> doc.getCrawlDate() == null || (doc.getImageUrls() != null && !doc.getImageUrls().isEmpty())).
+                map(pageImages);
+        Stream<ArcEntryDescriptor> htmlImages = Processing.batch(htmlCallbacks).
+                flatMap(Function.identity()).
+                map(SolrUtils::solrDocument2ArcEntryDescriptor);
 
-       // Remove duplicates (there will be many)
-       //Add all the ArcEntryDescriptor to a single list, and only once for each hash. So we add them to a hashset
-       HashSet<ArcEntryDescriptor> allAddedSet = new LinkedHashSet<>(allList);
+        return Stream.concat(directImages, htmlImages).distinct();
+    }
+
+    /**
+     * Create a callable delivering the images for the given HTML page. If the page does not have {@code crawl_date},
+     * the page is looked up in Solr to get {@code crawl_date} and {@code links_images}.
+     * Failures are logged and result in no images for the page, so a single page cannot fail the full search.
+     */
+    private static Callable<Stream<SolrDocument>> createPageCallback(IndexDoc page, int maxImagesPerPage) {
+        return () -> {
+            try {
+                IndexDoc resolved = page.getCrawlDate() != null ? page :
+                        NetarchiveSolrClient.getInstance().getArcEntry(page.getSource_file_path(), page.getOffset());
+                if (resolved.getImageUrls() == null || resolved.getImageUrls().isEmpty()) {
+                    return Stream.empty();
+                }
+                return ContentStreams.createHTMLImageCallback(
+                        resolved.getCrawlDate(), resolved.getImageUrls(), maxImagesPerPage).call();
+            } catch (Exception e) {
+                log.warn("Exception resolving images for page '" + page.getUrl_norm() + "'", e);
+                return Stream.empty();
+            }
+        };
+    }
 
-       // Convert back to list for delivery
-       return new ArrayList<>(allAddedSet);
-       
-       //executorService.shutdown(); // No need to shut down. It is emptied and reused
+    private static ArcEntryDescriptor indexDoc2ArcEntryDescriptor(IndexDoc doc) {
+        ArcEntryDescriptor desc= new ArcEntryDescriptor();
+        desc.setSource_file_path(doc.getSource_file_path());
+        desc.setHash(doc.getHash());
+        desc.setOffset(doc.getOffset());
+        desc.setUrl_norm(doc.getUrl_norm());
+        return desc;
     }
 
 }
@@ -0,0 +1,688 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.solr.SolrSchema;
+import org.apache.solr.common.SolrDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes {@link SolrDocument}s as an <a href="https://arrow.apache.org/docs/format/Columnar.html#ipc-streaming-format">
+ * Apache Arrow IPC stream</a>, which can be read directly by pyarrow ({@code pyarrow.ipc.open_stream}), Polars,
+ * pandas, DuckDB and most other data frame tools.
+ * <p>
+ * Documents are buffered as columns and written as record batches (row groups) of at most {@code rowGroupSize}
+ * documents or approximately {@code rowGroupChars} characters of String content, so memory usage is bounded
+ * regardless of export size.
+ * <p>
+ * The column types are taken from the field types in the Solr schema: Integer types become {@code int64}, floating
+ * point types {@code float64}, {@code BoolField} {@code bool}, date types {@code timestamp[ms, UTC]} and everything
+ * else {@code utf8}. Multi-valued fields become {@code list<...>} columns.
+ * <p>
+ * Fields that are not in the Solr schema, such as pseudo fields, or all fields if the schema is not available, have
+ * their types derived from their values in the first row group, using the same mapping from the Java types of the
+ * values. Fields with multiple values become {@code list<...>} columns. Fields without any values in the first
+ * row group become {@code utf8}. Fields with mixed types in the first row group are widened: Integer and floating
+ * point numbers become {@code float64}, other mixes become {@code utf8}.
+ * <p>
+ * The schema of an Arrow stream cannot be changed after it has been written. Values in later row groups are
+ * converted to Strings for {@code utf8} columns and integers are converted for {@code float64} columns. Other values
+ * that does not match the schema fail the export with an {@link IOException}, instead of being silently dropped.
+ */
+public class ArrowDocumentSerializer implements DocumentSerializer {
+    private static final Logger log = LoggerFactory.getLogger(ArrowDocumentSerializer.class);
+
+    public static final int DEFAULT_ROW_GROUP_SIZE = 10_000;
+    public static final long DEFAULT_ROW_GROUP_CHARS = 16*1024*1024;
+
+    private static final int CONTINUATION = 0xFFFFFFFF;
+    private static final short METADATA_V5 = 4;
+    private static final byte HEADER_SCHEMA = 1;
+    private static final byte HEADER_RECORD_BATCH = 3;
+    private static final byte TYPE_LIST = 12;
+    private static final byte[] PADDING = new byte[8];
+
+    private final String[] fields;
+    private final SolrSchema solrSchema;
+    private final OutputStream out;
+    private final int rowGroupSize;
+    private final long rowGroupChars;
+    private final ByteBuffer scratch = ByteBuffer.allocate(64*1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    private Column[] columns = null; // null until the schema has been derived
+    private final List<SolrDocument> pending = new ArrayList<>(); // Only used until the schema has been derived
+    private int groupRows = 0;
+    private long groupChars = 0;
+
+    /**
+     * Create a serializer with {@link #DEFAULT_ROW_GROUP_SIZE} and {@link #DEFAULT_ROW_GROUP_CHARS}.
+     * @param fields     the fields to write, in order.
+     * @param solrSchema the schema for the Solr collection holding the documents. If null, the column types are
+     *                   derived from the values in the first row group.
+     * @param out        the destination for the Arrow IPC stream.
+     */
+    public ArrowDocumentSerializer(String[] fields, SolrSchema solrSchema, OutputStream out) {
+        this(fields, solrSchema, out, DEFAULT_ROW_GROUP_SIZE, DEFAULT_ROW_GROUP_CHARS);
+    }
+
+    /**
+     * @param fields        the fields to write, in order.
+     * @param solrSchema    the schema for the Solr collection holding the documents. If null, the column types are
+     *                      derived from the values in the first row group.
+     * @param out           the destination for the Arrow IPC stream.
+     * @param rowGroupSize  the maximum number of documents in a record batch.
+     * @param rowGroupChars the approximate maximum number of String characters in a record batch.
+     */
+    public ArrowDocumentSerializer(String[] fields, SolrSchema solrSchema, OutputStream out,
+                                   int rowGroupSize, long rowGroupChars) {
+        this.fields = new String[fields.length];
+        for (int i = 0 ; i < fields.length ; i++) {
+            this.fields[i] = fields[i].trim();
+        }
+        this.solrSchema = solrSchema;
+        this.out = out;
+        this.rowGroupSize = rowGroupSize;
+        this.rowGroupChars = rowGroupChars;
+    }
+
+    @Override
+    public void write(SolrDocument doc) throws IOException {
+        if (columns == null) {
+            pending.add(doc);
+        } else {
+            appendRow(doc);
+        }
+        for (String field: fields) {
+            groupChars += countChars(doc.getFieldValue(field));
+        }
+        if (++groupRows >= rowGroupSize || groupChars >= rowGroupChars) {
+            flushRowGroup();
+        }
+    }
+
+    /**
+     * Write the buffered documents as a record batch and flush the underlying stream.
+     * If the schema has not been derived yet, it is derived from the buffered documents.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushRowGroup();
+        out.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        flushRowGroup();
+        if (columns == null) { // No documents: Write the schema anyway to produce a valid, empty, stream
+            deriveSchema(Collections.emptyList());
+        }
+        writeInt(CONTINUATION);
+        writeInt(0); // End of stream
+        out.flush();
+    }
+
+    private void flushRowGroup() throws IOException {
+        if (groupRows == 0) {
+            return;
+        }
+        if (columns == null) {
+            deriveSchema(pending);
+            for (SolrDocument doc: pending) {
+                appendRow(doc);
+            }
+            pending.clear();
+        }
+        writeRecordBatch(groupRows);
+        for (Column column: columns) {
+            column.reset();
+        }
+        groupRows = 0;
+        groupChars = 0;
+    }
+
+    private void appendRow(SolrDocument doc) throws IOException {
+        for (Column column: columns) {
+            column.add(doc.getFieldValue(column.name));
+        }
+    }
+
+    private long countChars(Object value) {
+        if (value instanceof String) {
+            return ((String) value).length();
+        }
+        if (value instanceof Collection) {
+            long chars = 0;
+            for (Object subValue: (Collection<?>) value) {
+                chars += countChars(subValue);
+            }
+            return chars;
+        }
+        return value == null ? 0 : 8;
+    }
+
+    /**
+     * Resolve the column types from the Solr schema, derive the types for fields not in the Solr schema from the
+     * given documents and write the schema message.
+     */
+    private void deriveSchema(List<SolrDocument> docs) throws IOException {
+        columns = new Column[fields.length];
+        List<FlatBufferWriter.Table> schemaFields = new ArrayList<>(fields.length);
+        for (int i = 0 ; i < fields.length ; i++) {
+            SolrSchema.Field solrField = solrSchema == null ? null : solrSchema.getField(fields[i]);
+            if (solrField != null) {
+                columns[i] = new Column(fields[i], Kind.of(solrField), solrField.multiValued);
+                schemaFields.add(columns[i].getField());
+                continue;
+            }
+            Kind kind = null;
+            boolean list = false;
+            for (SolrDocument doc: docs) {
+                Object value = doc.getFieldValue(fields[i]);
+                if (value instanceof Collection) {
+                    list = true;
+                    for (Object subValue: (Collection<?>) value) {
+                        kind = Kind.widen(kind, subValue);
+                    }
+                } else {
+                    kind = Kind.widen(kind, value);
+                }
+            }
+            columns[i] = new Column(fields[i], kind == null ? Kind.UTF8 : kind, list);
+            schemaFields.add(columns[i].getField());
+        }
+        log.debug("Derived Arrow schema for {} columns using {} and {} documents: {}",
+                  fields.length, solrSchema == null ? "no Solr schema" : "the Solr schema", docs.size(),
+                  Arrays.toString(columns));
+
+        FlatBufferWriter.Table schema = new FlatBufferWriter.Table().addTables(1, schemaFields);
+        writeMessage(HEADER_SCHEMA, schema, 0);
+    }
+
+    private void writeRecordBatch(int rows) throws IOException {
+        List<Long> nodes = new ArrayList<>();
+        List<Buffer> buffers = new ArrayList<>();
+        for (Column column: columns) {
+            column.collect(nodes, buffers);
+        }
+
+        long[] nodeStructs = nodes.stream().mapToLong(Long::longValue).toArray();
+        long[] bufferStructs = new long[buffers.size()*2];
+        long bodyLength = 0;
+        for (int i = 0 ; i < buffers.size() ; i++) {
+            bufferStructs[i*2] = bodyLength;
+            bufferStructs[i*2+1] = buffers.get(i).bytes;
+            bodyLength += padded(buffers.get(i).bytes);
+        }
+        FlatBufferWriter.Table recordBatch = new FlatBufferWriter.Table().
+                addLong(0, rows).
+                addLongStructs(1, nodeStructs, 2).
+                addLongStructs(2, bufferStructs, 2);
+        writeMessage(HEADER_RECORD_BATCH, recordBatch, bodyLength);
+
+        for (Buffer buffer: buffers) {
+            buffer.writeTo(this);
+            out.write(PADDING, 0, padded(buffer.bytes) - buffer.bytes);
+        }
+    }
+
+    /**
+     * Write an encapsulated message: Continuation marker, metadata length, metadata and padding to 8 bytes.
+     * The caller is responsible for writing the body.
+     */
+    private void writeMessage(byte headerType, FlatBufferWriter.Table header, long bodyLength) throws IOException {
+        FlatBufferWriter.Table message = new FlatBufferWriter.Table().
+                addShort(0, METADATA_V5).
+                addByte(1, headerType).
+                addTable(2, header).
+                addLong(3, bodyLength);
+        byte[] metadata = FlatBufferWriter.serialize(message);
+        int paddedLength = padded(metadata.length); // The 8 byte prefix keeps the body 8 byte aligned
+        writeInt(CONTINUATION);
+        writeInt(paddedLength);
+        out.write(metadata);
+        out.write(PADDING, 0, paddedLength - metadata.length);
+    }
+
+    private static int padded(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+
+    /**
+     * The scalar types used for columns and list elements.
+     */
+    private enum Kind {
+        UTF8(5), INT64(2), FLOAT64(3), BOOL(6), TIMESTAMP(10);
+
+        final byte typeID;
+
+        Kind(int typeID) {
+            this.typeID = (byte) typeID;
+        }
+
+        static Kind of(Object value) {
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return INT64;
+            }
+            if (value instanceof Double || value instanceof Float) {
+                return FLOAT64;
+            }
+            if (value instanceof Boolean) {
+                return BOOL;
+            }
+            if (value instanceof Date) {
+                return TIMESTAMP;
+            }
+            return UTF8;
+        }
+
+        /**
+         * @param solrField a field from the Solr schema.
+         * @return the kind for the Solr field type class. Unknown classes, such as spatial types, are {@link #UTF8}.
+         */
+        static Kind of(SolrSchema.Field solrField) {
+            switch (solrField.getTypeClassName()) {
+                case "IntPointField":
+                case "LongPointField":
+                case "TrieIntField":
+                case "TrieLongField": return INT64;
+                case "FloatPointField":
+                case "DoublePointField":
+                case "TrieFloatField":
+                case "TrieDoubleField": return FLOAT64;
+                case "BoolField": return BOOL;
+                case "DatePointField":
+                case "TrieDateField": return TIMESTAMP;
+                default: return UTF8;
+            }
+        }
+
+        /**
+         * @param kind  null or the kind derived from the previous values.
+         * @param value null or a value.
+         * @return the kind that can hold both the previous values and the given value.
+         */
+        static Kind widen(Kind kind, Object value) {
+            if (value == null) {
+                return kind;
+            }
+            Kind valueKind = of(value);
+            if (kind == null || kind == valueKind) {
+                return valueKind;
+            }
+            if ((kind == INT64 || kind == FLOAT64) && (valueKind == INT64 || valueKind == FLOAT64)) {
+                return FLOAT64;
+            }
+            return UTF8;
+        }
+
+        FlatBufferWriter.Table getTypeTable() {
+            FlatBufferWriter.Table type = new FlatBufferWriter.Table();
+            switch (this) {
+                case INT64: return type.addInt(0, 64).addBool(1, true); // bitWidth, is_signed
+                case FLOAT64: return type.addShort(0, 2); // precision DOUBLE
+                case TIMESTAMP: return type.addShort(0, 1).addString(1, "UTC"); // unit MILLISECOND, timezone
+                default: return type;
+            }
+        }
+    }
+
+    private static FlatBufferWriter.Table createField(
+            String name, byte typeID, FlatBufferWriter.Table type, List<FlatBufferWriter.Table> children) {
+        return new FlatBufferWriter.Table().
+                addString(0, name).
+                addBool(1, true). // nullable
+                addByte(2, typeID).
+                addTable(3, type).
+                addTables(5, children);
+    }
+
+    /**
+     * A column definition and the values for the current row group.
+     */
+    private static class Column {
+        final String name;
+        final Kind kind;
+        final boolean list;
+        final ScalarVector values;
+        final Validity listValidity;
+        int[] listOffsets;
+
+        Column(String name, Kind kind, boolean list) {
+            this.name = name;
+            this.kind = kind;
+            this.list = list;
+            this.values = new ScalarVector(kind);
+            this.listValidity = list ? new Validity() : null;
+            this.listOffsets = list ? new int[1024] : null;
+        }
+
+        FlatBufferWriter.Table getField() {
+            if (!list) {
+                return createField(name, kind.typeID, kind.getTypeTable(), Collections.emptyList());
+            }
+            FlatBufferWriter.Table item = createField("item", kind.typeID, kind.getTypeTable(), Collections.emptyList());
+            return createField(name, TYPE_LIST, new FlatBufferWriter.Table(), Collections.singletonList(item));
+        }
+
+        void add(Object value) throws IOException {
+            if (!list) {
+                values.add(convert(value instanceof Collection && kind == Kind.UTF8 ? joinValues(value) : value));
+                return;
+            }
+            if (value == null) {
+                listValidity.add(false);
+            } else {
+                listValidity.add(true);
+                if (value instanceof Collection) {
+                    for (Object subValue: (Collection<?>) value) {
+                        values.add(convert(subValue));
+                    }
+                } else {
+                    values.add(convert(value));
+                }
+            }
+            int lists = listValidity.count;
+            if (lists == listOffsets.length) {
+                listOffsets = Arrays.copyOf(listOffsets, listOffsets.length*2);
+            }
+            listOffsets[lists] = values.validity.count;
+        }
+
+        /**
+         * Multiple values in a single value column: Join with tabs, as done by {@link CSVDocumentSerializer}.
+         */
+        private String joinValues(Object value) {
+            StringBuilder sb = new StringBuilder();
+            for (Object subValue: (Collection<?>) value) {
+                if (sb.length() != 0) {
+                    sb.append('\t');
+                }
+                sb.append(subValue instanceof Date ? ((Date) subValue).toInstant().toString() : subValue);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return the value converted to the Java type used for {@link #kind}.
+         * @throws IOException if the value cannot be represented as {@link #kind}.
+         */
+        private Object convert(Object value) throws IOException {
+            if (value == null) {
+                return null;
+            }
+            switch (kind) {
+                case UTF8: return value instanceof Date ? ((Date) value).toInstant().toString() : value.toString();
+                case INT64: if (Kind.of(value) == Kind.INT64) return ((Number) value).longValue(); break;
+                case FLOAT64: if (value instanceof Number) return ((Number) value).doubleValue(); break;
+                case BOOL: if (value instanceof Boolean) return value; break;
+                case TIMESTAMP: if (value instanceof Date) return ((Date) value).getTime(); break;
+                default: throw new IllegalStateException("Unknown kind " + kind);
+            }
+            throw new IOException("Value of type " + value.getClass().getSimpleName() + " for field '" + name +
+                                  "' does not match the Arrow type " + kind + " of the column. " +
+                                  "The schema of an Arrow stream cannot be changed, so the export is stopped");
+        }
+
+        void collect(List<Long> nodes, List<Buffer> buffers) {
+            if (list) {
+                nodes.add((long) listValidity.count);
+                nodes.add((long) listValidity.nullCount);
+                listValidity.collect(buffers);
+                buffers.add(new Buffer(listOffsets, (listValidity.count+1)*4));
+            }
+            values.collect(nodes, buffers);
+        }
+
+        void reset() {
+            values.reset();
+            if (list) {
+                listValidity.reset();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + (list ? "list<" + kind + ">" : kind);
+        }
+    }
+
+    /**
+     * Validity bitmap with value count.
+     */
+    private static class Validity {
+        byte[] bits = new byte[128];
+        int count = 0;
+        int nullCount = 0;
+
+        void add(boolean valid) {
+            if (count >> 3 == bits.length) {
+                bits = Arrays.copyOf(bits, bits.length*2);
+            }
+            if (valid) {
+                bits[count >> 3] |= 1 << (count & 7);
+            } else {
+                nullCount++;
+            }
+            count++;
+        }
+
+        void collect(List<Buffer> buffers) {
+            // A validity buffer can be omitted if there are no nulls
+            buffers.add(new Buffer(bits, nullCount == 0 ? 0 : (count+7) >> 3));
+        }
+
+        void reset() {
+            Arrays.fill(bits, 0, (count+7) >> 3, (byte) 0);
+            count = 0;
+            nullCount = 0;
+        }
+    }
+
+    /**
+     * Values for a single scalar column or the elements of a list column.
+     */
+    private static class ScalarVector {
+        final Kind kind;
+        final Validity validity = new Validity();
+        long[] longs;     // INT64 and TIMESTAMP
+        double[] doubles; // FLOAT64
+        Validity bools;   // BOOL, using the bitmap for the values
+        int[] offsets;    // UTF8
+        byte[] data;      // UTF8
+        int dataLength = 0;
+
+        ScalarVector(Kind kind) {
+            this.kind = kind;
+            switch (kind) {
+                case INT64:
+                case TIMESTAMP: longs = new long[1024]; break;
+                case FLOAT64: doubles = new double[1024]; break;
+                case BOOL: bools = new Validity(); break;
+                case UTF8: offsets = new int[1024]; data = new byte[16*1024]; break;
+                default: throw new IllegalStateException("Unknown kind " + kind);
+            }
+        }
+
+        /**
+         * @param value null or a value of the Java type matching {@link #kind}.
+         */
+        void add(Object value) {
+            int index = validity.count;
+            validity.add(value != null);
+            switch (kind) {
+                case INT64:
+                case TIMESTAMP: {
+                    if (index == longs.length) {
+                        longs = Arrays.copyOf(longs, longs.length*2);
+                    }
+                    longs[index] = value == null ? 0 : (Long) value;
+                    break;
+                }
+                case FLOAT64: {
+                    if (index == doubles.length) {
+                        doubles = Arrays.copyOf(doubles, doubles.length*2);
+                    }
+                    doubles[index] = value == null ? 0 : (Double) value;
+                    break;
+                }
+                case BOOL: {
+                    bools.add(Boolean.TRUE.equals(value));
+                    break;
+                }
+                case UTF8: {
+                    if (index+1 == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length*2);
+                    }
+                    if (value != null) {
+                        encodeUTF8((String) value);
+                    }
+                    offsets[index+1] = dataLength;
+                    break;
+                }
+                default: throw new IllegalStateException("Unknown kind " + kind);
+            }
+        }
+
+        private void encodeUTF8(String chars) {
+            final int length = chars.length();
+            if (dataLength + length*3 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length*2, dataLength + length*3));
+            }
+            for (int i = 0 ; i < length ; i++) {
+                char c = chars.charAt(i);
+                if (c < 0x80) {
+                    data[dataLength++] = (byte) c;
+                } else if (c < 0x800) {
+                    data[dataLength++] = (byte) (0xC0 | (c >> 6));
+                    data[dataLength++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(chars.charAt(i+1))) {
+                        // 4 bytes for 2 chars, so within the 3 bytes/char capacity
+                        int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                        data[dataLength++] = (byte) (0xF0 | (codePoint >> 18));
+                        data[dataLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        data[dataLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        data[dataLength++] = (byte) (0x80 | (codePoint & 0x3F));
+                    } else {
+                        data[dataLength++] = '?'; // Same as String.getBytes for malformed input
+                    }
+                } else {
+                    data[dataLength++] = (byte) (0xE0 | (c >> 12));
+                    data[dataLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    data[dataLength++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        void collect(List<Long> nodes, List<Buffer> buffers) {
+            int count = validity.count;
+            nodes.add((long) count);
+            nodes.add((long) validity.nullCount);
+            validity.collect(buffers);
+            switch (kind) {
+                case INT64:
+                case TIMESTAMP: buffers.add(new Buffer(longs, count*8)); break;
+                case FLOAT64: buffers.add(new Buffer(doubles, count*8)); break;
+                case BOOL: buffers.add(new Buffer(bools.bits, (count+7) >> 3)); break;
+                case UTF8: {
+                    buffers.add(new Buffer(offsets, (count+1)*4));
+                    buffers.add(new Buffer(data, dataLength));
+                    break;
+                }
+                default: throw new IllegalStateException("Unknown kind " + kind);
+            }
+        }
+
+        void reset() {
+            validity.reset();
+            if (bools != null) {
+                bools.reset();
+            }
+            dataLength = 0;
+        }
+    }
+
+    /**
+     * A body buffer backed by a primitive array, written little endian.
+     */
+    private static class Buffer {
+        final Object array; // byte[], int[], long[] or double[]
+        final int bytes;
+
+        Buffer(Object array, int bytes) {
+            this.array = array;
+            this.bytes = bytes;
+        }
+
+        void writeTo(ArrowDocumentSerializer serializer) throws IOException {
+            if (array instanceof byte[]) {
+                serializer.out.write((byte[]) array, 0, bytes);
+                return;
+            }
+            ByteBuffer scratch = serializer.scratch;
+            scratch.clear();
+            if (array instanceof int[]) {
+                int[] ints = (int[]) array;
+                for (int i = 0 ; i < bytes/4 ; i++) {
+                    if (scratch.remaining() < 4) {
+                        serializer.flushScratch();
+                    }
+                    scratch.putInt(ints[i]);
+                }
+            } else if (array instanceof long[]) {
+                long[] longs = (long[]) array;
+                for (int i = 0 ; i < bytes/8 ; i++) {
+                    if (scratch.remaining() < 8) {
+                        serializer.flushScratch();
+                    }
+                    scratch.putLong(longs[i]);
+                }
+            } else {
+                double[] doubles = (double[]) array;
+                for (int i = 0 ; i < bytes/8 ; i++) {
+                    if (scratch.remaining() < 8) {
+                        serializer.flushScratch();
+                    }
+                    scratch.putDouble(doubles[i]);
+                }
+            }
+            serializer.flushScratch();
+        }
+    }
+
+    private void flushScratch() throws IOException {
+        out.write(scratch.array(), 0, scratch.position());
+        scratch.clear();
+    }
+}
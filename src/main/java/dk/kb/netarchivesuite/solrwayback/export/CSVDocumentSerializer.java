@@ -0,0 +1,206 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import org.apache.solr.common.SolrDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Writes {@link SolrDocument}s as Comma Separated Values directly to an {@link OutputStream}.
+ * The output is identical to {@link GenerateCSV#toCVSLine(SolrDocument)}: The first line is a header with the field
+ * names, Strings and Dates are quoted and multiple values are separated by tabs.
+ * <p>
+ * Characters are UTF-8 encoded and escaped straight into a reused byte buffer, so no intermediate Strings are
+ * created for each document.
+ */
+public class CSVDocumentSerializer implements DocumentSerializer {
+    private static final int BUFFER_SIZE = 64*1024;
+    private static final byte FIELD_SEPARATOR = ',';
+    private static final byte MULTIVALUE_SEPARATOR = '\t';
+    private static final byte NEWLINE = '\n';
+    private static final byte QUOTE = '"';
+    private static final DateTimeFormatter ISO_SECONDS =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+
+    private final String[] fields;
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private final byte[] digits = new byte[20];
+    private final StringBuilder dateBuilder = new StringBuilder(20);
+    private boolean first = true;
+
+    /**
+     * @param fields the fields to write, in order.
+     * @param out    the destination for the CSV.
+     */
+    public CSVDocumentSerializer(String[] fields, OutputStream out) {
+        this.fields = new String[fields.length];
+        for (int i = 0 ; i < fields.length ; i++) {
+            this.fields[i] = fields[i].trim();
+        }
+        this.out = out;
+    }
+
+    @Override
+    public void write(SolrDocument doc) throws IOException {
+        if (first) {
+            writeHeader();
+            first = false;
+        }
+        for (int i = 0 ; i < fields.length ; i++) {
+            if (i != 0) {
+                writeByte(FIELD_SEPARATOR);
+            }
+            writeField(doc.getFieldValue(fields[i]));
+        }
+        writeByte(NEWLINE);
+    }
+
+    @Override
+    public DocumentSerializer continuation() {
+        first = false;
+        return this;
+    }
+
+    private void writeHeader() throws IOException {
+        for (int i = 0 ; i < fields.length ; i++) {
+            if (i != 0) {
+                writeByte(FIELD_SEPARATOR);
+            }
+            writeChars(fields[i], false);
+        }
+        writeByte(NEWLINE);
+    }
+
+    private void writeField(Object value) throws IOException {
+        if (value == null) {
+            writeByte(QUOTE);
+            writeByte(QUOTE);
+        } else if (value instanceof Collection) { // Multi valued
+            writeByte(QUOTE);
+            boolean firstValue = true;
+            for (Object subValue: (Collection<?>) value) {
+                if (!firstValue) {
+                    writeByte(MULTIVALUE_SEPARATOR);
+                }
+                firstValue = false;
+                writeChars(subValue instanceof Date ? formatDate((Date) subValue) : String.valueOf(subValue), true);
+            }
+            writeByte(QUOTE);
+        } else if (value instanceof String) {
+            writeByte(QUOTE);
+            writeChars((String) value, true);
+            writeByte(QUOTE);
+        } else if (value instanceof Date) {
+            // Dates formatted to ISO-8601 with second granularity
+            writeByte(QUOTE);
+            writeChars(formatDate((Date) value), true);
+            writeByte(QUOTE);
+        } else if (value instanceof Long || value instanceof Integer) {
+            // Numbers and boolean are written directly (no quotes)
+            writeLong(((Number) value).longValue());
+        } else {
+            writeChars(value.toString(), false);
+        }
+    }
+
+    private CharSequence formatDate(Date date) {
+        dateBuilder.setLength(0);
+        ISO_SECONDS.formatTo(date.toInstant(), dateBuilder);
+        return dateBuilder;
+    }
+
+    /**
+     * UTF-8 encode the characters to the buffer, optionally escaping quotes by doubling them.
+     */
+    private void writeChars(CharSequence chars, boolean escapeQuotes) throws IOException {
+        final int length = chars.length();
+        for (int i = 0 ; i < length ; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                if (c == QUOTE && escapeQuotes) {
+                    writeByte(QUOTE);
+                }
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(chars.charAt(i+1))) {
+                    int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                    writeByte(0xF0 | (codePoint >> 18));
+                    writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                    writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                    writeByte(0x80 | (codePoint & 0x3F));
+                } else {
+                    writeByte('?'); // Same as String.getBytes for malformed input
+                }
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) { // Cannot be negated
+            writeChars(Long.toString(value), false);
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int digitPos = digits.length;
+        do {
+            digits[--digitPos] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (digitPos < digits.length) {
+            writeByte(digits[digitPos++]);
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (pos == buffer.length) {
+            flushBuffer();
+        }
+        buffer[pos++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, pos);
+        pos = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        flush();
+    }
+}
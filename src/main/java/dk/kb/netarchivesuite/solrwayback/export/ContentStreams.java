@@ -20,7 +20,6 @@ import dk.kb.netarchivesuite.solrwayback.solr.SRequest;
 import dk.kb.netarchivesuite.solrwayback.solr.UniqueFilter;
 import dk.kb.netarchivesuite.solrwayback.util.CollectionUtils;
 import dk.kb.netarchivesuite.solrwayback.util.DateUtils;
-import dk.kb.netarchivesuite.solrwayback.util.JsonUtils;
 import dk.kb.netarchivesuite.solrwayback.util.Processing;
 import dk.kb.netarchivesuite.solrwayback.util.SolrUtils;
 import dk.kb.netarchivesuite.solrwayback.util.StreamBridge;
@@ -31,12 +30,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -54,7 +54,10 @@ public class ContentStreams {
         /** Standard JSON, with the documents in a JSON array. */
         json,
         /** <a href="https://jsonlines.org/">JSON-Lines</a> with a single JSON block per line. */
-        jsonl}
+        jsonl,
+        /** Columnar <a href="https://arrow.apache.org/docs/format/Columnar.html#ipc-streaming-format">Apache Arrow
+         * IPC stream</a>. See {@link ArrowDocumentSerializer}. */
+        arrows}
 
     /**
      * Searches images and webpages matching the given searchText. For webpages, linked images are resolved and
@@ -63,7 +66,7 @@ public class ContentStreams {
      * <p>
      * If attemptUnique is true, this search attempts to deliver unique images using the Solr field {@code hash},
      * but does not guarantee it fully as {@link dk.kb.netarchivesuite.solrwayback.solr.UniqueFilter} is used with
-     * hashing to {@code int}. Requesting uniqueness limits the export size to 20 million.
+     * hashing to {@code long}. The chance of a collision is about 1 in 3,700 for 100 million unique images.
      * <p>
      * If the caller needs {@link ArcEntryDescriptor}, use the helpers method in SolrUtils as
      * {@code findImages(50, "kittens").map(SolrUtils::solrDocument2ArcEntryDescriptor)}.
@@ -83,17 +86,17 @@ public class ContentStreams {
                   attemptUnique, goFast, maxImagesPerPage, query, Arrays.asList(filterQueries));
         // Pruners are shared between direct and webpage, but not for final pruning as that would give 0 results
         final Predicate<SolrDocument> sharedHashPruner = attemptUnique ?
-                new UniqueFilter(true, 20_000_000, "hash") :
+                new UniqueFilter(UniqueFilter.MODE.hash64, 20_000_000, "hash") :
                 doc -> true;
         final Predicate<SolrDocument> finalHashPruner = attemptUnique ?
-                new UniqueFilter(true, 20_000_000, "hash") :
+                new UniqueFilter(UniqueFilter.MODE.hash64, 20_000_000, "hash") :
                 doc -> true;
         final Predicate<SolrDocument> sharedUrlPruner;
         final Predicate<SolrDocument> finalUrlPruner;
         final Predicate<String> sharedLinkPruner;
         if (goFast) {
-            finalUrlPruner = new UniqueFilter(true, 20_000_000, "url_norm");
-            UniqueFilter uf = new UniqueFilter(true, 20_000_000, "url_norm");
+            finalUrlPruner = new UniqueFilter(UniqueFilter.MODE.hash64, 20_000_000, "url_norm");
+            UniqueFilter uf = new UniqueFilter(UniqueFilter.MODE.hash64, 20_000_000, "url_norm");
             sharedUrlPruner = uf;
             sharedLinkPruner = uf::test;
         } else {
@@ -164,7 +167,25 @@ public class ContentStreams {
      */
     public static Callable<Stream<SolrDocument>> createHTMLImageCallback(SolrDocument htmlPage, int maxImages) {
         String isotime = DateUtils.getSolrDate((Date) htmlPage.get("crawl_date"));
-        Stream<String> urlQueries = ((List<String>)htmlPage.get("links_images")).stream().
+        return createHTMLImageCallback(isotime, (List<String>)htmlPage.get("links_images"), maxImages);
+    }
+
+    /**
+     * Creates a callable delivering up to maxImages {@link SolrDocument}s for the given imageLinks, preferring the
+     * versions harvested nearest to isotime. The documents will contain the fields from
+     * {@link SolrUtils#arcEntryDescriptorFieldList}.
+     * <p>
+     * Note: Small images (less than 2000 pixels) are ignored, as are revisits.
+     * @param isotime    the harvest time for the HTML page linking to the images, Solr style:
+     *                   {@code 2011-10-14T14:44:00Z}.
+     * @param imageLinks the image links from the HTML page, typically from the Solr field {@code links_images}.
+     * @param maxImages  the maximum number of images to return.
+     * @return a callable that will result in at most maxImages images from the given imageLinks.
+     * @see #createHTMLImageCallback(SolrDocument, int)
+     */
+    public static Callable<Stream<SolrDocument>> createHTMLImageCallback(
+            String isotime, List<String> imageLinks, int maxImages) {
+        Stream<String> urlQueries = imageLinks.stream().
                 distinct().
                 map(SolrUtils::createQueryStringForUrl);
 
@@ -243,67 +264,56 @@ public class ContentStreams {
                 }
             }
 
-            switch (realFormat) {
-                case csv: {
-                    writeCSV(docs, fields, finalOut);
-                    break;
-                }
-                case json: {
-                    writeJSON(docs, finalOut);
-                    break;
-                }
-                case jsonl: {
-                    writeJSONLines(docs, finalOut);
-                    break;
-                }
-                default:
-                    throw new UnsupportedOperationException("The format '" + format + "' is not supported");
-            }
+            writeDocuments(docs, fields, realFormat, finalOut);
             finalOut.flush();
             finalOut.close();
         });
     }
 
     /**
-     * Write the given SolrDocuments as <a href="https://jsonlines.org/">JSON-Lines</a>: One JSON block for each
-     * document, with one block per line.
-     * @param docs a Stream of Solr documents.
-     * @param out where to write the output.
-     */
-    private static void writeJSONLines(Stream<SolrDocument> docs, StreamBridge.SafeOutputStream out) {
-        docs.map(JsonUtils::toJSON).
-                forEach(out::writeln);
-    }
-
-    /**
-     * Write the given SolrDocuments as a single JSON array containing one JSON block for each document.
-     * @param docs a Stream of Solr documents.
-     * @param out where to write the output.
+     * Write the {@code fields} from the given {@code docs} in the given {@code format} directly to {@code out},
+     * using the calling Thread.
+     * @param docs   Solr documents with the stated {@code fields}.
+     * @param fields the fields to write. Some {@code format}s ignore these and write all fields in the {@code docs}.
+     * @param format the format to write the data. See {@link FORMAT}.
+     * @param gzip   if true, the output is GZIPped.
+     * @param out    where to write the output. This is flushed but not closed.
+     * @throws IOException if the content could not be written.
      */
-    private static void writeJSON(Stream<SolrDocument> docs, StreamBridge.SafeOutputStream out) {
-        AtomicBoolean hasWritten = new AtomicBoolean(false);
-        out.writeln("[");
-        docs.map(JsonUtils::toJSON).
-                peek(json -> {
-                    if (!hasWritten.get()) {
-                        hasWritten.set(true);
-                    } else {
-                        out.writeln(",");
-                    }
-                }).
-                forEach(out::write);
-        out.writeln("\n]");
+    public static void deliver(Stream<SolrDocument> docs, String fields, String format, boolean gzip, OutputStream out)
+            throws IOException {
+        FORMAT realFormat = FORMAT.valueOf(format.toLowerCase(Locale.ROOT));
+        GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, 64*1024) : null;
+        DocumentSerializer serializer = DocumentSerializer.create(realFormat, fields, gzip ? gzipOut : out);
+        Iterator<SolrDocument> iterator = docs.iterator();
+        while (iterator.hasNext()) {
+            serializer.write(iterator.next());
+        }
+        serializer.finish();
+        if (gzipOut != null) {
+            gzipOut.finish();
+        }
+        out.flush();
     }
 
     /**
-     * Write the given SolrDocuments as Comma Separated Values.
-     * First line acts as header and lists the field names.
-     * @param docs a Stream of Solr documents.
-     * @param out where to write the output.
+     * Write the given SolrDocuments in the given format, using a {@link DocumentSerializer}.
+     * @param docs   a Stream of Solr documents.
+     * @param fields the fields to write. Only used for {@link FORMAT#csv} and {@link FORMAT#arrows}.
+     * @param format the output format.
+     * @param out    where to write the output.
      */
-    private static void writeCSV(Stream<SolrDocument> docs, String fields, StreamBridge.SafeOutputStream out) {
-        GenerateCSV csvMapper = new GenerateCSV(fields.split(", *"));
-        docs.map(csvMapper::toCVSLine).
-                forEach(out::write);
+    private static void writeDocuments(
+            Stream<SolrDocument> docs, String fields, FORMAT format, StreamBridge.SafeOutputStream out) {
+        try {
+            DocumentSerializer serializer = DocumentSerializer.create(format, fields, out);
+            Iterator<SolrDocument> iterator = docs.iterator();
+            while (iterator.hasNext()) {
+                serializer.write(iterator.next());
+            }
+            serializer.finish();
+        } catch (IOException e) {
+            throw new RuntimeException("IOException while writing documents as " + format, e);
+        }
     }
 }
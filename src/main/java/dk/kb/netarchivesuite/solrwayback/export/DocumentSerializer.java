@@ -0,0 +1,81 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.solr.SolrSchema;
+import org.apache.solr.common.SolrDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes {@link SolrDocument}s in a given format directly to an {@link OutputStream}.
+ * <p>
+ * Implementations are stateful and intended for writing a full export: Any header is written before the first
+ * document and any footer is written by {@link #finish()}. Implementations are not thread safe.
+ */
+public interface DocumentSerializer {
+
+    /**
+     * Write the document to the underlying stream. Output might be buffered until {@link #finish()} is called.
+     * @param doc a Solr document.
+     * @throws IOException if the document could not be written.
+     */
+    void write(SolrDocument doc) throws IOException;
+
+    /**
+     * Flush all buffered output to the underlying stream, without writing any footer. Serializers that need a full
+     * batch of documents for output, might write a smaller batch when flushed.
+     * @throws IOException if the output could not be written.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Write any footer and flush all buffered output to the underlying stream. The underlying stream is not closed.
+     * @throws IOException if the output could not be written.
+     */
+    void finish() throws IOException;
+
+    /**
+     * Mark the serializer as continuing an export where documents have already been written by another serializer
+     * for the same format and fields: No header is written and the next document is written as a continuation.
+     * Must be called before any documents are written.
+     * @return the serializer itself, for chaining.
+     * @throws UnsupportedOperationException if the format cannot be continued.
+     */
+    default DocumentSerializer continuation() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support continuation");
+    }
+
+    /**
+     * Create a serializer for the given format.
+     * @param format the output format.
+     * @param fields the fields to write. Only used by {@link ContentStreams.FORMAT#csv} and
+     *               {@link ContentStreams.FORMAT#arrows}, the other formats write all fields in the documents.
+     * @param out    the destination for the serialized documents.
+     * @return a serializer for the format.
+     * @throws IOException if the serializer could not be created.
+     */
+    static DocumentSerializer create(ContentStreams.FORMAT format, String fields, OutputStream out)
+            throws IOException {
+        switch (format) {
+            case csv: return new CSVDocumentSerializer(fields.split(", *"), out);
+            case json: return new JSONDocumentSerializer(false, out);
+            case jsonl: return new JSONDocumentSerializer(true, out);
+            case arrows: return new ArrowDocumentSerializer(fields.split(", *"), SolrSchema.getDefault(), out);
+            default: throw new UnsupportedOperationException("The format '" + format + "' is not supported");
+        }
+    }
+}
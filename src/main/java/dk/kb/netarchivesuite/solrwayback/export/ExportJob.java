@@ -0,0 +1,432 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoaderWeb;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ExportJobStatus;
+import dk.kb.netarchivesuite.solrwayback.service.exception.InvalidArgumentServiceException;
+import dk.kb.netarchivesuite.solrwayback.service.exception.NotFoundServiceException;
+import dk.kb.netarchivesuite.solrwayback.solr.SRequest;
+import dk.kb.netarchivesuite.solrwayback.util.InteractiveTraffic;
+import dk.kb.netarchivesuite.solrwayback.util.ThroughputTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Export that runs in the background and writes its result to a spool file on the server, from where it can be
+ * downloaded when finished. This decouples large exports from the HTTP request that started them.
+ * <p>
+ * Jobs are executed by a dedicated executor with at most {@link PropertiesLoaderWeb#EXPORT_JOBS_THREADS} threads,
+ * which bounds the load from exports. At most {@link PropertiesLoaderWeb#EXPORT_JOBS_MAX} jobs can be queued or
+ * running at a time.
+ * <p>
+ * Running jobs yield to interactive requests (see {@link InteractiveTraffic}): While interactive requests are being
+ * processed, a job pauses for up to {@link PropertiesLoaderWeb#EXPORT_JOBS_YIELD_MS} before each write of buffered
+ * output. As the producer of the export is paused, so are its Solr requests and WARC reads.
+ * <p>
+ * Ended jobs and their files are removed {@link PropertiesLoaderWeb#EXPORT_JOBS_RETENTION_MINUTES} after they ended.
+ * Jobs are not persisted: Spool files from earlier runs of SolrWayback are removed when the first job is submitted.
+ * Only files with the {@link #FILE_PREFIX} that have not been modified for the retention time are removed, so the
+ * spool folder can be shared with other files and other SolrWayback instances.
+ */
+public class ExportJob implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(ExportJob.class);
+
+    public enum STATE { queued, running, finished, failed, cancelled }
+
+    static final String FILE_PREFIX = "solrwayback_exportjob_";
+    private static final String PART_SUFFIX = ".part";
+    private static final Map<String, ExportJob> jobs = new LinkedHashMap<>();
+    private static ExecutorService executor = null;
+    private static Path spoolFolder = null;
+
+    private final String id;
+    private final String designation;
+    private final String query;
+    private final Producer producer;
+    private final Path spoolFile;
+    private final ThroughputTracker documents;
+
+    private volatile STATE state = STATE.queued;
+    private volatile long bytes = 0;
+    private volatile String error = null;
+    private final long submitted = System.currentTimeMillis();
+    private volatile long started = 0;
+    private volatile long ended = 0;
+    private volatile long yieldedMS = 0;
+    private Future<?> future;
+
+    /**
+     * Produces the content for an export job.
+     */
+    @FunctionalInterface
+    public interface Producer {
+        /**
+         * Write the full export to {@code out}.
+         * @param out             destination for the export. Should not be closed by the producer.
+         * @param documentTracker if possible, the producer should call {@code documentTracker.test(doc)} for each
+         *                        exported document. Used for progress reporting.
+         * @throws Exception if the export failed.
+         */
+        void write(OutputStream out, Predicate<Object> documentTracker) throws Exception;
+    }
+
+    /**
+     * Queue an export job.
+     * @param designation the type of export, usable as file extension, e.g. {@code warc.gz} or {@code csv}.
+     * @param query       the query for the export. Only used for status and logging.
+     * @param producer    delivers the content for the export. Called from the job executor.
+     * @return the queued job.
+     * @throws InvalidArgumentServiceException if too many jobs are already queued or running.
+     * @throws IOException if the spool folder could not be created.
+     */
+    public static ExportJob submit(String designation, String query, Producer producer)
+            throws InvalidArgumentServiceException, IOException {
+        synchronized (jobs) {
+            purgeExpired();
+            long active = jobs.values().stream().filter(job -> !job.hasEnded()).count();
+            if (active >= PropertiesLoaderWeb.EXPORT_JOBS_MAX) {
+                throw new InvalidArgumentServiceException(
+                        "There are already " + active + " export jobs queued or running. Please try again later");
+            }
+            ExportJob job = new ExportJob(designation, query, producer, getSpoolFolder());
+            jobs.put(job.id, job);
+            job.future = getExecutor().submit(job);
+            log.info("Submitted {}", job);
+            return job;
+        }
+    }
+
+    /**
+     * @param id the ID of a job from {@link #getId()}.
+     * @return the job with the given ID.
+     * @throws NotFoundServiceException if the job is unknown or has expired.
+     */
+    public static ExportJob get(String id) throws NotFoundServiceException {
+        synchronized (jobs) {
+            purgeExpired();
+            ExportJob job = id == null ? null : jobs.get(id);
+            if (job == null) {
+                throw new NotFoundServiceException("Unknown or expired export job '" + id + "'");
+            }
+            return job;
+        }
+    }
+
+    /**
+     * @return all known jobs in order of submission.
+     */
+    public static List<ExportJob> list() {
+        synchronized (jobs) {
+            purgeExpired();
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    /**
+     * Remove the given job. If it is queued or running, it is cancelled.
+     * @param id the ID of a job from {@link #getId()}.
+     * @return the removed job.
+     * @throws NotFoundServiceException if the job is unknown or has expired.
+     */
+    public static ExportJob remove(String id) throws NotFoundServiceException {
+        ExportJob job;
+        synchronized (jobs) {
+            job = get(id);
+            jobs.remove(id);
+        }
+        job.cancel();
+        log.info("Removed {}", job);
+        return job;
+    }
+
+    private ExportJob(String designation, String query, Producer producer, Path spoolFolder) {
+        this.id = UUID.randomUUID().toString();
+        this.designation = designation;
+        this.query = query;
+        this.producer = producer;
+        this.spoolFile = spoolFolder.resolve(FILE_PREFIX + id + "." + designation);
+        this.documents = new ThroughputTracker("ExportJob(" + id + "):", "docs").logger(log);
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (state != STATE.queued) {
+                return; // Cancelled before start
+            }
+            state = STATE.running;
+        }
+        started = System.currentTimeMillis();
+        log.info("Starting {}", this);
+        Path partFile = spoolFile.resolveSibling(spoolFile.getFileName() + PART_SUFFIX);
+        try {
+            try (ProgressOutputStream out = new ProgressOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(partFile), 64*1024))) {
+                producer.write(out, documents);
+            }
+            synchronized (this) { // Guard against cancel between the check and the move
+                if (state == STATE.cancelled) {
+                    throw new InterruptedIOException("Cancelled");
+                }
+                Files.move(partFile, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+                state = STATE.finished;
+            }
+            documents.performLog();
+            log.info("Finished {} in {} seconds", this, (System.currentTimeMillis() - started) / 1000);
+        } catch (Exception e) {
+            boolean failed;
+            synchronized (this) { // Guard against cancel between the check and the state change
+                failed = state != STATE.cancelled;
+                if (failed) {
+                    state = STATE.failed;
+                    error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+                }
+            }
+            if (failed) {
+                log.warn("Failed " + this, e);
+            }
+            deleteQuietly(partFile);
+        } finally {
+            synchronized (this) {
+                if (ended == 0) { // Set by cancel()
+                    ended = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the job if it is queued or running and remove its spool file.
+     */
+    private void cancel() {
+        synchronized (this) {
+            if (!hasEnded()) {
+                state = STATE.cancelled;
+                if (future != null) {
+                    future.cancel(true);
+                }
+                if (ended == 0) {
+                    ended = System.currentTimeMillis();
+                }
+            }
+            deleteQuietly(spoolFile);
+        }
+    }
+
+    /**
+     * @return the result of the job.
+     * @throws InvalidArgumentServiceException if the job has not finished successfully.
+     */
+    public Path getFile() throws InvalidArgumentServiceException {
+        if (state != STATE.finished) {
+            throw new InvalidArgumentServiceException("The export job " + id + " is " + state + ", not finished");
+        }
+        return spoolFile;
+    }
+
+    public ExportJobStatus getStatus() {
+        ExportJobStatus status = new ExportJobStatus();
+        status.setId(id);
+        status.setType(designation);
+        status.setQuery(query);
+        status.setState(state.toString());
+        status.setDocuments(documents.getCount());
+        status.setBytes(bytes);
+        status.setDocumentsPerSecond(getDocumentsPerSecond());
+        status.setSubmitted(submitted);
+        status.setStarted(started);
+        status.setFinished(ended);
+        status.setError(error);
+        return status;
+    }
+
+    /**
+     * @return the number of documents per second, measured from the start of the job, not from submission.
+     */
+    private double getDocumentsPerSecond() {
+        long startTime = started;
+        if (startTime == 0) {
+            return 0;
+        }
+        long endTime = ended == 0 ? System.currentTimeMillis() : ended;
+        return endTime <= startTime ? 0 : documents.getCount() * 1000.0 / (endTime - startTime);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the type of export, usable as file extension, e.g. {@code warc.gz} or {@code csv}.
+     */
+    public String getDesignation() {
+        return designation;
+    }
+
+    public STATE getState() {
+        return state;
+    }
+
+    private boolean hasEnded() {
+        return state == STATE.finished || state == STATE.failed || state == STATE.cancelled;
+    }
+
+    /**
+     * Remove jobs that ended more than {@link PropertiesLoaderWeb#EXPORT_JOBS_RETENTION_MINUTES} ago.
+     * Must be called while synchronized on {@link #jobs}.
+     */
+    private static void purgeExpired() {
+        long cutoff = System.currentTimeMillis() - PropertiesLoaderWeb.EXPORT_JOBS_RETENTION_MINUTES * 60 * 1000L;
+        Iterator<ExportJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            ExportJob job = it.next();
+            if (job.hasEnded() && job.ended < cutoff) {
+                log.debug("Removing expired {}", job);
+                deleteQuietly(job.spoolFile);
+                it.remove();
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(1, PropertiesLoaderWeb.EXPORT_JOBS_THREADS);
+            AtomicInteger counter = new AtomicInteger(0);
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread t = new Thread(runnable, "exportjob_" + counter.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+        return executor;
+    }
+
+    private static synchronized Path getSpoolFolder() throws IOException {
+        if (spoolFolder == null) {
+            Path folder = Paths.get(PropertiesLoaderWeb.EXPORT_JOBS_DIR);
+            Files.createDirectories(folder);
+            removeOrphans(folder, PropertiesLoaderWeb.EXPORT_JOBS_RETENTION_MINUTES * 60 * 1000L);
+            spoolFolder = folder;
+        }
+        return spoolFolder;
+    }
+
+    /**
+     * Jobs are not persisted, so spool files from previous runs are orphans. Files from running jobs or from jobs
+     * that are still retained, possibly by another SolrWayback using the same folder, are modified within the
+     * retention time and are left alone.
+     * @param folder   the spool folder.
+     * @param maxAgeMS files with {@link #FILE_PREFIX} not modified for this long are removed.
+     */
+    static void removeOrphans(Path folder, long maxAgeMS) throws IOException {
+        long cutoff = System.currentTimeMillis() - maxAgeMS;
+        try (DirectoryStream<Path> candidates = Files.newDirectoryStream(folder, FILE_PREFIX + "*")) {
+            for (Path candidate: candidates) {
+                if (Files.isRegularFile(candidate) && Files.getLastModifiedTime(candidate).toMillis() < cutoff) {
+                    log.info("Removing orphan export job file '{}'", candidate);
+                    deleteQuietly(candidate);
+                }
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Unable to delete export job file '" + file + "'", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ExportJob(id='" + id + "', type=" + designation + ", query='" + SRequest.limit(query, 50) +
+               "', state=" + state + ", docs=" + documents.getCount() + ", bytes=" + bytes +
+               ", yielded=" + yieldedMS/1000 + "s)";
+    }
+
+    /**
+     * Tracks the number of written bytes, yields to interactive requests and stops the export if the job is cancelled.
+     */
+    private class ProgressOutputStream extends FilterOutputStream {
+        ProgressOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            yieldToInteractive();
+            checkCancelled();
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            yieldToInteractive();
+            checkCancelled();
+            out.write(b, off, len);
+            bytes += len;
+        }
+
+        /**
+         * Pause while interactive requests are being processed, for up to
+         * {@link PropertiesLoaderWeb#EXPORT_JOBS_YIELD_MS}.
+         */
+        private void yieldToInteractive() throws InterruptedIOException {
+            if (PropertiesLoaderWeb.EXPORT_JOBS_YIELD_MS <= 0) {
+                return;
+            }
+            try {
+                yieldedMS += InteractiveTraffic.awaitIdle(PropertiesLoaderWeb.EXPORT_JOBS_YIELD_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export job " + id + " was interrupted while yielding");
+            }
+        }
+
+        private void checkCancelled() throws InterruptedIOException {
+            if (state == STATE.cancelled) {
+                throw new InterruptedIOException("Export job " + id + " was cancelled");
+            }
+        }
+    }
+}
@@ -0,0 +1,549 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoaderWeb;
+import dk.kb.netarchivesuite.solrwayback.service.exception.ConflictServiceException;
+import dk.kb.netarchivesuite.solrwayback.service.exception.InvalidArgumentServiceException;
+import dk.kb.netarchivesuite.solrwayback.solr.CheckpointedStream;
+import dk.kb.netarchivesuite.solrwayback.solr.IndexWatcher;
+import dk.kb.netarchivesuite.solrwayback.solr.SRequest;
+import dk.kb.netarchivesuite.solrwayback.solr.SolrStreamDecorators;
+import dk.kb.netarchivesuite.solrwayback.solr.TimeCache;
+import org.apache.commons.io.IOUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FieldStatsInfo;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.GroupParams;
+import org.apache.solr.common.params.HighlightParams;
+import org.apache.solr.common.params.StatsParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Resumable export: The export is identified by a token and {@link CheckpointedStream.Checkpoint}s are recorded at
+ * regular intervals while writing. If the connection is dropped, the export can be continued from any byte offset
+ * by {@link #write(OutputStream, long)}, which restarts from the nearest checkpoint at or before the offset.
+ * This works like a HTTP Range request for {@code bytes=offset-}.
+ * <p>
+ * Continuation relies on the output being reproducible from a checkpoint: The Solr index must not change during
+ * the export and all WARC records must be consistently available. Changes to the index are detected by comparing
+ * the number of matching documents and their latest {@link IndexWatcher#TIME_FIELD} with the values from the first
+ * write: If they differ, the continuation is rejected instead of delivering a spliced, corrupt export.
+ * Checkpoints are always made at record boundaries.
+ * GZIP compressed fields exports are written as multiple concatenated GZIP members, with a new member after each
+ * checkpoint. Standard tools such as {@code gunzip} and {@link java.util.zip.GZIPInputStream} handle this
+ * transparently. WARC exports are already GZIP compressed per record.
+ * <p>
+ * Sessions are kept in memory for {@link PropertiesLoaderWeb#EXPORT_RESUME_TIMEOUT_MINUTES} after last use.
+ * Only the start and the latest {@link #MAX_CHECKPOINTS} checkpoints are kept for each session. Checkpoints for
+ * exports with uniqueness tracking hold all encountered values, so only the latest {@link #MAX_UNIQUE_CHECKPOINTS}
+ * of those are kept.
+ * <p>
+ * A new write for a session supersedes any write in progress, which is stopped at its next output. This handles
+ * the case where the client has dropped the connection, but the server has not yet noticed.
+ */
+public class ExportSession {
+    private static final Logger log = LoggerFactory.getLogger(ExportSession.class);
+
+    public static final int MAX_SESSIONS = 100;
+    public static final int MAX_CHECKPOINTS = 4;
+    public static final int MAX_UNIQUE_CHECKPOINTS = 2;
+    public static final long CHECKPOINT_INTERVAL_BYTES = 64*1024*1024;
+
+    private static TimeCache<ExportSession> sessions = null;
+
+    private final String token;
+    private final String designation;
+    private final SRequest request;
+    private final OutputFactory outputFactory;
+    private final Deque<CheckpointedStream.Checkpoint> checkpoints = new ArrayDeque<>();
+    private volatile long writeGeneration = 0; // Changed under the lock on this, read without
+    private String indexFingerprint = null; // Guarded by this. Set by the first write
+
+    /**
+     * Create a resumable WARC export.
+     * @param request the request for the documents to export. Must include the fields {@code source_file_path} and
+     *                {@code source_file_offset}.
+     * @param gzip    if true, each WARC record is GZIP compressed.
+     * @return a session for the export. No data is written before {@link #write(OutputStream, long)} is called.
+     */
+    public static ExportSession createWarcExport(SRequest request, boolean gzip) {
+        return register(new ExportSession("warc" + (gzip ? ".gz" : ""), request, (out, continuation) ->
+                new ChunkWriter() {
+                    @Override
+                    public void write(List<SolrDocument> docs) throws IOException {
+                        try (InputStream warc =
+                                     new StreamingSolrWarcExportBufferedInputStream(docs.iterator(), Long.MAX_VALUE, gzip)) {
+                            IOUtils.copy(warc, out);
+                        }
+                    }
+
+                    @Override
+                    public void checkpoint() throws IOException {
+                        out.flush();
+                    }
+
+                    @Override
+                    public void finish() throws IOException {
+                        out.flush();
+                    }
+                }));
+    }
+
+    /**
+     * Create a resumable fields export.
+     * @param request the request for the documents to export.
+     * @param fields  the fields to export.
+     * @param flatten if true, {@link SolrStreamDecorators#flatten(SolrDocument)} is applied to all documents.
+     * @param format  any {@link ContentStreams.FORMAT} except {@link ContentStreams.FORMAT#arrows}.
+     * @param gzip    if true, the output is GZIP compressed.
+     * @return a session for the export. No data is written before {@link #write(OutputStream, long)} is called.
+     * @throws InvalidArgumentServiceException if the format is unknown or does not support resuming.
+     */
+    public static ExportSession createFieldsExport(
+            SRequest request, String fields, boolean flatten, String format, boolean gzip)
+            throws InvalidArgumentServiceException {
+        ContentStreams.FORMAT realFormat;
+        try {
+            realFormat = ContentStreams.FORMAT.valueOf(format.toLowerCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidArgumentServiceException("Unknown export format '" + format + "'");
+        }
+        if (realFormat == ContentStreams.FORMAT.arrows) {
+            throw new InvalidArgumentServiceException(
+                    "The format '" + format + "' does not support resumable export as an Arrow stream " +
+                    "cannot be continued from a checkpoint");
+        }
+        return register(new ExportSession(realFormat + (gzip ? ".gz" : ""), request, (out, continuation) ->
+                new FieldsWriter(out, fields, flatten, realFormat, gzip, continuation)));
+    }
+
+    /**
+     * Resolve an existing export session.
+     * @param token the token from {@link #getToken()}.
+     * @return the session for the token.
+     * @throws InvalidArgumentServiceException if the token is unknown or has expired.
+     */
+    public static ExportSession resume(String token) throws InvalidArgumentServiceException {
+        ExportSession session = token == null ? null : getSessions().get(token);
+        if (session == null) {
+            throw new InvalidArgumentServiceException(
+                    "Unknown or expired export token '" + token + "'. Please restart the export");
+        }
+        getSessions().put(token, session); // Refresh the timeout
+        return session;
+    }
+
+    private static ExportSession register(ExportSession session) {
+        getSessions().put(session.token, session);
+        log.info("Created resumable export {}", session);
+        return session;
+    }
+
+    private static synchronized TimeCache<ExportSession> getSessions() {
+        if (sessions == null) {
+            sessions = new TimeCache<>(MAX_SESSIONS, PropertiesLoaderWeb.EXPORT_RESUME_TIMEOUT_MINUTES * 60 * 1000L);
+        }
+        return sessions;
+    }
+
+    private ExportSession(String designation, SRequest request, OutputFactory outputFactory) {
+        this.token = UUID.randomUUID().toString();
+        this.designation = designation;
+        this.request = request;
+        this.outputFactory = outputFactory;
+    }
+
+    /**
+     * Write the export, starting at the given byte offset. All output before the offset is skipped.
+     * If the output is interrupted, this method can be called again with the number of bytes received.
+     * <p>
+     * Only one write can be active at a time for a session: Calling this method supersedes any active write,
+     * which fails with an IOException at its next output.
+     * @param out    the destination for the export.
+     * @param offset the number of bytes already delivered: 0 for a new export.
+     * @throws IOException if the export could not be written or if the write was superseded.
+     * @throws InvalidArgumentServiceException if the offset is beyond the end of the export.
+     * @throws ConflictServiceException if the offset is not 0 and the index has changed since the first write.
+     */
+    public void write(OutputStream out, long offset)
+            throws IOException, InvalidArgumentServiceException, ConflictServiceException {
+        checkIndexUnchanged(offset);
+        CheckpointedStream.Checkpoint start = getCheckpoint(offset);
+        final long generation;
+        synchronized (this) {
+            generation = ++writeGeneration;
+        }
+        log.info("Writing {} from offset {} using {}", this, offset, start);
+        long startTime = System.currentTimeMillis();
+
+        PositionOutputStream position = new PositionOutputStream(out, start.getBytes(), offset) {
+            @Override
+            protected void ensureActive() throws IOException {
+                if (isSuperseded(generation)) {
+                    throw new IOException("The write of " + ExportSession.this + " from offset " + offset +
+                                          " has been superseded by a newer write");
+                }
+            }
+        };
+        CheckpointedStream docs = new CheckpointedStream(request, start);
+        ChunkWriter writer = outputFactory.create(position, start.getBytes() > 0);
+        long lastCheckpoint = start.getBytes();
+        try {
+            List<SolrDocument> chunk;
+            while ((chunk = docs.nextChunk()) != null) {
+                writer.write(chunk);
+                if (position.getPosition() - lastCheckpoint >= CHECKPOINT_INTERVAL_BYTES) {
+                    writer.checkpoint();
+                    lastCheckpoint = position.getPosition();
+                    addCheckpoint(docs.checkpoint(lastCheckpoint));
+                }
+            }
+            writer.finish();
+        } catch (SolrServerException e) {
+            throw new IOException("Solr exception during export " + this, e);
+        }
+        addCheckpoint(docs.checkpoint(position.getPosition()));
+        log.info("Finished writing {} with {} records and {} bytes in {} seconds", this,
+                 docs.getRecords(), position.getPosition(), (System.currentTimeMillis() - startTime) / 1000);
+    }
+
+    /**
+     * Check that the export can be written from the given offset. Used for failing early, before any output.
+     * @param offset the number of bytes already delivered.
+     * @throws InvalidArgumentServiceException if the offset is known to be beyond the end of the export.
+     * @throws ConflictServiceException if the offset is not 0 and the index has changed since the first write.
+     * @throws IOException if the state of the index could not be requested from Solr.
+     */
+    public void checkOffset(long offset)
+            throws InvalidArgumentServiceException, ConflictServiceException, IOException {
+        getCheckpoint(offset);
+        checkIndexUnchanged(offset);
+    }
+
+    /**
+     * Record the state of the index on the first write and check that it is unchanged for continuations.
+     * A write from offset 0 for a changed index starts over with the new state.
+     * @param offset the number of bytes already delivered.
+     * @throws ConflictServiceException if the offset is not 0 and the index has changed since the first write.
+     */
+    private void checkIndexUnchanged(long offset) throws ConflictServiceException, IOException {
+        String current = getIndexFingerprint(request);
+        synchronized (this) {
+            if (offset == 0 && indexFingerprint != null && !indexFingerprint.equals(current)) {
+                log.info("The index has changed for {}. Discarding checkpoints and restarting", this);
+                checkpoints.clear();
+                indexFingerprint = null;
+            }
+            if (indexFingerprint == null) {
+                indexFingerprint = current;
+            }
+            if (offset > 0 && !indexFingerprint.equals(current)) {
+                throw new ConflictServiceException(
+                        "The index has changed since the export was started (" + indexFingerprint + " -> " +
+                        current + "), so it cannot be resumed. Please restart the export");
+            }
+        }
+    }
+
+    /**
+     * @return the number of documents matching the request and the latest {@link IndexWatcher#TIME_FIELD} for them.
+     */
+    private static String getIndexFingerprint(SRequest request) throws IOException {
+        SolrQuery solrQuery = request.getMergedSolrQuery();
+        solrQuery.setRows(0);
+        solrQuery.set(GroupParams.GROUP, false);
+        solrQuery.set(FacetParams.FACET, false);
+        solrQuery.set(HighlightParams.HIGHLIGHT, false);
+        solrQuery.set(StatsParams.STATS, true);
+        solrQuery.set(StatsParams.STATS_FIELD, "{!max=true}" + IndexWatcher.TIME_FIELD);
+        try {
+            QueryResponse rsp = request.solrClient.query(solrQuery);
+            FieldStatsInfo stats = rsp.getFieldStatsInfo() == null ? null :
+                    rsp.getFieldStatsInfo().get(IndexWatcher.TIME_FIELD);
+            return "hits=" + rsp.getResults().getNumFound() + ", " + IndexWatcher.TIME_FIELD + "=" +
+                   (stats == null ? null : stats.getMax());
+        } catch (SolrServerException e) {
+            throw new IOException("Unable to request the state of the index for " + request, e);
+        }
+    }
+
+    /**
+     * @return the size of the full export in bytes or -1 if it is not known, i.e. if no write has completed.
+     */
+    public synchronized long getTotalBytes() {
+        return !checkpoints.isEmpty() && checkpoints.getLast().isFinal() ? checkpoints.getLast().getBytes() : -1;
+    }
+
+    private boolean isSuperseded(long generation) {
+        return generation != writeGeneration;
+    }
+
+    /**
+     * @return the latest checkpoint at or before the given offset.
+     */
+    private synchronized CheckpointedStream.Checkpoint getCheckpoint(long offset)
+            throws InvalidArgumentServiceException {
+        if (!checkpoints.isEmpty() && checkpoints.getLast().isFinal() && offset > checkpoints.getLast().getBytes()) {
+            throw new InvalidArgumentServiceException(
+                    "The offset " + offset + " is beyond the end of the export at " + checkpoints.getLast().getBytes());
+        }
+        CheckpointedStream.Checkpoint best = CheckpointedStream.Checkpoint.START;
+        for (CheckpointedStream.Checkpoint checkpoint: checkpoints) {
+            if (checkpoint.getBytes() <= offset) {
+                best = checkpoint;
+            }
+        }
+        return best;
+    }
+
+    private synchronized void addCheckpoint(CheckpointedStream.Checkpoint checkpoint) {
+        if (!checkpoints.isEmpty() && checkpoints.getLast().getBytes() >= checkpoint.getBytes()) {
+            return; // Already known from a previous write
+        }
+        checkpoints.addLast(checkpoint);
+        int max = checkpoint.hasUniqueState() ? MAX_UNIQUE_CHECKPOINTS : MAX_CHECKPOINTS;
+        while (checkpoints.size() > max) {
+            checkpoints.removeFirst();
+        }
+        log.debug("Added {} to {}", checkpoint, this);
+    }
+
+    /**
+     * @return the token used for continuing the export with {@link #resume(String)}.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return the type of export, usable as file extension, e.g. {@code warc.gz} or {@code csv}.
+     */
+    public String getDesignation() {
+        return designation;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExportSession(token='" + token + "', type=" + designation + ", query='" +
+               SRequest.limit(request.query, 50) + "', checkpoints=" + checkpoints.size() + ")";
+    }
+
+    /**
+     * Creates {@link ChunkWriter}s writing to a given stream.
+     */
+    @FunctionalInterface
+    private interface OutputFactory {
+        /**
+         * @param out          the destination.
+         * @param continuation true if the writer continues an export, false if it is the start.
+         */
+        ChunkWriter create(OutputStream out, boolean continuation) throws IOException;
+    }
+
+    /**
+     * Writes chunks of documents from a {@link CheckpointedStream}.
+     */
+    private interface ChunkWriter {
+        void write(List<SolrDocument> docs) throws IOException;
+
+        /**
+         * Flush all buffered content and ensure that the following output can be reproduced by a new ChunkWriter
+         * created with {@code continuation == true}.
+         */
+        void checkpoint() throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    /**
+     * Writes documents using a {@link DocumentSerializer}, optionally as a series of GZIP members.
+     */
+    private static class FieldsWriter implements ChunkWriter {
+        private final OutputStream out;
+        private final boolean flatten;
+        private final boolean gzip;
+        private final MemberOutputStream members;
+        private final DocumentSerializer serializer;
+
+        FieldsWriter(OutputStream out, String fields, boolean flatten, ContentStreams.FORMAT format,
+                     boolean gzip, boolean continuation) throws IOException {
+            this.out = out;
+            this.flatten = flatten;
+            this.gzip = gzip;
+            members = gzip ? new MemberOutputStream(out) : null;
+            serializer = DocumentSerializer.create(format, fields, gzip ? members : out);
+            if (continuation) {
+                serializer.continuation();
+            }
+        }
+
+        @Override
+        public void write(List<SolrDocument> docs) throws IOException {
+            for (SolrDocument doc: docs) {
+                if (flatten) {
+                    Iterator<SolrDocument> flattened = SolrStreamDecorators.flatten(doc).iterator();
+                    while (flattened.hasNext()) {
+                        serializer.write(flattened.next());
+                    }
+                } else {
+                    serializer.write(doc);
+                }
+            }
+        }
+
+        @Override
+        public void checkpoint() throws IOException {
+            serializer.flush();
+            if (gzip) {
+                members.finishMember();
+            }
+            out.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            serializer.finish();
+            if (gzip) {
+                members.finishMember();
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes the content as a series of GZIP members, started on demand and ended with {@link #finishMember()}.
+     */
+    private static class MemberOutputStream extends OutputStream {
+        private final OutputStream out;
+        private GZIPOutputStream member = null;
+
+        MemberOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        private GZIPOutputStream getMember() throws IOException {
+            if (member == null) {
+                member = new GZIPOutputStream(new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() {
+                        // The underlying stream is closed by the caller
+                    }
+                });
+            }
+            return member;
+        }
+
+        void finishMember() throws IOException {
+            if (member != null) {
+                member.finish();
+                member = null;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            getMember().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            getMember().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (member != null) {
+                member.flush();
+            }
+        }
+    }
+
+    /**
+     * Tracks the position in the full export and discards all bytes before a given offset.
+     */
+    static class PositionOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final long skipUntil;
+        private long position;
+
+        /**
+         * @param out       the destination for the bytes at or after {@code skipUntil}.
+         * @param position  the position in the full export for the first byte written to this stream.
+         * @param skipUntil the position in the full export for the first byte to pass on to {@code out}.
+         */
+        PositionOutputStream(OutputStream out, long position, long skipUntil) {
+            this.out = out;
+            this.position = position;
+            this.skipUntil = skipUntil;
+        }
+
+        /**
+         * Called before each write and flush. Throws an exception if the output should be stopped.
+         */
+        protected void ensureActive() throws IOException {
+            // Always active by default
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureActive();
+            if (position++ >= skipUntil) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureActive();
+            long skip = Math.max(0, Math.min(len, skipUntil - position));
+            position += len;
+            if (skip < len) {
+                out.write(b, off + (int) skip, len - (int) skip);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureActive();
+            out.flush();
+        }
+
+        public long getPosition() {
+            return position;
+        }
+    }
+}
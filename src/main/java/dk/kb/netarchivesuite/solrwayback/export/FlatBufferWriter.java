@@ -0,0 +1,265 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Minimal <a href="https://flatbuffers.dev/">FlatBuffers</a> serializer, sufficient for writing the metadata
+ * messages of the Arrow IPC format without depending on the FlatBuffers library.
+ * <p>
+ * Unlike the standard FlatBuffers builders, the buffer is written front to back: Each table is preceded by its
+ * vtable and followed by its children, so all {@code uoffset}s point forward. Scalars are aligned to their size,
+ * as required by the FlatBuffers verifier.
+ */
+class FlatBufferWriter {
+    private byte[] buffer = new byte[256];
+    private int pos = 0;
+
+    /**
+     * A table under construction. Fields are identified by their id, which is their declaration order in the
+     * schema. Note that union fields use 2 ids: One for the type and one for the value.
+     */
+    static class Table {
+        private final List<Slot> slots = new ArrayList<>();
+
+        Table addByte(int id, int value) {
+            slots.add(new Slot(id, 1, value, null));
+            return this;
+        }
+
+        Table addBool(int id, boolean value) {
+            return addByte(id, value ? 1 : 0);
+        }
+
+        Table addShort(int id, int value) {
+            slots.add(new Slot(id, 2, value, null));
+            return this;
+        }
+
+        Table addInt(int id, int value) {
+            slots.add(new Slot(id, 4, value, null));
+            return this;
+        }
+
+        Table addLong(int id, long value) {
+            slots.add(new Slot(id, 8, value, null));
+            return this;
+        }
+
+        Table addString(int id, String value) {
+            slots.add(new Slot(id, 4, 0, value));
+            return this;
+        }
+
+        Table addTable(int id, Table table) {
+            slots.add(new Slot(id, 4, 0, table));
+            return this;
+        }
+
+        Table addTables(int id, List<Table> tables) {
+            slots.add(new Slot(id, 4, 0, new TableVector(tables)));
+            return this;
+        }
+
+        /**
+         * Add a vector of structs consisting solely of longs, such as the Arrow {@code FieldNode} and {@code Buffer}.
+         * @param longs          the struct content, {@code structs*longsPerStruct} entries.
+         * @param longsPerStruct the number of longs in each struct.
+         */
+        Table addLongStructs(int id, long[] longs, int longsPerStruct) {
+            slots.add(new Slot(id, 4, 0, new LongStructVector(longs, longsPerStruct)));
+            return this;
+        }
+    }
+
+    private static class Slot {
+        final int id;
+        final int size;
+        final long value;
+        final Object child; // String, Table, TableVector, LongStructVector or null for scalars
+
+        Slot(int id, int size, long value, Object child) {
+            this.id = id;
+            this.size = size;
+            this.value = value;
+            this.child = child;
+        }
+    }
+
+    private static class TableVector {
+        final List<Table> tables;
+
+        TableVector(List<Table> tables) {
+            this.tables = tables;
+        }
+    }
+
+    private static class LongStructVector {
+        final long[] longs;
+        final int longsPerStruct;
+
+        LongStructVector(long[] longs, int longsPerStruct) {
+            this.longs = longs;
+            this.longsPerStruct = longsPerStruct;
+        }
+    }
+
+    /**
+     * @param root the root table.
+     * @return the root table and all its children as a FlatBuffer.
+     */
+    static byte[] serialize(Table root) {
+        FlatBufferWriter writer = new FlatBufferWriter();
+        writer.putInt(0); // Root offset placeholder
+        int rootPos = writer.writeTable(root);
+        writer.setInt(0, rootPos);
+        return Arrays.copyOf(writer.buffer, writer.pos);
+    }
+
+    private int writeTable(Table table) {
+        List<Slot> ordered = new ArrayList<>(table.slots);
+        ordered.sort(Comparator.comparingInt((Slot slot) -> slot.size).reversed()); // Largest first for alignment
+        int maxID = table.slots.stream().mapToInt(slot -> slot.id).max().orElse(-1);
+        int[] fieldOffsets = new int[maxID+1];
+        int tableSize = 4; // soffset to vtable
+        for (Slot slot: ordered) {
+            fieldOffsets[slot.id] = tableSize;
+            tableSize += slot.size;
+        }
+
+        // vtable
+        align(2);
+        int vtablePos = pos;
+        putShort(4 + 2*fieldOffsets.length);
+        putShort(tableSize);
+        for (int fieldOffset: fieldOffsets) {
+            putShort(fieldOffset);
+        }
+
+        // table: Positioned so that 8 byte fields following the 4 byte soffset are 8 byte aligned
+        while (pos % 8 != 4) {
+            putByte(0);
+        }
+        int tablePos = pos;
+        putInt(tablePos - vtablePos);
+        for (Slot slot: ordered) {
+            switch (slot.size) {
+                case 1: putByte((int) slot.value); break;
+                case 2: putShort((int) slot.value); break;
+                case 4: putInt((int) slot.value); break;
+                case 8: putLong(slot.value); break;
+                default: throw new IllegalStateException("Unsupported slot size " + slot.size);
+            }
+        }
+
+        // children
+        for (Slot slot: ordered) {
+            if (slot.child != null) {
+                int slotPos = tablePos + fieldOffsets[slot.id];
+                setInt(slotPos, writeChild(slot.child) - slotPos);
+            }
+        }
+        return tablePos;
+    }
+
+    private int writeChild(Object child) {
+        if (child instanceof Table) {
+            return writeTable((Table) child);
+        }
+        if (child instanceof String) {
+            byte[] utf8 = ((String) child).getBytes(StandardCharsets.UTF_8);
+            align(4);
+            int stringPos = pos;
+            putInt(utf8.length);
+            ensureCapacity(utf8.length + 1);
+            System.arraycopy(utf8, 0, buffer, pos, utf8.length);
+            pos += utf8.length;
+            putByte(0); // Strings are zero terminated
+            return stringPos;
+        }
+        if (child instanceof TableVector) {
+            List<Table> tables = ((TableVector) child).tables;
+            align(4);
+            int vectorPos = pos;
+            putInt(tables.size());
+            for (int i = 0 ; i < tables.size() ; i++) {
+                putInt(0); // Offset placeholders
+            }
+            for (int i = 0 ; i < tables.size() ; i++) {
+                int slotPos = vectorPos + 4 + i*4;
+                setInt(slotPos, writeTable(tables.get(i)) - slotPos);
+            }
+            return vectorPos;
+        }
+        if (child instanceof LongStructVector) {
+            LongStructVector structs = (LongStructVector) child;
+            while ((pos + 4) % 8 != 0) { // The structs following the length must be 8 byte aligned
+                putByte(0);
+            }
+            int vectorPos = pos;
+            putInt(structs.longs.length / structs.longsPerStruct);
+            for (long value: structs.longs) {
+                putLong(value);
+            }
+            return vectorPos;
+        }
+        throw new IllegalArgumentException("Unsupported child type " + child.getClass());
+    }
+
+    private void align(int alignment) {
+        while (pos % alignment != 0) {
+            putByte(0);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (pos + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length*2, pos + extra));
+        }
+    }
+
+    private void putByte(int value) {
+        ensureCapacity(1);
+        buffer[pos++] = (byte) value;
+    }
+
+    private void putShort(int value) {
+        putByte(value);
+        putByte(value >> 8);
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(4);
+        setInt(pos, value);
+        pos += 4;
+    }
+
+    private void putLong(long value) {
+        putInt((int) value);
+        putInt((int) (value >>> 32));
+    }
+
+    private void setInt(int index, int value) {
+        buffer[index] = (byte) value;
+        buffer[index+1] = (byte) (value >> 8);
+        buffer[index+2] = (byte) (value >> 16);
+        buffer[index+3] = (byte) (value >> 24);
+    }
+}
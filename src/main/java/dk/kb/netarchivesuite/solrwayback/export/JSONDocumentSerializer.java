@@ -0,0 +1,119 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import dk.kb.netarchivesuite.solrwayback.util.JsonUtils;
+import org.apache.solr.common.SolrDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes {@link SolrDocument}s as JSON directly to an {@link OutputStream} using a single Jackson
+ * {@link JsonGenerator}. The output is identical to serializing each document with {@link JsonUtils#toJSON(Object)}.
+ * <p>
+ * Field names are encoded once and reused for all documents. Dates are written as epoch milliseconds.
+ */
+public class JSONDocumentSerializer implements DocumentSerializer {
+    private final boolean jsonLines;
+    private final JsonGenerator generator;
+    private final Map<String, SerializedString> fieldNames = new HashMap<>();
+    private boolean first = true;
+
+    /**
+     * @param jsonLines if true, <a href="https://jsonlines.org/">JSON-Lines</a> is written with one document per line.
+     *                  If false, a single JSON array with one document per line is written.
+     * @param out       the destination for the JSON.
+     * @throws IOException if the JSON generator could not be created.
+     */
+    public JSONDocumentSerializer(boolean jsonLines, OutputStream out) throws IOException {
+        this.jsonLines = jsonLines;
+        this.generator = JsonUtils.createGenerator(out);
+    }
+
+    @Override
+    public void write(SolrDocument doc) throws IOException {
+        if (!jsonLines) {
+            generator.writeRaw(first ? "[\n" : ",\n");
+        }
+        first = false;
+
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> field: doc) {
+            if (field.getValue() == null) {
+                continue;
+            }
+            generator.writeFieldName(fieldNames.computeIfAbsent(field.getKey(), SerializedString::new));
+            writeValue(field.getValue());
+        }
+        generator.writeEndObject();
+        if (jsonLines) {
+            generator.writeRaw('\n');
+        }
+    }
+
+    @Override
+    public DocumentSerializer continuation() {
+        first = false;
+        return this;
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Date) {
+            generator.writeNumber(((Date) value).getTime());
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object subValue: (Collection<?>) value) {
+                if (subValue == null) {
+                    generator.writeNull();
+                } else {
+                    writeValue(subValue);
+                }
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!jsonLines) {
+            generator.writeRaw(first ? "[\n\n]\n" : "\n]\n");
+        }
+        generator.flush();
+    }
+}
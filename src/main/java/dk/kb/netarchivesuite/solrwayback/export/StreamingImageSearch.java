@@ -0,0 +1,214 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntryDescriptor;
+import dk.kb.netarchivesuite.solrwayback.service.exception.InvalidArgumentServiceException;
+import dk.kb.netarchivesuite.solrwayback.util.JsonUtils;
+import dk.kb.netarchivesuite.solrwayback.util.SolrUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Incremental image search, delivering images from {@link ContentStreams#findImages} as
+ * <a href="https://jsonlines.org/">JSON-Lines</a> in chunks.
+ * <p>
+ * Each search is identified by a cursor token. The search state (Solr paging positions, the interleaving of direct
+ * and page derived images and the uniqueness trackers) is kept server side for the cursor, so requesting the next
+ * chunk continues exactly where the previous chunk ended, without repeating any work.
+ * <p>
+ * Searches that have not been continued for {@link #MAX_IDLE_MS} are discarded, as are the least recently used
+ * searches if there are more than {@link #MAX_SEARCHES}. Discarded, depleted and failed searches are closed, which
+ * releases the underlying Solr streams.
+ */
+public class StreamingImageSearch {
+    private static final Logger log = LoggerFactory.getLogger(StreamingImageSearch.class);
+
+    public static final int MAX_SEARCHES = 200;
+    public static final long MAX_IDLE_MS = 10*60*1000; // 10 minutes
+    public static final int MAX_IMAGES_PER_PAGE = 50;
+
+    // Guarded by itself. Access ordered so that the least recently used search is first
+    private static final Map<String, StreamingImageSearch> searches = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final String cursor;
+    private final String query;
+    private final Stream<ArcEntryDescriptor> stream;
+    private final Iterator<ArcEntryDescriptor> images;
+    private volatile long lastAccess = System.currentTimeMillis();
+    private long delivered = 0;
+
+    /**
+     * Start a new image search. The search is lazy: No images are resolved before {@link #write} is called.
+     * @param query         a Solr query.
+     * @param filterQueries 0 or more Solr filter queries.
+     * @return a search with a new cursor.
+     * @see ContentStreams#findImages(boolean, boolean, int, String, String...)
+     */
+    public static StreamingImageSearch create(String query, String... filterQueries) {
+        Stream<ArcEntryDescriptor> images =
+                ContentStreams.findImages(true, true, MAX_IMAGES_PER_PAGE, query, filterQueries).
+                        map(SolrUtils::solrDocument2ArcEntryDescriptor);
+        return register(new StreamingImageSearch(UUID.randomUUID().toString(), query, images));
+    }
+
+    /**
+     * Add the search to the active searches, discarding expired and excess searches.
+     */
+    static StreamingImageSearch register(StreamingImageSearch search) {
+        List<StreamingImageSearch> discarded = new ArrayList<>();
+        synchronized (searches) {
+            searches.put(search.cursor, search);
+            Iterator<StreamingImageSearch> candidates = searches.values().iterator();
+            while (candidates.hasNext()) {
+                StreamingImageSearch candidate = candidates.next();
+                if (searches.size() <= MAX_SEARCHES && !candidate.isIdle()) {
+                    break; // Ordered by access, so the rest are newer
+                }
+                candidates.remove();
+                discarded.add(candidate);
+            }
+        }
+        // Closing might involve Solr connections, so it is done outside of the lock
+        discarded.forEach(StreamingImageSearch::close);
+        return search;
+    }
+
+    /**
+     * Continue an existing search.
+     * @param cursor the cursor returned by {@link #getCursor()} for a previous call.
+     * @return the search for the cursor.
+     * @throws InvalidArgumentServiceException if the cursor is unknown or has expired.
+     */
+    public static StreamingImageSearch resume(String cursor) throws InvalidArgumentServiceException {
+        StreamingImageSearch search;
+        synchronized (searches) {
+            search = searches.get(cursor);
+        }
+        if (search != null && search.isIdle()) {
+            search.discard();
+            search = null;
+        }
+        if (search == null) {
+            throw new InvalidArgumentServiceException(
+                    "Unknown or expired image search cursor '" + cursor + "'. Please restart the search");
+        }
+        search.lastAccess = System.currentTimeMillis();
+        return search;
+    }
+
+    StreamingImageSearch(String cursor, String query, Stream<ArcEntryDescriptor> stream) {
+        this.cursor = cursor;
+        this.query = query;
+        this.stream = stream;
+        this.images = stream.iterator();
+    }
+
+    /**
+     * Write up to maxImages images as JSON-Lines to out, flushing after each image so that the receiver can show
+     * them as they are resolved.
+     * @param out       the destination for the images.
+     * @param maxImages the maximum number of images to write.
+     * @param converter converts the internal representation to the object that is serialised as JSON.
+     * @return the number of written images. If this is less than maxImages, the search has been depleted.
+     */
+    public synchronized <T> int write(OutputStream out, int maxImages, Function<ArcEntryDescriptor, T> converter)
+            throws IOException {
+        long startTime = System.currentTimeMillis();
+        int written = 0;
+        try {
+            while (written < maxImages && images.hasNext()) {
+                out.write(JsonUtils.toJSON(converter.apply(images.next())).getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                out.flush();
+                written++;
+            }
+        } catch (IOException | RuntimeException e) {
+            // The position in the search is unknown, so it cannot be continued
+            log.warn("Discarding failed image search {}", this, e);
+            discard();
+            throw e;
+        }
+        delivered += written;
+        lastAccess = System.currentTimeMillis();
+        if (written < maxImages) {
+            discard();
+        }
+        log.debug("Delivered {} images in {} ms for {}", written, System.currentTimeMillis() - startTime, this);
+        return written;
+    }
+
+    /**
+     * Remove the search from the active searches and close it.
+     */
+    private void discard() {
+        synchronized (searches) {
+            searches.remove(cursor, this);
+        }
+        close();
+    }
+
+    /**
+     * Close the underlying stream. Errors are logged and ignored.
+     */
+    void close() {
+        try {
+            stream.close();
+        } catch (Exception e) {
+            log.warn("Exception closing image search {}", this, e);
+        }
+    }
+
+    private boolean isIdle() {
+        return System.currentTimeMillis() - lastAccess > MAX_IDLE_MS;
+    }
+
+    /**
+     * Used for testing expiry.
+     */
+    void setLastAccess(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+
+    static boolean isActive(String cursor) {
+        synchronized (searches) {
+            return searches.containsKey(cursor);
+        }
+    }
+
+    /**
+     * @return the token used for continuing the search with {@link #resume(String)}.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingImageSearch(cursor='" + cursor + "', query='" + query + "', delivered=" + delivered + ")";
+    }
+}
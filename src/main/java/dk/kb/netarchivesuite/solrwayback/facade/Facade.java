@@ -2,16 +2,20 @@ package dk.kb.netarchivesuite.solrwayback.facade;
 
 import dk.kb.netarchivesuite.solrwayback.concurrency.ImageSearchExecutor;
 import dk.kb.netarchivesuite.solrwayback.export.ContentStreams;
+import dk.kb.netarchivesuite.solrwayback.export.ExportJob;
+import dk.kb.netarchivesuite.solrwayback.export.ExportSession;
 import dk.kb.netarchivesuite.solrwayback.export.StreamingRawZipExport;
 import dk.kb.netarchivesuite.solrwayback.export.StreamingSolrExportBufferedInputStream;
 import dk.kb.netarchivesuite.solrwayback.export.StreamingSolrWarcExportBufferedInputStream;
 import dk.kb.netarchivesuite.solrwayback.parsers.ArcParserFileResolver;
 import dk.kb.netarchivesuite.solrwayback.parsers.DomainStatisticsForDomainParser;
 import dk.kb.netarchivesuite.solrwayback.parsers.HtmlParserUrlRewriter;
+import dk.kb.netarchivesuite.solrwayback.parsers.RecordHeader;
 import dk.kb.netarchivesuite.solrwayback.playback.CssPlayback;
 import dk.kb.netarchivesuite.solrwayback.playback.HtmlPlayback;
 import dk.kb.netarchivesuite.solrwayback.playback.JavascriptPlayback;
 import dk.kb.netarchivesuite.solrwayback.playback.JodelPlayback;
+import dk.kb.netarchivesuite.solrwayback.playback.PlaybackCache;
 import dk.kb.netarchivesuite.solrwayback.playback.TwitterPlayback;
 import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
 import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoaderWeb;
@@ -44,11 +48,16 @@ import dk.kb.netarchivesuite.solrwayback.solr.SolrStreamDecorators;
 import dk.kb.netarchivesuite.solrwayback.solr.SolrStreamingExportClient;
 import dk.kb.netarchivesuite.solrwayback.solr.SolrStreamingLinkGraphCSVExportClient;
 import dk.kb.netarchivesuite.solrwayback.solr.SolrStreamFactory;
+import dk.kb.netarchivesuite.solrwayback.util.CollectionUtils;
 import dk.kb.netarchivesuite.solrwayback.util.DateUtils;
 import dk.kb.netarchivesuite.solrwayback.util.FileUtil;
 import dk.kb.netarchivesuite.solrwayback.util.SolrUtils;
 import dk.kb.netarchivesuite.solrwayback.util.UrlUtils;
+import dk.kb.netarchivesuite.solrwayback.image.PagePreviewGenerator;
+import dk.kb.netarchivesuite.solrwayback.image.ThumbnailCache;
 import dk.kb.netarchivesuite.solrwayback.wordcloud.WordCloudImageGenerator;
+import dk.kb.netarchivesuite.solrwayback.wordcloud.WordFrequencyCounter;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocument;
@@ -56,14 +65,12 @@ import org.apache.solr.common.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
 import javax.ws.rs.core.StreamingOutput;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URL;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
@@ -74,6 +81,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -308,51 +316,13 @@ public class Facade {
 
     }
 
-    public static BufferedImage getHtmlPagePreview(String source_file_path, long offset) throws Exception {
-
-        String url = PropertiesLoader.WAYBACK_BASEURL + "services/view?source_file_path=" + source_file_path + "&offset=" + offset + "&showToolbar=false";
-        long now = System.currentTimeMillis();
-
-        // String filename =
-        // PropertiesLoader.SCREENSHOT_TEMP_IMAGEDIR+source_file_path+"@"+offset+".png";
-        // //Does not work since subfolders must be created before.
-        // TODO implement caching for images?
-        String filename = PropertiesLoader.SCREENSHOT_TEMP_IMAGEDIR + now + "_" + offset + ".png"; // Include offset to avoid hitting same time.
-        String chromeCommand = PropertiesLoader.CHROME_COMMAND;
-
-        log.info("Generating preview-image for url:" + url);
-
-        ProcessBuilder pb = null;
-
-
-        int timeoutMillis = PropertiesLoader.SCREENSHOT_PREVIEW_TIMEOUT * 1000;
-
-//     pb = new ProcessBuilder(chromeCommand, "--headless" ,"--disable-gpu" ,"--ipc-connection-timeout=10000","--timeout="+timeoutMillis,"--screenshot="+filename,"--window-size=1280,1024","--proxy-server="+proxyUrl,  url);
-        // no socks proxy
-        pb = new ProcessBuilder(chromeCommand, "--headless", "--disable-gpu", "--ipc-connection-timeout=10000", "--timeout=" + timeoutMillis,
-                "--screenshot=" + filename, "--window-size=1280,1024", url);
-
-        log.info("Screenshot native command:"+chromeCommand + " --headless --disable-gpu --ipc-connection-timeout=10000 --timeout=" + timeoutMillis + " --screenshot=" + filename
-                + " --window-size=1280,1024 " + url);
-        // example: chromium-browser --headless --disable-gpu --ipc-connection-timeout=3000 --screenshot=test.png --window-size=1280,1024 http://google.com
-
-        Process start = pb.start();
-        // Due to a bug in chromium, the process can hang and never terminate. The
-        // timeout is not working.. Also the screenshot will not be written to file.
-        if (!start.waitFor(timeoutMillis + 5000, TimeUnit.MILLISECONDS)) { // timeout + 5 second before killing.
-            // timeout - kill the process.
-            log.info("Timeout generating preview. Due to bug chromium can hang.");
-            start.destroyForcibly();
-            throw new NotFoundServiceException("Timeout generating page preview"); // Just give a nice 404.
-        }
-
-        // return image even if timeout.
-        InputStream is = start.getInputStream();
-        String conlog = getStringFromInputStream(is);
-//        log.debug("conlog:" + conlog); // No need to log this, can be spammy. But usefull when debugging
-        BufferedImage image = ImageIO.read(new File(filename));
-        return image;
-
+    /**
+     * Get a screenshot of the page rendered by headless Chrome. Screenshots are cached on disk.
+     * @see PagePreviewGenerator
+     * @return a PNG screenshot of the page.
+     */
+    public static byte[] getHtmlPagePreview(String source_file_path, long offset) throws Exception {
+        return PagePreviewGenerator.getInstance().getPreview(source_file_path, offset);
     }
 
     public static HarvestDates getHarvestTimesForUrl(String url) throws Exception {
@@ -392,6 +362,9 @@ public class Facade {
             pp.setPagePreviewUrl(previewUrl);
             pp.setSolrWaybackUrl(solrWaybackUrl);
             previews.add(pp);
+            if (PropertiesLoader.SCREENSHOT_PREVIEW_PRERENDER) {
+                PagePreviewGenerator.getInstance().prerender(source_file_path, offset);
+            }
         }
 
         return previews;
@@ -411,24 +384,24 @@ public class Facade {
     public static BufferedImage wordCloudForDomain(String domain) throws Exception {
         log.info("getting wordcloud for url:" + domain);
         String query = "domain:\"" + domain + "\"";
-        String text = NetarchiveSolrClient.getInstance().getConcatedTextFromHtmlForQuery(query,null); // Only contains the required fields for this method
-        BufferedImage bufferedImage = WordCloudImageGenerator.wordCloudForDomain(text);
+        WordFrequencyCounter counter = NetarchiveSolrClient.getInstance().countWordsFromHtmlForQuery(query,null);
+        BufferedImage bufferedImage = WordCloudImageGenerator.wordCloudForDomain(counter);
 
         return bufferedImage;
     }
 
     public static BufferedImage wordCloudForQuery(String query, String filterQuery) throws Exception {
         log.info("getting wordcloud for query:" + query +" filter query:"+filterQuery);
-        String text = NetarchiveSolrClient.getInstance().getConcatedTextFromHtmlForQuery(query,filterQuery); // Only contains the required fields for this method
-        BufferedImage bufferedImage = WordCloudImageGenerator.wordCloudForDomain(text);
+        WordFrequencyCounter counter = NetarchiveSolrClient.getInstance().countWordsFromHtmlForQuery(query,filterQuery);
+        BufferedImage bufferedImage = WordCloudImageGenerator.wordCloudForDomain(counter);
         return bufferedImage;
     }
 
     public static  List<WordCloudWordAndCount> wordCloudWordFrequency(String query, String filterQuery) throws Exception {
         log.info("getting wordcloud frequency for query:" + query +" filterquery:"+filterQuery);
-        String text = NetarchiveSolrClient.getInstance().getConcatedTextFromHtmlForQuery(query,filterQuery); // Only contains the required fields for this method
+        WordFrequencyCounter counter = NetarchiveSolrClient.getInstance().countWordsFromHtmlForQuery(query,filterQuery);
 
-        List<WordCloudWordAndCount> wordCloudWordWithCount = WordCloudImageGenerator.wordCloudWordWithCount(text);
+        List<WordCloudWordAndCount> wordCloudWordWithCount = WordCloudImageGenerator.wordCloudWordWithCount(counter);
         return  wordCloudWordWithCount;
     }
 
@@ -518,6 +491,49 @@ public class Facade {
         return ArcParserFileResolver.getArcEntry(source_file_path, offset);
     }
 
+    /**
+     * As {@link #getArcEntry(String, long)}, but the payload of small resources is held in memory by the
+     * {@link PlaybackCache}. Used for raw download of resources.
+     */
+    public static ArcEntry getArcEntryWithCachedPayload(String source_file_path, long offset) throws Exception {
+        if (PropertiesLoader.WARC_FILES_VERIFY_COLLECTION) {
+            NetarchiveSolrClient.getInstance().getArcEntry(source_file_path, offset); // Also for cached resources
+        }
+        return PlaybackCache.get(source_file_path, offset, "raw",
+                                 () -> ArcParserFileResolver.getArcEntry(source_file_path, offset));
+    }
+
+    /**
+     * Get a PNG thumbnail for an image, from {@link ThumbnailCache} or by decoding and scaling the image.
+     * The record is verified against the collection before the cache is used, as for {@link #getArcEntry(String, long)}.
+     * @return a PNG thumbnail or null if the image format is not supported.
+     */
+    public static byte[] getThumbnail(String source_file_path, long offset, int width, int height) throws Exception {
+        if (PropertiesLoader.WARC_FILES_VERIFY_COLLECTION) {
+            NetarchiveSolrClient.getInstance().getArcEntry(source_file_path, offset); // Also for cached thumbnails
+        }
+        byte[] png = ThumbnailCache.get(source_file_path, offset, width, height);
+        if (png != null) {
+            return png;
+        }
+        ArcEntry arcEntry = ArcParserFileResolver.getArcEntry(source_file_path, offset);
+        // Decoding uses subsampling and has a size guard, so large images does not cause OOM
+        png = ThumbnailCache.createThumbnail(arcEntry.getBinaryDecoded(), width, height);
+        ThumbnailCache.put(source_file_path, offset, width, height, png);
+        return png;
+    }
+
+    /**
+     * Header-only variant of {@link #getArcEntry(String, long)}: Only the WARC and HTTP headers are read and the
+     * result is cached. Use this when the content of the record is not needed.
+     */
+    public static RecordHeader getRecordHeader(String source_file_path, long offset) throws Exception {
+        if (PropertiesLoader.WARC_FILES_VERIFY_COLLECTION) {
+            NetarchiveSolrClient.getInstance().getArcEntry(source_file_path, offset); //Call Solr. Correct exception already thrown if not found
+        }
+        return ArcParserFileResolver.getRecordHeader(source_file_path, offset);
+    }
+
     /**
      * Search images both directly and through webpages. Export the result as WARC entries.
      * @param avoidDuplicates if true, duplicates are removed, based on image hash.
@@ -538,7 +554,52 @@ public class Facade {
 
 
     public static InputStream exportWarcStreaming(boolean expandResources, boolean ensureUnique, boolean gzip, String query, String... filterqueries)  throws Exception{
+        long max = validateWarcExportSize(expandResources, query, filterqueries);
+        Iterator<SolrDocument> solrDocs = SolrStreamDirect.iterate(
+                createWarcExportRequest(expandResources, ensureUnique, query, filterqueries));
+
+        return new StreamingSolrWarcExportBufferedInputStream(solrDocs, max, gzip); // Use maximum export results from property-file
+    }
 
+    /**
+     * Create a resumable WARC export. The export is written with {@link ExportSession#write(OutputStream, long)}
+     * and can be continued from a given byte offset using {@link ExportSession#resume(String)}.
+     * @see #exportWarcStreaming(boolean, boolean, boolean, String, String...)
+     */
+    public static ExportSession exportWarcResumable(
+            boolean expandResources, boolean ensureUnique, boolean gzip, String query, String... filterqueries)
+            throws InvalidArgumentServiceException, SolrServerException, IOException {
+        long max = validateWarcExportSize(expandResources, query, filterqueries);
+        return ExportSession.createWarcExport(
+                createWarcExportRequest(expandResources, ensureUnique, query, filterqueries).maxResults(max), gzip);
+    }
+
+    /**
+     * Submit a WARC export as a background job. The result is written to a spool file on the server and can be
+     * downloaded when the job has finished.
+     * @see #exportWarcStreaming(boolean, boolean, boolean, String, String...)
+     * @see ExportJob
+     */
+    public static ExportJob submitWarcExportJob(
+            boolean expandResources, boolean ensureUnique, boolean gzip, String query, String... filterqueries)
+            throws InvalidArgumentServiceException, SolrServerException, IOException {
+        long max = validateWarcExportSize(expandResources, query, filterqueries);
+        SRequest request = createWarcExportRequest(expandResources, ensureUnique, query, filterqueries);
+        return ExportJob.submit("warc" + (gzip ? ".gz" : ""), query, (out, documentTracker) -> {
+            Iterator<SolrDocument> solrDocs = CollectionUtils.ReducingIterator.of(
+                    SolrStreamDirect.iterate(request), documentTracker::test);
+            try (InputStream warc = new StreamingSolrWarcExportBufferedInputStream(solrDocs, max, gzip)) {
+                IOUtils.copy(warc, out);
+            }
+        });
+    }
+
+    /**
+     * Check that the number of results for the query does not exceed the configured limit for WARC export.
+     * @return the maximum number of records to export.
+     */
+    private static long validateWarcExportSize(boolean expandResources, String query, String... filterqueries)
+            throws InvalidArgumentServiceException, SolrServerException, IOException {
         long max=0;
         //Check size
         long results = NetarchiveSolrClient.getInstance().countResults(query, filterqueries);
@@ -554,16 +615,18 @@ public class Facade {
                 throw new InvalidArgumentServiceException("Number of results("+results+") for warc expanded export exceeds the configured limit: "+PropertiesLoaderWeb.EXPORT_WARC_EXPANDED_MAXRESULTS);
             }
         }
-        Iterator<SolrDocument> solrDocs = SolrStreamDirect.iterate(
-                SRequest.builder()
+        return max;
+    }
+
+    private static SRequest createWarcExportRequest(
+            boolean expandResources, boolean ensureUnique, String query, String... filterqueries) {
+        return SRequest.builder()
                                 .query(query)
                                 .filterQueries(filterqueries)
                                 .fields("source_file_path", "source_file_offset")
                                 .pageSize(100). // TODO: Why so low? The two fields are tiny and single-valued
                         expandResources(expandResources).
-                        ensureUnique(ensureUnique));
-
-        return new StreamingSolrWarcExportBufferedInputStream(solrDocs, max, gzip); // Use maximum export results from property-file
+                        ensureUnique(ensureUnique);
     }
 
     public static InputStream exportLinkGraphStreaming(String q) {
@@ -604,7 +667,8 @@ public class Facade {
      *                      SolrDocument to ensure that no field holds multiple values.
      *                      Note: If there are multiple multi-value fields, this can result in a large amount of
      *                            flattened documents, as all permutations of values will be present.
-     * @param format        valid formats are {@code json}, {@code jsonl} and {@code csv}.
+     * @param format        valid formats are {@code json}, {@code jsonl}, {@code csv} and {@code arrows}
+     *                      (columnar Apache Arrow IPC stream).
      * @param gzip          if true, the output is GZIPpped.
      * @param query         a Solr query.
      * @param filterQueries optional Solr filter queries.
@@ -618,6 +682,101 @@ public class Facade {
             String groupField, Boolean flatten, String format, Boolean gzip,
             String query, String... filterQueries)
             throws IOException, InvalidArgumentServiceException, SolrServerException {
+        SRequest request = createFieldsExportRequest(
+                fields, expandResources, ensureUnique, groupField, format, query, filterQueries);
+
+        // Create stream
+        //Stream<SolrDocument> docs = SolrGenericStreaming.stream(request);
+        // TODO: Figure out how to handle the CloseableStream-problem
+        Stream<SolrDocument> docs = request.stream();
+        if (Boolean.TRUE.equals(flatten)) {
+            docs = docs.flatMap(SolrStreamDecorators::flatten);
+        }
+
+        return ContentStreams.deliver(docs, fields, format, gzip);
+    }
+
+    /**
+     * Create a resumable fields export. The export is written with {@link ExportSession#write(OutputStream, long)}
+     * and can be continued from a given byte offset using {@link ExportSession#resume(String)}.
+     * <p>
+     * The arguments are the same as for
+     * {@link #exportFields(String, Boolean, Boolean, String, Boolean, String, Boolean, String, String...)}, except
+     * that the {@code arrows} format is not supported.
+     * @return a session for the export.
+     * @throws InvalidArgumentServiceException if the request was invalid or the format does not support resuming.
+     * @throws IOException if the number of matches could not be requested from Solr.
+     * @throws SolrServerException if the number of matches could not be requested from Solr.
+     */
+    public static ExportSession exportFieldsResumable(
+            String fields, Boolean expandResources, Boolean ensureUnique,
+            String groupField, Boolean flatten, String format, Boolean gzip,
+            String query, String... filterQueries)
+            throws IOException, InvalidArgumentServiceException, SolrServerException {
+        SRequest request = createFieldsExportRequest(
+                fields, expandResources, ensureUnique, groupField, format, query, filterQueries);
+        return ExportSession.createFieldsExport(
+                request, fields, Boolean.TRUE.equals(flatten), format, Boolean.TRUE.equals(gzip));
+    }
+
+    /**
+     * Submit a fields export as a background job. The result is written to a spool file on the server and can be
+     * downloaded when the job has finished.
+     * <p>
+     * The arguments are the same as for
+     * {@link #exportFields(String, Boolean, Boolean, String, Boolean, String, Boolean, String, String...)}.
+     * @return the queued job.
+     * @throws InvalidArgumentServiceException if the request was invalid or there are too many jobs.
+     * @throws IOException if the number of matches could not be requested from Solr.
+     * @throws SolrServerException if the number of matches could not be requested from Solr.
+     * @see ExportJob
+     */
+    public static ExportJob submitFieldsExportJob(
+            String fields, Boolean expandResources, Boolean ensureUnique,
+            String groupField, Boolean flatten, String format, Boolean gzip,
+            String query, String... filterQueries)
+            throws IOException, InvalidArgumentServiceException, SolrServerException {
+        ContentStreams.FORMAT realFormat;
+        try {
+            realFormat = ContentStreams.FORMAT.valueOf(format.toLowerCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidArgumentServiceException("Unknown export format '" + format + "'");
+        }
+        SRequest request = createFieldsExportRequest(
+                fields, expandResources, ensureUnique, groupField, format, query, filterQueries);
+        boolean doGzip = Boolean.TRUE.equals(gzip);
+        return ExportJob.submit(realFormat + (doGzip ? ".gz" : ""), query, (out, documentTracker) -> {
+            Stream<SolrDocument> docs = request.stream();
+            if (Boolean.TRUE.equals(flatten)) {
+                docs = docs.flatMap(SolrStreamDecorators::flatten);
+            }
+            try {
+                ContentStreams.deliver(docs.filter(documentTracker), fields, realFormat.toString(), doGzip, out);
+            } finally {
+                docs.close();
+            }
+        });
+    }
+
+    /**
+     * Submit a zip export of content as a background job. The result is written to a spool file on the server and
+     * can be downloaded when the job has finished. The job does not report the number of exported documents.
+     * @see #exportZipContent(String, String...)
+     * @see ExportJob
+     */
+    public static ExportJob submitZipExportJob(String query, String... filterQueries)
+            throws SolrServerException, IOException, InvalidArgumentServiceException {
+        StreamingOutput zip = exportZipContent(query, filterQueries);
+        return ExportJob.submit("zip", query, (out, documentTracker) -> zip.write(out));
+    }
+
+    /**
+     * Validate the result set size and create the request for a fields export.
+     */
+    private static SRequest createFieldsExportRequest(
+            String fields, Boolean expandResources, Boolean ensureUnique, String groupField, String format,
+            String query, String... filterQueries)
+            throws IOException, InvalidArgumentServiceException, SolrServerException {
         // TODO check that only allowed fields are selected!
 
         // Validate result set size
@@ -628,23 +787,13 @@ public class Facade {
                     PropertiesLoaderWeb.EXPORT_CSV_MAXRESULTS);
         }
         // Setup request
-        SRequest request = SRequest.builder().
+        return SRequest.builder().
                 query(query).
                 filterQueries(filterQueries).
                 fields(fields).
                 expandResources(expandResources).
                 deduplicateFields(groupField).
                 ensureUnique(ensureUnique);
-
-        // Create stream
-        //Stream<SolrDocument> docs = SolrGenericStreaming.stream(request);
-        // TODO: Figure out how to handle the CloseableStream-problem
-        Stream<SolrDocument> docs = request.stream();
-        if (Boolean.TRUE.equals(flatten)) {
-            docs = docs.flatMap(SolrStreamDecorators::flatten);
-        }
-
-        return ContentStreams.deliver(docs, fields, format, gzip);
     }
 
     /**
@@ -915,12 +1064,27 @@ public class Facade {
     }
 
 
+    /**
+     * Load the resource and rewrite it for playback if it is HTML, CSS, JavaScript, a Tweet or a Jodel post.
+     * Resources other than HTML pages, Tweets and Jodel posts are served from the {@link PlaybackCache} if possible.
+     */
     public static ArcEntry viewResource(
             String source_file_path, long offset, IndexDoc doc, Boolean showToolbar, Boolean lenient) throws Exception {
-        lenient = Boolean.TRUE.equals(lenient);
-        if (showToolbar == null) {
-            showToolbar = false;
+        boolean lenientPlayback = Boolean.TRUE.equals(lenient);
+        boolean toolbar = Boolean.TRUE.equals(showToolbar);
+        // Pages and redirects are large or rare compared to their resources. Rewritten CSS and JavaScript links to
+        // the harvests that were closest in time when cached, which is acceptable within the cache max age
+        if ("Web Page".equals(doc.getType()) || "Twitter Tweet".equals(doc.getType()) ||
+            "Jodel Post".equals(doc.getType()) || "Jodel Thread".equals(doc.getType()) || doc.getStatusCode() >= 300) {
+            return viewResourceUncached(source_file_path, offset, doc, toolbar, lenientPlayback);
         }
+        String mode = "view" + (toolbar ? "+toolbar" : "") + (lenientPlayback ? "+lenient" : "");
+        return PlaybackCache.get(source_file_path, offset, mode,
+                                 () -> viewResourceUncached(source_file_path, offset, doc, toolbar, lenientPlayback));
+    }
+
+    private static ArcEntry viewResourceUncached(
+            String source_file_path, long offset, IndexDoc doc, boolean showToolbar, boolean lenient) throws Exception {
         ArcEntry arc = ArcParserFileResolver.getArcEntry(source_file_path, offset);
 
         //log.debug("View html Warc content-type:" + arc.getContentType());
@@ -1046,36 +1210,6 @@ public class Facade {
      * }
      */
 
-    // convert InputStream to String
-    private static String getStringFromInputStream(InputStream is) {
-
-        BufferedReader br = null;
-        StringBuilder sb = new StringBuilder();
-
-        String line;
-        try {
-
-            br = new BufferedReader(new InputStreamReader(is));
-            while ((line = br.readLine()) != null) {
-                sb.append(line);
-            }
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        return sb.toString();
-
-    }
-
     public static ArrayList<ImageUrl> indexDoc2Images(ArrayList<IndexDoc> docs) {
         ArrayList<ImageUrl> imageUrls = new ArrayList<ImageUrl>();
         for (IndexDoc entry : docs) {
@@ -1107,20 +1241,24 @@ public class Facade {
     public static ArrayList<ImageUrl> arcEntrys2Images(ArrayList<ArcEntryDescriptor> arcs) {
         ArrayList<ImageUrl> imageUrls = new ArrayList<ImageUrl>();
         for (ArcEntryDescriptor entry : arcs) {
-            ImageUrl imageUrl = new ImageUrl();
-            String imageLink = PropertiesLoader.WAYBACK_BASEURL + "services/image?source_file_path=" + entry.getSource_file_path() + "&offset="
-                    + entry.getOffset();
-            String downloadLink = PropertiesLoader.WAYBACK_BASEURL + "services/downloadRaw?source_file_path=" + entry.getSource_file_path() + "&offset="
-                    + entry.getOffset();
-            imageUrl.setImageUrl(imageLink);
-            imageUrl.setDownloadUrl(downloadLink);
-            imageUrl.setHash(entry.getHash());
-            imageUrl.setUrlNorm(entry.getUrl_norm());
-            imageUrls.add(imageUrl);
+            imageUrls.add(arcEntry2Image(entry));
         }
         return imageUrls;
     }
 
+    public static ImageUrl arcEntry2Image(ArcEntryDescriptor entry) {
+        ImageUrl imageUrl = new ImageUrl();
+        String imageLink = PropertiesLoader.WAYBACK_BASEURL + "services/image?source_file_path=" + entry.getSource_file_path() + "&offset="
+                + entry.getOffset();
+        String downloadLink = PropertiesLoader.WAYBACK_BASEURL + "services/downloadRaw?source_file_path=" + entry.getSource_file_path() + "&offset="
+                + entry.getOffset();
+        imageUrl.setImageUrl(imageLink);
+        imageUrl.setDownloadUrl(downloadLink);
+        imageUrl.setHash(entry.getHash());
+        imageUrl.setUrlNorm(entry.getUrl_norm());
+        return imageUrl;
+    }
+
     /**
      * Get standard solr stats for all fields given.
      * @param query     to generate stats for.
@@ -0,0 +1,345 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.image;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import dk.kb.netarchivesuite.solrwayback.service.exception.InternalServiceException;
+import dk.kb.netarchivesuite.solrwayback.service.exception.NotFoundServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates page preview screenshots using headless Chrome and caches them on disk.
+ * <p>
+ * Screenshots are stored in {@link PropertiesLoader#SCREENSHOT_TEMP_IMAGEDIR}, named from a hash of
+ * {@code (source_file_path, offset)}. Previously generated screenshots are picked up on startup and the number of
+ * cached screenshots is bounded by {@link PropertiesLoader#SCREENSHOT_CACHE_MAX_FILES}, evicting the least recently
+ * used.
+ * <p>
+ * Chrome processes are started from a fixed size worker pool ({@link PropertiesLoader#SCREENSHOT_PREVIEW_CONCURRENT_MAX})
+ * with a bounded queue ({@link PropertiesLoader#SCREENSHOT_PREVIEW_QUEUE_MAX}). Concurrent requests for the same
+ * capture share the same rendering.
+ * <p>
+ * Screenshot files are only read, moved and deleted while holding the lock for the cache, so that a file is never
+ * removed while it is being delivered.
+ * <p>
+ * This implementation is thread safe.
+ */
+public class PagePreviewGenerator {
+    private static final Logger log = LoggerFactory.getLogger(PagePreviewGenerator.class);
+
+    private static final String FILE_PREFIX = "preview_";
+    private static final String FILE_POSTFIX = ".png";
+    private static final String TEMP_PREFIX = "rendering_";
+
+    private static PagePreviewGenerator instance = null;
+
+    private final File cacheFolder;
+    private final int maxFiles;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Future<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, File> cache;
+
+    /**
+     * @return the shared generator, created from the values in {@link PropertiesLoader}.
+     */
+    public static synchronized PagePreviewGenerator getInstance() {
+        if (instance == null) {
+            String folder = PropertiesLoader.SCREENSHOT_TEMP_IMAGEDIR;
+            if (folder == null || folder.isEmpty()) {
+                folder = System.getProperty("java.io.tmpdir");
+                log.warn("screenshot.temp.imagedir is not set. Using '{}' for page previews", folder);
+            }
+            instance = new PagePreviewGenerator(new File(folder), PropertiesLoader.SCREENSHOT_CACHE_MAX_FILES,
+                                                PropertiesLoader.SCREENSHOT_PREVIEW_CONCURRENT_MAX,
+                                                PropertiesLoader.SCREENSHOT_PREVIEW_QUEUE_MAX);
+        }
+        return instance;
+    }
+
+    /**
+     * @param cacheFolder   the folder for screenshots. Existing screenshots in the folder are added to the cache.
+     * @param maxFiles      the maximum number of screenshots to keep. If 0, screenshots are deleted after delivery.
+     * @param maxConcurrent the maximum number of concurrent Chrome processes.
+     * @param maxQueue      the maximum number of screenshot requests waiting for a Chrome process.
+     */
+    PagePreviewGenerator(File cacheFolder, int maxFiles, int maxConcurrent, int maxQueue) {
+        this.cacheFolder = cacheFolder;
+        this.maxFiles = maxFiles;
+        this.cache = new LinkedHashMap<String, File>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+                if (size() <= PagePreviewGenerator.this.maxFiles) {
+                    return false;
+                }
+                if (!eldest.getValue().delete()) {
+                    log.warn("Unable to delete evicted page preview '{}'", eldest.getValue());
+                }
+                return true;
+            }
+        };
+        this.executor = new ThreadPoolExecutor(
+                Math.max(1, maxConcurrent), Math.max(1, maxConcurrent), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, maxQueue)), new ThreadFactory() {
+            final AtomicInteger threadCount = new AtomicInteger(0);
+            @SuppressWarnings("NullableProblems")
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "PagePreview_" + threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        loadExisting();
+    }
+
+    /**
+     * Get a page preview, either from cache or by rendering it with headless Chrome.
+     * @param sourceFilePath the WARC containing the page.
+     * @param offset         the offset of the page record in the WARC.
+     * @return a PNG screenshot of the page.
+     * @throws NotFoundServiceException if the screenshot could not be generated within the timeout.
+     * @throws InternalServiceException if too many previews are already queued.
+     */
+    public byte[] getPreview(String sourceFilePath, long offset) throws Exception {
+        String key = createKey(sourceFilePath, offset);
+        byte[] png = getCached(key);
+        if (png != null) {
+            return png;
+        }
+        try {
+            return submit(key, sourceFilePath, offset).get();
+        } catch (RejectedExecutionException e) {
+            throw new InternalServiceException(
+                    "Too many page previews queued (" + executor.getQueue().size() + "). Try again later");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Schedule background rendering of a page preview if it is not already cached or being rendered.
+     * If the queue is more than half full, the request is ignored so that interactive requests are not starved.
+     * @param sourceFilePath the WARC containing the page.
+     * @param offset         the offset of the page record in the WARC.
+     * @return true if rendering was scheduled.
+     */
+    public boolean prerender(String sourceFilePath, long offset) {
+        if (maxFiles <= 0) {
+            return false; // No point in rendering if the result is not kept
+        }
+        String key = createKey(sourceFilePath, offset);
+        if (isCached(key) || inFlight.containsKey(key) ||
+            executor.getQueue().remainingCapacity() < executor.getQueue().size()) {
+            return false;
+        }
+        try {
+            submit(key, sourceFilePath, offset);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return statistics for the generator.
+     */
+    public String getStats() {
+        int cached;
+        synchronized (cache) {
+            cached = cache.size();
+        }
+        return "PagePreviewGenerator(cached=" + cached + "/" + maxFiles + ", inFlight=" + inFlight.size() +
+               ", queued=" + executor.getQueue().size() + ", active=" + executor.getActiveCount() + ")";
+    }
+
+    /**
+     * @return the content of the cached preview or null if it is not cached.
+     */
+    private byte[] getCached(String key) {
+        synchronized (cache) {
+            File preview = cache.get(key);
+            if (preview == null) {
+                return null;
+            }
+            try {
+                return Files.readAllBytes(preview.toPath());
+            } catch (IOException e) {
+                log.debug("Cached page preview '{}' could not be read and is removed from the cache", preview, e);
+                cache.remove(key);
+                return null;
+            }
+        }
+    }
+
+    private boolean isCached(String key) {
+        synchronized (cache) {
+            File preview = cache.get(key);
+            if (preview != null && !preview.exists()) {
+                log.debug("Cached page preview '{}' has been removed from disk", preview);
+                cache.remove(key);
+                return false;
+            }
+            return preview != null;
+        }
+    }
+
+    /**
+     * Submit a rendering job or return the job that is already rendering the preview.
+     */
+    private Future<byte[]> submit(String key, String sourceFilePath, long offset) {
+        return inFlight.computeIfAbsent(key, k -> {
+            FutureTask<byte[]> job = new FutureTask<>(() -> {
+                try {
+                    return render(k, sourceFilePath, offset);
+                } finally {
+                    inFlight.remove(k);
+                }
+            });
+            executor.execute(job);
+            return job;
+        });
+    }
+
+    /**
+     * Render the preview and add it to the cache.
+     * @return the content of the preview.
+     */
+    private byte[] render(String key, String sourceFilePath, long offset) throws Exception {
+        String url = PropertiesLoader.WAYBACK_BASEURL + "services/view?source_file_path=" + sourceFilePath +
+                     "&offset=" + offset + "&showToolbar=false";
+        File rendering = new File(cacheFolder, TEMP_PREFIX + key + FILE_POSTFIX);
+        File preview = new File(cacheFolder, FILE_PREFIX + key + FILE_POSTFIX);
+
+        capture(url, rendering);
+        if (!rendering.exists()) {
+            throw new NotFoundServiceException("No page preview generated for " + url);
+        }
+
+        // Moving and reading is done under the cache lock, as adding to the cache might evict other previews
+        synchronized (cache) {
+            Files.move(rendering.toPath(), preview.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            byte[] png = Files.readAllBytes(preview.toPath());
+            if (maxFiles > 0) {
+                cache.put(key, preview);
+            } else if (!preview.delete()) {
+                log.warn("Unable to delete page preview '{}'", preview);
+            }
+            return png;
+        }
+    }
+
+    /**
+     * Take a screenshot of the page at the url with headless Chrome.
+     * @param url       the page to take a screenshot of.
+     * @param rendering the destination for the screenshot.
+     * @throws NotFoundServiceException if Chrome did not finish within the timeout.
+     */
+    void capture(String url, File rendering) throws Exception {
+        String chromeCommand = PropertiesLoader.CHROME_COMMAND;
+        int timeoutMillis = PropertiesLoader.SCREENSHOT_PREVIEW_TIMEOUT * 1000;
+
+        log.info("Generating preview-image for url:" + url);
+        // example: chromium-browser --headless --disable-gpu --ipc-connection-timeout=3000 --screenshot=test.png --window-size=1280,1024 http://google.com
+        ProcessBuilder pb = new ProcessBuilder(
+                chromeCommand, "--headless", "--disable-gpu", "--ipc-connection-timeout=10000", "--timeout=" + timeoutMillis,
+                "--screenshot=" + rendering.getPath(), "--window-size=1280,1024", url);
+        // Output is not used, but must be consumed to avoid the process blocking on a full pipe
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        log.debug("Screenshot native command:" + String.join(" ", pb.command()));
+
+        Process process = pb.start();
+        // Due to a bug in chromium, the process can hang and never terminate. The
+        // timeout is not working.. Also the screenshot will not be written to file.
+        if (!process.waitFor(timeoutMillis + 5000, TimeUnit.MILLISECONDS)) { // timeout + 5 second before killing.
+            log.info("Timeout generating preview. Due to bug chromium can hang.");
+            process.destroyForcibly();
+            Files.deleteIfExists(rendering.toPath());
+            throw new NotFoundServiceException("Timeout generating page preview"); // Just give a nice 404.
+        }
+    }
+
+    /**
+     * Add existing previews from the cache folder to the cache, oldest first so that they are evicted first.
+     * Stale partial renderings are removed.
+     */
+    private void loadExisting() {
+        if (!cacheFolder.isDirectory()) {
+            log.warn("Page preview folder '{}' does not exist. Page previews will fail", cacheFolder);
+            return;
+        }
+        File[] files = cacheFolder.listFiles((dir, name) -> name.endsWith(FILE_POSTFIX) &&
+                                                            (name.startsWith(FILE_PREFIX) || name.startsWith(TEMP_PREFIX)));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        int loaded;
+        synchronized (cache) {
+            for (File file: files) {
+                String name = file.getName();
+                if (name.startsWith(TEMP_PREFIX) || maxFiles <= 0) {
+                    if (!file.delete()) {
+                        log.warn("Unable to delete stale page preview '{}'", file);
+                    }
+                    continue;
+                }
+                cache.put(name.substring(FILE_PREFIX.length(), name.length() - FILE_POSTFIX.length()), file);
+            }
+            loaded = cache.size();
+        }
+        log.info("Loaded {} existing page previews from '{}'", loaded, cacheFolder);
+    }
+
+    /**
+     * @return a file name safe key for the given capture.
+     */
+    static String createKey(String sourceFilePath, long offset) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((sourceFilePath + "#" + offset).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b: hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 not available", e);
+        }
+    }
+}
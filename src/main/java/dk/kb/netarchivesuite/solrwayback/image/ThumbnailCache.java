@@ -0,0 +1,219 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.image;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Creates and caches PNG thumbnails for images in WARC files. Thumbnails are keyed by
+ * {@code (source_file_path, offset, width, height)} and held in memory, bounded by both
+ * {@link PropertiesLoader#IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES} and {@link PropertiesLoader#IMAGE_THUMBNAIL_CACHE_MAX_BYTES}
+ * and evicting the least recently used. As width and height are chosen by the caller, the byte bound is what keeps
+ * an image requested in many sizes from using unbounded memory.
+ * <p>
+ * Decoding and scaling is memory and CPU heavy, so the number of concurrent thumbnail creations is bounded by
+ * {@link PropertiesLoader#IMAGE_DECODE_CONCURRENT_MAX}. Image search result pages request hundreds of thumbnails
+ * at once, which would otherwise lead to hundreds of full image rasters in memory at the same time.
+ * <p>
+ * This implementation is thread safe.
+ */
+public class ThumbnailCache {
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    // Approximate heap use of an entry besides the bytes: Key and map overhead
+    static final int ENTRY_OVERHEAD = 256;
+
+    private static ThumbnailCache cache;
+    private static Semaphore decoders;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long maxAgeMS;
+    private final LinkedHashMap<String, Cached> thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheBytes = 0;
+    private long calls = 0;
+    private long hits = 0;
+
+    /**
+     * @param sourceFilePath the WARC containing the image.
+     * @param offset         the offset of the image record in the WARC.
+     * @param width          the maximum width of the thumbnail.
+     * @param height         the maximum height of the thumbnail.
+     * @return the cached PNG thumbnail or null if it is not in the cache.
+     */
+    public static byte[] get(String sourceFilePath, long offset, int width, int height) {
+        ThumbnailCache cache = getCache();
+        return cache == null ? null : cache.getThumbnail(createKey(sourceFilePath, offset, width, height));
+    }
+
+    /**
+     * Add a PNG thumbnail to the cache. If caching is disabled, this is a no-op.
+     * @param sourceFilePath the WARC containing the image.
+     * @param offset         the offset of the image record in the WARC.
+     * @param width          the maximum width of the thumbnail.
+     * @param height         the maximum height of the thumbnail.
+     * @param png            the thumbnail.
+     */
+    public static void put(String sourceFilePath, long offset, int width, int height, byte[] png) {
+        ThumbnailCache cache = getCache();
+        if (cache != null && png != null) {
+            cache.putThumbnail(createKey(sourceFilePath, offset, width, height), png);
+        }
+    }
+
+    /**
+     * Decode, downscale and PNG-encode the given image. At most {@link PropertiesLoader#IMAGE_DECODE_CONCURRENT_MAX}
+     * calls are processed concurrently; excess calls block until a decoder is available.
+     * @param image  image bytes, optionally GZIP compressed.
+     * @param width  the maximum width of the thumbnail.
+     * @param height the maximum height of the thumbnail.
+     * @return a PNG representation of the image, scaled down to fit inside width*height,
+     *         or null if the image format is not supported.
+     * @throws IllegalArgumentException if the image is too large to decode.
+     * @see ImageUtils#getScaledImageFromBinary(InputStream, int, int, long)
+     */
+    public static byte[] createThumbnail(InputStream image, int width, int height) throws Exception {
+        Semaphore decoders = getDecoders();
+        decoders.acquire();
+        try {
+            BufferedImage scaled = ImageUtils.getScaledImageFromBinary(
+                    image, width, height, PropertiesLoader.IMAGE_DECODE_MAX_PIXELS);
+            if (scaled == null) {
+                return null;
+            }
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(scaled, "png", png);
+            return png.toByteArray();
+        } finally {
+            decoders.release();
+        }
+    }
+
+    /**
+     * @return statistics for the cache.
+     */
+    public static String getStats() {
+        ThumbnailCache cache = getCache();
+        return cache == null ? "ThumbnailCache(disabled)" : cache.toString();
+    }
+
+    ThumbnailCache(int maxEntries, long maxBytes, long maxAgeMS) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxAgeMS = maxAgeMS;
+    }
+
+    synchronized byte[] getThumbnail(String key) {
+        calls++;
+        Cached cached = thumbnails.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.isExpired()) {
+            removeEntry(key);
+            return null;
+        }
+        hits++;
+        return cached.png;
+    }
+
+    synchronized void putThumbnail(String key, byte[] png) {
+        removeEntry(key);
+        Cached candidate = new Cached(png);
+        if (candidate.size() > maxBytes) {
+            return;
+        }
+        Iterator<Cached> evict = thumbnails.values().iterator();
+        while (evict.hasNext() && (thumbnails.size() >= maxEntries || cacheBytes + candidate.size() > maxBytes)) {
+            cacheBytes -= evict.next().size();
+            evict.remove();
+        }
+        thumbnails.put(key, candidate);
+        cacheBytes += candidate.size();
+    }
+
+    private void removeEntry(String key) {
+        Cached old = thumbnails.remove(key);
+        if (old != null) {
+            cacheBytes -= old.size();
+        }
+    }
+
+    synchronized int size() {
+        return thumbnails.size();
+    }
+
+    synchronized long bytes() {
+        return cacheBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ThumbnailCache(entries=" + thumbnails.size() + "/" + maxEntries +
+               ", bytes=" + cacheBytes + "/" + maxBytes + ", calls=" + calls + ", hits=" + hits + ")";
+    }
+
+    private static String createKey(String sourceFilePath, long offset, int width, int height) {
+        return sourceFilePath + "#" + offset + "#" + width + "x" + height;
+    }
+
+    private static synchronized ThumbnailCache getCache() {
+        if (cache == null && PropertiesLoader.IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES > 0 &&
+            PropertiesLoader.IMAGE_THUMBNAIL_CACHE_MAX_BYTES > 0) {
+            cache = new ThumbnailCache(PropertiesLoader.IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES,
+                                       PropertiesLoader.IMAGE_THUMBNAIL_CACHE_MAX_BYTES,
+                                       PropertiesLoader.IMAGE_THUMBNAIL_CACHE_AGE_SECONDS * 1000L);
+            log.info("Created thumbnail cache with max entries {}, max bytes {} and max age {} seconds",
+                     PropertiesLoader.IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES,
+                     PropertiesLoader.IMAGE_THUMBNAIL_CACHE_MAX_BYTES,
+                     PropertiesLoader.IMAGE_THUMBNAIL_CACHE_AGE_SECONDS);
+        }
+        return cache;
+    }
+
+    private static synchronized Semaphore getDecoders() {
+        if (decoders == null) {
+            decoders = new Semaphore(Math.max(1, PropertiesLoader.IMAGE_DECODE_CONCURRENT_MAX), true);
+        }
+        return decoders;
+    }
+
+    private class Cached {
+        final byte[] png;
+        final long created = System.currentTimeMillis();
+
+        Cached(byte[] png) {
+            this.png = png;
+        }
+
+        long size() {
+            return png.length + ENTRY_OVERHEAD;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - created > maxAgeMS;
+        }
+    }
+}
@@ -15,6 +15,8 @@
 package dk.kb.netarchivesuite.solrwayback.interfaces;
 
 import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import dk.kb.netarchivesuite.solrwayback.util.BlockCache;
+import dk.kb.netarchivesuite.solrwayback.util.BlockCachedInputStream;
 import dk.kb.netarchivesuite.solrwayback.util.SkippingHTTPInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -97,7 +99,9 @@ public class ArcSource implements Supplier<InputStream> {
     }
 
     /**
-     * Construct an ArcSource from a http(s) URL.
+     * Construct an ArcSource from a http(s) URL. Content is read using bounded HTTP Range Requests over the pooled
+     * connections of {@link dk.kb.netarchivesuite.solrwayback.util.HTTPStorageClient} and cached in the
+     * {@link BlockCache}, if enabled.
      * <p>
      * Consider using the general {@link #create(String)} instead of this method.
      * @param httpURL an URL for a WARC.
@@ -113,7 +117,11 @@ public class ArcSource implements Supplier<InputStream> {
 
         return new ArcSource(httpURL, () -> {
             try {
-                return new SkippingHTTPInputStream(url, PropertiesLoader.WARC_SOURCE_HTTP_FALLBACK);
+                BlockCache cache = BlockCache.getInstance();
+                return cache == null ?
+                        new SkippingHTTPInputStream(url, PropertiesLoader.WARC_SOURCE_HTTP_FALLBACK) :
+                        new BlockCachedInputStream(url, PropertiesLoader.WARC_SOURCE_HTTP_FALLBACK, cache,
+                                                   PropertiesLoader.WARC_SOURCE_HTTP_CACHE_READAHEAD);
             } catch (IOException e) {
                 // TODO: This could be extended with a check for 404 for better error message
                 log.error("Unable to open stream for '" + httpURL + "'", e);
@@ -4,18 +4,35 @@ import dk.kb.netarchivesuite.solrwayback.util.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Optional FileLocationResolver interface implementation.
@@ -23,6 +40,10 @@ import java.util.regex.Pattern;
  * This class scans one or more {@link #roots} folders for (W)ARC files and maintains a map from files to locations.
  * This requires WARC filenames to be unique.
  * <p>
+ * Folders are scanned in parallel. The result of a scan is held in a compact {@link FileLocationTable} and persisted
+ * to {@code index.file}, so that subsequent starts can resolve WARCs immediately while a new scan runs in the
+ * background. Rescans are incremental: Folders with unchanged modification time are not listed again.
+ * <p>
  * To activate it, set this in solrwayback.properties:
  * <pre>
  warc.file.resolver.class=AutoFileResolver
@@ -30,13 +51,17 @@ import java.util.regex.Pattern;
  warc.file.resolver.parameters.autoresolver.pattern=.*[.]w?arc([.]gz)?
  warc.file.resolver.parameters.autoresolver.rescan.enabled=false
  warc.file.resolver.parameters.autoresolver.rescan.seconds=1200
+ warc.file.resolver.parameters.autoresolver.rescan.incremental=true
+ warc.file.resolver.parameters.autoresolver.scan.threads=8
+ warc.file.resolver.parameters.autoresolver.index.file=/tmp/solrwayback_autoresolver_[hash].idx
  </pre>
  * Only the {@code roots} parameter is mandatory.
- * {@code pattern}, {@code rescan.enabled} and {@code rescan.seconds} has the
- * defaults shown above
+ * {@code pattern}, {@code rescan.enabled}, {@code rescan.seconds}, {@code rescan.incremental} and
+ * {@code scan.threads} has the defaults shown above. {@code index.file} defaults to a file in {@code java.io.tmpdir}
+ * with a name derived from {@code roots} and {@code pattern}. Set it to the empty string to disable persistence.
+ * <p>
+ * Note: Entries with names matching {@code pattern} are assumed to be files and are not checked for being folders.
  */
-// TODO: Unit test (use the WARCs in test/resources)
-// TODO: Sample solrwayback.properties entries
 // TODO: Changelog update
 @SuppressWarnings("unused")
 public class AutoFileResolver implements ArcFileLocationResolverInterface, Runnable {
@@ -50,6 +75,17 @@ public class AutoFileResolver implements ArcFileLocationResolverInterface, Runna
     public static final boolean RESCAN_ENABLED_DEFAULT = false;
     public static final String  RESCAN_SECONDS_KEY = "autoresolver.rescan.seconds";
     public static final long    RESCAN_SECONDS_DEFAULT = 60;
+    public static final String  RESCAN_INCREMENTAL_KEY = "autoresolver.rescan.incremental";
+    public static final boolean RESCAN_INCREMENTAL_DEFAULT = true;
+    public static final String  SCAN_THREADS_KEY = "autoresolver.scan.threads";
+    public static final int     SCAN_THREADS_DEFAULT = 8;
+    public static final String  INDEX_FILE_KEY = "autoresolver.index.file";
+
+    private static final int INDEX_MAGIC = 0x53574146; // SWAF
+    private static final int INDEX_VERSION = 1;
+    // Folders modified less than this before the previous scan started are always listed, to compensate for
+    // coarse modification time granularity on some file systems
+    private static final long MTIME_GRACE_MS = 2000;
 
     public enum STATE {
         /** Initial scan is running: Lookups will lock until the scan has finished. */
@@ -60,14 +96,18 @@ public class AutoFileResolver implements ArcFileLocationResolverInterface, Runna
         dormant }
 
     /**
-     * Map from filename to path: {@code /a/b/c/test.warc} becomes {@code test.warc} -> {@code /a/b/c}.
+     * Map from filename to folder: {@code /a/b/c/test.warc} becomes {@code test.warc} -> {@code /a/b/c}.
      */
-    private Map<String, String> WARCS = new HashMap<>();
+    private volatile Scan WARCS = Scan.EMPTY;
     private final List<Path> roots = new ArrayList<>();
     private Pattern filePattern;
     private boolean rescanEnabled;
     private long rescanSeconds;
-    private STATE state = STATE.initializing;
+    private boolean rescanIncremental;
+    private int scanThreads;
+    private Path indexFile;
+    private volatile STATE state = STATE.initializing;
+    private final CountDownLatch available = new CountDownLatch(1);
 
     /**
      * Constructs an AutoFileResolver in its uni-initialized state.
@@ -112,15 +152,27 @@ public class AutoFileResolver implements ArcFileLocationResolverInterface, Runna
         rescanSeconds = parameters.containsKey(RESCAN_SECONDS_KEY) ?
                 Long.parseLong(parameters.get(RESCAN_SECONDS_KEY)) :
                 RESCAN_SECONDS_DEFAULT;
+        rescanIncremental = parameters.containsKey(RESCAN_INCREMENTAL_KEY) ?
+                Boolean.parseBoolean(parameters.get(RESCAN_INCREMENTAL_KEY)) :
+                RESCAN_INCREMENTAL_DEFAULT;
+        scanThreads = parameters.containsKey(SCAN_THREADS_KEY) ?
+                Integer.parseInt(parameters.get(SCAN_THREADS_KEY)) :
+                SCAN_THREADS_DEFAULT;
+        String indexFileString = parameters.containsKey(INDEX_FILE_KEY) ?
+                parameters.get(INDEX_FILE_KEY).trim() :
+                Paths.get(System.getProperty("java.io.tmpdir"), "solrwayback_autoresolver_" +
+                          UUID.nameUUIDFromBytes(getSignature().getBytes(StandardCharsets.UTF_8)) + ".idx").toString();
+        indexFile = indexFileString.isEmpty() ? null : Paths.get(indexFileString);
 
         log.info("Assigned parameters for {}", this);
     }
 
     /**
-     * Create and start the Thread for background scanning.
+     * Load the persistent index if available, then create and start the Thread for background scanning.
      */
     @Override
     public void initialize() {
+        loadIndex();
         log.info("Creating and activating scan thread");
         Thread scanThread = new Thread(this, "AutoFileResolverThread");
         scanThread.setDaemon(true); // Shut down the Thread automatically on war redeploy
@@ -133,10 +185,11 @@ public class AutoFileResolver implements ArcFileLocationResolverInterface, Runna
     @SuppressWarnings("BusyWait")
     @Override
     public void run() {
-        long scanCount = 0;
         do { // 1 scan is guaranteed, even if rescanEnabled is false
-            state = scanCount++ == 0 ? STATE.initializing : STATE.scanning;
-            scanFull();
+            if (state != STATE.initializing) {
+                state = STATE.scanning;
+            }
+            scan();
             state = STATE.dormant;
 
             if (rescanEnabled) {
@@ -150,70 +203,352 @@ public class AutoFileResolver implements ArcFileLocationResolverInterface, Runna
     }
 
     /**
-     * Perform a full scan for WARCs from all roots.
+     * Perform a scan for WARCs from all roots. If {@link #rescanIncremental} is true and a previous scan is
+     * available, only folders with changed modification time are listed.
      * The collected mappings only takes effect when the scan has fully completed.
      */
-    private synchronized void scanFull() {
+    synchronized void scan() {
         final long startTime = System.currentTimeMillis();
-        log.info("Starting scan for (W)ARC from roots {}. This might take a while", roots);
+        final Scan previous = rescanIncremental ? WARCS : Scan.EMPTY;
+        log.info("Starting {} scan for (W)ARC from roots {} using {} threads. This might take a while",
+                 previous.folders.length == 0 ? "full" : "incremental", roots, scanThreads);
+
+        ConcurrentLinkedQueue<ScannedFolder> scanned = new ConcurrentLinkedQueue<>();
+        Map<String, Integer> previousIDs = previous.getFolderIDs();
+        int[][] previousChildren = previous.getChildren();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, scanThreads));
+        try {
+            for (Path root: roots) {
+                pool.invoke(new FolderScanner(root, null, previous, previousIDs, previousChildren, scanned));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        WARCS = Scan.merge(previous, scanned, startTime);
+        available.countDown();
+        saveIndex();
+
+        log.info("Finished scan for WARCs from {} roots in {} seconds. Folders: {}, listed folders: {}, " +
+                 "registered files: {}",
+                 roots.size(), (System.currentTimeMillis() - startTime) / 1000, WARCS.folders.length,
+                 scanned.stream().filter(folder -> folder.files != null).count(), WARCS.table.size());
+    }
+
+    /**
+     * Scans a single folder and forks scanners for the sub folders.
+     */
+    private class FolderScanner extends RecursiveAction {
+        private final Path folder;
+        private final String parent;
+        private final Scan previous;
+        private final Map<String, Integer> previousIDs;
+        private final int[][] previousChildren;
+        private final ConcurrentLinkedQueue<ScannedFolder> scanned;
+
+        FolderScanner(Path folder, String parent, Scan previous, Map<String, Integer> previousIDs,
+                      int[][] previousChildren, ConcurrentLinkedQueue<ScannedFolder> scanned) {
+            this.folder = folder;
+            this.parent = parent;
+            this.previous = previous;
+            this.previousIDs = previousIDs;
+            this.previousChildren = previousChildren;
+            this.scanned = scanned;
+        }
+
+        @Override
+        protected void compute() {
+            final String location = folder.toString();
+            long mtime;
+            try {
+                mtime = Files.getLastModifiedTime(folder).toMillis();
+            } catch (NoSuchFileException e) {
+                log.debug("Folder '{}' disappeared during scan", folder);
+                return;
+            } catch (IOException e) {
+                log.warn("Unable to get modification time for folder '" + folder + "'", e);
+                return;
+            }
+
+            List<FolderScanner> subScanners = new ArrayList<>();
+            Integer previousID = previousIDs.get(location);
+            if (previousID != null && previous.mtimes[previousID] == mtime &&
+                mtime < previous.scanStart - MTIME_GRACE_MS) {
+                // Unchanged: Reuse the files from the previous scan and check the known sub folders
+                scanned.add(new ScannedFolder(location, parent, mtime, previousID, null));
+                for (int child: previousChildren[previousID]) {
+                    subScanners.add(createSubScanner(Paths.get(previous.folders[child]), location));
+                }
+            } else {
+                List<String> files = new ArrayList<>();
+                // Performance note: We do not use the more convenient Files.walk as we want to avoid the stat call
+                // for each WARC
+                try (DirectoryStream<Path> pathEntries = Files.newDirectoryStream(folder)) {
+                    for (Path pathEntry: pathEntries) {
+                        String filename = pathEntry.getFileName().toString();
+                        if (filePattern.matcher(filename).matches()) {
+                            files.add(filename);
+                        } else if (Files.isDirectory(pathEntry)) {
+                            subScanners.add(createSubScanner(pathEntry, location));
+                        } else {
+                            log.trace("Scanner encountered non-matching file '{}'", filename);
+                        }
+                    }
+                } catch (AccessDeniedException e) {
+                    log.debug("AccessDeniedException for path '{}'", folder);
+                } catch (IOException e) {
+                    log.warn("Exception while scanning the content of folder '" + folder + "'", e);
+                }
+                scanned.add(new ScannedFolder(location, parent, mtime, -1, files));
+            }
+            invokeAll(subScanners);
+        }
 
-        Map<String, String> newWARCs = new HashMap<>();
-        for (Path root : roots) {
-            scanRoot(root, newWARCs);
+        private FolderScanner createSubScanner(Path subFolder, String location) {
+            return new FolderScanner(subFolder, location, previous, previousIDs, previousChildren, scanned);
         }
-        WARCS = newWARCs;
+    }
+
+    /**
+     * The result of scanning a single folder.
+     */
+    private static class ScannedFolder {
+        final String location;
+        final String parent;
+        final long mtime;
+        final int previousID; // -1 if the folder was listed
+        final List<String> files; // null if the folder was unchanged
 
-        log.info("Finished scan for WARCs from {} roots in {} seconds. Number of registered files: {}",
-                 roots.size(), (System.currentTimeMillis() - startTime) / 1000, WARCS.size());
+        ScannedFolder(String location, String parent, long mtime, int previousID, List<String> files) {
+            this.location = location;
+            this.parent = parent;
+            this.mtime = mtime;
+            this.previousID = previousID;
+            this.files = files;
+        }
     }
 
     /**
-     * Scan recursively from the given {@code path} and add WARC files to the {@code warcs} map.
-     * @param path  folder to scan from.
-     * @param warcs map for collecting WARC to folder mappings.
+     * The immutable result of a full scan: All folders with modification times and parent relations, and the
+     * mapping from WARC filenames to folders.
      */
-    private void scanRoot(Path path, Map<String, String> warcs) {
-        final String location = path.toString(); // TODO: Check that it does not end in '/'
-        // Performance note: We do not use the more convenient Files.walk as we want to ensure that location is
-        // the same object for same path, in order to save heap space for the map
-        try (DirectoryStream<Path> pathEntries = Files.newDirectoryStream(path)) {
-            pathEntries.forEach(pathEntry -> {
-                if (Files.isDirectory(pathEntry)) {
-                    scanRoot(pathEntry, warcs);
-                    return;
+    static class Scan {
+        static final Scan EMPTY = new Scan(new String[0], new long[0], new int[0], FileLocationTable.EMPTY, 0);
+
+        final String[] folders;
+        final long[] mtimes;
+        final int[] parents; // -1 for roots
+        final FileLocationTable table; // The folder dictionary is the same as folders
+        final long scanStart;
+
+        Scan(String[] folders, long[] mtimes, int[] parents, FileLocationTable table, long scanStart) {
+            this.folders = folders;
+            this.mtimes = mtimes;
+            this.parents = parents;
+            this.table = table;
+            this.scanStart = scanStart;
+        }
+
+        Map<String, Integer> getFolderIDs() {
+            Map<String, Integer> ids = new HashMap<>(folders.length*2);
+            for (int i = 0 ; i < folders.length ; i++) {
+                ids.put(folders[i], i);
+            }
+            return ids;
+        }
+
+        int[][] getChildren() {
+            int[] counts = new int[folders.length];
+            for (int parent: parents) {
+                if (parent != -1) {
+                    counts[parent]++;
                 }
-                String filename = pathEntry.getFileName().toString();
-                if (!filePattern.matcher(filename).matches()) {
-                    log.trace("Scanner encountered non-matching file '{}'", filename); //spamming too much during build
-                    return;
+            }
+            int[][] children = new int[folders.length][];
+            for (int i = 0 ; i < folders.length ; i++) {
+                children[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+            for (int i = 0 ; i < parents.length ; i++) {
+                if (parents[i] != -1) {
+                    children[parents[i]][counts[parents[i]]++] = i;
                 }
-                if (warcs.containsKey(filename)) {
-                    log.warn("The WARC name '{}' in folder '{}' is already present in folder '{}'",
-                             filename, location, warcs.get(filename));
+            }
+            return children;
+        }
+
+        /**
+         * Create a new scan from the scanned folders, reusing files from the previous scan for unchanged folders.
+         * <p>
+         * The folders are ordered by path, independent of the order in which they were scanned. If the same filename
+         * is present in multiple folders, the last folder by path wins.
+         */
+        static Scan merge(Scan previous, Collection<ScannedFolder> scannedFolders, long scanStart) {
+            List<ScannedFolder> scanned = new ArrayList<>(scannedFolders);
+            scanned.sort(Comparator.comparing(folder -> folder.location));
+            String[] folders = new String[scanned.size()];
+            long[] mtimes = new long[scanned.size()];
+            int[] parents = new int[scanned.size()];
+            int[] previousToNew = new int[previous.folders.length];
+            Arrays.fill(previousToNew, -1);
+            Map<String, Integer> ids = new HashMap<>(scanned.size()*2);
+            for (int i = 0 ; i < scanned.size() ; i++) {
+                ScannedFolder folder = scanned.get(i);
+                folders[i] = folder.location;
+                mtimes[i] = folder.mtime;
+                ids.put(folder.location, i);
+                if (folder.previousID != -1) {
+                    previousToNew[folder.previousID] = i;
                 }
-                warcs.put(filename, location);
-            });
-        } catch (AccessDeniedException e) {
-            log.debug("AccessDeniedException for path '{}'", path);
+            }
+
+            // The builder keeps the last added of duplicate filenames, so files are added in folder order
+            int[][] reused = getReusedFiles(previous.table, previousToNew, folders.length);
+            FileLocationTable.Builder builder = new FileLocationTable.Builder();
+            for (int i = 0 ; i < scanned.size() ; i++) {
+                ScannedFolder folder = scanned.get(i);
+                parents[i] = folder.parent == null ? -1 : ids.getOrDefault(folder.parent, -1);
+                if (folder.files != null) {
+                    for (String file: folder.files) {
+                        builder.add(file, i);
+                    }
+                } else {
+                    for (int entry: reused[i]) {
+                        builder.add(previous.table.getNameBytes(entry), i);
+                    }
+                }
+            }
+            return new Scan(folders, mtimes, parents, builder.build(folders), scanStart);
+        }
+
+        /**
+         * @return the indexes of the entries in the previous table for each of the new folders.
+         */
+        private static int[][] getReusedFiles(FileLocationTable table, int[] previousToNew, int folderCount) {
+            int[] counts = new int[folderCount];
+            for (int i = 0 ; i < table.size() ; i++) {
+                int folderID = previousToNew[table.getFolderID(i)];
+                if (folderID != -1) {
+                    counts[folderID]++;
+                }
+            }
+            int[][] reused = new int[folderCount][];
+            for (int i = 0 ; i < folderCount ; i++) {
+                reused[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+            for (int i = 0 ; i < table.size() ; i++) {
+                int folderID = previousToNew[table.getFolderID(i)];
+                if (folderID != -1) {
+                    reused[folderID][counts[folderID]++] = i;
+                }
+            }
+            return reused;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(scanStart);
+            out.writeInt(folders.length);
+            for (int i = 0 ; i < folders.length ; i++) {
+                out.writeLong(mtimes[i]);
+                out.writeInt(parents[i]);
+            }
+            table.write(out);
+        }
+
+        static Scan read(DataInputStream in) throws IOException {
+            long scanStart = in.readLong();
+            long[] mtimes = new long[in.readInt()];
+            int[] parents = new int[mtimes.length];
+            for (int i = 0 ; i < mtimes.length ; i++) {
+                mtimes[i] = in.readLong();
+                parents[i] = in.readInt();
+            }
+            FileLocationTable table = FileLocationTable.read(in);
+            if (table.getFolders().length != mtimes.length) {
+                throw new IOException("Inconsistent index: " + mtimes.length + " folders with modification times " +
+                                      "but " + table.getFolders().length + " folders in the table");
+            }
+            return new Scan(table.getFolders(), mtimes, parents, table, scanStart);
+        }
+    }
+
+    /**
+     * @return a String identifying the setup, used for validating the persistent index.
+     */
+    private String getSignature() {
+        return roots + "#" + filePattern.pattern();
+    }
+
+    /**
+     * Load the persistent index from {@link #indexFile}, if available. If loaded, lookups are served from the index
+     * until the next scan has finished.
+     * @return true if the index was loaded.
+     */
+    boolean loadIndex() {
+        if (indexFile == null || !Files.exists(indexFile)) {
+            return false;
+        }
+        long startTime = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(indexFile), 65536)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                log.info("The index '{}' is not a supported AutoFileResolver index. Ignoring it", indexFile);
+                return false;
+            }
+            String signature = in.readUTF();
+            if (!getSignature().equals(signature)) {
+                log.info("The index '{}' was created for '{}' and not '{}'. Ignoring it",
+                         indexFile, signature, getSignature());
+                return false;
+            }
+            WARCS = Scan.read(in);
+            if (state == STATE.initializing) {
+                state = STATE.scanning;
+            }
+            available.countDown();
+        } catch (Exception e) {
+            log.warn("Unable to load index '" + indexFile + "'. A full scan will be performed", e);
+            return false;
+        }
+        log.info("Loaded index '{}' with {} files in {} folders in {} ms",
+                 indexFile, WARCS.table.size(), WARCS.folders.length, System.currentTimeMillis() - startTime);
+        return true;
+    }
+
+    /**
+     * Store the current scan in {@link #indexFile}. Failure is logged but otherwise ignored.
+     */
+    private void saveIndex() {
+        if (indexFile == null) {
+            return;
+        }
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp), 65536)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeUTF(getSignature());
+                WARCS.write(out);
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
-            log.warn("Exception while scanning the content of folder '" + path + "'", e);
+            log.warn("Unable to store index '" + indexFile + "'", e);
         }
     }
 
     @Override
     public ArcSource resolveArcFileLocation(String source_file_path){
-        while (state == STATE.initializing) {
-            try {
-                // Busy wait is not the clean way, but this is only relevant during startup
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                log.debug("Interrupted while waiting for state change. This is not problematic");
-            }
+        try {
+            available.await(); // Only blocks until the persistent index has been loaded or the first scan has finished
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for the initial scan. Using the current mapping");
+            Thread.currentThread().interrupt();
         }
 
         // This apparent arbitrary file access is handled in the facade if warc.files.verify.collection==true
         String fileName = new File(source_file_path).getName();
-        String value = WARCS.get(fileName);
+        String value = WARCS.table.getFolder(fileName);
 
         String finalPath = value == null ? source_file_path : value + "/" + fileName;
 
@@ -234,8 +569,11 @@ public class AutoFileResolver implements ArcFileLocationResolverInterface, Runna
                ", filePattern=" + filePattern +  "'" +
                ", rescanEnabled=" + rescanEnabled +
                ", rescanSeconds=" + rescanSeconds +
+               ", rescanIncremental=" + rescanIncremental +
+               ", scanThreads=" + scanThreads +
+               ", indexFile=" + indexFile +
                ", state=" + state +
-               ", #WARCS=" + WARCS.size() +
+               ", #WARCS=" + WARCS.table.size() +
                '}';
     }
 }
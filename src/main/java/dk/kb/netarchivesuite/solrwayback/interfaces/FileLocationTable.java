@@ -0,0 +1,264 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.interfaces;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact immutable map from filenames to folders, used for resolving WARC locations.
+ * <p>
+ * Folders are held once in a dictionary and referenced by ID. Filenames are stored as UTF-8 in a single byte array,
+ * sorted by unsigned byte order, and looked up with binary search. Compared to a {@code HashMap<String, String>}
+ * this uses a fraction of the heap: About {@code filename length + 8} bytes per file.
+ * <p>
+ * This implementation is thread safe.
+ */
+public class FileLocationTable {
+    private static final Logger log = LoggerFactory.getLogger(FileLocationTable.class);
+
+    public static final FileLocationTable EMPTY = new Builder().build(new String[0]);
+
+    private final String[] folders;
+    private final byte[] names;
+    private final int[] offsets; // Start of name i in names. offsets[size] == names.length
+    private final int[] folderIDs;
+
+    private FileLocationTable(String[] folders, byte[] names, int[] offsets, int[] folderIDs) {
+        this.folders = folders;
+        this.names = names;
+        this.offsets = offsets;
+        this.folderIDs = folderIDs;
+    }
+
+    /**
+     * @param filename a filename without folder, e.g. {@code test.warc.gz}.
+     * @return the folder for the filename or null if the filename is unknown.
+     */
+    public String getFolder(String filename) {
+        int index = indexOf(filename.getBytes(StandardCharsets.UTF_8));
+        return index < 0 ? null : folders[folderIDs[index]];
+    }
+
+    /**
+     * @param filename UTF-8 bytes for a filename without folder.
+     * @return the index of the filename or a negative value if the filename is unknown.
+     */
+    int indexOf(byte[] filename) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Arrays.compareUnsigned(names, offsets[mid], offsets[mid+1], filename, 0, filename.length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of files in the table.
+     */
+    public int size() {
+        return folderIDs.length;
+    }
+
+    /**
+     * @return the folder dictionary. Must not be modified.
+     */
+    public String[] getFolders() {
+        return folders;
+    }
+
+    /**
+     * @param index 0 &lt;= index &lt; {@link #size()}.
+     * @return the filename at the given index.
+     */
+    public String getName(int index) {
+        return new String(names, offsets[index], offsets[index+1] - offsets[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index 0 &lt;= index &lt; {@link #size()}.
+     * @return the UTF-8 bytes for the filename at the given index.
+     */
+    byte[] getNameBytes(int index) {
+        return Arrays.copyOfRange(names, offsets[index], offsets[index+1]);
+    }
+
+    /**
+     * @param index 0 &lt;= index &lt; {@link #size()}.
+     * @return the folder ID for the filename at the given index.
+     */
+    public int getFolderID(int index) {
+        return folderIDs[index];
+    }
+
+    /**
+     * Write the table, including the folder dictionary, to the given stream.
+     * @param out destination.
+     * @throws IOException if the table could not be written.
+     * @see #read(DataInputStream)
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(folders.length);
+        for (String folder: folders) {
+            out.writeUTF(folder);
+        }
+        out.writeInt(size());
+        for (int i = 0 ; i < size() ; i++) {
+            out.writeShort(offsets[i+1] - offsets[i]);
+            out.writeInt(folderIDs[i]);
+        }
+        out.writeInt(names.length);
+        out.write(names);
+    }
+
+    /**
+     * Read a table written with {@link #write(DataOutputStream)}.
+     * @param in source.
+     * @return the table read from the stream.
+     * @throws IOException if the table could not be read.
+     */
+    public static FileLocationTable read(DataInputStream in) throws IOException {
+        String[] folders = new String[in.readInt()];
+        for (int i = 0 ; i < folders.length ; i++) {
+            folders[i] = in.readUTF();
+        }
+        int size = in.readInt();
+        int[] offsets = new int[size+1];
+        int[] folderIDs = new int[size];
+        for (int i = 0 ; i < size ; i++) {
+            offsets[i+1] = offsets[i] + in.readUnsignedShort();
+            folderIDs[i] = in.readInt();
+        }
+        byte[] names = new byte[in.readInt()];
+        in.readFully(names);
+        if (names.length != offsets[size]) {
+            throw new IOException("Inconsistent table: Expected " + offsets[size] + " name bytes but got " +
+                                  names.length);
+        }
+        return new FileLocationTable(folders, names, offsets, folderIDs);
+    }
+
+    @Override
+    public String toString() {
+        return "FileLocationTable(files=" + size() + ", folders=" + folders.length + ", nameBytes=" + names.length + ")";
+    }
+
+    /**
+     * Collects filename to folder ID mappings. Duplicate filenames are logged and only the last added is kept,
+     * matching the overwrite semantics of a plain {@code Map.put}.
+     * <p>
+     * This implementation is not thread safe.
+     */
+    public static class Builder {
+        private byte[][] names = new byte[1024][];
+        private int[] folderIDs = new int[1024];
+        private int size = 0;
+
+        /**
+         * @param filename a filename without folder.
+         * @param folderID the ID of the folder in the folder dictionary given to {@link #build(String[])}.
+         * @return the builder, for chaining.
+         */
+        public Builder add(String filename, int folderID) {
+            return add(filename.getBytes(StandardCharsets.UTF_8), folderID);
+        }
+
+        /**
+         * @param filename UTF-8 bytes for a filename without folder.
+         * @param folderID the ID of the folder in the folder dictionary given to {@link #build(String[])}.
+         * @return the builder, for chaining.
+         */
+        public Builder add(byte[] filename, int folderID) {
+            if (filename.length > 65535) {
+                throw new IllegalArgumentException("Filename too long: " + filename.length + " bytes");
+            }
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size*2);
+                folderIDs = Arrays.copyOf(folderIDs, size*2);
+            }
+            names[size] = filename;
+            folderIDs[size++] = folderID;
+            return this;
+        }
+
+        /**
+         * @param folders the folder dictionary, where the folder ID is the index.
+         * @return an immutable table with the added filenames.
+         */
+        public FileLocationTable build(String[] folders) {
+            int[] order = new int[size];
+            for (int i = 0 ; i < size ; i++) {
+                order[i] = i;
+            }
+            final byte[][] names = this.names;
+            IntArrays.stableSort(order, (o1, o2) -> Arrays.compareUnsigned(names[o1], names[o2]));
+
+            // The sort is stable, so the last of a run of equal names is the last added
+            int unique = 0;
+            long nameBytes = 0;
+            for (int i = 0 ; i < size ; i++) {
+                if (i < size-1 && Arrays.equals(names[order[i]], names[order[i+1]])) {
+                    continue;
+                }
+                unique++;
+                nameBytes += names[order[i]].length;
+            }
+            if (nameBytes > Integer.MAX_VALUE) {
+                throw new IllegalStateException("The filenames takes up " + nameBytes + " bytes. Max is 2GB");
+            }
+
+            byte[] packed = new byte[(int) nameBytes];
+            int[] offsets = new int[unique+1];
+            int[] packedFolderIDs = new int[unique];
+            int index = 0;
+            for (int i = 0 ; i < size ; i++) {
+                byte[] name = names[order[i]];
+                if (i < size-1 && Arrays.equals(name, names[order[i+1]])) {
+                    log.warn("The filename '{}' in folder '{}' is also present in folder '{}', which is used",
+                             new String(name, StandardCharsets.UTF_8), folders[folderIDs[order[i]]],
+                             folders[folderIDs[order[i+1]]]);
+                    continue;
+                }
+                System.arraycopy(name, 0, packed, offsets[index], name.length);
+                packedFolderIDs[index] = folderIDs[order[i]];
+                offsets[index+1] = offsets[index] + name.length;
+                index++;
+            }
+            return new FileLocationTable(folders, packed, offsets, packedFolderIDs);
+        }
+
+        /**
+         * @return the number of added filenames, including duplicates.
+         */
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -34,6 +34,9 @@ import java.nio.file.Paths;
  * 
  * The Solr index has the filename stored already, but the full path in solr can be changed since indexing.
  * If the filename is found the list, the resolver will use this full path instead of the one stored in solr.
+ *
+ * For large mappings, the text file can be converted to a {@link MappedFileLocationIndex}, which is used directly
+ * from storage: The file type is detected automatically.
  * 
  */
 public class FileMovedMappingResolver implements ArcFileLocationResolverInterface {
@@ -44,6 +47,8 @@ public class FileMovedMappingResolver implements ArcFileLocationResolverInterfac
     //key: test.warc
     //value:/a/b/c  (notice the missing / in the end). This is to save memory instead of having full path as value
     private static HashMap<String,String> FILE_MAP = new HashMap<String,String>();
+    // Used instead of FILE_MAP if the mapping file is a prebuilt index
+    private MappedFileLocationIndex index = null;
     String mappingFile=null;
     
     public FileMovedMappingResolver() {
@@ -71,6 +76,17 @@ public class FileMovedMappingResolver implements ArcFileLocationResolverInterfac
             return;
         }        
 
+        if (MappedFileLocationIndex.isIndex(Paths.get(mappingFile))) {
+            try {
+                index = MappedFileLocationIndex.open(Paths.get(mappingFile));
+                log.info("Initialized success. Using " + index);
+            } catch (IOException e) {
+                log.error("Error opening index:"+mappingFile, e);
+                log.error("Failed initializing FileMovedMappingResolver");
+            }
+            return;
+        }
+
         //read file and parse each line 
         try (Stream<String> stream = Files.lines(Paths.get(mappingFile))) {
            stream.forEach((k) -> {
@@ -92,7 +108,7 @@ public class FileMovedMappingResolver implements ArcFileLocationResolverInterfac
     @Override
     public ArcSource resolveArcFileLocation(String source_file_path){
         String fileName = new File(source_file_path).getName();
-        String value = FILE_MAP.get(fileName);
+        String value = index == null ? FILE_MAP.get(fileName) : index.getFolder(fileName);
 
         String finalPath = value == null ? source_file_path : value + "/" + fileName;
 
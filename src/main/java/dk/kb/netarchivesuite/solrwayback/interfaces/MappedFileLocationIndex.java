@@ -0,0 +1,445 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.interfaces;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Memory mapped, immutable map from filenames to folders, intended for mappings with millions of WARCs.
+ * <p>
+ * The index is a file containing filenames sorted by unsigned UTF-8 byte order, grouped in blocks of
+ * {@link #DEFAULT_BLOCK_SIZE} entries. Inside a block, each filename is front coded: Only the length of the prefix
+ * shared with the previous filename and the remaining suffix are stored. Folders are stored once in a dictionary and
+ * referenced by ID. Lookups are binary searches on the first filename of each block, followed by a scan of a single
+ * block.
+ * <p>
+ * Opening an index only reads the header and the folder dictionary: Startup time and heap usage is independent of
+ * the number of filenames. The index is created from a text mapping with one full path per line using
+ * {@link #build(Path, Path)} or from the command line:
+ * <pre>
+ java -cp 'WEB-INF/classes:WEB-INF/lib/*' dk.kb.netarchivesuite.solrwayback.interfaces.MappedFileLocationIndex \
+      netarkivet.files netarkivet.idx
+ </pre>
+ * This implementation is thread safe.
+ * @see FileMovedMappingResolver
+ */
+public class MappedFileLocationIndex {
+    private static final Logger log = LoggerFactory.getLogger(MappedFileLocationIndex.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+
+    private static final int MAGIC = 0x5357464C; // SWFL
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    // Memory mapping is limited to 2GB per buffer. Blocks never cross a chunk boundary
+    private static final int CHUNK_SHIFT = 30; // 1GB
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final Path indexFile;
+    private final int size;
+    private final int blockSize;
+    private final int maxNameLength;
+    private final String[] folders;
+    private final MappedByteBuffer[] chunks;
+    private final LongBuffer blockOffsets;
+
+    private MappedFileLocationIndex(Path indexFile, int size, int blockSize, int maxNameLength, String[] folders,
+                                    MappedByteBuffer[] chunks, LongBuffer blockOffsets) {
+        this.indexFile = indexFile;
+        this.size = size;
+        this.blockSize = blockSize;
+        this.maxNameLength = maxNameLength;
+        this.folders = folders;
+        this.chunks = chunks;
+        this.blockOffsets = blockOffsets;
+    }
+
+    /**
+     * Map the given index file.
+     * @param indexFile an index created with {@link #build(Path, Path)} or {@link #write(FileLocationTable, Path)}.
+     * @return the mapped index.
+     * @throws IOException if the index could not be opened or was not a valid index.
+     */
+    public static MappedFileLocationIndex open(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("The file '" + indexFile + "' is not a file location index");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("The file location index '" + indexFile + "' has version " + version +
+                                      " but only version " + VERSION + " is supported");
+            }
+            int size = header.getInt();
+            int blockSize = header.getInt();
+            int maxNameLength = header.getInt();
+            int folderCount = header.getInt();
+            long blockIndexOffset = header.getLong();
+            long folderOffset = header.getLong();
+            long fileLength = header.getLong();
+            if (fileLength != channel.size()) {
+                throw new IOException("The file location index '" + indexFile + "' should be " + fileLength +
+                                      " bytes but was " + channel.size() + " bytes");
+            }
+
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((blockIndexOffset + CHUNK_MASK) >>> CHUNK_SHIFT)];
+            for (int c = 0 ; c < chunks.length ; c++) {
+                long start = (long) c << CHUNK_SHIFT;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                        Math.min(blockIndexOffset - start, CHUNK_MASK + 1));
+            }
+            int blocks = (size + blockSize - 1) / blockSize;
+            LongBuffer blockOffsets = channel.map(
+                    FileChannel.MapMode.READ_ONLY, blockIndexOffset, (long) blocks * Long.BYTES).asLongBuffer();
+
+            String[] folders = new String[folderCount];
+            ByteBuffer folderBuffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, folderOffset, fileLength - folderOffset);
+            for (int i = 0 ; i < folderCount ; i++) {
+                byte[] folder = new byte[folderBuffer.getInt()];
+                folderBuffer.get(folder);
+                folders[i] = new String(folder, StandardCharsets.UTF_8);
+            }
+            return new MappedFileLocationIndex(
+                    indexFile, size, blockSize, maxNameLength, folders, chunks, blockOffsets);
+        }
+    }
+
+    /**
+     * @param file any file.
+     * @return true if the file starts with the magic bytes for a file location index.
+     */
+    public static boolean isIndex(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] magic = in.readNBytes(4);
+            return magic.length == 4 && ByteBuffer.wrap(magic).getInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param filename a filename without folder, e.g. {@code test.warc.gz}.
+     * @return the folder for the filename or null if the filename is unknown.
+     */
+    public String getFolder(String filename) {
+        byte[] key = filename.getBytes(StandardCharsets.UTF_8);
+        if (key.length > maxNameLength || size == 0) {
+            return null;
+        }
+
+        // Locate the last block with first filename <= key
+        int low = 0;
+        int high = blockOffsets.limit() - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareFirst(blockOffsets.get(mid), key);
+            if (cmp < 0) {
+                block = mid;
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                block = mid;
+                break;
+            }
+        }
+        if (block == -1) {
+            return null;
+        }
+
+        // Scan the block
+        byte[] name = new byte[maxNameLength];
+        long pos = blockOffsets.get(block);
+        int entries = Math.min(blockSize, size - block * blockSize);
+        for (int i = 0 ; i < entries ; i++) {
+            int shared = readVarInt(pos);
+            pos += varIntLength(shared);
+            int suffixLength = readVarInt(pos);
+            pos += varIntLength(suffixLength);
+            for (int b = 0 ; b < suffixLength ; b++) {
+                name[shared + b] = get(pos++);
+            }
+            int folderID = readVarInt(pos);
+            pos += varIntLength(folderID);
+
+            int cmp = Arrays.compareUnsigned(name, 0, shared + suffixLength, key, 0, key.length);
+            if (cmp == 0) {
+                return folders[folderID];
+            }
+            if (cmp > 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compare the first filename in the block at the given position with the key.
+     */
+    private int compareFirst(long pos, byte[] key) {
+        pos += varIntLength(0); // shared is always 0 for the first entry
+        int length = readVarInt(pos);
+        pos += varIntLength(length);
+        int common = Math.min(length, key.length);
+        for (int i = 0 ; i < common ; i++) {
+            int cmp = Byte.toUnsignedInt(get(pos + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private byte get(long pos) {
+        return chunks[(int) (pos >>> CHUNK_SHIFT)].get((int) (pos & CHUNK_MASK));
+    }
+
+    private int readVarInt(long pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = get(pos++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of filenames in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct folders in the index.
+     */
+    public int getFolderCount() {
+        return folders.length;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFileLocationIndex(file='" + indexFile + "', files=" + size + ", folders=" + folders.length +
+               ", blockSize=" + blockSize + ")";
+    }
+
+    /**
+     * Create an index from a text mapping with one full path per line, e.g. {@code /storage/warcs/col1/a.warc.gz}.
+     * Empty lines and lines without folder are ignored.
+     * If the same filename occurs in more than one line, the last is used and a warning is logged, as for the plain
+     * text mapping in {@link FileMovedMappingResolver}.
+     * @param mappingFile a text file with one full path per line.
+     * @param indexFile   the destination for the index. Will be overwritten if it exists.
+     * @throws IOException if the mapping could not be read or the index could not be written.
+     */
+    public static void build(Path mappingFile, Path indexFile) throws IOException {
+        long startTime = System.currentTimeMillis();
+        FileLocationTable.Builder builder = new FileLocationTable.Builder();
+        Map<String, Integer> folderIDs = new HashMap<>();
+        try (Stream<String> lines = Files.lines(mappingFile)) {
+            lines.map(String::trim).filter(line -> !line.isEmpty()).forEach(line -> {
+                File file = new File(line);
+                if (file.getParent() == null) {
+                    log.debug("Ignoring line without folder '{}'", line);
+                    return;
+                }
+                builder.add(file.getName(), folderIDs.computeIfAbsent(file.getParent(), folder -> folderIDs.size()));
+            });
+        }
+        String[] folders = new String[folderIDs.size()];
+        folderIDs.forEach((folder, id) -> folders[id] = folder);
+        write(builder.build(folders), indexFile);
+        log.info("Created index '{}' from '{}' with {} files in {} folders in {} seconds",
+                 indexFile, mappingFile, builder.size(), folders.length,
+                 (System.currentTimeMillis() - startTime) / 1000);
+    }
+
+    /**
+     * Write the table as an index with {@link #DEFAULT_BLOCK_SIZE} filenames per block.
+     * @param table     the filenames and folders to write.
+     * @param indexFile the destination for the index. Will be overwritten if it exists.
+     * @throws IOException if the index could not be written.
+     */
+    public static void write(FileLocationTable table, Path indexFile) throws IOException {
+        write(table, indexFile, DEFAULT_BLOCK_SIZE);
+    }
+
+    static void write(FileLocationTable table, Path indexFile, int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size must be positive but was " + blockSize);
+        }
+        int blocks = (table.size() + blockSize - 1) / blockSize;
+        long[] blockOffsets = new long[blocks];
+        int maxNameLength = 0;
+        long blockIndexOffset;
+        long folderOffset;
+        long fileLength;
+        try (CountingOutputStream out = new CountingOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(indexFile), 1 << 16))) {
+            out.pad(HEADER_SIZE); // Written when the offsets are known
+
+            ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream();
+            byte[] previous = new byte[0];
+            for (int block = 0 ; block < blocks ; block++) {
+                blockBuffer.reset();
+                int end = Math.min(table.size(), (block + 1) * blockSize);
+                for (int i = block * blockSize ; i < end ; i++) {
+                    byte[] name = table.getNameBytes(i);
+                    maxNameLength = Math.max(maxNameLength, name.length);
+                    int shared = i == block * blockSize ? 0 : sharedPrefix(previous, name);
+                    writeVarInt(blockBuffer, shared);
+                    writeVarInt(blockBuffer, name.length - shared);
+                    blockBuffer.write(name, shared, name.length - shared);
+                    writeVarInt(blockBuffer, table.getFolderID(i));
+                    previous = name;
+                }
+                long blockEnd = out.position + blockBuffer.size() - 1;
+                if ((out.position >>> CHUNK_SHIFT) != (blockEnd >>> CHUNK_SHIFT)) {
+                    out.pad(((blockEnd >>> CHUNK_SHIFT) << CHUNK_SHIFT) - out.position);
+                }
+                blockOffsets[block] = out.position;
+                blockBuffer.writeTo(out);
+            }
+
+            blockIndexOffset = out.position;
+            ByteBuffer longBuffer = ByteBuffer.allocate(Long.BYTES);
+            for (long blockOffset: blockOffsets) {
+                longBuffer.clear();
+                out.write(longBuffer.putLong(blockOffset).array());
+            }
+
+            folderOffset = out.position;
+            ByteBuffer intBuffer = ByteBuffer.allocate(Integer.BYTES);
+            for (String folder: table.getFolders()) {
+                byte[] utf8 = folder.getBytes(StandardCharsets.UTF_8);
+                intBuffer.clear();
+                out.write(intBuffer.putInt(utf8.length).array());
+                out.write(utf8);
+            }
+            fileLength = out.position;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(table.size()).putInt(blockSize).putInt(maxNameLength).
+                putInt(table.getFolders().length).
+                putLong(blockIndexOffset).putLong(folderOffset).putLong(fileLength);
+        header.clear();
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+        }
+    }
+
+    private static int sharedPrefix(byte[] previous, byte[] name) {
+        int max = Math.min(previous.length, name.length);
+        int shared = 0;
+        while (shared < max && previous[shared] == name[shared]) {
+            shared++;
+        }
+        return shared;
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Keeps track of the number of written bytes, as {@code DataOutputStream#size()} overflows at 2GB.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long position = 0;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        void pad(long bytes) throws IOException {
+            for (long i = 0 ; i < bytes ; i++) {
+                write(0);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Create an index from a text mapping, see {@link #build(Path, Path)}.
+     * @param args the text mapping and the index file.
+     * @throws IOException if the index could not be created.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: MappedFileLocationIndex <text mapping> <index file>");
+            System.err.println("The text mapping holds one full path to a WARC per line");
+            System.exit(2);
+        }
+        build(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Created " + open(Paths.get(args[1])));
+    }
+}
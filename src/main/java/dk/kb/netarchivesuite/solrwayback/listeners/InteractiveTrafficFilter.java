@@ -0,0 +1,64 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.listeners;
+
+import dk.kb.netarchivesuite.solrwayback.util.InteractiveTraffic;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Registers all service requests, except exports, as {@link InteractiveTraffic} for the duration of the request.
+ * Defined in web.xml.
+ */
+public class InteractiveTrafficFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!isInteractive(request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        InteractiveTraffic.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            InteractiveTraffic.end();
+        }
+    }
+
+    /**
+     * Exports, synchronous as well as jobs, are bulk traffic.
+     */
+    static boolean isInteractive(ServletRequest request) {
+        return !(request instanceof HttpServletRequest) ||
+               !((HttpServletRequest) request).getRequestURI().contains("/export/");
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
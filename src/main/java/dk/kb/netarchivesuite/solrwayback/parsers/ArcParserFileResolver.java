@@ -3,8 +3,10 @@ package dk.kb.netarchivesuite.solrwayback.parsers;
 import dk.kb.netarchivesuite.solrwayback.interfaces.ArcFileLocationResolverInterface;
 import dk.kb.netarchivesuite.solrwayback.interfaces.ArcSource;
 import dk.kb.netarchivesuite.solrwayback.interfaces.RewriteLocationResolver;
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
 import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
 import dk.kb.netarchivesuite.solrwayback.service.exception.NotFoundServiceException;
+import dk.kb.netarchivesuite.solrwayback.solr.TimeCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,6 +20,8 @@ import java.util.HashMap;
  * 
  * When a file has been resolved it will cache the location making future requests fasters. 
  * TODO implement a max cache size.
+ *
+ * Header-only lookups through getRecordHeader are cached per (file, offset), see warc.header.cache.max.entries.
  *  
  * It will just call the ArcFileParserFactory with the resolved filename.
  * 
@@ -25,6 +29,7 @@ import java.util.HashMap;
 public class ArcParserFileResolver {
 
   private static final HashMap<String, ArcSource> cache = new HashMap<>();
+  private static TimeCache<RecordHeader> headerCache;
 
   private static ArcFileLocationResolverInterface resolver = new RewriteLocationResolver(); // Default
   private static final Logger log = LoggerFactory.getLogger(ArcFileLocationResolverInterface.class);
@@ -47,25 +52,77 @@ public class ArcParserFileResolver {
     String source_file_path = source_file_path_org.trim();
 
     try {
-      ArcSource arcSource = cache.get(source_file_path);
-      if (arcSource == null) {
-
-        arcSource = resolver.resolveArcFileLocation(source_file_path);
-        cache.put(source_file_path, arcSource);
-      }
+      return ArcFileParserFactory.getArcEntry(getArcSource(source_file_path), offset);
+    } catch (Exception e) {
+      throw handleException(e, source_file_path, offset);
+    }
+  }
 
-      return ArcFileParserFactory.getArcEntry(arcSource, offset);
+  /**
+   * Read only the WARC and HTTP headers for the record, without creating an {@link ArcEntry}. This is considerably
+   * faster than {@link #getArcEntry(String, long)} and the result is cached.
+   * @param source_file_path_org the file location, as stated in the index.
+   * @param offset               offset in the (W)ARC file.
+   * @return the headers for the record.
+   */
+  public static RecordHeader getRecordHeader(String source_file_path_org, long offset) throws Exception {
+    String source_file_path = source_file_path_org.trim();
 
+    TimeCache<RecordHeader> headerCache = getHeaderCache();
+    String key = source_file_path + "#" + offset;
+    RecordHeader header = headerCache == null ? null : headerCache.get(key);
+    if (header != null) {
+      return header;
+    }
+    try {
+      header = RecordHeaderParser.parse(getArcSource(source_file_path), offset);
     } catch (Exception e) {
-      if (e instanceof RuntimeException && e.getCause() instanceof FileNotFoundException) {
-        // The only thing throwing FileNotFoundExceptions should be ArcSource.get and that already logs errors
-        throw new NotFoundServiceException("Unable to locate (W)ARC '" + source_file_path + "'");
-      }
-      // It CAN happen, but crazy unlikely, and not critical at all... (took 10
-      // threads spamming 1M+ requests/sec for it to happen in a test.):
-      log.error("Critical error resolving warc:" + source_file_path + " and offset:" + offset + " Error:" + e.getMessage());
-      throw new Exception(e);
+      throw handleException(e, source_file_path, offset);
+    }
+    if (headerCache != null) {
+      headerCache.put(key, header);
+    }
+    return header;
+  }
+
+  /**
+   * @return statistics for the header cache.
+   */
+  public static String getHeaderCacheStats() {
+    TimeCache<RecordHeader> headerCache = getHeaderCache();
+    return headerCache == null ? "RecordHeaderCache(disabled)" :
+            "RecordHeaderCache(entries=" + headerCache.size() + "/" + headerCache.capacity() +
+            ", calls=" + headerCache.getCalls() + ", hits=" + headerCache.getHits() + ")";
+  }
+
+  private static ArcSource getArcSource(String source_file_path) {
+    ArcSource arcSource = cache.get(source_file_path);
+    if (arcSource == null) {
+      arcSource = resolver.resolveArcFileLocation(source_file_path);
+      cache.put(source_file_path, arcSource);
+    }
+    return arcSource;
+  }
+
+  private static Exception handleException(Exception e, String source_file_path, long offset) {
+    if (e instanceof RuntimeException && e.getCause() instanceof FileNotFoundException) {
+      // The only thing throwing FileNotFoundExceptions should be ArcSource.get and that already logs errors
+      return new NotFoundServiceException("Unable to locate (W)ARC '" + source_file_path + "'");
+    }
+    // It CAN happen, but crazy unlikely, and not critical at all... (took 10
+    // threads spamming 1M+ requests/sec for it to happen in a test.):
+    log.error("Critical error resolving warc:" + source_file_path + " and offset:" + offset + " Error:" + e.getMessage());
+    return new Exception(e);
+  }
+
+  private static synchronized TimeCache<RecordHeader> getHeaderCache() {
+    if (headerCache == null && PropertiesLoader.WARC_HEADER_CACHE_MAX_ENTRIES > 0) {
+      headerCache = new TimeCache<>(PropertiesLoader.WARC_HEADER_CACHE_MAX_ENTRIES,
+                                    PropertiesLoader.WARC_HEADER_CACHE_AGE_SECONDS * 1000L);
+      log.info("Created record header cache with max entries {} and max age {} seconds",
+               PropertiesLoader.WARC_HEADER_CACHE_MAX_ENTRIES, PropertiesLoader.WARC_HEADER_CACHE_AGE_SECONDS);
     }
+    return headerCache;
   }
 
 }
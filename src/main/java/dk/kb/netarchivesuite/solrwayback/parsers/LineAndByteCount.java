@@ -1,5 +1,11 @@
 package dk.kb.netarchivesuite.solrwayback.parsers;
 
+/**
+ * A header line and the number of bytes it took up in the (W)ARC, including the line break.
+ * @deprecated Only used by the deprecated {@code readLineCount} methods in {@link WarcParser} and {@link ArcParser}.
+ *             Record headers are parsed by {@link RecordHeaderParser}.
+ */
+@Deprecated
 public class LineAndByteCount {
 private String line;
 private int byteCount;
@@ -0,0 +1,462 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.parsers;
+
+import dk.kb.netarchivesuite.solrwayback.interfaces.ArcSource;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+import dk.kb.netarchivesuite.solrwayback.util.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Immutable view of the headers for a single (W)ARC record: The WARC header block (or the ARC record line) and
+ * the HTTP header block. The raw header bytes are held together with the offsets of the lines and the fields
+ * needed by the frontend are extracted directly from the bytes, so no Strings are created for ignored headers.
+ * <p>
+ * Instances are created by {@link RecordHeaderParser} and are cached by
+ * {@link ArcParserFileResolver#getRecordHeader(String, long)}. The content of the record is not available from
+ * the header; use {@link ArcParserFileResolver#getArcEntry(String, long)} for that.
+ * <p>
+ * This class is thread safe.
+ */
+public class RecordHeader {
+    private static final Logger log = LoggerFactory.getLogger(RecordHeader.class);
+
+    private static final byte[] WARC_TARGET_URI = lower("WARC-Target-URI:");
+    private static final byte[] WARC_DATE = lower("WARC-Date:");
+    private static final byte[] WARC_TYPE = lower("WARC-Type:");
+    private static final byte[] CONTENT_LENGTH = lower("Content-Length:");
+    private static final byte[] CONTENT_TYPE = lower("Content-Type:");
+    private static final byte[] CONTENT_ENCODING = lower("Content-Encoding:");
+    private static final byte[] LOCATION = lower("Location:");
+    private static final byte[] TRANSFER_ENCODING = lower("Transfer-Encoding:");
+
+    private final ArcEntry.FORMAT format;
+    private final byte[] bytes;
+    private final int[] lines; // Pairs of [start, end[ in bytes, excluding line endings
+    private final int httpLine; // Index of the HTTP status line, -1 if there are no HTTP headers
+
+    private ArcEntry.TYPE type;
+    private String url;
+    private String ip;
+    private String crawlDate;
+    private String waybackDate;
+    private int statusCode;
+    private String contentType;
+    private String contentCharset;
+    private String contentEncoding;
+    private String redirectUrl;
+    private boolean chunked = false;
+    private long warcEntryContentLength = -1;
+    private long contentLength = -1;
+    private long binaryArraySize;
+
+    /**
+     * @param format      WARC or ARC.
+     * @param bytes       the raw header bytes, including line endings. The array is used directly.
+     * @param lines       pairs of {@code [start, end[} for each line in bytes, excluding line endings. Copied.
+     * @param lineCount   the number of lines.
+     * @param httpLine    the index of the HTTP status line, -1 if there are no HTTP headers.
+     * @param httpBytes   the number of bytes, including line endings, in the HTTP header block.
+     */
+    RecordHeader(ArcEntry.FORMAT format, byte[] bytes, int[] lines, int lineCount, int httpLine, int httpBytes) {
+        this.format = format;
+        this.bytes = bytes;
+        this.lines = Arrays.copyOf(lines, lineCount*2);
+        this.httpLine = httpLine;
+        if (format == ArcEntry.FORMAT.WARC) {
+            parseWarcBlock();
+        } else {
+            parseArcLine();
+        }
+        if (httpLine == -1) { // For type RESOURCE we fake http status. Warc-indexer does the same
+            statusCode = 200;
+        } else {
+            parseHttpBlock();
+        }
+        if (format == ArcEntry.FORMAT.WARC) {
+            binaryArraySize = Math.max(0, warcEntryContentLength) - httpBytes;
+        } else {
+            binaryArraySize = contentLength - httpBytes;
+            contentLength = binaryArraySize; // Trust the load, not the http-header for arc-files
+        }
+    }
+
+    private void parseWarcBlock() {
+        int end = httpLine == -1 ? lineCount() : httpLine;
+        for (int line = 1 ; line < end ; line++) {
+            int start = lines[line*2];
+            int stop = lines[line*2+1];
+            if (startsWith(start, stop, WARC_TARGET_URI)) {
+                url = value(start, stop, WARC_TARGET_URI);
+            } else if (startsWith(start, stop, CONTENT_LENGTH)) {
+                warcEntryContentLength = parseLong(start + CONTENT_LENGTH.length, stop);
+            } else if (startsWith(start, stop, WARC_DATE)) {
+                crawlDate = value(start, stop, WARC_DATE); //Zulu/UTC time   : 2020-04-28T08:17:36Z
+                waybackDate = DateUtils.convertUtcDate2WaybackDate(crawlDate);
+            } else if (startsWith(start, stop, WARC_TYPE)) {
+                String typeString = value(start, stop, WARC_TYPE).toUpperCase(Locale.ROOT);
+                try {
+                    type = ArcEntry.TYPE.valueOf(typeString);
+                } catch (IllegalArgumentException e) {
+                    log.debug("Unsupported WARC-Type '{}'", typeString);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@code url ip date mime length}.
+     */
+    private void parseArcLine() {
+        int start = lines[0];
+        int stop = lines[1];
+        int[] spaces = new int[4];
+        int found = 0;
+        for (int i = start ; i < stop && found < 4 ; i++) {
+            if (bytes[i] == ' ') {
+                spaces[found++] = i;
+            }
+        }
+        if (found < 4) {
+            throw new IllegalArgumentException("ARC header line does not have 5 parts: " + string(start, stop));
+        }
+        url = string(start, spaces[0]).trim();
+        ip = string(spaces[0]+1, spaces[1]);
+        waybackDate = string(spaces[1]+1, spaces[2]);
+        crawlDate = DateUtils.convertWaybackDate2SolrDate(waybackDate);
+        int lastSpace = spaces[3];
+        for (int i = stop-1 ; i > lastSpace ; i--) {
+            if (bytes[i] == ' ') {
+                lastSpace = i;
+                break;
+            }
+        }
+        contentLength = parseLong(lastSpace+1, stop);
+        type = ArcEntry.TYPE.ARC;
+    }
+
+    private void parseHttpBlock() {
+        statusCode = parseStatus(lines[httpLine*2], lines[httpLine*2+1]);
+        for (int line = httpLine+1 ; line < lineCount() ; line++) {
+            int start = lines[line*2];
+            int stop = lines[line*2+1];
+            if (startsWith(start, stop, CONTENT_TYPE)) {
+                parseContentType(start + CONTENT_TYPE.length, stop);
+            } else if (startsWith(start, stop, CONTENT_LENGTH)) {
+                if (format == ArcEntry.FORMAT.WARC) {
+                    contentLength = parseLong(start + CONTENT_LENGTH.length, stop);
+                }
+            } else if (startsWith(start, stop, CONTENT_ENCODING)) {
+                contentEncoding = value(start, stop, CONTENT_ENCODING).replace("\"", "");
+            } else if (startsWith(start, stop, LOCATION)) {
+                redirectUrl = value(start, stop, LOCATION);
+            } else if (startsWith(start, stop, TRANSFER_ENCODING)) {
+                chunked = value(start, stop, TRANSFER_ENCODING).toLowerCase(Locale.ROOT).contains("chunked");
+            }
+        }
+    }
+
+    /**
+     * {@code Content-Type: text/html; charset=windows-1252}. Sometimes the charset is quoted.
+     */
+    private void parseContentType(int start, int stop) {
+        int semicolon = indexOf(start, stop, (byte) ';');
+        contentType = string(start, semicolon == -1 ? stop : semicolon).trim();
+        if (semicolon == -1) {
+            return;
+        }
+        String parameter = string(semicolon+1, stop).trim();
+        if (parameter.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+            contentCharset = parameter.substring(8).replace("\"", "");
+        }
+    }
+
+    /**
+     * {@code HTTP/1.1 302 Object moved}.
+     */
+    private int parseStatus(int start, int stop) {
+        int space = indexOf(start, stop, (byte) ' ');
+        if (space == -1) {
+            return 0;
+        }
+        int status = 0;
+        for (int i = space+1 ; i < stop && bytes[i] != ' ' ; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return 0;
+            }
+            status = status*10 + (bytes[i] - '0');
+        }
+        return status;
+    }
+
+    /**
+     * @param name the name of a header, e.g. {@code WARC-Record-ID} or {@code Server}. Matching is case-insensitive.
+     * @return the trimmed value for the first header with the given name in either header block, null if not present.
+     */
+    public String getValue(String name) {
+        byte[] prefix = lower(name + ":");
+        for (int line = 1 ; line < lineCount() ; line++) {
+            if (startsWith(lines[line*2], lines[line*2+1], prefix)) {
+                return value(lines[line*2], lines[line*2+1], prefix);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return all header lines as a String, each line terminated by CRLF. This matches {@link ArcEntry#getHeader()}.
+     */
+    public String getHeader() {
+        StringBuilder sb = new StringBuilder(bytes.length + lineCount());
+        for (int line = 0 ; line < lineCount() ; line++) {
+            sb.append(string(lines[line*2], lines[line*2+1])).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the raw header bytes, including line endings, exactly as they are in the (W)ARC.
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * @return the number of bytes in the headers, including line endings. The content starts after this.
+     */
+    public int getLength() {
+        return bytes.length;
+    }
+
+    /**
+     * Create an {@link ArcEntry} with the header fields from this view. The content of the entry is lazy loaded
+     * from the arcSource if requested.
+     * @param arcSource the source for the (W)ARC.
+     * @param offset    the offset of the record in the (W)ARC.
+     * @return a new ArcEntry populated from this header.
+     */
+    public ArcEntry toArcEntry(ArcSource arcSource, long offset) {
+        ArcEntry arcEntry = new ArcEntry();
+        arcEntry.setSource(arcSource);
+        arcEntry.setOffset(offset);
+        populate(arcEntry);
+        return arcEntry;
+    }
+
+    /**
+     * Set the header fields for the given arcEntry. Source and offset are not changed.
+     * @param arcEntry the entry to populate.
+     */
+    void populate(ArcEntry arcEntry) {
+        arcEntry.setFormat(format);
+        arcEntry.setType(format == ArcEntry.FORMAT.WARC ? type : null);
+        if (url != null) {
+            arcEntry.setUrl(url);
+            arcEntry.setFileName(getFileName());
+        }
+        arcEntry.setIp(ip);
+        arcEntry.setCrawlDate(crawlDate);
+        arcEntry.setWaybackDate(waybackDate);
+        arcEntry.setStatus_code(statusCode);
+        arcEntry.setContentType(contentType);
+        arcEntry.setContentCharset(contentCharset);
+        arcEntry.setContentEncoding(contentEncoding);
+        arcEntry.setRedirectUrl(redirectUrl);
+        arcEntry.setChunked(chunked);
+        if (warcEntryContentLength != -1) {
+            arcEntry.setWarcEntryContentLength(warcEntryContentLength);
+        }
+        if (contentLength != -1) {
+            arcEntry.setContentLength(contentLength);
+        }
+        arcEntry.setBinaryArraySize(binaryArraySize);
+        arcEntry.setHeader(getHeader());
+    }
+
+    public ArcEntry.FORMAT getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the WARC-Type or {@link ArcEntry.TYPE#ARC} for ARC records. null if the WARC-Type is not supported.
+     */
+    public ArcEntry.TYPE getType() {
+        return type;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the last part of the URL path.
+     */
+    public String getFileName() {
+        if (url == null) {
+            return null;
+        }
+        String[] paths = url.split("/");
+        return paths.length == 0 ? "" : paths[paths.length-1].trim();
+    }
+
+    /**
+     * @return the IP for ARC records, null for WARC records.
+     */
+    public String getIp() {
+        return ip;
+    }
+
+    /**
+     * @return the crawl date in the format {@code 2009-12-09T05:32:50Z}.
+     */
+    public String getCrawlDate() {
+        return crawlDate;
+    }
+
+    /**
+     * @return the crawl date in the format {@code 20080331193532}.
+     */
+    public String getWaybackDate() {
+        return waybackDate;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getContentCharset() {
+        return contentCharset;
+    }
+
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public String getRedirectUrl() {
+        return redirectUrl;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * @return the Content-Length from the WARC header block, -1 for ARC records.
+     */
+    public long getWarcEntryContentLength() {
+        return warcEntryContentLength;
+    }
+
+    /**
+     * @return the Content-Length from the HTTP headers for WARC records, the content size for ARC records.
+     *         -1 if not known.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return the size of the content following the headers.
+     */
+    public long getBinaryArraySize() {
+        return binaryArraySize;
+    }
+
+    /**
+     * @return approximate number of bytes on the heap used by this header, excluding the extracted Strings.
+     */
+    public int getSizeEstimate() {
+        return bytes.length + lines.length*4 + 100;
+    }
+
+    private int lineCount() {
+        return lines.length/2;
+    }
+
+    /**
+     * Case-insensitive ASCII match of the lower-cased prefix at start.
+     */
+    private boolean startsWith(int start, int stop, byte[] lowerPrefix) {
+        if (stop - start < lowerPrefix.length) {
+            return false;
+        }
+        for (int i = 0 ; i < lowerPrefix.length ; i++) {
+            int b = bytes[start+i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerPrefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String value(int start, int stop, byte[] prefix) {
+        return string(start + prefix.length, stop).trim();
+    }
+
+    private long parseLong(int start, int stop) {
+        while (start < stop && (bytes[start] == ' ' || bytes[start] == '\t')) {
+            start++;
+        }
+        while (stop > start && (bytes[stop-1] == ' ' || bytes[stop-1] == '\t')) {
+            stop--;
+        }
+        if (start == stop) {
+            throw new NumberFormatException("Expected a number but got an empty String");
+        }
+        long value = 0;
+        for (int i = start ; i < stop ; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                throw new NumberFormatException("Expected a number but got '" + string(start, stop) + "'");
+            }
+            value = value*10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    private int indexOf(int start, int stop, byte b) {
+        for (int i = start ; i < stop ; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String string(int start, int stop) {
+        return new String(bytes, start, stop-start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] lower(String name) {
+        return name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return "RecordHeader(format=" + format + ", type=" + type + ", url='" + url + "', crawlDate=" + crawlDate +
+               ", status=" + statusCode + ", contentType=" + contentType + ", bytes=" + bytes.length + ")";
+    }
+}
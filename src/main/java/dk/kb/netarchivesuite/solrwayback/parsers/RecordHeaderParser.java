@@ -0,0 +1,310 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.parsers;
+
+import dk.kb.netarchivesuite.solrwayback.interfaces.ArcSource;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+import dk.kb.netarchivesuite.solrwayback.util.GzipIndex;
+import dk.kb.netarchivesuite.solrwayback.util.InputStreamUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Byte oriented parsing of the headers for (W)ARC records, used by {@link WarcParser}, {@link ArcParser} and for
+ * header-only lookups. Only the bytes for the WARC header block (or the ARC record line) and the HTTP header block
+ * are read. They are read into a thread local buffer that is reused between calls and the lines are located in
+ * place, without creating a String per line. The result is a {@link RecordHeader} holding the header bytes and the
+ * offsets of the lines.
+ * <p>
+ * For WARC records of type {@code resource} only the WARC header block is read, for other WARC records the HTTP
+ * header block following the WARC header block is also read. For ARC records the HTTP header block directly follows
+ * the ARC record line.
+ * @see ArcParserFileResolver#getRecordHeader(String, long)
+ */
+public class RecordHeaderParser {
+    /**
+     * Headers larger than this are treated as invalid, to guard against reading through whole records.
+     */
+    public static final int MAX_HEADER_SIZE = 1024*1024;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private static final byte[] WARC_TYPE = "warc-type:".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] RESOURCE = "resource".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+    private static final ThreadLocal<int[]> lineBuffers = ThreadLocal.withInitial(() -> new int[128]);
+
+    /**
+     * Read the headers for the record at the given offset.
+     * @param arcSource the (W)ARC. If the source name ends with {@code .gz} it is treated as gzip compressed.
+     * @param offset    the offset of the record in the (W)ARC.
+     * @return the headers for the record.
+     * @throws IOException if the headers could not be read.
+     * @throws IllegalArgumentException if the source is not a (W)ARC or the record is not valid.
+     */
+    public static RecordHeader parse(ArcSource arcSource, long offset) throws IOException {
+        if (arcSource == null) {
+            throw new IllegalArgumentException("No arcSupplier provided");
+        }
+        String sourceLowercase = arcSource.getSource().toLowerCase(Locale.ROOT);
+        ArcEntry.FORMAT format;
+        if (sourceLowercase.endsWith(".warc") || sourceLowercase.endsWith(".warc.gz")) {
+            format = ArcEntry.FORMAT.WARC;
+        } else if (sourceLowercase.endsWith(".arc") || sourceLowercase.endsWith("arc.gz")) {
+            format = ArcEntry.FORMAT.ARC;
+        } else {
+            throw new IllegalArgumentException(
+                    "Expected (W)ARC source not arc or warc: '" + arcSource.getSource() + "'");
+        }
+
+        if (sourceLowercase.endsWith(".gz")) {
+            try (InputStream in = GzipIndex.openDecompressed(arcSource.getSource(), arcSource, offset)) {
+                return parse(in, format);
+            }
+        }
+        try (InputStream in = arcSource.get()) {
+            InputStreamUtils.skipFully(in, offset);
+            return parse(in, format);
+        }
+    }
+
+    /**
+     * Read the headers for the record at the start of the given stream. The stream is read in blocks, so its
+     * position after the call is undefined.
+     * @param in     an uncompressed stream positioned at the start of a record.
+     * @param format WARC or ARC.
+     * @return the headers for the record.
+     * @throws IOException if the headers could not be read.
+     * @throws IllegalArgumentException if the record is not valid.
+     */
+    public static RecordHeader parse(InputStream in, ArcEntry.FORMAT format) throws IOException {
+        return parse(in, format, null);
+    }
+
+    /**
+     * Read the headers for the record at the start of the given stream and return a stream with the content for the
+     * record, bounded by the content size from the headers.
+     * @param in     an uncompressed stream positioned at the start of a record. This will be closed when the
+     *               returned stream is closed.
+     * @param format WARC or ARC.
+     * @return the content for the record.
+     * @throws IOException if the headers could not be read.
+     * @throws IllegalArgumentException if the record is not valid.
+     */
+    static BufferedInputStream openContent(InputStream in, ArcEntry.FORMAT format) throws IOException {
+        int[] filled = new int[1];
+        RecordHeader header = parse(in, format, filled);
+        // Bytes read past the headers are the start of the content
+        byte[] prefix = Arrays.copyOfRange(buffers.get(), header.getLength(), filled[0]);
+        InputStream content = new PrefixedInputStream(prefix, in);
+        return new BufferedInputStream(new BoundedInputStream(content, header.getBinaryArraySize()));
+    }
+
+    /**
+     * The bytes that were read past the headers followed by the rest of the stream. Unlike
+     * {@link java.io.SequenceInputStream}, {@link #skip(long)} is passed on to the stream, so that positioning
+     * in uncompressed content (e.g. for HTTP Range requests) does not read the skipped bytes.
+     */
+    private static class PrefixedInputStream extends InputStream {
+        private final byte[] prefix;
+        private int prefixPos = 0;
+        private final InputStream in;
+
+        PrefixedInputStream(byte[] prefix, InputStream in) {
+            this.prefix = prefix;
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return prefixPos < prefix.length ? prefix[prefixPos++] & 0xFF : in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (prefixPos < prefix.length) {
+                int copy = Math.min(len, prefix.length - prefixPos);
+                System.arraycopy(prefix, prefixPos, b, off, copy);
+                prefixPos += copy;
+                return copy;
+            }
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (prefixPos < prefix.length) {
+                int skip = (int) Math.min(n, prefix.length - prefixPos);
+                prefixPos += skip;
+                return skip;
+            }
+            return in.skip(n);
+        }
+
+        /**
+         * Only the prefix is reported as available. Decompressing streams report 1 until they are depleted, which
+         * would make {@link BufferedInputStream} attempt further reads and lose the bytes it has already read, if
+         * such a read fails on truncated data.
+         */
+        @Override
+        public int available() {
+            return prefix.length - prefixPos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * @param filledOut if not null, the number of bytes read from in is stored at index 0.
+     */
+    private static RecordHeader parse(InputStream in, ArcEntry.FORMAT format, int[] filledOut) throws IOException {
+        byte[] buffer = buffers.get();
+        int[] lines = lineBuffers.get();
+        int lineCount = 0;
+        int filled = 0;
+        boolean eof = false;
+
+        int pos = 0;           // Start of the current line
+        int httpLine = -1;     // Index of the HTTP status line
+        int httpStart = -1;    // Byte position of the HTTP status line
+        boolean resource = false;
+        boolean inHttp = false;
+        while (true) {
+            // Locate the end of the current line, reading more data if needed
+            int eol = pos;
+            while (true) {
+                while (eol < filled && buffer[eol] != '\n' && buffer[eol] != '\r') {
+                    eol++;
+                }
+                if (eof || (eol < filled && (buffer[eol] == '\n' || eol+1 < filled))) {
+                    break; // Both the line and a possible LF after CR are available
+                }
+                if (filled == buffer.length) {
+                    if (buffer.length >= MAX_HEADER_SIZE) {
+                        throw new IllegalArgumentException(
+                                "The " + format + " record header is larger than " + MAX_HEADER_SIZE + " bytes");
+                    }
+                    buffer = Arrays.copyOf(buffer, Math.min(MAX_HEADER_SIZE, buffer.length*2));
+                    buffers.set(buffer);
+                }
+                int read;
+                try {
+                    read = in.read(buffer, filled, buffer.length - filled);
+                } catch (EOFException e) { // Truncated gzip. Use the data that could be read
+                    read = -1;
+                }
+                if (read == -1) {
+                    eof = true;
+                } else {
+                    filled += read;
+                }
+            }
+            if (pos == filled) { // The stream ended before the headers were finished
+                break;
+            }
+            int start = pos;
+            boolean empty = eol == start;
+            pos = eol == filled ? eol :
+                    buffer[eol] == '\r' && eol+1 < filled && buffer[eol+1] == '\n' ? eol+2 : eol+1;
+
+            if (lineCount*2 == lines.length) {
+                lines = Arrays.copyOf(lines, lines.length*2);
+                lineBuffers.set(lines);
+            }
+            lines[lineCount*2] = start;
+            lines[lineCount*2+1] = eol;
+            lineCount++;
+
+            if (lineCount == 1) {
+                validateFirstLine(buffer, start, eol, format);
+                inHttp = format == ArcEntry.FORMAT.ARC; // ARC has the HTTP headers directly after the ARC line
+            } else if (inHttp) {
+                if (httpLine == -1) {
+                    httpLine = lineCount-1;
+                    httpStart = start;
+                }
+                if (empty) { // End of HTTP header block
+                    break;
+                }
+            } else {
+                if (isResourceType(buffer, start, eol)) {
+                    resource = true;
+                }
+                if (empty) { // End of WARC header block. For type RESOURCE there are no HTTP headers
+                    if (resource) {
+                        break;
+                    }
+                    inHttp = true;
+                }
+            }
+        }
+        int httpBytes = httpStart == -1 ? 0 : pos - httpStart;
+        if (filledOut != null) {
+            filledOut[0] = filled;
+        }
+        return new RecordHeader(format, Arrays.copyOf(buffer, pos), lines, lineCount, httpLine, httpBytes);
+    }
+
+    private static void validateFirstLine(byte[] buffer, int start, int end, ArcEntry.FORMAT format) {
+        String prefix = format == ArcEntry.FORMAT.WARC ? "WARC/" : "http";
+        if (end - start < prefix.length() ||
+            !prefix.equals(new String(buffer, start, prefix.length(), StandardCharsets.ISO_8859_1))) {
+            String line = new String(buffer, start, end-start, StandardCharsets.ISO_8859_1);
+            throw new IllegalArgumentException(format == ArcEntry.FORMAT.WARC ?
+                    "WARC header is not WARC/'version', instead it is : " + line :
+                    "ARC header does not start with http : " + line);
+        }
+    }
+
+    /**
+     * @return true if the line is {@code WARC-Type: resource}.
+     */
+    private static boolean isResourceType(byte[] buffer, int start, int end) {
+        if (end - start < WARC_TYPE.length || !equalsIgnoreCase(buffer, start, WARC_TYPE)) {
+            return false;
+        }
+        start += WARC_TYPE.length;
+        while (start < end && buffer[start] == ' ') {
+            start++;
+        }
+        while (end > start && buffer[end-1] == ' ') {
+            end--;
+        }
+        return end - start == RESOURCE.length && equalsIgnoreCase(buffer, start, RESOURCE);
+    }
+
+    private static boolean equalsIgnoreCase(byte[] buffer, int start, byte[] lowercase) {
+        for (int i = 0 ; i < lowercase.length ; i++) {
+            int b = buffer[start+i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowercase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
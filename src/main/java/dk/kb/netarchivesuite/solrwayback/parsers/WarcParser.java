@@ -2,10 +2,8 @@ package dk.kb.netarchivesuite.solrwayback.parsers;
 
 import dk.kb.netarchivesuite.solrwayback.interfaces.ArcSource;
 import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
-import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry.TYPE;
-import dk.kb.netarchivesuite.solrwayback.util.DateUtils;
+import dk.kb.netarchivesuite.solrwayback.util.GzipIndex;
 import dk.kb.netarchivesuite.solrwayback.util.InputStreamUtils;
-import org.apache.commons.io.input.BoundedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,12 +12,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Locale;
-import java.util.zip.GZIPInputStream;
 
 public class WarcParser extends  ArcWarcFileParserAbstract {
 
   private static final Logger log = LoggerFactory.getLogger(WarcParser.class);
-  private static final String newLineChar ="\r\n";
   public static String WARC_HEADER_ENCODING ="ISO-8859-1";
 
 
@@ -65,65 +61,18 @@ public class WarcParser extends  ArcWarcFileParserAbstract {
     
     try (InputStream is = arcSource.get()) {
         InputStreamUtils.skipFully(is, warcEntryPosition);
-        try (BufferedInputStream bis = new BufferedInputStream(is)) {
-            loadWarcHeader(bis, warcEntry);            
-            //log.debug("Arc entry : totalsize:"+totalSize +" headersize:"+headerSize+" binary size:"+binarySize);
-        }
+        loadWarcHeader(is, warcEntry);
         return warcEntry;
     }
   }
 
   /*
    * Will load the header information into the warcEntry
-   * The  BufferedInputStream will be returned with pointer in start of binary 
    * warcEntry will have binaryArraySize defined
-   * 
+   * The headers are parsed by RecordHeaderParser, which is shared with ArcParser
    */
-  private static void loadWarcHeader(BufferedInputStream bis, ArcEntry warcEntry) throws IOException {
-
-    StringBuffer headerLinesBuffer = new StringBuffer();
-    String line = readLine(bis); // First line
-    headerLinesBuffer.append(line+newLineChar);
-
-    if  (!(line.startsWith("WARC/"))) //No version check yet
-    {            
-      throw new IllegalArgumentException("WARC header is not WARC/'version', instead it is : "+line);
-    }            
-
-    while (!"".equals(line)) { // End of warc first header block is an empty line
-      line = readLine(bis);                
-      headerLinesBuffer.append(line+newLineChar);
-      populateWarcFirstHeader(warcEntry, line);             
-
-    }
-
-    int byteCount=0; //Bytes of second header
-   
-    if( !(warcEntry.getType() == ArcEntry.TYPE.RESOURCE)){       
-      LineAndByteCount lc =readLineCount(bis);
-      line=lc.getLine();
-      warcEntry.setStatus_code(getStatusCode(line));
-      headerLinesBuffer.append(line+newLineChar);
-      byteCount +=lc.getByteCount();                    
-
-      while (!"".equals(line)) { // End of warc second header block is an empty line
-        lc =readLineCount(bis);         
-        line=lc.getLine();        
-        headerLinesBuffer.append(line+newLineChar);
-        byteCount +=lc.getByteCount(); 
-        populateWarcSecondHeader(warcEntry, line);                                              
-      }        
-      warcEntry.setHeader(headerLinesBuffer.toString());
-    }
-    else {  //For type RESOURCE we fake http status.
-      warcEntry.setStatus_code(200); //fake it . Warc-indexer does the same
-      warcEntry.setHeader(headerLinesBuffer.toString());
-    }
-
-    long totalSize= warcEntry.getWarcEntryContentLength();
-    long binarySize = totalSize-byteCount;
-
-    warcEntry.setBinaryArraySize(binarySize);
+  private static void loadWarcHeader(InputStream in, ArcEntry warcEntry) throws IOException {
+    RecordHeaderParser.parse(in, ArcEntry.FORMAT.WARC).populate(warcEntry);
   }
 
   public static ArcEntry getWarcEntryZipped(ArcSource arcSource, long warcEntryPosition) throws Exception {
@@ -133,17 +82,9 @@ public class WarcParser extends  ArcWarcFileParserAbstract {
     warcEntry.setSource(arcSource);
     warcEntry.setOffset(warcEntryPosition);
 
-    try (InputStream is = arcSource.get()) {
-        InputStreamUtils.skipFully(is, warcEntryPosition);
-
-        // log.info("file is zipped:"+arcFilePath);
-        try (GZIPInputStream stream = new GZIPInputStream(is);
-             BufferedInputStream  bis= new BufferedInputStream(stream)) {
-
-            loadWarcHeader(bis, warcEntry);
-
-            //System.out.println("Arc entry : totalsize:"+totalSize +" binary size:"+binarySize +" firstHeadersize:"+byteCount);
-        }
+    // log.info("file is zipped:"+arcFilePath);
+    try (InputStream stream = GzipIndex.openDecompressed(arcSource.getSource(), arcSource, warcEntryPosition)) {
+        loadWarcHeader(stream, warcEntry);
     }
     return warcEntry;
       /*
@@ -168,29 +109,25 @@ public class WarcParser extends  ArcWarcFileParserAbstract {
      * @throws IOException if the binary could not be read.
      */
   public static BufferedInputStream lazyLoadBinary(ArcSource arcSource, long arcEntryPosition) throws IOException{
-    ArcEntry arcEntry = new ArcEntry(); // We just throw away the header info anyway 
-
-    InputStream is = arcSource.get();
-    InputStreamUtils.skipFully(is, arcEntryPosition);
-
     if (arcSource.getSource().toLowerCase(Locale.ROOT).endsWith(".gz")){ //It is zipped
       // log.info("file is zipped:"+arcFilePath);
-      GZIPInputStream zipStream = new GZIPInputStream(is);
-      BufferedInputStream  bis= new BufferedInputStream(zipStream);
-      loadWarcHeader(bis, arcEntry);
-
-      BoundedInputStream maxStream = new BoundedInputStream(bis, arcEntry.getBinaryArraySize());
-      return new BufferedInputStream(maxStream); // It's a mess to use nested BufferedInputStreams...
+      InputStream zipStream = GzipIndex.openDecompressed(arcSource.getSource(), arcSource, arcEntryPosition);
+      return RecordHeaderParser.openContent(zipStream, ArcEntry.FORMAT.WARC);
 
     } else {
-      BufferedInputStream  bis = new BufferedInputStream(is);
-      loadWarcHeader(bis, arcEntry);
-      BoundedInputStream maxStream = new BoundedInputStream(bis, arcEntry.getBinaryArraySize());
-      return new BufferedInputStream(maxStream);
+      InputStream is = arcSource.get();
+      InputStreamUtils.skipFully(is, arcEntryPosition);
+      return RecordHeaderParser.openContent(is, ArcEntry.FORMAT.WARC);
     }
 
   }
 
+  /**
+   * @param warcHeaderLine a {@code WARC-Target-URI} header line.
+   * @return the last part of the path for the URL.
+   * @deprecated No longer used by WarcParser. {@link RecordHeader} holds the parsed fields for a record.
+   */
+  @Deprecated
   public static String getWarcLastUrlPart(String warcHeaderLine) {        
     //Example:
     //WARC-Target-URI: http://www.boerkopcykler.dk/images/low_Trance-27.5-2-LTD-_20112013_151813.jpg
@@ -204,86 +141,10 @@ public class WarcParser extends  ArcWarcFileParserAbstract {
     return fileName.trim();
   }
 
-  private static String getWarcUrl(String warcHeaderLine) {        
-    //Example:
-    //WARC-Target-URI: http://www.boerkopcykler.dk/images/low_Trance-27.5-2-LTD-_20112013_151813.jpg
-    String urlPath = warcHeaderLine.substring(16);                      
-    return urlPath.trim();
-  }
-
-  private static void populateWarcFirstHeader(ArcEntry warcEntry, String headerLine) {
-    //log.debug("Parsing warc headerline(part 1):"+headerLine);                              
-    if (headerLine.startsWith("WARC-Target-URI:")) {
-      warcEntry.setFileName(getWarcLastUrlPart(headerLine));
-      warcEntry.setUrl(getWarcUrl(headerLine));
-    }    
-
-    //Example:
-    //Content-Length: 31131
-    else if (headerLine.startsWith("Content-Length:")) {
-      String[] contentLine = headerLine.split(" ");
-      long totalSize = Long.parseLong(contentLine[1].trim());               
-      warcEntry.setWarcEntryContentLength(totalSize);                       
-    }       
-
-    else if (headerLine.startsWith("WARC-Date:")) {
-      String[] contentLine = headerLine.split(" ");
-      String crawlDate =contentLine[1].trim();  //Zulu/UTC time   : 2020-04-28T08:17:36Z                                
-      warcEntry.setCrawlDate(crawlDate);                         
-      String waybackDate = DateUtils.convertUtcDate2WaybackDate(crawlDate);             
-      warcEntry.setWaybackDate(waybackDate);                          
-    }
-    else if (headerLine.startsWith("WARC-Type:")) {
-      String[] contentLine = headerLine.split(" ");
-      warcEntry.setType(TYPE.valueOf(contentLine[1].trim().toUpperCase()));   // will fail if new type is found          
-    }
-
-
-  }
-
-  private static void populateWarcSecondHeader(ArcEntry warcEntry, String headerLine) {
-    //  log.debug("parsing warc headerline(part 2):"+headerLine);                
-    //Content-Type: image/jpeg
-    // or Content-Type: text/html; charset=windows-1252          
-    if (headerLine.toLowerCase().startsWith("content-type:")) {            
-      String[] part1 = headerLine.split(":");
-      String[] part2= part1[1].split(";");                        
-      warcEntry.setContentType(part2[0].trim());          
-      if (part2.length == 2){
-        String charset = part2[1].trim();
-        if (charset.startsWith("charset=")){                                   
-          String headerEncoding=charset.substring(8).replace("\"", ""); ////Some times Content-Type: text/html; charset="utf-8" instead of Content-Type: text/html; charset=utf-8
-          warcEntry.setContentCharset(charset.substring(8));
-        }                                   
-      }
-
-
-    }  //Content-Length: 31131
-    else if (headerLine.toLowerCase().startsWith("content-length:")) {
-      String[] contentLine = headerLine.split(":");
-      long totalSize = Long.parseLong(contentLine[1].trim());               
-      warcEntry.setContentLength(totalSize);                       
-    }
-    else if (headerLine.toLowerCase().startsWith("content-encoding:")) {
-      String[] contentLine = headerLine.split(":");               
-      warcEntry.setContentEncoding(contentLine[1].trim().replace("\"", "")); //Some times Content-Type: text/html; charset="utf-8" instead of Content-Type: text/html; charset=utf-8                       
-    }
-    else if (headerLine.toLowerCase().startsWith("location:")) {                                      
-      warcEntry.setRedirectUrl(headerLine.substring(9).trim());
-    }
-    else if (headerLine.toLowerCase().startsWith("transfer-encoding:")) {                                      
-      String transferEncoding=headerLine.substring(18).trim();
-      //log.debug("transfer-encoding:"+transferEncoding);
-      if (transferEncoding.indexOf("chunked") > 0) { //multivalued
-        warcEntry.setChunked(true);
-      }
-    }    
-
-
-
-
-  }
-
+  /**
+   * @deprecated No longer used by WarcParser. Record headers are parsed by {@link RecordHeaderParser}.
+   */
+  @Deprecated
   public static String readLine(BufferedInputStream  bis) throws IOException {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     int current = 0; // CRLN || LN
@@ -297,6 +158,10 @@ public class WarcParser extends  ArcWarcFileParserAbstract {
     return baos.toString(WARC_HEADER_ENCODING);
   }
 
+  /**
+   * @deprecated No longer used by WarcParser. Record headers are parsed by {@link RecordHeaderParser}.
+   */
+  @Deprecated
   public static LineAndByteCount readLineCount(BufferedInputStream  bis) throws IOException {
     int count = 0;
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -320,7 +185,4 @@ public class WarcParser extends  ArcWarcFileParserAbstract {
 
   }
 
-
-
-
 }
@@ -0,0 +1,235 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.playback;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+import dk.kb.netarchivesuite.solrwayback.util.FrequencySketch;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of the delivered bytes for small playback resources, such as CSS, JavaScript, icons and logos,
+ * which are requested again for every page on a site. Entries are keyed by
+ * {@code (source_file_path, offset, mode)}, where mode states how the resource was delivered (playback options or
+ * raw download), and hold the final bytes: Rewritten content for CSS and JavaScript, else the payload as stored.
+ * <p>
+ * The cache is bounded by {@link PropertiesLoader#PLAYBACK_CACHE_MAX_BYTES} and only holds resources up to
+ * {@link PropertiesLoader#PLAYBACK_CACHE_MAX_RESOURCE_BYTES}. Eviction is least recently used, but a new entry is
+ * only admitted to a full cache if it has been requested more often than the entries it would evict (TinyLFU,
+ * see {@link FrequencySketch}). This keeps the one-off images of a crawl from flushing the shared resources.
+ * <p>
+ * This implementation is thread safe.
+ */
+public class PlaybackCache {
+    private static final Logger log = LoggerFactory.getLogger(PlaybackCache.class);
+
+    // Approximate heap use of an entry besides the bytes: Key, snapshot ArcEntry and map overhead
+    static final int ENTRY_OVERHEAD = 512;
+    // Used for sizing the sketch
+    private static final int AVERAGE_RESOURCE_BYTES = 16*1024;
+
+    private static PlaybackCache instance;
+
+    private final long maxBytes;
+    private final long maxResourceBytes;
+    private final long maxAgeMS;
+    private final LinkedHashMap<String, Cached> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long cacheBytes = 0;
+    private long calls = 0;
+    private long hits = 0;
+    private long rejected = 0;
+
+    /**
+     * Delivers the entry for a resource if it is not in the cache.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        ArcEntry load() throws Exception;
+    }
+
+    /**
+     * Get the entry for the resource from the cache or from the loader. If the entry from the loader is small enough,
+     * its bytes are read into memory and it is considered for the cache.
+     * @param sourceFilePath the (W)ARC containing the resource.
+     * @param offset         the offset of the record in the (W)ARC.
+     * @param mode           how the resource is delivered, e.g. the playback options. Part of the cache key.
+     * @param loader         delivers the entry if it is not cached.
+     * @return the entry for the resource. If it is held in memory, it is a copy, independent of other calls.
+     * @throws Exception if the loader failed.
+     */
+    public static ArcEntry get(String sourceFilePath, long offset, String mode, Loader loader) throws Exception {
+        PlaybackCache cache = getInstance();
+        return cache == null ? loader.load() : cache.getEntry(sourceFilePath + "#" + offset + "#" + mode, loader);
+    }
+
+    /**
+     * @return statistics for the cache.
+     */
+    public static String getStats() {
+        PlaybackCache cache = getInstance();
+        return cache == null ? "PlaybackCache(disabled)" : cache.toString();
+    }
+
+    private static synchronized PlaybackCache getInstance() {
+        if (instance == null && PropertiesLoader.PLAYBACK_CACHE_MAX_BYTES > 0) {
+            instance = new PlaybackCache(PropertiesLoader.PLAYBACK_CACHE_MAX_BYTES,
+                                         PropertiesLoader.PLAYBACK_CACHE_MAX_RESOURCE_BYTES,
+                                         PropertiesLoader.PLAYBACK_CACHE_AGE_SECONDS * 1000L);
+            log.info("Created playback cache with max bytes {}, max resource bytes {} and max age {} seconds",
+                     PropertiesLoader.PLAYBACK_CACHE_MAX_BYTES, PropertiesLoader.PLAYBACK_CACHE_MAX_RESOURCE_BYTES,
+                     PropertiesLoader.PLAYBACK_CACHE_AGE_SECONDS);
+        }
+        return instance;
+    }
+
+    PlaybackCache(long maxBytes, long maxResourceBytes, long maxAgeMS) {
+        this.maxBytes = maxBytes;
+        this.maxResourceBytes = maxResourceBytes;
+        this.maxAgeMS = maxAgeMS;
+        sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(16, maxBytes / AVERAGE_RESOURCE_BYTES)));
+    }
+
+    ArcEntry getEntry(String key, Loader loader) throws Exception {
+        synchronized (this) {
+            calls++;
+            sketch.increment(key);
+            Cached cached = cache.get(key);
+            if (cached != null) {
+                if (!cached.isExpired()) {
+                    hits++;
+                    return cached.snapshot.copyWithBinary(cached.bytes);
+                }
+                removeEntry(key);
+            }
+        }
+
+        // Loading is done outside of the lock, as it involves IO and rewriting
+        ArcEntry entry = loader.load();
+        byte[] bytes = readSmall(entry);
+        if (bytes == null) {
+            return entry;
+        }
+        ArcEntry snapshot = entry.copyWithBinary(bytes);
+        synchronized (this) {
+            admit(key, new Cached(snapshot, bytes));
+        }
+        return snapshot.copyWithBinary(bytes);
+    }
+
+    /**
+     * @return the bytes delivered by {@link ArcEntry#getBinaryNoChunking()} or null if the entry should not be
+     *         cached.
+     */
+    private byte[] readSmall(ArcEntry entry) {
+        // Redirects have tiny payloads and are resolved by the caller on each request
+        if (entry.getBinaryArraySize() > maxResourceBytes || entry.getBinaryArraySize() < 0 ||
+            (entry.getStatus_code() >= 300 && entry.getStatus_code() < 400)) {
+            return null;
+        }
+        try (InputStream in = entry.getBinaryNoChunking()) {
+            byte[] bytes = IOUtils.toByteArray(in);
+            return bytes.length <= maxResourceBytes ? bytes : null;
+        } catch (IOException e) {
+            log.debug("Unable to read resource for caching, it will be delivered directly: {}#{}",
+                      entry.getArcSource() == null ? null : entry.getArcSource().getSource(), entry.getOffset(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Add the entry if there is room or if it is accessed more frequently than the least recently used entries
+     * that must be evicted to make room. If not, the cache is left unchanged.
+     */
+    private void admit(String key, Cached candidate) {
+        removeEntry(key); // Concurrent loading of the same key
+        long needed = cacheBytes + candidate.size() - maxBytes;
+        if (candidate.size() > maxBytes) {
+            rejected++;
+            return;
+        }
+        if (needed > 0) {
+            int candidateFrequency = sketch.frequency(key);
+            long freed = 0;
+            int victims = 0;
+            for (Map.Entry<String, Cached> victim: cache.entrySet()) {
+                if (!victim.getValue().isExpired() && sketch.frequency(victim.getKey()) >= candidateFrequency) {
+                    rejected++;
+                    return;
+                }
+                freed += victim.getValue().size();
+                victims++;
+                if (freed >= needed) {
+                    break;
+                }
+            }
+            Iterator<Cached> evict = cache.values().iterator();
+            for (int i = 0 ; i < victims ; i++) {
+                cacheBytes -= evict.next().size();
+                evict.remove();
+            }
+        }
+        cache.put(key, candidate);
+        cacheBytes += candidate.size();
+    }
+
+    private void removeEntry(String key) {
+        Cached old = cache.remove(key);
+        if (old != null) {
+            cacheBytes -= old.size();
+        }
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+
+    synchronized boolean contains(String key) {
+        return cache.containsKey(key);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PlaybackCache(entries=" + cache.size() + ", bytes=" + cacheBytes + "/" + maxBytes +
+               ", calls=" + calls + ", hits=" + hits + ", rejected=" + rejected + ")";
+    }
+
+    private class Cached {
+        final ArcEntry snapshot;
+        final byte[] bytes;
+        final long created = System.currentTimeMillis();
+
+        Cached(ArcEntry snapshot, byte[] bytes) {
+            this.snapshot = snapshot;
+            this.bytes = bytes;
+        }
+
+        long size() {
+            return bytes.length + ENTRY_OVERHEAD;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - created > maxAgeMS;
+        }
+    }
+}
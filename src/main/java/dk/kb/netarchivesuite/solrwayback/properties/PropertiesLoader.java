@@ -10,10 +10,14 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.stream.Collectors;
 
 
 public class PropertiesLoader {
@@ -35,11 +39,33 @@ public class PropertiesLoader {
     private static final String WARC_SOURCE_HTTP_FALLBACK_PROPERTY = "warc.file.resolver.source.http.readfallback";
     // The now deprecated ArcHTTPResolver used this property to specify readfallback
     private static final String WARC_SOURCE_HTTP_FALLBACK_LEGACY_PROPERTY = "warc.file.resolver.parameters.readfallback";
+    private static final String WARC_SOURCE_HTTP_RANGE_WINDOW_PROPERTY = "warc.file.resolver.source.http.rangewindow";
+    // Used by BlockCache
+    public static final String WARC_SOURCE_HTTP_CACHE_BYTES_PROPERTY = "warc.file.resolver.source.http.cache.bytes";
+    public static final String WARC_SOURCE_HTTP_CACHE_BLOCKSIZE_PROPERTY = "warc.file.resolver.source.http.cache.blocksize";
+    public static final String WARC_SOURCE_HTTP_CACHE_READAHEAD_PROPERTY = "warc.file.resolver.source.http.cache.readahead";
+    public static final String WARC_SOURCE_HTTP_CACHE_SPILL_DIR_PROPERTY = "warc.file.resolver.source.http.cache.spill.dir";
+    public static final String WARC_SOURCE_HTTP_CACHE_SPILL_BYTES_PROPERTY = "warc.file.resolver.source.http.cache.spill.bytes";
+    // Used by GzipIndex
+    public static final String WARC_GZIP_INDEX_DIR_PROPERTY = "warc.file.gzip.index.dir";
+    public static final String WARC_GZIP_INDEX_INTERVAL_PROPERTY = "warc.file.gzip.index.interval";
+    public static final String WARC_GZIP_INDEX_LAZY_PROPERTY = "warc.file.gzip.index.lazy";
+    // Used by ArcParserFileResolver
+    public static final String WARC_HEADER_CACHE_MAX_ENTRIES_PROPERTY = "warc.header.cache.max.entries";
+    public static final String WARC_HEADER_CACHE_AGE_SECONDS_PROPERTY = "warc.header.cache.age.seconds";
+    // Used by PlaybackCache
+    public static final String PLAYBACK_CACHE_MAX_BYTES_PROPERTY = "playback.cache.max.bytes";
+    public static final String PLAYBACK_CACHE_MAX_RESOURCE_BYTES_PROPERTY = "playback.cache.max.resource.bytes";
+    public static final String PLAYBACK_CACHE_AGE_SECONDS_PROPERTY = "playback.cache.age.seconds";
     private static final String WAYBACK_BASEURL_PROPERTY="wayback.baseurl";
     private static final String CHROME_COMMAND_PROPERTY="chrome.command";
     private static final String SCREENSHOT_TEMP_IMAGEDIR_PROPERTY="screenshot.temp.imagedir";
     private static final String PID_COLLECTION_NAME_PROPERTY="pid.collection.name";
     private static final String SCREENSHOT_PREVIEW_TIMEOUT_PROPERTY="screenshot.preview.timeout";
+    private static final String SCREENSHOT_PREVIEW_CONCURRENT_MAX_PROPERTY="screenshot.preview.concurrent.max";
+    private static final String SCREENSHOT_PREVIEW_QUEUE_MAX_PROPERTY="screenshot.preview.queue.max";
+    private static final String SCREENSHOT_PREVIEW_PRERENDER_PROPERTY="screenshot.preview.prerender";
+    private static final String SCREENSHOT_CACHE_MAX_FILES_PROPERTY="screenshot.cache.max.files";
     private static final String WARC_FILES_VERIFY_COLLECTION_PROPERTY  ="warc.files.verify.collection";
     
     private static final String SOLR_SERVER_CACHING_PROPERTY="solr.server.caching";
@@ -53,6 +79,17 @@ public class PropertiesLoader {
     public static final String SOLR_STREAM_SHARD_AUTO_MIN_HITS_PROPERTY = "solr.export.sharddivide.autolimit.hits.default";
     public static final String SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX_PROPERTY = "solr.export.sharddivide.concurrent.max";
 
+    // Used by SolrStreamDecorators.HTMLResourceExpander
+    public static final String SOLR_EXPORT_EXPAND_LINK_FIELDS_PROPERTY = "solr.export.expand.linkfields";
+    public static final String SOLR_EXPORT_EXPAND_WINDOW_PROPERTY = "solr.export.expand.window";
+
+    // Used by ThumbnailCache
+    public static final String IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES_PROPERTY = "image.thumbnail.cache.max.entries";
+    public static final String IMAGE_THUMBNAIL_CACHE_AGE_SECONDS_PROPERTY = "image.thumbnail.cache.age.seconds";
+    public static final String IMAGE_THUMBNAIL_CACHE_MAX_BYTES_PROPERTY = "image.thumbnail.cache.max.bytes";
+    public static final String IMAGE_DECODE_CONCURRENT_MAX_PROPERTY = "image.decode.concurrent.max";
+    public static final String IMAGE_DECODE_MAX_PIXELS_PROPERTY = "image.decode.max.pixels";
+
     private static final String URL_NORMALISER_PROPERTY="url.normaliser";
     
     public static final String PLAYBACK_DISABLED_PROPERTY="playback.disabled";
@@ -69,6 +106,28 @@ public class PropertiesLoader {
     public static String WARC_FILE_RESOLVER_CLASS = null;
     public static Map<String, String> WARC_FILE_RESOLVER_PARAMETERS= new HashMap<>();
     public static boolean WARC_SOURCE_HTTP_FALLBACK = false;
+    /**
+     * The size in bytes of the first HTTP Range Request when reading from a WARC on a HTTP server.
+     * Subsequent ranges for the same record are doubled in size.
+     */
+    public static int WARC_SOURCE_HTTP_RANGE_WINDOW = 256*1024;
+    // Used by BlockCache
+    public static long WARC_SOURCE_HTTP_CACHE_BYTES = 128*1024*1024L; // 0 disables caching
+    public static int WARC_SOURCE_HTTP_CACHE_BLOCKSIZE = 256*1024;
+    public static boolean WARC_SOURCE_HTTP_CACHE_READAHEAD = true;
+    public static String WARC_SOURCE_HTTP_CACHE_SPILL_DIR = ""; // Empty disables spilling
+    public static long WARC_SOURCE_HTTP_CACHE_SPILL_BYTES = 10*1024*1024*1024L;
+    // Used by GzipIndex
+    public static String WARC_GZIP_INDEX_DIR = ""; // Empty means java.io.tmpdir/solrwayback_gzipindex
+    public static long WARC_GZIP_INDEX_INTERVAL = 16*1024*1024L;
+    public static boolean WARC_GZIP_INDEX_LAZY = false; // Building scans the full WARC on the request thread
+    // Used by ArcParserFileResolver
+    public static int WARC_HEADER_CACHE_MAX_ENTRIES = 10000; // 0 disables caching
+    public static int WARC_HEADER_CACHE_AGE_SECONDS = 24*60*60;
+    // Used by PlaybackCache
+    public static long PLAYBACK_CACHE_MAX_BYTES = 64*1024*1024L; // 0 disables caching
+    public static long PLAYBACK_CACHE_MAX_RESOURCE_BYTES = 256*1024L;
+    public static int PLAYBACK_CACHE_AGE_SECONDS = 24*60*60;
     public static String PID_COLLECTION_NAME = null;
     public static String WORDCLOUD_STOPWORDS;
     public static LinkedHashMap<String,String> SOLR_PARAMS_MAP= new LinkedHashMap<String,String>(); 
@@ -95,7 +154,25 @@ public class PropertiesLoader {
     // Maximum number of concurrent shard divided connections, shared between all shard divided calls
     public static int SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX = 20;
 
+    // Used by SolrStreamDecorators.HTMLResourceExpander
+    // If empty, resource links are extracted by parsing the WARC records for the pages
+    public static List<String> SOLR_EXPORT_EXPAND_LINK_FIELDS = new ArrayList<>();
+    public static int SOLR_EXPORT_EXPAND_WINDOW = 50;
+
+    // Used by ThumbnailCache
+    public static int IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES = 2000; // 0 disables caching
+    public static int IMAGE_THUMBNAIL_CACHE_AGE_SECONDS = 24*60*60;
+    public static long IMAGE_THUMBNAIL_CACHE_MAX_BYTES = 64*1024*1024L; // 0 disables caching
+    public static int IMAGE_DECODE_CONCURRENT_MAX = Runtime.getRuntime().availableProcessors();
+    // Images are decoded with subsampling, so this only limits full-size requests. 50M pixels is 200MB of raster
+    public static long IMAGE_DECODE_MAX_PIXELS = 50_000_000L;
+
     public static int SCREENSHOT_PREVIEW_TIMEOUT = 10;//default
+    // Used by PagePreviewGenerator
+    public static int SCREENSHOT_PREVIEW_CONCURRENT_MAX = 2;
+    public static int SCREENSHOT_PREVIEW_QUEUE_MAX = 50;
+    public static boolean SCREENSHOT_PREVIEW_PRERENDER = false;
+    public static int SCREENSHOT_CACHE_MAX_FILES = 1000; // 0 disables caching
 
     public static void initProperties() {
         initProperties(DEFAULT_PROPERTY_FILE);
@@ -128,6 +205,20 @@ public class PropertiesLoader {
             // Legacy support
             WARC_SOURCE_HTTP_FALLBACK = Boolean.parseBoolean(serviceProperties.getProperty(WARC_SOURCE_HTTP_FALLBACK_LEGACY_PROPERTY, "false"));
             WARC_SOURCE_HTTP_FALLBACK = Boolean.parseBoolean(serviceProperties.getProperty(WARC_SOURCE_HTTP_FALLBACK_PROPERTY, Boolean.toString(WARC_SOURCE_HTTP_FALLBACK)));
+            WARC_SOURCE_HTTP_RANGE_WINDOW = Integer.parseInt(serviceProperties.getProperty(WARC_SOURCE_HTTP_RANGE_WINDOW_PROPERTY, Integer.toString(WARC_SOURCE_HTTP_RANGE_WINDOW)).trim());
+            WARC_SOURCE_HTTP_CACHE_BYTES = Long.parseLong(serviceProperties.getProperty(WARC_SOURCE_HTTP_CACHE_BYTES_PROPERTY, Long.toString(WARC_SOURCE_HTTP_CACHE_BYTES)).trim());
+            WARC_SOURCE_HTTP_CACHE_BLOCKSIZE = Integer.parseInt(serviceProperties.getProperty(WARC_SOURCE_HTTP_CACHE_BLOCKSIZE_PROPERTY, Integer.toString(WARC_SOURCE_HTTP_CACHE_BLOCKSIZE)).trim());
+            WARC_SOURCE_HTTP_CACHE_READAHEAD = Boolean.parseBoolean(serviceProperties.getProperty(WARC_SOURCE_HTTP_CACHE_READAHEAD_PROPERTY, Boolean.toString(WARC_SOURCE_HTTP_CACHE_READAHEAD)).trim());
+            WARC_SOURCE_HTTP_CACHE_SPILL_DIR = serviceProperties.getProperty(WARC_SOURCE_HTTP_CACHE_SPILL_DIR_PROPERTY, WARC_SOURCE_HTTP_CACHE_SPILL_DIR).trim();
+            WARC_SOURCE_HTTP_CACHE_SPILL_BYTES = Long.parseLong(serviceProperties.getProperty(WARC_SOURCE_HTTP_CACHE_SPILL_BYTES_PROPERTY, Long.toString(WARC_SOURCE_HTTP_CACHE_SPILL_BYTES)).trim());
+            WARC_GZIP_INDEX_DIR = serviceProperties.getProperty(WARC_GZIP_INDEX_DIR_PROPERTY, WARC_GZIP_INDEX_DIR).trim();
+            WARC_GZIP_INDEX_INTERVAL = Long.parseLong(serviceProperties.getProperty(WARC_GZIP_INDEX_INTERVAL_PROPERTY, Long.toString(WARC_GZIP_INDEX_INTERVAL)).trim());
+            WARC_GZIP_INDEX_LAZY = Boolean.parseBoolean(serviceProperties.getProperty(WARC_GZIP_INDEX_LAZY_PROPERTY, Boolean.toString(WARC_GZIP_INDEX_LAZY)).trim());
+            WARC_HEADER_CACHE_MAX_ENTRIES = Integer.parseInt(serviceProperties.getProperty(WARC_HEADER_CACHE_MAX_ENTRIES_PROPERTY, Integer.toString(WARC_HEADER_CACHE_MAX_ENTRIES)).trim());
+            WARC_HEADER_CACHE_AGE_SECONDS = Integer.parseInt(serviceProperties.getProperty(WARC_HEADER_CACHE_AGE_SECONDS_PROPERTY, Integer.toString(WARC_HEADER_CACHE_AGE_SECONDS)).trim());
+            PLAYBACK_CACHE_MAX_BYTES = Long.parseLong(serviceProperties.getProperty(PLAYBACK_CACHE_MAX_BYTES_PROPERTY, Long.toString(PLAYBACK_CACHE_MAX_BYTES)).trim());
+            PLAYBACK_CACHE_MAX_RESOURCE_BYTES = Long.parseLong(serviceProperties.getProperty(PLAYBACK_CACHE_MAX_RESOURCE_BYTES_PROPERTY, Long.toString(PLAYBACK_CACHE_MAX_RESOURCE_BYTES)).trim());
+            PLAYBACK_CACHE_AGE_SECONDS = Integer.parseInt(serviceProperties.getProperty(PLAYBACK_CACHE_AGE_SECONDS_PROPERTY, Integer.toString(PLAYBACK_CACHE_AGE_SECONDS)).trim());
             PID_COLLECTION_NAME = serviceProperties.getProperty(PID_COLLECTION_NAME_PROPERTY);
             loadArcResolverParameters(serviceProperties);
             String timeout  = serviceProperties.getProperty(SCREENSHOT_PREVIEW_TIMEOUT_PROPERTY);
@@ -136,6 +227,16 @@ public class PropertiesLoader {
             SOLR_STREAM_SHARD_AUTO_MIN_SHARDS = Long.parseLong(serviceProperties.getProperty(SOLR_STREAM_SHARD_AUTO_MIN_SHARDS_PROPERTY, Long.toString(SOLR_STREAM_SHARD_AUTO_MIN_SHARDS)));
             SOLR_STREAM_SHARD_AUTO_MIN_HITS = Long.parseLong(serviceProperties.getProperty(SOLR_STREAM_SHARD_AUTO_MIN_HITS_PROPERTY, Long.toString(SOLR_STREAM_SHARD_AUTO_MIN_HITS)));
             SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX = Integer.parseInt(serviceProperties.getProperty(SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX_PROPERTY, Integer.toString(SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX)));
+            SOLR_EXPORT_EXPAND_LINK_FIELDS = Arrays.stream(serviceProperties.getProperty(SOLR_EXPORT_EXPAND_LINK_FIELDS_PROPERTY, "").split(",")).
+                    map(String::trim).
+                    filter(field -> !field.isEmpty()).
+                    collect(Collectors.toList());
+            SOLR_EXPORT_EXPAND_WINDOW = Integer.parseInt(serviceProperties.getProperty(SOLR_EXPORT_EXPAND_WINDOW_PROPERTY, Integer.toString(SOLR_EXPORT_EXPAND_WINDOW)).trim());
+            IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES = Integer.parseInt(serviceProperties.getProperty(IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES_PROPERTY, Integer.toString(IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES)).trim());
+            IMAGE_THUMBNAIL_CACHE_AGE_SECONDS = Integer.parseInt(serviceProperties.getProperty(IMAGE_THUMBNAIL_CACHE_AGE_SECONDS_PROPERTY, Integer.toString(IMAGE_THUMBNAIL_CACHE_AGE_SECONDS)).trim());
+            IMAGE_THUMBNAIL_CACHE_MAX_BYTES = Long.parseLong(serviceProperties.getProperty(IMAGE_THUMBNAIL_CACHE_MAX_BYTES_PROPERTY, Long.toString(IMAGE_THUMBNAIL_CACHE_MAX_BYTES)).trim());
+            IMAGE_DECODE_CONCURRENT_MAX = Integer.parseInt(serviceProperties.getProperty(IMAGE_DECODE_CONCURRENT_MAX_PROPERTY, Integer.toString(IMAGE_DECODE_CONCURRENT_MAX)).trim());
+            IMAGE_DECODE_MAX_PIXELS = Long.parseLong(serviceProperties.getProperty(IMAGE_DECODE_MAX_PIXELS_PROPERTY, Long.toString(IMAGE_DECODE_MAX_PIXELS)).trim());
 
             URL waybacksURL = new URL (WAYBACK_BASEURL);
             WAYBACK_SERVER_PORT =  waybacksURL.getPort();
@@ -144,6 +245,10 @@ public class PropertiesLoader {
             if (timeout != null){
                 SCREENSHOT_PREVIEW_TIMEOUT = Integer.parseInt(timeout);
             }
+            SCREENSHOT_PREVIEW_CONCURRENT_MAX = Integer.parseInt(serviceProperties.getProperty(SCREENSHOT_PREVIEW_CONCURRENT_MAX_PROPERTY, Integer.toString(SCREENSHOT_PREVIEW_CONCURRENT_MAX)).trim());
+            SCREENSHOT_PREVIEW_QUEUE_MAX = Integer.parseInt(serviceProperties.getProperty(SCREENSHOT_PREVIEW_QUEUE_MAX_PROPERTY, Integer.toString(SCREENSHOT_PREVIEW_QUEUE_MAX)).trim());
+            SCREENSHOT_PREVIEW_PRERENDER = Boolean.parseBoolean(serviceProperties.getProperty(SCREENSHOT_PREVIEW_PRERENDER_PROPERTY, Boolean.toString(SCREENSHOT_PREVIEW_PRERENDER)).trim());
+            SCREENSHOT_CACHE_MAX_FILES = Integer.parseInt(serviceProperties.getProperty(SCREENSHOT_CACHE_MAX_FILES_PROPERTY, Integer.toString(SCREENSHOT_CACHE_MAX_FILES)).trim());
            
             String cachingStr= serviceProperties.getProperty(SOLR_SERVER_CACHING_PROPERTY);
 
@@ -179,9 +284,27 @@ public class PropertiesLoader {
             log.info("Property:"+ CHROME_COMMAND_PROPERTY +" = " + CHROME_COMMAND);
             log.info("Property:"+ SCREENSHOT_TEMP_IMAGEDIR_PROPERTY +" = " + SCREENSHOT_TEMP_IMAGEDIR);
             log.info("Property:"+ SCREENSHOT_PREVIEW_TIMEOUT_PROPERTY +" = " +  SCREENSHOT_PREVIEW_TIMEOUT);
+            log.info("Property:"+ SCREENSHOT_PREVIEW_CONCURRENT_MAX_PROPERTY +" = " +  SCREENSHOT_PREVIEW_CONCURRENT_MAX);
+            log.info("Property:"+ SCREENSHOT_PREVIEW_QUEUE_MAX_PROPERTY +" = " +  SCREENSHOT_PREVIEW_QUEUE_MAX);
+            log.info("Property:"+ SCREENSHOT_PREVIEW_PRERENDER_PROPERTY +" = " +  SCREENSHOT_PREVIEW_PRERENDER);
+            log.info("Property:"+ SCREENSHOT_CACHE_MAX_FILES_PROPERTY +" = " +  SCREENSHOT_CACHE_MAX_FILES);
             log.info("Property:"+ WARC_FILE_RESOLVER_CLASS_PROPERTY +" = " + WARC_FILE_RESOLVER_CLASS);
             log.info("Property:"+ WARC_FILE_RESOLVER_PARAMETERS_PROPERTY +" = " + WARC_FILE_RESOLVER_PARAMETERS);
             log.info("Property:"+ WARC_SOURCE_HTTP_FALLBACK_PROPERTY + " = " + WARC_SOURCE_HTTP_FALLBACK);
+            log.info("Property:"+ WARC_SOURCE_HTTP_RANGE_WINDOW_PROPERTY + " = " + WARC_SOURCE_HTTP_RANGE_WINDOW);
+            log.info("Property:"+ WARC_SOURCE_HTTP_CACHE_BYTES_PROPERTY + " = " + WARC_SOURCE_HTTP_CACHE_BYTES);
+            log.info("Property:"+ WARC_SOURCE_HTTP_CACHE_BLOCKSIZE_PROPERTY + " = " + WARC_SOURCE_HTTP_CACHE_BLOCKSIZE);
+            log.info("Property:"+ WARC_SOURCE_HTTP_CACHE_READAHEAD_PROPERTY + " = " + WARC_SOURCE_HTTP_CACHE_READAHEAD);
+            log.info("Property:"+ WARC_SOURCE_HTTP_CACHE_SPILL_DIR_PROPERTY + " = " + WARC_SOURCE_HTTP_CACHE_SPILL_DIR);
+            log.info("Property:"+ WARC_SOURCE_HTTP_CACHE_SPILL_BYTES_PROPERTY + " = " + WARC_SOURCE_HTTP_CACHE_SPILL_BYTES);
+            log.info("Property:"+ WARC_GZIP_INDEX_DIR_PROPERTY + " = " + WARC_GZIP_INDEX_DIR);
+            log.info("Property:"+ WARC_GZIP_INDEX_INTERVAL_PROPERTY + " = " + WARC_GZIP_INDEX_INTERVAL);
+            log.info("Property:"+ WARC_GZIP_INDEX_LAZY_PROPERTY + " = " + WARC_GZIP_INDEX_LAZY);
+            log.info("Property:"+ WARC_HEADER_CACHE_MAX_ENTRIES_PROPERTY + " = " + WARC_HEADER_CACHE_MAX_ENTRIES);
+            log.info("Property:"+ WARC_HEADER_CACHE_AGE_SECONDS_PROPERTY + " = " + WARC_HEADER_CACHE_AGE_SECONDS);
+            log.info("Property:"+ PLAYBACK_CACHE_MAX_BYTES_PROPERTY + " = " + PLAYBACK_CACHE_MAX_BYTES);
+            log.info("Property:"+ PLAYBACK_CACHE_MAX_RESOURCE_BYTES_PROPERTY + " = " + PLAYBACK_CACHE_MAX_RESOURCE_BYTES);
+            log.info("Property:"+ PLAYBACK_CACHE_AGE_SECONDS_PROPERTY + " = " + PLAYBACK_CACHE_AGE_SECONDS);
             log.info("Property:"+ URL_NORMALISER_PROPERTY +" = " +  URL_NORMALISER);
             log.info("Property:"+ PID_COLLECTION_NAME_PROPERTY +" = " +  PID_COLLECTION_NAME);
             log.info("Property:"+ WARC_FILES_VERIFY_COLLECTION_PROPERTY  +" = " + WARC_FILES_VERIFY_COLLECTION);
@@ -194,6 +317,13 @@ public class PropertiesLoader {
             log.info("Property:" + SOLR_STREAM_SHARD_AUTO_MIN_SHARDS_PROPERTY + " = " + SOLR_STREAM_SHARD_AUTO_MIN_SHARDS);
             log.info("Property:" + SOLR_STREAM_SHARD_AUTO_MIN_HITS_PROPERTY + " = " + SOLR_STREAM_SHARD_AUTO_MIN_HITS);
             log.info("Property:" + SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX_PROPERTY + " = " + SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX);
+            log.info("Property:" + SOLR_EXPORT_EXPAND_LINK_FIELDS_PROPERTY + " = " + SOLR_EXPORT_EXPAND_LINK_FIELDS);
+            log.info("Property:" + SOLR_EXPORT_EXPAND_WINDOW_PROPERTY + " = " + SOLR_EXPORT_EXPAND_WINDOW);
+            log.info("Property:" + IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES_PROPERTY + " = " + IMAGE_THUMBNAIL_CACHE_MAX_ENTRIES);
+            log.info("Property:" + IMAGE_THUMBNAIL_CACHE_AGE_SECONDS_PROPERTY + " = " + IMAGE_THUMBNAIL_CACHE_AGE_SECONDS);
+            log.info("Property:" + IMAGE_THUMBNAIL_CACHE_MAX_BYTES_PROPERTY + " = " + IMAGE_THUMBNAIL_CACHE_MAX_BYTES);
+            log.info("Property:" + IMAGE_DECODE_CONCURRENT_MAX_PROPERTY + " = " + IMAGE_DECODE_CONCURRENT_MAX);
+            log.info("Property:" + IMAGE_DECODE_MAX_PIXELS_PROPERTY + " = " + IMAGE_DECODE_MAX_PIXELS);
         } catch (Exception e) {
             e.printStackTrace(); // Acceptable as this is catastrophic
             log.error("Could not load property file '" + propertyPath + "'",e);
@@ -51,6 +51,7 @@ public class PropertiesLoaderWeb {
     public static final String ALLOW_EXPORT_CSV_PROPERTY = "allow.export.csv";
     public static final String ALLOW_EXPORT_ZIP_PROPERTY ="allow.export.zip";
     public static final String WORDCLOUD_STOPWORDS_PROPERTY="wordcloud.stopwords";    
+    public static final String WORDCLOUD_MAX_DOCUMENTS_PROPERTY="wordcloud.max.documents";
     public static final String SEARCH_UPLOADED_FILE_DISABLED_PROPERTY="search.uploaded.file.disabled";
     public static final String SEARCH_PAGINATION_PROPERTY = "search.pagination";
     
@@ -60,6 +61,12 @@ public class PropertiesLoaderWeb {
     public static final String EXPORT_CSV_MAXRESULTS_PROPERTY = "export.csv.maxresults";
     public static final String EXPORT_WARC_EXPANDED_MAXRESULTS_PROPERTY = "export.warc.expanded.maxresults";
     public static final String EXPORT_ZIP_MAXRESULTS_PROPERTY ="export.csv.maxresults";
+    public static final String EXPORT_RESUME_TIMEOUT_MINUTES_PROPERTY = "export.resume.timeout.minutes";
+    public static final String EXPORT_JOBS_DIR_PROPERTY = "export.jobs.dir";
+    public static final String EXPORT_JOBS_THREADS_PROPERTY = "export.jobs.threads";
+    public static final String EXPORT_JOBS_MAX_PROPERTY = "export.jobs.max";
+    public static final String EXPORT_JOBS_RETENTION_MINUTES_PROPERTY = "export.jobs.retention.minutes";
+    public static final String EXPORT_JOBS_YIELD_MS_PROPERTY = "export.jobs.yield.ms";
 
     public static final String EXPORT_CSV_FIELDS_PROPERTY = "export.csv.fields";
     public static final String ABOUT_TEXT_FILE_PROPERTY = "about.text.file";
@@ -95,6 +102,12 @@ public class PropertiesLoaderWeb {
     public static long EXPORT_WARC_MAXRESULTS=1000000; // 1M default
     public static long EXPORT_WARC_EXPANDED_MAXRESULTS=100000; // 500K default
     public static long EXPORT_ZIP_MAXRESULTS=1000000; // 1M default
+    public static int EXPORT_RESUME_TIMEOUT_MINUTES = 24*60; // 1 day
+    public static String EXPORT_JOBS_DIR = new File(System.getProperty("java.io.tmpdir"), "solrwayback_export_jobs").getPath();
+    public static int EXPORT_JOBS_THREADS = 2;
+    public static int EXPORT_JOBS_MAX = 20;
+    public static int EXPORT_JOBS_RETENTION_MINUTES = 24*60; // 1 day
+    public static int EXPORT_JOBS_YIELD_MS = 1000;
     public static boolean ALLOW_EXPORT_WARC;
     public static boolean ALLOW_EXPORT_CSV;
     public static boolean ALLOW_EXPORT_ZIP;
@@ -122,6 +135,7 @@ public class PropertiesLoaderWeb {
     
     //Default empty if not defined in properties
     public static  List<String> WORDCLOUD_STOPWORDS = new ArrayList<String>();
+    public static int WORDCLOUD_MAX_DOCUMENTS = 5000; // -1 means no limit
     
     public static void initProperties() {
         initProperties(DEFAULT_PROPERTY_WEB_FILE);      
@@ -152,6 +166,7 @@ public class PropertiesLoaderWeb {
             STATS_ALL_FIELDS = Arrays.asList(getProperty(TEXT_STATS_PROPERTY, StringUtils.join(STATS_ALL_FIELDS, ",")).split(", *"));
             STATS_NUMERIC_FIELDS = Arrays.asList(getProperty(NUMERIC_STATS_PROPERTY, StringUtils.join(STATS_NUMERIC_FIELDS, ",")).split(", *"));
             WORDCLOUD_STOPWORDS = Arrays.asList(getProperty(WORDCLOUD_STOPWORDS_PROPERTY, StringUtils.join(WORDCLOUD_STOPWORDS, ",")).split(", *"));
+            WORDCLOUD_MAX_DOCUMENTS = getInt(WORDCLOUD_MAX_DOCUMENTS_PROPERTY, WORDCLOUD_MAX_DOCUMENTS);
             WEBAPP_PREFIX = serviceProperties.getProperty(WEBAPP_PREFIX_PROPERTY,"/solrwayback/"); //Default to /solrwayback/ if not defined
                                    
             PLAYBACK_ALTERNATIVE_ENGINE = serviceProperties.getProperty(PLAYBACK_ALTERNATIVE_ENGINE_PROPERTY);
@@ -184,6 +199,12 @@ public class PropertiesLoaderWeb {
             TOP_LEFT_LOGO_IMAGE_LINK = serviceProperties.getProperty(TOP_LEFT_LOGO_IMAGE_LINK_PROPERTY);
 
             WARC_ENTRY_TEXT_MAX_CHARACTERS = getInt(WARC_ENTRY_TEXT_MAX_CHARACTERS_PROPERTY, WARC_ENTRY_TEXT_MAX_CHARACTERS);
+            EXPORT_RESUME_TIMEOUT_MINUTES = getInt(EXPORT_RESUME_TIMEOUT_MINUTES_PROPERTY, EXPORT_RESUME_TIMEOUT_MINUTES);
+            EXPORT_JOBS_DIR = getProperty(EXPORT_JOBS_DIR_PROPERTY, EXPORT_JOBS_DIR).trim();
+            EXPORT_JOBS_THREADS = getInt(EXPORT_JOBS_THREADS_PROPERTY, EXPORT_JOBS_THREADS);
+            EXPORT_JOBS_MAX = getInt(EXPORT_JOBS_MAX_PROPERTY, EXPORT_JOBS_MAX);
+            EXPORT_JOBS_RETENTION_MINUTES = getInt(EXPORT_JOBS_RETENTION_MINUTES_PROPERTY, EXPORT_JOBS_RETENTION_MINUTES);
+            EXPORT_JOBS_YIELD_MS = getInt(EXPORT_JOBS_YIELD_MS_PROPERTY, EXPORT_JOBS_YIELD_MS);
 
             String csv_max_results= serviceProperties.getProperty(EXPORT_CSV_MAXRESULTS_PROPERTY);
             String warc_max_results= serviceProperties.getProperty(EXPORT_WARC_MAXRESULTS_PROPERTY);
@@ -276,6 +297,12 @@ public class PropertiesLoaderWeb {
             log.info("Property:"+ EXPORT_WARC_MAXRESULTS_PROPERTY +" = " + EXPORT_WARC_MAXRESULTS);
             log.info("Property:"+ EXPORT_WARC_EXPANDED_MAXRESULTS_PROPERTY +" = " + EXPORT_WARC_EXPANDED_MAXRESULTS);
             log.info("Property:"+ EXPORT_ZIP_MAXRESULTS_PROPERTY + " = " + EXPORT_ZIP_MAXRESULTS);
+            log.info("Property:"+ EXPORT_RESUME_TIMEOUT_MINUTES_PROPERTY + " = " + EXPORT_RESUME_TIMEOUT_MINUTES);
+            log.info("Property:"+ EXPORT_JOBS_DIR_PROPERTY + " = " + EXPORT_JOBS_DIR);
+            log.info("Property:"+ EXPORT_JOBS_THREADS_PROPERTY + " = " + EXPORT_JOBS_THREADS);
+            log.info("Property:"+ EXPORT_JOBS_MAX_PROPERTY + " = " + EXPORT_JOBS_MAX);
+            log.info("Property:"+ EXPORT_JOBS_RETENTION_MINUTES_PROPERTY + " = " + EXPORT_JOBS_RETENTION_MINUTES);
+            log.info("Property:"+ EXPORT_JOBS_YIELD_MS_PROPERTY + " = " + EXPORT_JOBS_YIELD_MS);
             log.info("Property:"+ EXPORT_CSV_FIELDS_PROPERTY +" = " + EXPORT_CSV_FIELDS);
             log.info("Property:"+ WAYBACK_SERVER_PROPERTY +" = " + WAYBACK_SERVER);			
             log.info("Property:"+ MAPS_LATITUDE_PROPERTY+" = " +MAPS_LATITUDE);
@@ -283,6 +310,7 @@ public class PropertiesLoaderWeb {
             log.info("Property:"+ MAPS_RADIUS_PROPERTY+" = " + MAPS_RADIUS);
             log.info("Property:"+ FACETS_PROPERTY +" = " + FACETS);
             log.info("Property:"+ WORDCLOUD_STOPWORDS_PROPERTY +" = " + WORDCLOUD_STOPWORDS);        
+            log.info("Property:"+ WORDCLOUD_MAX_DOCUMENTS_PROPERTY +" = " + WORDCLOUD_MAX_DOCUMENTS);
             log.info("Property:"+ SEARCH_UPLOADED_FILE_DISABLED_PROPERTY+" = " +SEARCH_UPLOADED_FILE_DISABLED);            
             log.info("Property:"+ SEARCH_PAGINATION_PROPERTY + " = " + SEARCH_PAGINATION);
             log.info("Property:"+ ABOUT_TEXT_FILE_PROPERTY +" = " + ABOUT_TEXT_FILE);
@@ -0,0 +1,134 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.service;
+
+import dk.kb.netarchivesuite.solrwayback.util.InputStreamUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Delivers the payload of a (W)ARC record by streaming it from the record to the client, without holding the
+ * payload on the heap.
+ * <p>
+ * Single HTTP Range requests ({@code bytes=<start>-<end>}, {@code bytes=<start>-} and {@code bytes=-<suffix>}) are
+ * honoured if the payload size is known, which makes seeking in audio and video work in the browser. The start of
+ * the range is reached by skipping in the payload stream, which for uncompressed (W)ARCs is a seek in the file.
+ * Multiple ranges and malformed Range headers are ignored and the full payload is delivered, as allowed by
+ * <a href="https://www.rfc-editor.org/rfc/rfc7233#section-3.1">RFC 7233</a>.
+ */
+public class PayloadResponse {
+    private static final Logger log = LoggerFactory.getLogger(PayloadResponse.class);
+
+    private static final Pattern RANGE = Pattern.compile("bytes=([0-9]*)-([0-9]*)");
+    private static final int COPY_BUFFER_SIZE = 65536;
+    static final long[] UNSATISFIABLE = new long[0];
+
+    /**
+     * Create a response that streams the payload, honouring the Range header if possible.
+     * Content type and other headers are to be added by the caller.
+     * @param payload the payload, positioned at the start. It is closed when the response has been delivered.
+     * @param length  the number of bytes in the payload or -1 if it is not known. If not known, the full payload
+     *                is always delivered. If the payload turns out to be shorter than stated for a partial response,
+     *                delivery fails with an IOException.
+     * @param range   the HTTP Range header from the request. Null if not present.
+     * @return a response with status 200, 206 (partial content) or 416 (range not satisfiable).
+     */
+    public static ResponseBuilder ok(InputStream payload, long length, String range) {
+        long[] span = length < 0 ? null : parseRange(range, length);
+        if (span == UNSATISFIABLE) {
+            IOUtils.closeQuietly(payload);
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length);
+        }
+
+        final long start = span == null ? 0 : span[0];
+        final long count = span == null ? -1 : span[1] - span[0] + 1;
+        StreamingOutput output = out -> {
+            try (InputStream in = payload) {
+                InputStreamUtils.skipFully(in, start);
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                if (count == -1) {
+                    IOUtils.copyLarge(in, out, buffer);
+                } else if (IOUtils.copyLarge(in, out, 0, count, buffer) < count) {
+                    // Truncated record: Abort the response so the client does not accept a short range as complete
+                    throw new IOException("The payload ended before the " + count + " bytes from position " + start +
+                                          " stated in Content-Range. The record is probably truncated");
+                }
+            }
+        };
+        ResponseBuilder response = Response.ok(output);
+        if (length >= 0) {
+            response.header("Accept-Ranges", "bytes");
+        }
+        if (span != null) {
+            log.debug("Delivering bytes {}-{} of {} for Range '{}'", span[0], span[1], length, range);
+            response.status(Response.Status.PARTIAL_CONTENT)
+                    .header("Content-Range", "bytes " + span[0] + "-" + span[1] + "/" + length)
+                    .header("Content-Length", count);
+        }
+        return response;
+    }
+
+    /**
+     * Resolve a HTTP Range header against a payload of the given length.
+     * @param range  the HTTP Range header. Null if not present.
+     * @param length the number of bytes in the payload.
+     * @return null if the full payload should be delivered, {@link #UNSATISFIABLE} if the range is outside of the
+     *         payload, else {@code {first, last}}, both inclusive.
+     */
+    static long[] parseRange(String range, long length) {
+        if (range == null) {
+            return null;
+        }
+        Matcher matcher = RANGE.matcher(range.trim());
+        if (!matcher.matches()) { // Also multiple ranges
+            return null;
+        }
+        String first = matcher.group(1);
+        String last = matcher.group(2);
+        try {
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix == 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(first);
+            if (!last.isEmpty() && Long.parseLong(last) < start) {
+                return null;
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            return new long[]{start, end};
+        } catch (NumberFormatException e) { // Too many digits for a long
+            return null;
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package dk.kb.netarchivesuite.solrwayback.service;
 
 
-import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.net.URL;
 import java.text.DateFormat;
 import java.text.Normalizer;
@@ -18,10 +21,15 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
-import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -37,12 +45,15 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.kb.netarchivesuite.solrwayback.export.ExportJob;
+import dk.kb.netarchivesuite.solrwayback.export.ExportSession;
 import dk.kb.netarchivesuite.solrwayback.facade.Facade;
-import dk.kb.netarchivesuite.solrwayback.image.ImageUtils;
 import dk.kb.netarchivesuite.solrwayback.normalise.Normalisation;
+import dk.kb.netarchivesuite.solrwayback.parsers.RecordHeader;
 import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
 import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoaderWeb;
 import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ExportJobStatus;
 import dk.kb.netarchivesuite.solrwayback.service.dto.ImageUrl;
 import dk.kb.netarchivesuite.solrwayback.service.dto.IndexDoc;
 import dk.kb.netarchivesuite.solrwayback.service.dto.TimestampsForPage;
@@ -65,15 +76,15 @@ public class SolrWaybackResource {
   
   /*
    * Only for debugging/error finding. Not called from SolrWayback frontend.
-   * Can be improved to not also load binary which are not shown. 
+   * Only the headers are read, the binary is not loaded.
    */
   @GET
   @Path("warc/header/parsed")
   @Produces(MediaType.APPLICATION_JSON +"; charset=UTF-8")
   public ArcEntry getArcEntry(@QueryParam("source_file_path") String source_file_path, @QueryParam("offset") long offset) throws SolrWaybackServiceException {
       try {                                                                                      
-        ArcEntry arcEntry= Facade.getArcEntry(source_file_path, offset);
-        return arcEntry;                              
+        RecordHeader header = Facade.getRecordHeader(source_file_path, offset);
+        return header.toArcEntry(null, offset);
       } catch (Exception e) {         
           throw handleServiceExceptions(e);
       }
@@ -85,8 +96,7 @@ public class SolrWaybackResource {
   @Produces({ MediaType.TEXT_PLAIN})
   public String getWarcHeader( @QueryParam("source_file_path") String source_file_path, @QueryParam("offset") long offset) throws SolrWaybackServiceException {
       try {                                                                                      
-        ArcEntry arcEntry= Facade.getArcEntry(source_file_path, offset);
-        return arcEntry.getHeader();                              
+        return Facade.getRecordHeader(source_file_path, offset).getHeader();
       } catch (Exception e) {         
           throw handleServiceExceptions(e);
       }
@@ -177,32 +187,21 @@ public class SolrWaybackResource {
 
       //log.debug("Getting image from source_file_path:" + source_file_path + " offset:" + offset + " targetWidth:" + width + " targetHeight:" + height);
 
-      ArcEntry arcEntry= Facade.getArcEntry(source_file_path, offset);
+      byte[] png = Facade.getThumbnail(source_file_path, offset, width, height);
 
-      // TODO: This is prone to OOM for large images. There should be a sanity check of width & height first
-      BufferedImage image = ImageUtils.getImageFromBinary(arcEntry.getBinaryDecoded());
-
-      if (image== null){
+      if (png == null){
+        RecordHeader arcEntry = Facade.getRecordHeader(source_file_path, offset);
         // java does not support ico format. Just serve it RAW... 
         // Also SVG scaling bugs too much in java
         if (arcEntry.getUrl().toLowerCase().indexOf("/favicon.ico") >0 || arcEntry.getContentType().indexOf("image/svg+xml") >=0){ 
            log.info("image is ico-image or SVG serving it raw");
-           return downloadRaw(source_file_path, offset);          
+           return downloadRaw(source_file_path, offset, null);          
         }
         log.warn("image is null and not .ico file, source_file_path:"+source_file_path +" offset:"+offset);
         throw new IllegalArgumentException("image is null and not .ico image, source_file_path:"+source_file_path +" offset:"+offset +" contentType:"+arcEntry.getContentType());                
       }
 
-      int sourceWidth = image.getWidth();
-      int sourceHeight = image.getHeight();
-
-      if (sourceHeight <= height && sourceWidth <= width) { // No resize, image is smaller
-       return convertToPng(image); 
-        
-      } else {
-        BufferedImage resizeImage = ImageUtils.resizeImage(image, sourceWidth, sourceHeight, width, height);
-        return convertToPng(resizeImage);
-      }
+      return Response.ok(new ByteArrayInputStream(png)).build();
     } catch (Exception e) {
       log.error("error getImage:"+source_file_path +" offset:"+offset +" height:"+height +" width:"+width); //Java can not read all images. 
       throw handleServiceExceptions(e);
@@ -220,7 +219,8 @@ public class SolrWaybackResource {
   @GET
   @Path("/downloadRaw")
   @Produces(MediaType.APPLICATION_OCTET_STREAM)    
-  public Response downloadRaw(@QueryParam("source_file_path") String source_file_path, @QueryParam("offset") long offset) throws SolrWaybackServiceException {
+  public Response downloadRaw(@QueryParam("source_file_path") String source_file_path, @QueryParam("offset") long offset,
+                              @HeaderParam("Range") String range) throws SolrWaybackServiceException {
     try {
 
         
@@ -237,7 +237,7 @@ public class SolrWaybackResource {
         }
         
   //  log.debug("Download from FilePath:" + source_file_path + " offset:" + offset);
-      ArcEntry arcEntry= Facade.getArcEntry(source_file_path, offset);
+      ArcEntry arcEntry= Facade.getArcEntryWithCachedPayload(source_file_path, offset);
       
       //Only solr lookup if redirect.
       if (arcEntry.getStatus_code() >= 300 &&  arcEntry.getStatus_code() <= 399 ){
@@ -248,8 +248,7 @@ public class SolrWaybackResource {
       }
       
       InputStream in = arcEntry.getBinaryNoChunking(); //Stream entry. Dechucking require as tomcat/apache also chunks.
-      
-      ResponseBuilder response = null;
+      ResponseBuilder response = PayloadResponse.ok(in, arcEntry.getBinaryNoChunkingSize(in), range);
       try{        
         String contentType = arcEntry.getContentType();
         if (arcEntry.getContentCharset() != null){ //Do I also have to check contentType not null?
@@ -262,12 +261,12 @@ public class SolrWaybackResource {
             //log.debug("No content charset in warc-header, using full contentType from tika:"+doc.getContentType() + " for  "+source_file_path +" offset:"+offset +" content-type:"+doc.getContentType());            
             contentType=doc.getContentType(); 
         }               
-        response= Response.ok((Object) in).type(contentType);          
+        response.type(contentType);
       }
       catch (Exception e){         
         IndexDoc indexDoc = NetarchiveSolrClient.getInstance().getArcEntry(source_file_path, offset); 
          log.warn("Error setting HTTP header Content-Type:'"+arcEntry.getContentType() +"' using index Content-Type:'"+indexDoc.getContentType()+"'");         
-         response = Response.ok((Object) in).type(indexDoc.getContentType()); 
+         response.type(indexDoc.getContentType()); 
       }
             
       if (arcEntry.getFileName() != null){
@@ -311,24 +310,26 @@ public class SolrWaybackResource {
   @GET
   @Path("/export/warc")    
   @Produces(MediaType.APPLICATION_OCTET_STREAM)    
-  public Response exportWarc(@QueryParam("query") String q, @QueryParam("fq") List<String> fq, @QueryParam("gzip") boolean gzip) throws SolrWaybackServiceException {
+  public Response exportWarc(@QueryParam("query") String q, @QueryParam("fq") List<String> fq, @QueryParam("gzip") boolean gzip,
+                             @QueryParam("resumable") boolean resumable) throws SolrWaybackServiceException {
    
     //This is also required even if the option is removed on the web-page.
     if (!PropertiesLoaderWeb.ALLOW_EXPORT_WARC){ 
       throw new InvalidArgumentServiceException("Export to warc not allowed!");
     }    
-    return exportWarcImpl(q, fq, gzip, false, false);
+    return exportWarcImpl(q, fq, gzip, false, false, resumable);
   }
   
   @GET
   @Path("/export/warcExpanded")    
   @Produces(MediaType.APPLICATION_OCTET_STREAM)    
-  public Response exportWarcExpanded(@QueryParam("query") String q, @QueryParam("fq") List<String> fq,  @QueryParam("gzip") boolean gzip) throws SolrWaybackServiceException {
+  public Response exportWarcExpanded(@QueryParam("query") String q, @QueryParam("fq") List<String> fq,  @QueryParam("gzip") boolean gzip,
+                                     @QueryParam("resumable") boolean resumable) throws SolrWaybackServiceException {
     //This is also required even if the option is removed on the web-page.
     if (!PropertiesLoaderWeb.ALLOW_EXPORT_WARC){ 
       throw new InvalidArgumentServiceException("Export to warc not allowed!");
     }        
-    return exportWarcImpl(q, fq, gzip, true, true);
+    return exportWarcImpl(q, fq, gzip, true, true, resumable);
   }
   
   
@@ -336,15 +337,19 @@ public class SolrWaybackResource {
                                    List<String>  fqList,
                                    boolean gzip,
                                    boolean expandResources,
-                                   boolean avoidDuplicates) throws SolrWaybackServiceException {
+                                   boolean avoidDuplicates,
+                                   boolean resumable) throws SolrWaybackServiceException {
     InputStream is = null;
     try {
-      log.debug("Export warc. gzip="+gzip +" query:"+q +" filterquery:"+fqList);
+      log.debug("Export warc. gzip="+gzip +" resumable="+resumable +" query:"+q +" filterquery:"+fqList);
       DateFormat formatOut= new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
       String dateStr = formatOut.format(new Date());
 
       //Map FQ List<String> to String[]
       String[] fqArray = fqList.stream().toArray(String[]::new);
+      if (resumable) {
+        return deliverExportSession(Facade.exportWarcResumable(expandResources, avoidDuplicates, gzip, q, fqArray), 0);
+      }
       is = Facade.exportWarcStreaming(expandResources, avoidDuplicates, gzip,q, fqArray);
       
       String template = "solrwayback_$DATETIME.warc";
@@ -380,8 +385,8 @@ public class SolrWaybackResource {
             
      try {
       log.debug("Getting thumbnail html image from source_file_path:" + source_file_path + " offset:" + offset);
-      BufferedImage image = Facade.getHtmlPagePreview(source_file_path, offset);          
-      return convertToPng(image);                       
+      byte[] png = Facade.getHtmlPagePreview(source_file_path, offset);
+      return Response.ok(new ByteArrayInputStream(png)).build();
     } catch (Exception e) {
       log.error("error thumbnail html image:"+source_file_path +" offset:"+offset);  
       throw handleServiceExceptions(e);
@@ -427,6 +432,7 @@ public class SolrWaybackResource {
                                @QueryParam("flatten") Boolean flatten,
                                @QueryParam("format") String format,
                                @QueryParam("gzip") Boolean gzip,
+                               @QueryParam("resumable") Boolean resumable,
                                @QueryParam("fq") String... filters                     
           ) throws SolrWaybackServiceException {
     if (!PropertiesLoaderWeb.ALLOW_EXPORT_CSV){
@@ -439,6 +445,10 @@ public class SolrWaybackResource {
                 format, q, filters, fields,
                 Boolean.TRUE.equals(expandResources), Boolean.TRUE.equals(ensureUnique), Boolean.TRUE.equals(flatten),
                 groupField, gzip);
+      if (Boolean.TRUE.equals(resumable)) {
+        return deliverExportSession(Facade.exportFieldsResumable(
+                fields, expandResources, ensureUnique, groupField, flatten, format, gzip, q, filters), 0);
+      }
       InputStream is = Facade.exportFields(fields, expandResources, ensureUnique, groupField, flatten, format, gzip, q, filters);
       // TODO: Set MIME-type and compression flag
       String filenameTemplate = "solrwayback_$DATETIME." + format + (gzip ? ".gz" : "");
@@ -450,6 +460,70 @@ public class SolrWaybackResource {
 
   }
 
+  private static final Pattern OPEN_RANGE = Pattern.compile("bytes=([0-9]+)-");
+
+  /**
+   * Continue a resumable export started with {@code resumable=true} on {@code /export/warc},
+   * {@code /export/warcExpanded} or {@code /export/fields}.
+   * @param token  the value of the {@code X-Export-Token} header from the original export.
+   * @param offset the number of bytes already received. Overridden by {@code range} if present.
+   * @param range  optional HTTP Range header. Only the form {@code bytes=<offset>-} is supported.
+   * @return the export from the given offset or 409 Conflict if the index has changed since the export was started.
+   */
+  @GET
+  @Path("/export/resume")
+  @Produces(MediaType.APPLICATION_OCTET_STREAM)
+  public Response exportResume(@QueryParam("token") String token, @QueryParam("offset") Long offset,
+                               @HeaderParam("Range") String range) throws SolrWaybackServiceException {
+    try {
+      long start = offset == null ? 0 : offset;
+      if (range != null && !range.isEmpty()) {
+        Matcher matcher = OPEN_RANGE.matcher(range.trim());
+        if (!matcher.matches()) {
+          throw new InvalidArgumentServiceException("Only open ended ranges 'bytes=<offset>-' are supported: " + range);
+        }
+        start = Long.parseLong(matcher.group(1));
+      }
+      if (start < 0) {
+        throw new InvalidArgumentServiceException("The offset must be 0 or more, but was " + start);
+      }
+      log.debug("Resuming export with token '{}' from offset {}", token, start);
+      ExportSession session = ExportSession.resume(token);
+      session.checkOffset(start);
+      return deliverExportSession(session, start);
+    } catch (Exception e) {
+      log.error("Error resuming export with token '" + token + "'", e);
+      throw handleServiceExceptions(e);
+    }
+  }
+
+  /**
+   * Stream the export from the given session, starting at offset.
+   * The token for resuming the export is delivered in the header {@code X-Export-Token} and the offset in
+   * {@code X-Export-Offset}. The size of the export is only known after it has been written fully once, so resumed
+   * exports are delivered as 206 Partial Content with {@code Content-Range} if the size is known and as 200 OK if not.
+   */
+  private Response deliverExportSession(ExportSession session, long offset) {
+    StreamingOutput output = out -> {
+      try {
+        session.write(out, offset);
+      } catch (SolrWaybackServiceException e) {
+        throw new IOException("Unable to resume export", e);
+      }
+    };
+    ResponseBuilder response = Response.ok(output)
+            .header("Content-Disposition", getDisposition("solrwayback_$DATETIME." + session.getDesignation()))
+            .header("X-Export-Token", session.getToken())
+            .header("X-Export-Offset", offset);
+    long total = session.getTotalBytes();
+    if (offset > 0 && total > offset) {
+      response.status(Response.Status.PARTIAL_CONTENT)
+              .header("Content-Range", "bytes " + offset + "-" + (total - 1) + "/" + total)
+              .header("Content-Length", total - offset);
+    }
+    return response.build();
+  }
+
   /**
    * Endpoint that delivers a zip file of content present in query of a specific content type.
    * @param query       used to extract WARC entries from solr by.
@@ -473,6 +547,172 @@ public class SolrWaybackResource {
   }
 
 
+  /**
+   * Submit a WARC export as a background job. Use {@code /export/jobs/{id}} for progress and
+   * {@code /export/jobs/{id}/download} when the job has finished.
+   * @return the status of the queued job.
+   */
+  @POST
+  @Path("/export/jobs/warc")
+  @Produces({ MediaType.APPLICATION_JSON})
+  public ExportJobStatus submitWarcExportJob(@QueryParam("query") String q, @QueryParam("fq") List<String> fq,
+                                             @QueryParam("gzip") boolean gzip,
+                                             @QueryParam("expandResources") boolean expandResources)
+          throws SolrWaybackServiceException {
+    if (!PropertiesLoaderWeb.ALLOW_EXPORT_WARC){
+      throw new InvalidArgumentServiceException("Export to warc not allowed!");
+    }
+    try {
+      log.debug("Export warc job. gzip="+gzip +" expandResources="+expandResources +" query:"+q +" filterquery:"+fq);
+      return Facade.submitWarcExportJob(
+              expandResources, expandResources, gzip, q, fq.stream().toArray(String[]::new)).getStatus();
+    } catch (Exception e) {
+      log.error("Error submitting warc export job",e);
+      throw handleServiceExceptions(e);
+    }
+  }
+
+  /**
+   * Submit a fields export as a background job. The parameters are the same as for {@code /export/fields}.
+   * @return the status of the queued job.
+   */
+  @POST
+  @Path("/export/jobs/fields")
+  @Produces({ MediaType.APPLICATION_JSON})
+  public ExportJobStatus submitFieldsExportJob(@QueryParam("query") String q,
+                                               @QueryParam("fields") String fields,
+                                               @QueryParam("expandResources") Boolean expandResources,
+                                               @QueryParam("ensureUnique") Boolean ensureUnique,
+                                               @QueryParam("groupfield") String groupField,
+                                               @QueryParam("flatten") Boolean flatten,
+                                               @QueryParam("format") String format,
+                                               @QueryParam("gzip") Boolean gzip,
+                                               @QueryParam("fq") String... filters)
+          throws SolrWaybackServiceException {
+    if (!PropertiesLoaderWeb.ALLOW_EXPORT_CSV){
+      throw new InvalidArgumentServiceException("Export to fields not allowed!");
+    }
+    format = format == null ? "csv" : format;
+    try {
+      log.debug("{} export job. Query:'{}, filterquery:'{}', fields:'{}'", format, q, filters, fields);
+      return Facade.submitFieldsExportJob(
+              fields, expandResources, ensureUnique, groupField, flatten, format, gzip, q, filters).getStatus();
+    } catch (Exception e) {
+      log.error("Error submitting fields export job",e);
+      throw handleServiceExceptions(e);
+    }
+  }
+
+  /**
+   * Submit a zip export of content as a background job. The parameters are the same as for {@code /export/zip}.
+   * @return the status of the queued job.
+   */
+  @POST
+  @Path("/export/jobs/zip")
+  @Produces({ MediaType.APPLICATION_JSON})
+  public ExportJobStatus submitZipExportJob(@QueryParam("query") String query, @QueryParam("fq") String... filters)
+          throws SolrWaybackServiceException {
+    if (!PropertiesLoaderWeb.ALLOW_EXPORT_ZIP){
+      throw new InvalidArgumentServiceException("Zip export is not allowed!");
+    }
+    try {
+      return Facade.submitZipExportJob(query, filters).getStatus();
+    } catch (Exception e) {
+      log.error("Error submitting zip export job",e);
+      throw handleServiceExceptions(e);
+    }
+  }
+
+  @GET
+  @Path("/export/jobs")
+  @Produces({ MediaType.APPLICATION_JSON})
+  public List<ExportJobStatus> listExportJobs() {
+    return ExportJob.list().stream().map(ExportJob::getStatus).collect(Collectors.toList());
+  }
+
+  @GET
+  @Path("/export/jobs/{id}")
+  @Produces({ MediaType.APPLICATION_JSON})
+  public ExportJobStatus getExportJob(@PathParam("id") String id) throws SolrWaybackServiceException {
+    return ExportJob.get(id).getStatus();
+  }
+
+  /**
+   * Cancel the export job if it is queued or running and remove it, including its result.
+   * @return the status of the job before removal.
+   */
+  @DELETE
+  @Path("/export/jobs/{id}")
+  @Produces({ MediaType.APPLICATION_JSON})
+  public ExportJobStatus removeExportJob(@PathParam("id") String id) throws SolrWaybackServiceException {
+    return ExportJob.remove(id).getStatus();
+  }
+
+  // Tomcat specific request attributes for sendfile delivery
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+  /**
+   * Download the result of a finished export job. Open ended ranges {@code bytes=<offset>-} are supported.
+   * If the servlet container supports it (Tomcat with the NIO connector), the file is delivered using sendfile,
+   * where the content is copied by the operating system directly from the file to the socket.
+   */
+  @GET
+  @Path("/export/jobs/{id}/download")
+  @Produces(MediaType.APPLICATION_OCTET_STREAM)
+  public Response downloadExportJob(@Context HttpServletRequest httpRequest, @PathParam("id") String id,
+                                    @HeaderParam("Range") String range) throws SolrWaybackServiceException {
+    try {
+      ExportJob job = ExportJob.get(id);
+      java.nio.file.Path file = job.getFile();
+      long length = Files.size(file);
+      long start = 0;
+      if (range != null && !range.isEmpty()) {
+        Matcher matcher = OPEN_RANGE.matcher(range.trim());
+        if (!matcher.matches()) {
+          throw new InvalidArgumentServiceException("Only open ended ranges 'bytes=<offset>-' are supported: " + range);
+        }
+        start = Long.parseLong(matcher.group(1));
+        if (start > length) {
+          throw new InvalidArgumentServiceException("The offset " + start + " is beyond the file size " + length);
+        }
+      }
+
+      ResponseBuilder response;
+      if (Boolean.TRUE.equals(httpRequest.getAttribute(SENDFILE_SUPPORT))) {
+        // The container sends the file after the (empty) entity has been handled
+        httpRequest.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+        httpRequest.setAttribute(SENDFILE_START, start);
+        httpRequest.setAttribute(SENDFILE_END, length);
+        response = Response.ok((StreamingOutput) out -> {});
+      } else {
+        final long position = start;
+        response = Response.ok((StreamingOutput) out -> {
+          try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long pos = position;
+            while (pos < length) {
+              pos += channel.transferTo(pos, length - pos, target);
+            }
+          }
+        });
+      }
+      response.header("Content-Length", length - start)
+              .header("Accept-Ranges", "bytes")
+              .header("Content-Disposition", getDisposition("solrwayback_$DATETIME." + job.getDesignation()));
+      if (start > 0) {
+        response.status(Response.Status.PARTIAL_CONTENT)
+                .header("Content-Range", "bytes " + start + "-" + (length - 1) + "/" + length);
+      }
+      return response.build();
+    } catch (Exception e) {
+      log.error("Error downloading export job '" + id + "'", e);
+      throw handleServiceExceptions(e);
+    }
+  }
+
   /*
 //   *  This will be called from solrwayback page views, when resources can not be resolved (not harvested)  
    */    
@@ -502,7 +742,8 @@ public class SolrWaybackResource {
    */
   @GET
   @Path("/webProxy/{path:.+}")
-  public Response waybackProxyAPIResolver(@Context UriInfo uriInfo, @PathParam("path") String path) throws SolrWaybackServiceException {
+  public Response waybackProxyAPIResolver(@Context UriInfo uriInfo, @PathParam("path") String path,
+                                          @HeaderParam("Range") String range) throws SolrWaybackServiceException {
     try {        
       //For some reason the var regexp does not work with comma (;) and other characters. So I have to grab the full url from uriInfo
       log.info("/webProxy/ called with data:"+path);
@@ -529,7 +770,7 @@ public class SolrWaybackResource {
       }
       //log.info("Found url with harvesttime:"+doc.getUrl() +" and arc:"+doc.getArc_full());        
       log.info("return viewImpl for type:"+doc.getMimeType() +" and url:"+doc.getUrl());
-      return viewImpl(doc.getSource_file_path() , doc.getOffset(),false, null); //NO TOOLBAR!
+      return viewImpl(doc.getSource_file_path() , doc.getOffset(),false, null, range); //NO TOOLBAR!
       
                      
     } catch (Exception e) {
@@ -671,7 +912,7 @@ public class SolrWaybackResource {
         String refererUrl = httpRequest.getHeader("referer");       
         log.info("url not with domain:"+url +" referer:"+refererUrl);         
         IndexDoc doc = Facade.matchRelativeUrlForDomain(refererUrl,url,solrDate);           
-        return downloadRaw(doc.getSource_file_path(),doc.getOffset());      
+        return downloadRaw(doc.getSource_file_path(),doc.getOffset(), httpRequest.getHeader("Range"));      
       }      
             
       //log.info("solrDate="+solrDate +" , url="+url);
@@ -702,7 +943,7 @@ public class SolrWaybackResource {
            
       //log.debug("return viewImpl for type:"+doc.getMimeType() +" and url:"+doc.getUrl());
           
-      Response viewImpl = viewImpl(doc.getSource_file_path() , doc.getOffset(),true, lenient);
+      Response viewImpl = viewImpl(doc.getSource_file_path() , doc.getOffset(),true, lenient, httpRequest.getHeader("Range"));
       
       return viewImpl;
     } catch (Exception e) {
@@ -767,7 +1008,7 @@ public class SolrWaybackResource {
          throw new NotFoundServiceException("URL:"+pwidUrl +" and time:"+onlyUTC + " is not found in collection:"+thisCollectionName);
        }
 
-      return viewImpl(doc.getSource_file_path() , doc.getOffset(),true, null);
+      return viewImpl(doc.getSource_file_path() , doc.getOffset(),true, null, httpRequest.getHeader("Range"));
     } catch (Exception e) {
       throw handleServiceExceptions(e);
     }
@@ -885,11 +1126,12 @@ public class SolrWaybackResource {
   @GET
   @Path("/view") 
   public Response view(@QueryParam("source_file_path") String source_file_path, @QueryParam("offset") long offset,
-                       @QueryParam("showToolbar") Boolean showToolbar, @QueryParam("lenient") Boolean lenient)
+                       @QueryParam("showToolbar") Boolean showToolbar, @QueryParam("lenient") Boolean lenient,
+                       @HeaderParam("Range") String range)
           throws SolrWaybackServiceException {
     try {
 
-      return viewImpl(source_file_path, offset,showToolbar, lenient);
+      return viewImpl(source_file_path, offset,showToolbar, lenient, range);
 
     } catch (Exception e) {
       throw handleServiceExceptions(e);
@@ -926,7 +1168,12 @@ public class SolrWaybackResource {
   }
 */
 
-  private Response viewImpl(String source_file_path, long offset,Boolean showToolbar, Boolean lenient) throws Exception{
+  /**
+   * Playback of a record. Rewritten content (HTML, CSS, etc.) is delivered from memory, other content is streamed
+   * from the record. If the size of the content is known, HTTP Range requests are honoured.
+   * @param range the HTTP Range header from the request. Null if not present.
+   */
+  private Response viewImpl(String source_file_path, long offset,Boolean showToolbar, Boolean lenient, String range) throws Exception{
     
       if (PropertiesLoader.PLAYBACK_DISABLED) {          
           throw new InvalidArgumentServiceException("Playback has been disabled in the configuration");
@@ -961,7 +1208,9 @@ public class SolrWaybackResource {
    //log.debug("setting contentype:"+contentType);
 //          
    
-   ResponseBuilder response = Response.ok(arcEntry.getBinaryRaw()).type(contentType );
+   InputStream in = arcEntry.getBinaryNoChunking();
+   ResponseBuilder response = PayloadResponse.ok(in, arcEntry.getBinaryNoChunkingSize(in), range)
+           .type(contentType);
 
     if (arcEntry.isHasBeenDecompressed()){ //Will have if playback (HTML, Twitter, etc.) has replaced the content
     	response.header("Content-Encoding", "identity"); //Not required, but will make it easier to see it has been applied.
@@ -992,7 +1241,7 @@ public class SolrWaybackResource {
       }
 
       //log.debug("Closest harvest to: " +crawlDate +" is "+indexDoc.getCrawlDate());
-      return view(indexDoc.getSource_file_path(),indexDoc.getOffset(),showToolbar, null);
+      return view(indexDoc.getSource_file_path(),indexDoc.getOffset(),showToolbar, null, null);
 
     } catch (Exception e) {
       throw handleServiceExceptions(e);
@@ -1027,7 +1276,7 @@ public class SolrWaybackResource {
       IndexDoc doc = Facade.resolveRelativUrlForResource(source_file_path, Long.parseLong(offsetStr), leakUrl);
       log.info("Resolved leak to doc url:"+doc.getUrl());  
       log.info("Resolved leak to doc offset:"+doc.getOffset());      
-      return downloadRaw(doc.getSource_file_path(), doc.getOffset());
+      return downloadRaw(doc.getSource_file_path(), doc.getOffset(), httpRequest.getHeader("Range"));
     }
     catch(Exception e){
       throw handleServiceExceptions(e);
@@ -1097,16 +1346,6 @@ public class SolrWaybackResource {
     
   }
   
-  private Response convertToPng(BufferedImage image)  throws Exception { 
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    ImageIO.write(image, "png", baos);
-    byte[] imageData = baos.toByteArray();
-    baos.flush();
-    baos.close();
-    ResponseBuilder response = Response.ok(new ByteArrayInputStream(imageData));
-    return response.build();
-  }
-
   /**
    * Calls {@link #applyTemplate(String)} with the given template and uses the result to construct a HTTP
    * Content-Disposition for downloading.
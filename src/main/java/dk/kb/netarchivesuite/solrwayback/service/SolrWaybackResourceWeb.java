@@ -17,7 +17,9 @@ import javax.activation.DataHandler;
 import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -26,6 +28,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import dk.kb.netarchivesuite.solrwayback.service.dto.statistics.QueryPercentilesStatistics;
@@ -37,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.kb.netarchivesuite.solrwayback.encoders.Sha1Hash;
+import dk.kb.netarchivesuite.solrwayback.export.StreamingImageSearch;
 import dk.kb.netarchivesuite.solrwayback.facade.Facade;
 import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoaderWeb;
 import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
@@ -66,6 +70,11 @@ public class SolrWaybackResourceWeb {
 
     private static final Logger log = LoggerFactory.getLogger(SolrWaybackResourceWeb.class);
 
+    /**
+     * The maximum number of images delivered by a single call to {@link #imagesSearchStream}.
+     */
+    public static final int IMAGES_STREAM_MAX_COUNT = 1000;
+
     @GET
     @Path("test")
     @Produces({ MediaType.TEXT_PLAIN})
@@ -212,8 +221,8 @@ public class SolrWaybackResourceWeb {
         String source_file_path = doc.getSource_file_path();
         long offset = doc.getOffset();
 
-        BufferedImage image = Facade.getHtmlPagePreview(source_file_path, offset);
-        return convertToPng(image);
+        byte[] png = Facade.getHtmlPagePreview(source_file_path, offset);
+        return Response.ok(new ByteArrayInputStream(png)).build();
            
       } catch (Exception e) {
         log.error("error thumbnail html image:" +uriInfo.getRequestUri().toString());  
@@ -335,6 +344,46 @@ public class SolrWaybackResourceWeb {
         throw handleServiceExceptions(e);
       }
     }
+
+    /**
+     * Incremental version of {@link #imagesSearch(String)}, delivering images as JSON-Lines as they are resolved.
+     * <p>
+     * The first call is made with a query and optional filter queries. The response header {@code X-Cursor} holds
+     * a token for continuing the search: Subsequent calls are made with only the cursor. When less than count
+     * images are returned, the search has been depleted.
+     * @param query  a Solr query. Ignored if cursor is specified.
+     * @param fq     0 or more Solr filter queries. Ignored if cursor is specified.
+     * @param cursor the X-Cursor value from a previous call, used for continuing the search.
+     * @param count  the maximum number of images to return, capped at {@link #IMAGES_STREAM_MAX_COUNT}.
+     */
+    @GET
+    @Path("/images/search/stream")
+    @Produces("application/x-ndjson; charset=UTF-8")
+    public Response imagesSearchStream(@QueryParam("query") String query,
+                                       @QueryParam("fq") List<String> fq,
+                                       @QueryParam("cursor") String cursor,
+                                       @QueryParam("count") @DefaultValue("100") int count)
+            throws SolrWaybackServiceException {
+      try {
+        if (count < 1) {
+          throw new InvalidArgumentServiceException("count must be 1 or more, but was " + count);
+        }
+        final int maxImages = Math.min(count, IMAGES_STREAM_MAX_COUNT);
+        final StreamingImageSearch search;
+        if (cursor != null && !cursor.isEmpty()) {
+          search = StreamingImageSearch.resume(cursor);
+        } else {
+          if (query == null || query.isEmpty()) {
+            throw new InvalidArgumentServiceException("Either query or cursor must be specified");
+          }
+          search = StreamingImageSearch.create(query, fq == null ? new String[0] : fq.toArray(new String[0]));
+        }
+        StreamingOutput output = out -> search.write(out, maxImages, Facade::arcEntry2Image);
+        return Response.ok(output).header("X-Cursor", search.getCursor()).build();
+      } catch (Exception e) {
+        throw handleServiceExceptions(e);
+      }
+    }
     
  // TODO https://wiki.apache.org/solr/SpatialSearch#How_to_boost_closest_results
     @GET
@@ -620,11 +669,12 @@ public class SolrWaybackResourceWeb {
     //TODO want to remove this method from web frontend
     @GET
     @Path("/downloadRaw")
-    public Response downloadRaw(@QueryParam("source_file_path") String source_file_path, @QueryParam("offset") long offset) throws SolrWaybackServiceException {
+    public Response downloadRaw(@QueryParam("source_file_path") String source_file_path, @QueryParam("offset") long offset,
+                                @HeaderParam("Range") String range) throws SolrWaybackServiceException {
       try {
 
         log.debug("Download from FilePath:" + source_file_path + " offset:" + offset);
-        ArcEntry arcEntry= Facade.getArcEntry(source_file_path, offset);
+        ArcEntry arcEntry= Facade.getArcEntryWithCachedPayload(source_file_path, offset);
         
         //Only solr lookup if redirect.
         if (arcEntry.getStatus_code() >= 300 &&  arcEntry.getStatus_code() <= 399 ){
@@ -636,28 +686,29 @@ public class SolrWaybackResourceWeb {
         
         //temp dirty hack to see if it fixes brotli
         InputStream in;
+        long length;
         if ("br".equalsIgnoreCase(arcEntry.getContentEncoding())){
-            // TODO: Shouldn't this be the NoChunking version?
-        in = new BrotliInputStream(arcEntry.getBinaryRaw());
+        in = new BrotliInputStream(arcEntry.getBinaryNoChunking());
+        length = -1; // Only known after decoding
         arcEntry.setContentEncoding(null); //Clear encoding.
         arcEntry.setHasBeenDecompressed(true);
         }
         else{      
-         in = arcEntry.getBinaryRaw();
-         
+         in = arcEntry.getBinaryNoChunking(); // The container chunks the response itself
+         length = arcEntry.getBinaryNoChunkingSize(in);
         }
-        ResponseBuilder response = null;
+        ResponseBuilder response = PayloadResponse.ok(in, length, range);
         try{
           String contentType = arcEntry.getContentType();
           if (arcEntry.getContentCharset() != null){
             contentType = contentType +"; charset="+arcEntry.getContentCharset();
           }        
-          response= Response.ok((Object) in).type(contentType);          
+          response.type(contentType);
         }
         catch (Exception e){         
           IndexDoc indexDoc = NetarchiveSolrClient.getInstance().getArcEntry(source_file_path, offset); 
            log.warn("Error setting HTTP header Content-Type:'"+arcEntry.getContentType() +"' using index Content-Type:'"+indexDoc.getContentType()+"'");         
-           response = Response.ok((Object) in).type(indexDoc.getContentType()); 
+           response.type(indexDoc.getContentType()); 
         }
               
         if (arcEntry.getFileName() != null){
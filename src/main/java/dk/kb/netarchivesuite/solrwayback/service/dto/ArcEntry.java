@@ -13,7 +13,6 @@ import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.xml.bind.annotation.XmlRootElement;
@@ -21,6 +20,7 @@ import javax.xml.bind.annotation.XmlRootElement;
 import dk.kb.netarchivesuite.solrwayback.interfaces.ArcSource;
 import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoaderWeb;
 import dk.kb.netarchivesuite.solrwayback.util.LimitedReader;
+import dk.kb.netarchivesuite.solrwayback.util.PooledGzipInputStream;
 import it.unimi.dsi.fastutil.Arrays;
 import org.apache.commons.httpclient.ChunkedInputStream;
 import org.apache.commons.io.Charsets;
@@ -286,9 +286,29 @@ public void setFormat(FORMAT format) {
      * @see #getBinaryDecoded()
      */
     public InputStream getBinaryNoChunking() throws IOException {
+        if (cachedBinary != null) { // Replaced content is never chunked
+            return getBinaryRaw();
+        }
         return maybeDechunk(getBinaryRaw());
     }
 
+    /**
+     * The size of the content delivered by {@link #getBinaryNoChunking()}, if it can be determined without reading
+     * the content. Used for answering HTTP Range requests when the content is passed through unchanged.
+     * <p>
+     * Whether the content is de-chunked is decided by sniffing the content, not by the HTTP headers, so the size
+     * depends on the stream that was actually delivered.
+     * @param noChunking a stream returned by {@link #getBinaryNoChunking()} for this entry.
+     * @return the number of bytes in noChunking or -1 if the content was de-chunked, in which case the size is only
+     *         known after reading it.
+     */
+    public long getBinaryNoChunkingSize(InputStream noChunking) {
+        if (cachedBinary != null) {
+            return cachedBinary.length;
+        }
+        return noChunking instanceof ChunkedInputStream ? -1 : binaryTrueSize;
+    }
+
     /**
      * De-chunks (see https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Transfer-Encoding#chunked_encoding),
      * un-zips and un-Brotlis the binary for the binary delivered form {@link #getBinaryRaw()} but does not change
@@ -304,10 +324,8 @@ public void setFormat(FORMAT format) {
      * @see #getBinaryNoChunking()
      */
     public InputStream getBinaryDecoded() throws IOException {
-        //Chain the inputstreams in correct order.
-        InputStream maybeDechunked = getBinaryNoChunking();
-        InputStream maybeUnzipped = maybeUnzip(maybeDechunked);
-        return maybeBrotliDecode(maybeUnzipped);
+        //Chain the inputstreams in correct order: (W)ARC decompression, de-chunking, Content-Encoding decompression
+        return maybeDecompress(getBinaryNoChunking());
     }
 
     /**
@@ -426,14 +444,65 @@ public void setFormat(FORMAT format) {
         setChunked(false); //also removed chunked flag 
     }
 
-  private InputStream maybeBrotliDecode(InputStream before) throws IOException {
-      if (!"br".equalsIgnoreCase(contentEncoding)) {
+    /**
+     * Create a shallow copy of this entry with the given bytes as binary. The bytes are not copied and must
+     * not be modified afterwards.
+     * <p>
+     * The bytes are the binary as delivered by {@link #getBinaryNoChunking()}: Replaced content if
+     * {@link #isHasBeenDecompressed()}, else the payload with the original Content-Encoding.
+     * @param binary the binary for the copy.
+     * @return a copy of this entry, delivering the given binary.
+     */
+    public ArcEntry copyWithBinary(byte[] binary) {
+        ArcEntry copy = new ArcEntry();
+        copy.format = format;
+        copy.arcSource = arcSource;
+        copy.offset = offset;
+        copy.hasBeenDecompressed = hasBeenDecompressed;
+        copy.chunked = false;
+        copy.cachedBinary = binary;
+        copy.binaryTrueSize = binary.length;
+        copy.status_code = status_code;
+        copy.header = header;
+        copy.ip = ip;
+        copy.url = url;
+        copy.contentCharset = contentCharset;
+        copy.contentLength = contentLength;
+        copy.warcEntryContentLength = warcEntryContentLength;
+        copy.contentType = contentType;
+        copy.type = type;
+        copy.contentTypeExt = contentTypeExt;
+        copy.fileName = fileName;
+        copy.crawlDate = crawlDate;
+        copy.contentEncoding = contentEncoding;
+        copy.waybackDate = waybackDate;
+        copy.redirectUrl = redirectUrl;
+        return copy;
+    }
+
+  /**
+   * Decompress the stream according to the HTTP {@code Content-Encoding}. gzip is handled by
+   * {@link PooledGzipInputStream}, which reads directly from the given stream in large blocks, so no extra
+   * buffering is added.
+   * @param before the de-chunked payload.
+   * @return the decompressed payload or before if it is not compressed or the compression is not supported.
+   */
+  private InputStream maybeDecompress(InputStream before) throws IOException {
+      if (contentEncoding == null) {
           return before;
       }
-      log.info("brotli decode");
-      InputStream brIs = new BrotliInputStream(before);
-      this.setContentEncoding("identity");
-      return brIs;
+      switch (contentEncoding.toLowerCase(Locale.ROOT)) {
+          case "gzip":
+          case "x-gzip":
+              return new PooledGzipInputStream(before);
+          case "br":
+              log.info("brotli decode");
+              InputStream brIs = new BrotliInputStream(before);
+              this.setContentEncoding("identity");
+              return brIs;
+          default:
+              return before;
+      }
   }
 
   /* Will fail if stream is not chuncked, and it seems this can happen. (Do not trust http header)
@@ -452,34 +521,27 @@ public void setFormat(FORMAT format) {
   }
   */
   
-  private InputStream maybeUnzip(InputStream before) throws IOException {
-      if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
-//          this.setContentEncoding("identity");
-          return new GZIPInputStream(before);
-      }
-      else {
-          return before;
-      }                
-  }
-
   /**
    * Checks if an input stream seems to be chunked. If so, the stream content is de-chunked.
    * If not, the stream content is returned unmodified.
    * Chunked streams must begin with {@code ^[0-9a-z]{1,8}(;.{0,1024})?\r\n}.
    * Note: Closing the returned stream will automatically close input.
+   * If input is a {@link BufferedInputStream}, as delivered by {@link #getBinaryRaw()}, it is used directly for
+   * the look ahead instead of being wrapped in another buffer.
    * @param input a stream with the response body from a HTTP-response.
    * @return the un-chunked content of the given stream.
    * @throws IOException if the stream could not be processed.
    * @see <a href="https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Transfer-Encoding">Transfer-Encoding</a>
    */
   public static InputStream maybeDechunk(InputStream input) throws IOException {
-      final BufferedInputStream buf = new BufferedInputStream(input) {
-          @Override
-          public void close() throws IOException {
-              super.close();
-              input.close();
-          }
-      };
+      final BufferedInputStream buf = input instanceof BufferedInputStream ? (BufferedInputStream) input :
+              new BufferedInputStream(input) {
+                  @Override
+                  public void close() throws IOException {
+                      super.close();
+                      input.close();
+                  }
+              };
       buf.mark(1024); // Room for a lot of comments
       int pos = 0;
       int c = -1;
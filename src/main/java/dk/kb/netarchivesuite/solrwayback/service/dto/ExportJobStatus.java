@@ -0,0 +1,135 @@
+package dk.kb.netarchivesuite.solrwayback.service.dto;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The state of an export job, as delivered by the {@code /export/jobs} endpoints.
+ */
+@XmlRootElement
+public class ExportJobStatus {
+
+  private String id;
+  private String type;
+  private String query;
+  private String state;
+  private long documents;
+  private long bytes;
+  private double documentsPerSecond;
+  private long submitted;
+  private long started;
+  private long finished;
+  private String error;
+
+  public ExportJobStatus(){
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  /**
+   * @return the type of export, usable as file extension, e.g. {@code warc.gz} or {@code csv}.
+   */
+  public String getType() {
+    return type;
+  }
+
+  public void setType(String type) {
+    this.type = type;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  public void setQuery(String query) {
+    this.query = query;
+  }
+
+  /**
+   * @return {@code queued}, {@code running}, {@code finished}, {@code failed} or {@code cancelled}.
+   */
+  public String getState() {
+    return state;
+  }
+
+  public void setState(String state) {
+    this.state = state;
+  }
+
+  /**
+   * @return the number of exported documents so far. Always 0 for zip exports.
+   */
+  public long getDocuments() {
+    return documents;
+  }
+
+  public void setDocuments(long documents) {
+    this.documents = documents;
+  }
+
+  /**
+   * @return the number of bytes written to the spool file so far.
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  public void setBytes(long bytes) {
+    this.bytes = bytes;
+  }
+
+  public double getDocumentsPerSecond() {
+    return documentsPerSecond;
+  }
+
+  public void setDocumentsPerSecond(double documentsPerSecond) {
+    this.documentsPerSecond = documentsPerSecond;
+  }
+
+  /**
+   * @return epoch milliseconds for submission of the job.
+   */
+  public long getSubmitted() {
+    return submitted;
+  }
+
+  public void setSubmitted(long submitted) {
+    this.submitted = submitted;
+  }
+
+  /**
+   * @return epoch milliseconds for the start of the job or 0 if it has not started.
+   */
+  public long getStarted() {
+    return started;
+  }
+
+  public void setStarted(long started) {
+    this.started = started;
+  }
+
+  /**
+   * @return epoch milliseconds for the end of the job or 0 if it has not ended.
+   */
+  public long getFinished() {
+    return finished;
+  }
+
+  public void setFinished(long finished) {
+    this.finished = finished;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public void setError(String error) {
+    this.error = error;
+  }
+
+}
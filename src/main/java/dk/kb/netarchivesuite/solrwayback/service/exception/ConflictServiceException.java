@@ -0,0 +1,26 @@
+package dk.kb.netarchivesuite.solrwayback.service.exception;
+
+import javax.ws.rs.core.Response;
+
+public class ConflictServiceException extends SolrWaybackServiceException {
+    
+    private static final long serialVersionUID = 27182818L;
+    private static final Response.Status responseStatus = Response.Status.CONFLICT;
+    
+    public ConflictServiceException() {
+        super(responseStatus);
+    }
+    
+    public ConflictServiceException(String message) {
+        super(message, responseStatus);
+    }
+    
+    public ConflictServiceException(String message, Throwable cause) {
+        super(message, cause, responseStatus);
+    }
+    
+    public ConflictServiceException(Throwable cause) {
+        super(cause, responseStatus);
+    }
+}
+
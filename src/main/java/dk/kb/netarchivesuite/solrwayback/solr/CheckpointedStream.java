@@ -0,0 +1,225 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.solr;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import dk.kb.netarchivesuite.solrwayback.util.CollectionUtils;
+import dk.kb.netarchivesuite.solrwayback.util.SolrUtils;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the documents for a {@link SRequest} in chunks, where the position after each chunk can be captured as
+ * a {@link Checkpoint}. A new {@code CheckpointedStream} created from a checkpoint delivers exactly the same
+ * documents as the original stream did after the checkpoint.
+ * <p>
+ * Each chunk is the result of a single Solr page, with the post processing from the {@code request} (deduplication,
+ * resource expansion, uniqueness, field reduction and {@link SRequest#maxResults}) applied. The state of the post
+ * processors is part of the checkpoint, so there are no loose ends between chunks.
+ * <p>
+ * Checkpointing requires a stable document order and is only supported for collection based streaming
+ * ({@link SolrStreamDirect}) of single query requests. {@link SRequest#shardDivide} is ignored.
+ * <p>
+ * This class is not thread safe.
+ */
+public class CheckpointedStream {
+    private static final Logger log = LoggerFactory.getLogger(CheckpointedStream.class);
+
+    private final SRequest request;
+    private final SolrStreamDirect raw;
+    private final SolrStreamDecorators.OrderedDeduplicator deduplicator;
+    private final SolrStreamDecorators.HTMLResourceExpander expander;
+    private final UniqueFilter uniqueFilter;
+    private final Consumer<SolrDocument> fieldReducer;
+    private long records;
+    private boolean finished;
+
+    /**
+     * Create a stream starting at the beginning of the result set.
+     * @param request stream setup. Must be single collection and single query.
+     */
+    public CheckpointedStream(SRequest request) {
+        this(request, Checkpoint.START);
+    }
+
+    /**
+     * Create a stream continuing from the given checkpoint.
+     * @param request    stream setup. Must be the same as for the stream that produced the checkpoint.
+     * @param checkpoint the position to continue from.
+     */
+    public CheckpointedStream(SRequest request, Checkpoint checkpoint) {
+        if (request.isMultiQuery()) {
+            throw new IllegalArgumentException("Checkpointing is not supported for multi query requests: " + request);
+        }
+        if (!request.usePaging) {
+            throw new IllegalArgumentException("Checkpointing requires paging: " + request);
+        }
+        this.request = request;
+        this.raw = new SolrStreamDirect(request, checkpoint.cursor);
+        this.records = checkpoint.records;
+        this.finished = checkpoint.isFinal() || records >= request.maxResults;
+
+        deduplicator = request.deduplicateFields == null ? null :
+                new SolrStreamDecorators.OrderedDeduplicator(request.deduplicateFields);
+        if (deduplicator != null && checkpoint.deduplicateValues != null) {
+            deduplicator.setLastValues(checkpoint.deduplicateValues);
+        }
+        expander = !request.expandResources ? null :
+                new SolrStreamDecorators.HTMLResourceExpander(
+                        String.join(",", request.getExpandedFieldList()), request.getExpandResourcesFilterQueries(),
+                        true, request.expandResourcesLinkFields, PropertiesLoader.SOLR_EXPORT_EXPAND_WINDOW);
+        if (!request.ensureUnique) {
+            uniqueFilter = null;
+        } else if (checkpoint.uniqueFilter != null) {
+            uniqueFilter = checkpoint.uniqueFilter.restore(); // The checkpoint might be used again
+        } else {
+            uniqueFilter = new UniqueFilter(request.uniqueMode, request.maxUnique, request.uniqueFields);
+        }
+        fieldReducer = SolrUtils.reduceAndSortFields(request.fields);
+    }
+
+    /**
+     * Resolve the next chunk of documents.
+     * @return 1 or more documents or null if there are no more documents.
+     * @throws SolrServerException if Solr could not handle a request for new documents.
+     * @throws IOException if general communication with Solr failed.
+     */
+    public List<SolrDocument> nextChunk() throws SolrServerException, IOException {
+        while (!finished) {
+            SolrDocumentList page = raw.nextDocuments();
+            if (page == null) {
+                break;
+            }
+            Iterator<SolrDocument> docs = page.iterator();
+            if (deduplicator != null) {
+                docs = CollectionUtils.ReducingIterator.of(docs, deduplicator);
+            }
+            if (expander != null) {
+                docs = expander.expand(docs);
+            }
+            if (uniqueFilter != null) {
+                docs = CollectionUtils.ReducingIterator.of(docs, uniqueFilter);
+            }
+
+            List<SolrDocument> chunk = new ArrayList<>(page.size());
+            while (docs.hasNext() && records + chunk.size() < request.maxResults) {
+                SolrDocument doc = docs.next();
+                fieldReducer.accept(doc);
+                chunk.add(doc);
+            }
+            records += chunk.size();
+            if (records >= request.maxResults) {
+                log.debug("nextChunk(): maxResults {} reached", request.maxResults);
+                finished = true;
+            }
+            if (!chunk.isEmpty()) {
+                return chunk;
+            }
+        }
+        finished = true;
+        return null;
+    }
+
+    /**
+     * Capture the position after the latest chunk delivered by {@link #nextChunk()}.
+     * @param bytes the number of bytes produced from the documents delivered so far. This is not used by the
+     *              stream itself, but allows callers to continue byte oriented output from the checkpoint.
+     * @return a checkpoint for creating a new {@code CheckpointedStream} continuing after the latest chunk.
+     */
+    public Checkpoint checkpoint(long bytes) {
+        return new Checkpoint(
+                finished ? SolrStreamDirect.STOP_PAGING : raw.getCursor(), records, bytes,
+                deduplicator == null ? null : deduplicator.getLastValues(),
+                uniqueFilter == null ? null : uniqueFilter.snapshot());
+    }
+
+    /**
+     * @return the number of documents delivered so far, including those delivered before the starting checkpoint.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * The position in a {@link CheckpointedStream}, including the state of post processors.
+     * Checkpoints are immutable.
+     */
+    public static class Checkpoint {
+        /**
+         * The start of a stream.
+         */
+        public static final Checkpoint START = new Checkpoint(null, 0, 0, null, null);
+
+        private final String cursor; // null means start
+        private final long records;
+        private final long bytes;
+        private final Object[] deduplicateValues;
+        private final UniqueFilter.Snapshot uniqueFilter;
+
+        private Checkpoint(String cursor, long records, long bytes,
+                           Object[] deduplicateValues, UniqueFilter.Snapshot uniqueFilter) {
+            this.cursor = cursor;
+            this.records = records;
+            this.bytes = bytes;
+            this.deduplicateValues = deduplicateValues;
+            this.uniqueFilter = uniqueFilter;
+        }
+
+        /**
+         * @return the number of documents delivered before the checkpoint.
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * @return the number of bytes produced before the checkpoint, as stated in
+         *         {@link CheckpointedStream#checkpoint(long)}.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return true if the checkpoint holds the encountered values for {@link SRequest#ensureUnique}, which can
+         *         take up a lot of memory.
+         */
+        public boolean hasUniqueState() {
+            return uniqueFilter != null;
+        }
+
+        /**
+         * @return true if there are no more documents after the checkpoint.
+         */
+        public boolean isFinal() {
+            return SolrStreamDirect.STOP_PAGING.equals(cursor);
+        }
+
+        @Override
+        public String toString() {
+            return "Checkpoint(cursor='" + cursor + "', records=" + records + ", bytes=" + bytes +
+                   ", unique=" + (uniqueFilter == null ? "N/A" : uniqueFilter.uniqueCount()) + ")";
+        }
+    }
+}
@@ -48,10 +48,12 @@ import dk.kb.netarchivesuite.solrwayback.service.dto.SearchResult;
 import dk.kb.netarchivesuite.solrwayback.service.dto.statistics.DomainStatistics;
 import dk.kb.netarchivesuite.solrwayback.service.exception.InvalidArgumentServiceException;
 import dk.kb.netarchivesuite.solrwayback.util.DateUtils;
+import dk.kb.netarchivesuite.solrwayback.wordcloud.WordFrequencyCounter;
 
 public class NetarchiveSolrClient {
     private static final Logger log = LoggerFactory.getLogger(NetarchiveSolrClient.class);
     private static final long M = 1000000; // ns -> ms
+    private static final int WORDCLOUD_PAGESIZE = 100;
 
     protected static SolrClient solrServer;
     protected static SolrClient noCacheSolrServer;
@@ -669,33 +671,42 @@ public class NetarchiveSolrClient {
         return rsp.getResults().getNumFound();
     }
 
-    public String getConcatedTextFromHtmlForQuery(String query,String filterQuery) throws Exception {
-
-        SolrQuery solrQuery = new SolrQuery();
-        solrQuery = new SolrQuery(query);
-
-        solrQuery.add("fl", "id, content_text_length, content");
-        solrQuery.addFilterQuery("content_type_norm:html", "content_text_length:[1000 TO *]"); // only html pages and pages with many words.
-        if (filterQuery != null && filterQuery.length() >0) {
-            solrQuery.addFilterQuery(filterQuery);
+    /**
+     * Count the words in the {@code content} of HTML pages matching the given query. The documents are streamed page
+     * by page and fed to a {@link WordFrequencyCounter}, so memory usage does not depend on the number of documents.
+     * <p>
+     * Only HTML pages with {@code content_text_length} of 1000 or more are used and at most
+     * {@link PropertiesLoaderWeb#WORDCLOUD_MAX_DOCUMENTS} documents are processed.
+     * @param query       a Solr query.
+     * @param filterQuery optional filter query. Can be null.
+     * @return a counter holding the word frequencies, with stop words from
+     *         {@link PropertiesLoaderWeb#WORDCLOUD_STOPWORDS} removed.
+     */
+    public WordFrequencyCounter countWordsFromHtmlForQuery(String query, String filterQuery) {
+        List<String> filterQueries = new ArrayList<>();
+        filterQueries.add("content_type_norm:html");          // only html pages
+        filterQueries.add("content_text_length:[1000 TO *]"); // and pages with many words.
+        if (filterQuery != null && !filterQuery.isEmpty()) {
+            filterQueries.add(filterQuery);
+        }
+        SRequest request = SRequest.builder().
+                query(query).
+                filterQueries(filterQueries).
+                fields("content").
+                pageSize(WORDCLOUD_PAGESIZE); // content can be large, so keep the pages small
+        if (PropertiesLoaderWeb.WORDCLOUD_MAX_DOCUMENTS >= 0) {
+            request.maxResults(PropertiesLoaderWeb.WORDCLOUD_MAX_DOCUMENTS);
         }
-        solrQuery.setRows(5000);
-
-        long solrNS = -System.nanoTime();
-        QueryResponse rsp = noCacheSolrServer.query(solrQuery, METHOD.POST); //do not cache
-        solrNS += System.nanoTime();
-        SolrDocumentList docs = rsp.getResults();
 
-        StringBuilder b = new StringBuilder();
-        long totaltLength = 0;
-        for (SolrDocument doc : docs) {
-            b.append(doc.getFieldValue("content"));
-            b.append(doc.getFieldValue(" "));// Space between next document.
-            totaltLength += ((int) doc.getFieldValue("content_text_length"));
+        WordFrequencyCounter counter = new WordFrequencyCounter(PropertiesLoaderWeb.WORDCLOUD_STOPWORDS);
+        long startNS = System.nanoTime();
+        try (CollectionUtils.CloseableStream<SolrDocument> docs = request.stream()) {
+            docs.map(doc -> doc.getFieldValue("content")).
+                    filter(Objects::nonNull).
+                    forEach(content -> counter.add(content.toString()));
         }
-        log.info(String.format("Total extracted content length for wordcloud:%d, total hits:%d only using first 1000 hits" + " in %d ms (qtime=%d ms)",
-                totaltLength, rsp.getResults().getNumFound(), solrNS / M, rsp.getQTime()));
-        return b.toString();
+        log.info("Counted words for wordcloud in {} ms: {}", (System.nanoTime() - startNS) / M, counter);
+        return counter;
     }
 
     public ArrayList<IndexDoc> getHarvestPreviewsForUrl(int year,String url) throws Exception {
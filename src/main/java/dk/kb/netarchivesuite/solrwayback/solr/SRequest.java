@@ -74,11 +74,12 @@ public class SRequest {
     public SolrQuery solrQuery = new SolrQuery();
     public boolean expandResources = false;
     public List<String> expandResourcesFilterQueries;
+    public List<String> expandResourcesLinkFields = PropertiesLoader.SOLR_EXPORT_EXPAND_LINK_FIELDS;
 
     public boolean ensureUnique = false;
     public Integer maxUnique = DEFAULT_MAX_UNIQUE;
     public List<String> uniqueFields = Collections.singletonList("id");
-    public boolean useHashingForUnique = true;
+    public UniqueFilter.MODE uniqueMode = UniqueFilter.MODE.hash64;
 
     private String idealTime; // If defined, a sort will be created as String.format(Locale.ROOT, "%s asc, abs(sub(ms(%s), crawl_date)) asc", deduplicateField, idealTime);
     // TODO: Expand this to support multiple deduplicateFields
@@ -219,6 +220,8 @@ public class SRequest {
     /**
      * @param maxUnique the maximum number of uniques to track when ensureUnique is true.
      *                  If the number of uniques exceeds this limit, an exception will be thrown.
+     *                  For {@link UniqueFilter.MODE#hash64} this is the number of uniques to hold in memory
+     *                  before spilling to storage and no exception is thrown.
      *                  Default is {@link #DEFAULT_MAX_UNIQUE}.
      * @return the SRequest adjusted with the provided value.
      * @see #ensureUnique(Boolean)
@@ -252,14 +255,29 @@ public class SRequest {
     /**
      * Using the hash of {@link #uniqueFields(String...)} instead of the field content for tracking uniqueness has
      * far lower memory impact (factor 10+), but with the possibility of hash collisions.
-     * @param useHashing if true, hashing is used for determining uniqueness. Default is false.
+     * @param useHashing if true, {@link UniqueFilter.MODE#hash64} is used for determining uniqueness,
+     *                   else {@link UniqueFilter.MODE#values}. Default is true.
      * @return the SRequest adjusted with the provided value.
+     * @see #uniqueMode(UniqueFilter.MODE)
      * @see #ensureUnique(Boolean)
      * @see #uniqueFields(String...)
      * @see #maxUnique(Integer)
      */
     public SRequest uniqueHashing(boolean useHashing) {
-        useHashingForUnique = useHashing;
+        uniqueMode = useHashing ? UniqueFilter.MODE.hash64 : UniqueFilter.MODE.values;
+        return this;
+    }
+
+    /**
+     * @param uniqueMode how to track uniqueness when {@link #ensureUnique(Boolean)} is true.
+     *                   Default is {@link UniqueFilter.MODE#hash64}.
+     * @return the SRequest adjusted with the provided value.
+     * @see #ensureUnique(Boolean)
+     * @see #uniqueFields(String...)
+     * @see #maxUnique(Integer)
+     */
+    public SRequest uniqueMode(UniqueFilter.MODE uniqueMode) {
+        this.uniqueMode = uniqueMode;
         return this;
     }
 
@@ -699,6 +717,33 @@ public class SRequest {
         return this;
     }
 
+    /**
+     * @param linkFields Solr fields holding links to resources for webpages, used when
+     *                   {@link #expandResources(Boolean)} is true. If specified, links are taken from these fields
+     *                   instead of parsing the webpages from the WARC files, which is a lot faster.
+     *                   <p>
+     *                   Note: webarchive-discovery only indexes {@code links_images}, so with link fields, CSS and
+     *                   JavaScript resources will not be part of the result.
+     *                   <p>
+     *                   Default is {@link PropertiesLoader#SOLR_EXPORT_EXPAND_LINK_FIELDS}. null or empty means
+     *                   WARC parsing.
+     * @return the SRequest adjusted with the provided value.
+     */
+    public SRequest expandResourcesLinkFields(List<String> linkFields) {
+        this.expandResourcesLinkFields = linkFields;
+        return this;
+    }
+
+    /**
+     * @param linkFields Solr fields holding links to resources for webpages, used when
+     *                   {@link #expandResources(Boolean)} is true.
+     * @return the SRequest adjusted with the provided value.
+     * @see #expandResourcesLinkFields(List)
+     */
+    public SRequest expandResourcesLinkFields(String... linkFields) {
+        return expandResourcesLinkFields(Arrays.asList(linkFields));
+    }
+
     /**
      * @param pageSize paging size. Typically 500-100,000 depending on fields.
      *                 Default is {@link SolrStreamDirect#DEFAULT_PAGESIZE}.
@@ -985,6 +1030,10 @@ public class SRequest {
             fl.add("content_type_norm");  // Needed to determine if a resource is a webpage
             fl.add("source_file_path");   // Needed to fetch the webpage for link extraction
             fl.add("source_file_offset"); // Needed to fetch the webpage for link extraction
+            fl.add("crawl_date");         // Needed for grouping resource lookups
+            if (expandResourcesLinkFields != null) {
+                fl.addAll(expandResourcesLinkFields);
+            }
         }
         if (expandResources && ensureUnique) {
             fl.add("id"); // id is shorter than sourcefile@offset in webarchive-discovery compatible indexes
@@ -1046,7 +1095,7 @@ public class SRequest {
                 maxUnique(maxUnique).
                 uniqueFields(uniqueFields.toArray(new String[0])).
                 ensureUnique(ensureUnique). // Must be after the uniqueFields
-                uniqueHashing(useHashingForUnique).
+                uniqueMode(uniqueMode).
                 deduplicateFields(deduplicateFields).
                 fields(copy(fields)).
                 maxResults(maxResults).
@@ -1055,7 +1104,10 @@ public class SRequest {
                 queries(queries). // TODO: Does not really make sense. What do we do here?
                 filterQueries(copy(filterQueries)).
                 expandResourcesFilterQueries(copy(expandResourcesFilterQueries)).
+                expandResourcesLinkFields(copy(expandResourcesLinkFields)).
                 pageSize(pageSize).
+                queryBatchSize(queryBatchSize).
+                usePaging(usePaging).
                 collection(collection).
                 shards(copy(shards)).
                 shardDivide(shardDivide);
@@ -1122,7 +1174,7 @@ public class SRequest {
                "uniqueFields=" + uniqueFields + ", " +
                "ensureUnique=" + ensureUnique + ", " +
                "maxUnique=" + maxUnique + ", " +
-               "uniqueHashing=" + useHashingForUnique + ", " +
+               "uniqueMode=" + uniqueMode + ", " +
                "expandResources=" + expandResources + ", " +
                "expandResourcesFilterQueries=" + limit(expandResourcesFilterQueries, 20) + ", " +
                "collection='" + collection + "'" + ", " +
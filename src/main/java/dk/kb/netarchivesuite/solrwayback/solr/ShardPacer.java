@@ -0,0 +1,211 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.solr;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Adaptive pacing of the Solr requests for a single shard in shard divided streaming ({@link SolrStreamShard}).
+ * <p>
+ * Page size: Each shard has its own page size, adjusted using AIMD (additive increase, multiplicative decrease)
+ * towards a page latency of {@link #TARGET_PAGE_MS}. Fast shards get larger pages, which lowers the per-request
+ * overhead, while slow shards get smaller pages, which keeps the merge from stalling on them.
+ * <p>
+ * Concurrency: The number of in-flight requests for a single shard divided request is controlled by an
+ * {@link AdaptiveLimiter} that is shared by the shard pacers for that request. It starts at
+ * {@link PropertiesLoader#SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX} and only backs off if the request is slowed by
+ * congestion, so a slow request does not limit other requests. The number of in-flight requests for all shard
+ * divided requests combined is bounded by {@link PropertiesLoader#SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX}.
+ * <p>
+ * Each shard stream is handled by a single thread, so this class is not thread safe.
+ */
+class ShardPacer {
+    private static final Logger log = LoggerFactory.getLogger(ShardPacer.class);
+
+    /**
+     * The page latency that page sizes are adjusted towards.
+     */
+    static final long TARGET_PAGE_MS = 1000;
+
+    /**
+     * Shared gatekeeper for all shard divided requests.
+     */
+    private static final Semaphore gatekeeper = new Semaphore(
+            Math.max(1, PropertiesLoader.SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX));
+
+    private final String designation;
+    private final AdaptiveLimiter limiter;
+    private final int basePageSize;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private int pageSize;
+
+    private long requests = 0;
+    private long documents = 0;
+    private long requestNS = 0;
+    private long acquireTime;
+
+    /**
+     * @param designation     the shard, used for logging.
+     * @param basePageSize    the page size from the request. Page sizes are adjusted between 1/10 and 4 times this.
+     * @param initialPageSize the page size for the first request.
+     * @param limiter         the concurrency limiter, shared by all shard pacers for the same request.
+     */
+    ShardPacer(String designation, int basePageSize, int initialPageSize, AdaptiveLimiter limiter) {
+        this.designation = designation;
+        this.limiter = limiter;
+        this.basePageSize = basePageSize;
+        this.minPageSize = Math.max(10, basePageSize / 10);
+        this.maxPageSize = basePageSize * 4;
+        this.pageSize = Math.max(1, Math.min(maxPageSize, initialPageSize));
+    }
+
+    /**
+     * Wait for permission to issue a request to Solr. Must be followed by {@link #release(int, int, boolean)}.
+     * @return the page size to use for the request.
+     * @throws RuntimeException if the thread was interrupted while waiting. The interrupt flag is restored.
+     */
+    int acquire() {
+        limiter.acquire();
+        try {
+            gatekeeper.acquire();
+        } catch (InterruptedException e) {
+            limiter.release(0, 0);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for request permission", e);
+        }
+        acquireTime = System.nanoTime();
+        return pageSize;
+    }
+
+    /**
+     * Must be called after each request to Solr, successful or not.
+     * @param rows      the page size used for the request.
+     * @param delivered the number of documents delivered by Solr.
+     * @param depleted  true if there are no more documents for the shard.
+     */
+    void release(int rows, int delivered, boolean depleted) {
+        long ns = System.nanoTime() - acquireTime;
+        gatekeeper.release();
+        limiter.release(ns, delivered);
+        requests++;
+        documents += delivered;
+        requestNS += ns;
+
+        long ms = ns / 1000000;
+        if (delivered == rows) { // Partial pages are not representative
+            if (ms > TARGET_PAGE_MS) {
+                pageSize = Math.max(minPageSize, pageSize / 2);
+            } else if (ms < TARGET_PAGE_MS / 2) {
+                pageSize = Math.min(maxPageSize, pageSize + Math.max(1, basePageSize / 2));
+            }
+        }
+        if (depleted && log.isDebugEnabled()) {
+            log.debug("Finished {}", this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        double seconds = requestNS / 1.0E9;
+        return String.format(Locale.ROOT, "ShardPacer(%s, %d docs in %d requests, %.1f docs/s, " +
+                                          "avg latency %d ms, pageSize=%d, concurrency limit=%d)",
+                             designation, documents, requests, seconds == 0 ? 0 : documents / seconds,
+                             requests == 0 ? 0 : requestNS / requests / 1000000, pageSize, limiter.getLimit());
+    }
+
+    /**
+     * AIMD controller for the number of concurrent requests for a single shard divided request. The limit starts at
+     * the maximum. It is halved (at most once per {@link #TARGET_PAGE_MS}) when the time per document for a request
+     * exceeds twice the baseline, which is the fastest time per document observed recently for the request, and
+     * increased by 1 for every {@code limit} requests that are not slowed by congestion.
+     * <p>
+     * The time per document depends on the query, the field list and the page size, so a limiter must only be shared
+     * between the shards of a single request. The batches of a multi-query have the same kind of query, fields and
+     * page size, so they can share a limiter.
+     * <p>
+     * This implementation is thread safe.
+     */
+    static class AdaptiveLimiter {
+        private final int maxLimit;
+        private double limit;
+        private int inFlight = 0;
+        private double baselineNSPerDoc = Double.MAX_VALUE;
+        private long samples = 0;
+        private long lastDecrease = 0;
+
+        /**
+         * Create a limiter with {@link PropertiesLoader#SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX} as maximum.
+         */
+        AdaptiveLimiter() {
+            this(PropertiesLoader.SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX);
+        }
+
+        AdaptiveLimiter(int maxLimit) {
+            this.maxLimit = Math.max(1, maxLimit);
+            this.limit = this.maxLimit;
+        }
+
+        /**
+         * Wait until the number of in-flight requests is below the limit.
+         * @throws RuntimeException if the thread was interrupted while waiting. The interrupt flag is restored.
+         */
+        synchronized void acquire() {
+            while (inFlight >= (int) limit) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for request permission", e);
+                }
+            }
+            inFlight++;
+        }
+
+        /**
+         * @param ns        the time used for the request.
+         * @param delivered the number of documents delivered by the request.
+         */
+        synchronized void release(long ns, int delivered) {
+            inFlight--;
+            if (delivered > 0) {
+                double nsPerDoc = (double) ns / delivered;
+                if (++samples % 100 == 0) {
+                    baselineNSPerDoc *= 1.25; // Allow the baseline to adapt to slower conditions
+                }
+                baselineNSPerDoc = Math.min(baselineNSPerDoc, nsPerDoc);
+                long now = System.currentTimeMillis();
+                if (nsPerDoc > 2 * baselineNSPerDoc) {
+                    if (now - lastDecrease > TARGET_PAGE_MS) {
+                        limit = Math.max(1, limit / 2);
+                        lastDecrease = now;
+                    }
+                } else {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The field definitions from the schema of the backing Solr, as delivered by the
+ * <a href="https://solr.apache.org/guide/solr/latest/indexing-guide/schema-api.html">Schema API</a>.
+ * <p>
+ * Used by exports where the output format has a fixed schema, so that the types of the columns can be determined
+ * before any documents are retrieved.
+ */
+public class SolrSchema {
+    private static final Logger log = LoggerFactory.getLogger(SolrSchema.class);
+
+    private final Map<String, Field> fields = new HashMap<>();
+    private final List<Field> dynamicFields = new ArrayList<>(); // Longest pattern first, as Solr matches them
+
+    /**
+     * A field definition with the type resolved.
+     */
+    public static class Field {
+        /** The name of the field or the pattern for dynamic fields, e.g. {@code *_ss}. */
+        public final String name;
+        /** The class of the Solr field type, e.g. {@code solr.StrField}. */
+        public final String typeClass;
+        /** True if the field holds multiple values. */
+        public final boolean multiValued;
+
+        public Field(String name, String typeClass, boolean multiValued) {
+            this.name = name;
+            this.typeClass = typeClass;
+            this.multiValued = multiValued;
+        }
+
+        /**
+         * @return {@link #typeClass} without package, e.g. {@code StrField}.
+         */
+        public String getTypeClassName() {
+            return typeClass.substring(typeClass.lastIndexOf('.') + 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Field(" + name + ", " + typeClass + (multiValued ? ", multiValued)" : ")");
+        }
+    }
+
+    /**
+     * Retrieve the schema from the {@link SolrStreamDirect#defaultSolrClient}, which is also used for exports.
+     * @return the schema for the default Solr collection or null if it could not be retrieved.
+     */
+    public static SolrSchema getDefault() {
+        if (SolrStreamDirect.defaultSolrClient == null) {
+            log.debug("getDefault(): No default SolrClient, returning null");
+            return null;
+        }
+        try {
+            return retrieve(SolrStreamDirect.defaultSolrClient);
+        } catch (Exception e) {
+            log.warn("getDefault(): Unable to retrieve the Solr schema", e);
+            return null;
+        }
+    }
+
+    /**
+     * Retrieve the schema using the Schema API.
+     * <p>
+     * Note: The request is a {@link QueryRequest} with path {@code /schema}, so that it works with
+     * {@link RestrictedSolrClient}.
+     * @param solrClient a client for the Solr collection.
+     * @return the schema for the collection.
+     * @throws SolrServerException if the request failed.
+     * @throws IOException if the request failed.
+     */
+    public static SolrSchema retrieve(SolrClient solrClient) throws SolrServerException, IOException {
+        QueryRequest request = new QueryRequest(new SolrQuery());
+        request.setPath("/schema");
+        NamedList<Object> response = solrClient.request(request);
+        Object schema = response.get("schema");
+        if (schema == null) {
+            throw new IOException("No schema in the response from the Solr Schema API");
+        }
+        return parse(schema);
+    }
+
+    /**
+     * @param fields        fields with explicit names.
+     * @param dynamicFields fields where the name is a pattern starting or ending with {@code *}.
+     */
+    public SolrSchema(Collection<Field> fields, Collection<Field> dynamicFields) {
+        for (Field field: fields) {
+            this.fields.put(field.name, field);
+        }
+        this.dynamicFields.addAll(dynamicFields);
+        this.dynamicFields.sort(Comparator.comparingInt((Field field) -> field.name.length()).reversed());
+        log.debug("Created Solr schema with {} fields and {} dynamic fields",
+                  this.fields.size(), this.dynamicFields.size());
+    }
+
+    /**
+     * @param schema the {@code schema} element from the Schema API response.
+     */
+    private static SolrSchema parse(Object schema) {
+        Map<String, Object> typeClasses = new HashMap<>();
+        Map<String, Boolean> typeMultiValued = new HashMap<>();
+        for (Object fieldType: getList(schema, "fieldTypes")) {
+            String name = (String) get(fieldType, "name");
+            typeClasses.put(name, get(fieldType, "class"));
+            typeMultiValued.put(name, Boolean.TRUE.equals(get(fieldType, "multiValued")));
+        }
+        List<Field> fields = new ArrayList<>();
+        for (Object field: getList(schema, "fields")) {
+            Field resolved = resolve(field, typeClasses, typeMultiValued);
+            if (resolved != null) {
+                fields.add(resolved);
+            }
+        }
+        List<Field> dynamicFields = new ArrayList<>();
+        for (Object field: getList(schema, "dynamicFields")) {
+            Field resolved = resolve(field, typeClasses, typeMultiValued);
+            if (resolved != null) {
+                dynamicFields.add(resolved);
+            }
+        }
+        return new SolrSchema(fields, dynamicFields);
+    }
+
+    /**
+     * Resolve the field type for the given field. A field specific {@code multiValued} overrides the one for the type.
+     */
+    private static Field resolve(Object field, Map<String, Object> typeClasses, Map<String, Boolean> typeMultiValued) {
+        String name = (String) get(field, "name");
+        String type = (String) get(field, "type");
+        Object typeClass = typeClasses.get(type);
+        if (name == null || typeClass == null) {
+            log.debug("Unable to resolve the type '{}' for field '{}'", type, name);
+            return null;
+        }
+        Object multiValued = get(field, "multiValued");
+        return new Field(name, typeClass.toString(), multiValued == null ?
+                typeMultiValued.getOrDefault(type, false) :
+                Boolean.TRUE.equals(multiValued));
+    }
+
+    /**
+     * Get the definition for the given field. Dynamic fields are matched as Solr does: Longest pattern first.
+     * @param name the name of a field.
+     * @return the definition of the field or null if the field is not defined in the schema.
+     */
+    public Field getField(String name) {
+        Field field = fields.get(name);
+        if (field != null) {
+            return field;
+        }
+        for (Field dynamic: dynamicFields) {
+            if (dynamic.name.startsWith("*") ?
+                    name.endsWith(dynamic.name.substring(1)) :
+                    dynamic.name.endsWith("*") && name.startsWith(dynamic.name.substring(0, dynamic.name.length()-1))) {
+                return dynamic;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the value for the key from a {@link NamedList} or a {@link Map}, depending on the response parser.
+     */
+    @SuppressWarnings("rawtypes")
+    private static Object get(Object container, String key) {
+        if (container instanceof NamedList) {
+            return ((NamedList) container).get(key);
+        }
+        if (container instanceof Map) {
+            return ((Map) container).get(key);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> getList(Object container, String key) {
+        Object list = get(container, key);
+        return list instanceof List ? (List<Object>) list : Collections.emptyList();
+    }
+}
@@ -14,22 +14,39 @@
  */
 package dk.kb.netarchivesuite.solrwayback.solr;
 
+import com.google.common.collect.Iterators;
+import dk.kb.netarchivesuite.solrwayback.normalise.Normalisation;
 import dk.kb.netarchivesuite.solrwayback.parsers.ArcParserFileResolver;
 import dk.kb.netarchivesuite.solrwayback.parsers.HtmlParserUrlRewriter;
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
 import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+import dk.kb.netarchivesuite.solrwayback.util.CollectionUtils;
+import dk.kb.netarchivesuite.solrwayback.util.DateUtils;
+import dk.kb.netarchivesuite.solrwayback.util.Processing;
 import org.apache.solr.common.SolrDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -123,6 +140,23 @@ public class SolrStreamDecorators {
             }
             return isNew;
         }
+
+        /**
+         * @return a copy of the deduplication values for the last encountered document. Used for checkpointing.
+         */
+        Object[] getLastValues() {
+            return lastStreamDeduplicateValues.clone();
+        }
+
+        /**
+         * Continue deduplication from a previous state.
+         * @param lastValues values from {@link #getLastValues()}.
+         * @return the deduplicator, for chaining.
+         */
+        OrderedDeduplicator setLastValues(Object[] lastValues) {
+            System.arraycopy(lastValues, 0, lastStreamDeduplicateValues, 0, lastStreamDeduplicateValues.length);
+            return this;
+        }
     }
 
     /**
@@ -130,40 +164,239 @@ public class SolrStreamDecorators {
      * those nearest in time to the originating page.
      * Plain {@code <a href="..." ...>} links are not part of this.
      * The graph traversal is only 1 level deep.
+     * <p>
+     * Resource links are taken from the indexed {@code linkFields} (e.g. {@code links_images}) if any are specified.
+     * If not, the WARC record for the page is fetched and parsed. Be aware that webarchive-discovery only indexes image
+     * links, so using {@code linkFields} trades completeness for speed.
+     * <p>
+     * When used through {@link #expand(Stream)} or {@link #expand(Iterator)}, pages are processed in windows of
+     * {@code windowSize}: Link extraction for the pages in a window is done in parallel and the resource lookups for
+     * pages with crawl times within {@link #MERGE_TIMESPAN_MS} of each other are merged into shared batched queries.
+     * The order of the pages is preserved, with the resources for a page delivered immediately after the page.
      */
     public static class HTMLResourceExpander implements Function<SolrDocument, Stream<SolrDocument>> {
+        /**
+         * Pages with crawl times within this timespan share resource lookups, using the crawl time of the middle
+         * page as the ideal time for resources.
+         */
+        public static final long MERGE_TIMESPAN_MS = 60*1000;
+
         private final String fields; // Comma separated
+        private final boolean removeURLNorm; // url_norm is added to fields for merged lookups but was not requested
         private final String[] expandFilterQueries;
         private final boolean returnInput;
+        private final List<String> linkFields;
+        private final int windowSize;
 
         /**
+         * Create an expander that extracts links by parsing the pages from the WARC files.
          * @param fields comma separated list of fields to request for resources.
          * @param expandFilterQueries 0 or more filters that are added when searching for resources.
          * @param returnInput if true, the input document in {@link #apply(SolrDocument)} will always be returned.
          */
         public HTMLResourceExpander(String fields, String[] expandFilterQueries, boolean returnInput) {
-            this.fields = fields;
+            this(fields, expandFilterQueries, returnInput, null, PropertiesLoader.SOLR_EXPORT_EXPAND_WINDOW);
+        }
+
+        /**
+         * @param fields comma separated list of fields to request for resources.
+         * @param expandFilterQueries 0 or more filters that are added when searching for resources.
+         * @param returnInput if true, the input document in {@link #apply(SolrDocument)} will always be returned.
+         * @param linkFields  Solr fields holding resource links for pages. If null or empty, links are extracted
+         *                    by parsing the pages from the WARC files. If specified, the documents to expand must
+         *                    contain the fields as well as {@code crawl_date}.
+         * @param windowSize  the number of pages to process together in {@link #expand(Stream)}.
+         */
+        public HTMLResourceExpander(String fields, String[] expandFilterQueries, boolean returnInput,
+                                    List<String> linkFields, int windowSize) {
+            Set<String> requested = Arrays.stream(fields.split(",")).map(String::trim).collect(Collectors.toSet());
+            removeURLNorm = !requested.contains("url_norm") && !requested.contains("*");
+            this.fields = removeURLNorm ? fields + ",url_norm" : fields; // url_norm is needed for merged lookups
             this.expandFilterQueries = expandFilterQueries;
             this.returnInput = returnInput;
+            this.linkFields = linkFields == null ? Collections.emptyList() : linkFields;
+            this.windowSize = Math.max(1, windowSize);
         }
 
+        /**
+         * Expand a single page. This does not use parallel processing: Use {@link #expand(Stream)} for that.
+         */
         @Override
         public Stream<SolrDocument> apply(SolrDocument doc) {
+            return expandWindow(Collections.singletonList(doc), false);
+        }
+
+        /**
+         * Expand the pages in windows of {@code windowSize}.
+         * @param docs documents where the HTML pages will be expanded.
+         * @return the documents in the same order as the input, with resources following the pages they belong to.
+         */
+        public Stream<SolrDocument> expand(Stream<SolrDocument> docs) {
+            return CollectionUtils.splitToLists(docs, windowSize).
+                    flatMap(window -> expandWindow(window, true)).
+                    onClose(docs::close);
+        }
+
+        /**
+         * Expand the pages in windows of {@code windowSize}.
+         * @param docs documents where the HTML pages will be expanded.
+         * @return the documents in the same order as the input, with resources following the pages they belong to.
+         */
+        public Iterator<SolrDocument> expand(Iterator<SolrDocument> docs) {
+            return Iterators.concat(Iterators.transform(
+                    Iterators.partition(docs, windowSize), window -> expandWindow(window, true).iterator()));
+        }
+
+        /**
+         * Resolve links for all pages in the window, perform merged lookups of the resources and deliver the
+         * pages and resources in order.
+         */
+        private Stream<SolrDocument> expandWindow(List<SolrDocument> window, boolean parallel) {
+            List<Page> pages = parallel && window.size() > 1 ?
+                    Processing.batch(window.stream().map(doc -> (Callable<Page>) () -> resolvePage(doc)), windowSize).
+                            collect(Collectors.toList()) :
+                    window.stream().map(this::resolvePage).collect(Collectors.toList());
+
+            List<List<Page>> groups = groupByTime(pages);
+            Stream<Callable<Boolean>> lookups = groups.stream().map(group -> () -> lookupResources(group));
+            if (parallel && groups.size() > 1) {
+                Processing.batch(lookups, windowSize).forEach(b -> {});
+            } else {
+                lookups.forEach(this::callSafe);
+            }
+
+            return pages.stream().flatMap(this::pageWithResources);
+        }
+
+        private Stream<SolrDocument> pageWithResources(Page page) {
+            Stream<SolrDocument> resources = page.resources == null ? Stream.of() :
+                    page.urls.keySet().stream().
+                            map(page.resources::get).
+                            filter(Objects::nonNull).
+                            map(this::copyResource);
+            if (!page.isHTML) {
+                return returnInput ? Stream.of(page.doc) : Stream.of();
+            }
+            return returnInput ? Stream.concat(Stream.of(page.doc), resources) : resources;
+        }
+
+        /**
+         * Resources are shared between pages, so they are copied before delivery.
+         * {@code url_norm} is removed if it was not part of the requested fields.
+         */
+        private SolrDocument copyResource(SolrDocument resource) {
+            SolrDocument copy = new SolrDocument(new LinkedHashMap<>(resource));
+            if (removeURLNorm) {
+                copy.removeFields("url_norm");
+            }
+            return copy;
+        }
+
+        /**
+         * Extract the links from the page, either from {@link #linkFields} or by parsing the WARC record.
+         */
+        private Page resolvePage(SolrDocument doc) {
+            if (!"html".equals(doc.getFieldValue("content_type_norm"))) {
+                return new Page(doc, false);
+            }
+            Page page = new Page(doc, true);
             try {
-                if (!"html".equals(doc.getFieldValue("content_type_norm"))) {
-                    return returnInput ? Stream.of(doc) : Stream.of();
+                Collection<String> links;
+                boolean hasCrawlDate = doc.getFieldValue("crawl_date") instanceof Date;
+                if (hasCrawlDate) {
+                    page.crawlTime = ((Date) doc.getFieldValue("crawl_date")).getTime();
+                }
+                if (!linkFields.isEmpty() && hasCrawlDate) {
+                    links = new ArrayList<>();
+                    for (String linkField: linkFields) {
+                        Collection<Object> values = doc.getFieldValues(linkField);
+                        if (values != null) {
+                            values.forEach(value -> links.add(value.toString()));
+                        }
+                    }
+                } else {
+                    String sourceFile = doc.getFieldValue("source_file_path").toString();
+                    long offset = Long.parseLong(doc.getFieldValue("source_file_offset").toString());
+                    ArcEntry arc = ArcParserFileResolver.getArcEntry(sourceFile, offset);
+                    if (!hasCrawlDate) {
+                        page.crawlTime = Instant.parse(arc.getCrawlDate()).toEpochMilli();
+                    }
+                    links = HtmlParserUrlRewriter.getResourceLinksForHtmlFromArc(arc);
+                }
+                for (String link: links) {
+                    if (!link.startsWith("data:")) {
+                        page.urls.put(Normalisation.canonicaliseURL(link), link);
+                    }
                 }
-                String sourceFile = doc.getFieldValue("source_file_path").toString();
-                long offset = Long.parseLong(doc.getFieldValue("source_file_offset").toString());
-                ArcEntry arc= ArcParserFileResolver.getArcEntry(sourceFile, offset);
-                HashSet<String> resources = HtmlParserUrlRewriter.getResourceLinksForHtmlFromArc(arc);
-                Stream<SolrDocument> resourceStream =
-                        NetarchiveSolrClient.getInstance().findNearestDocuments(
-                                fields, arc.getCrawlDate(), resources.stream(), expandFilterQueries);
-                return returnInput ? Stream.concat(Stream.of(doc), resourceStream) : resourceStream;
             } catch (Exception e) {
                 log.warn("Exception getting resources for SolrDocument '" + doc + "'", e);
-                return returnInput ? Stream.of(doc) : Stream.of();
+                page.urls.clear();
+            }
+            return page;
+        }
+
+        /**
+         * Group pages with links, so that the crawl times for the pages in a group are within
+         * {@link #MERGE_TIMESPAN_MS} of each other.
+         */
+        private List<List<Page>> groupByTime(List<Page> pages) {
+            List<Page> sorted = pages.stream().
+                    filter(page -> !page.urls.isEmpty()).
+                    sorted(Comparator.comparingLong(page -> page.crawlTime)).
+                    collect(Collectors.toList());
+            List<List<Page>> groups = new ArrayList<>();
+            List<Page> group = null;
+            for (Page page: sorted) {
+                if (group == null || page.crawlTime - group.get(0).crawlTime > MERGE_TIMESPAN_MS) {
+                    group = new ArrayList<>();
+                    groups.add(group);
+                }
+                group.add(page);
+            }
+            return groups;
+        }
+
+        /**
+         * Resolve the union of resources for the pages in the group with a single (batched) lookup and assign the
+         * result to all pages in the group.
+         */
+        private boolean lookupResources(List<Page> group) {
+            Map<String, String> urls = new HashMap<>();
+            group.forEach(page -> urls.putAll(page.urls));
+            String idealTime = DateUtils.getSolrDate(new Date(group.get(group.size()/2).crawlTime));
+
+            Map<String, SolrDocument> resources = new HashMap<>(urls.size());
+            try (Stream<SolrDocument> found = NetarchiveSolrClient.getInstance().findNearestDocuments(
+                    fields, idealTime, urls.values().stream(), expandFilterQueries)) {
+                found.forEach(resource -> resources.putIfAbsent((String) resource.getFieldValue("url_norm"), resource));
+            } catch (Exception e) {
+                log.warn("Exception looking up " + urls.size() + " resources for " + group.size() + " pages", e);
+            }
+            group.forEach(page -> page.resources = resources);
+            return true;
+        }
+
+        private void callSafe(Callable<Boolean> callable) {
+            try {
+                callable.call();
+            } catch (Exception e) {
+                throw new RuntimeException("Exception looking up resources", e);
+            }
+        }
+
+        /**
+         * A document with the normalised resource URLs for the page, the crawl time and the resolved resources.
+         */
+        private static class Page {
+            final SolrDocument doc;
+            final boolean isHTML;
+            final Map<String, String> urls = new TreeMap<>(); // url_norm -> url, sorted to match Solr delivery order
+            long crawlTime = 0;
+            Map<String, SolrDocument> resources = null;
+
+            Page(SolrDocument doc, boolean isHTML) {
+                this.doc = doc;
+                this.isHTML = isHTML;
             }
         }
     }
@@ -134,6 +134,7 @@ public class SolrStreamDirect implements Iterable<SolrDocument> {
     private final List<String> adjustedFields; // Fields after adjusting for unique etc.
 
     private SolrDocumentList undelivered = null; // Leftover form previous call to keep deliveries below pageSize
+    private ShardPacer pacer = null;             // Optional control of page size and concurrency
 
 
     /**
@@ -195,15 +196,64 @@ public class SolrStreamDirect implements Iterable<SolrDocument> {
 
         this.adjustedFields = Arrays.asList(solrQuery.getFields().split(","));
 
-        queries = request.queries == null ? null:
-                CollectionUtils.splitToLists(request.queries, request.queryBatchSize).
-                        map(batch -> "(" + String.join(") OR (", batch) + ")").
-                        iterator(); // 1 big OR query
+        queries = request.queries == null ? null : batchQueries(request);
         if (solrQuery.getQuery() == null && queries != null && queries.hasNext()) {
             solrQuery.setQuery(queries.next());
         }
     }
 
+    /**
+     * Split {@link SRequest#queries} into batches of {@link SRequest#queryBatchSize} queries, each batch combined
+     * to a single {@code OR} query.
+     * <p>
+     * Note: This consumes {@link SRequest#queries}.
+     * @param request a multi-query request.
+     * @return the batched queries.
+     */
+    static Iterator<String> batchQueries(SRequest request) {
+        return CollectionUtils.splitToLists(request.queries, request.queryBatchSize).
+                map(batch -> "(" + String.join(") OR (", batch) + ")").
+                iterator(); // 1 big OR query
+    }
+
+    /**
+     * Create a "raw" stream that continues from a cursor previously retrieved with {@link #getCursor()} from a
+     * stream with the same {@code request}.
+     * <p>
+     * Note: This is the "raw" stream where post-processors such as ensure uniqueness and expand resources are not added.
+     * @param request stream setup. Multi-query requests are not supported.
+     * @param cursor  a cursor from {@link #getCursor()}. If null, the stream starts from the beginning.
+     * @see CheckpointedStream
+     */
+    protected SolrStreamDirect(SRequest request, String cursor) {
+        this(request);
+        if (request.isMultiQuery()) {
+            throw new IllegalArgumentException("Continuing from a cursor is not supported for multi-query requests");
+        }
+        if (cursor == null) {
+            return;
+        }
+        if (STOP_PAGING.equals(cursor)) {
+            hasMoreQueries = false;
+            return;
+        }
+        switch (paging) {
+            case none:
+                break;
+            case cursorMark:
+                solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursor);
+                break;
+            case group:
+                if (!cursor.isEmpty()) {
+                    lastDeduplicateValue = cursor;
+                    setGroupPagingQuery();
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Paging strategy '" + paging + "' is not supported");
+        }
+    }
+
     /**
      * Set up paging parameters for the {@code solrQuery} and for the {@code SolrStreamDirect}.
      * @param solrQuery a SolrQuery.
@@ -304,6 +354,40 @@ public class SolrStreamDirect implements Iterable<SolrDocument> {
         };
     }
 
+    /**
+     * Constructs a "raw" iterator for pages of {@link SolrDocument}s, as delivered by Solr. Used for batch oriented
+     * processing, such as the merging of shard divided streams in {@link SolrStreamShard}.
+     * @return an iterator of non-empty pages of SolrDocuments.
+     * @see #iterator()
+     */
+    public Iterator<SolrDocumentList> pageIterator() {
+        return new Iterator<SolrDocumentList>() {
+            SolrDocumentList page = null;
+
+            @Override
+            public boolean hasNext() {
+                if (page == null && !hasFinished()) {
+                    try {
+                        page = nextDocuments();
+                    } catch (Exception e) {
+                        throw new RuntimeException("Exception requesting next batch", e);
+                    }
+                }
+                return page != null;
+            }
+
+            @Override
+            public SolrDocumentList next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more elements");
+                }
+                SolrDocumentList result = page;
+                page = null;
+                return result;
+            }
+        };
+    }
+
     /**
      * @param defaultSolrClient the SolrClient that will be used if no SolrClient is provided for the calls.
      */
@@ -328,7 +412,7 @@ public class SolrStreamDirect implements Iterable<SolrDocument> {
             }
 
             // Perform the Solr request
-            QueryResponse rsp = performQuery();
+            QueryResponse rsp = pacer == null ? performQuery() : performPacedQuery();
             undelivered = rsp.getResults();
             if (undelivered.size() < solrQuery.getRows() || rsp.getResults().getNumFound() <= solrQuery.getRows()) {
                 queryDepleted = true;
@@ -368,6 +452,35 @@ public class SolrStreamDirect implements Iterable<SolrDocument> {
         return rsp;
     }
 
+    /**
+     * Wraps {@link #performQuery()} with {@link #pacer} control of page size and concurrent requests.
+     */
+    private QueryResponse performPacedQuery() throws SolrServerException, IOException {
+        int rows = pacer.acquire();
+        solrQuery.setRows(rows);
+        int delivered = 0;
+        boolean depleted = true;
+        try {
+            QueryResponse rsp = performQuery();
+            delivered = rsp.getResults().size();
+            depleted = delivered < rows && !request.isMultiQuery();
+            return rsp;
+        } finally {
+            pacer.release(rows, delivered, depleted);
+        }
+    }
+
+    /**
+     * Let the given pacer control the page size and the number of concurrent requests.
+     * Used by {@link SolrStreamShard} for adaptive shard division.
+     * @param pacer the pacer for this stream.
+     * @return this stream, for chaining.
+     */
+    SolrStreamDirect pacer(ShardPacer pacer) {
+        this.pacer = pacer;
+        return this;
+    }
+
     /**
      * Updates {@code cursorMark} or equivalent parameters, readying next call to Solr.
      * @param response response from previous call to Solr.
@@ -394,17 +507,7 @@ public class SolrStreamDirect implements Iterable<SolrDocument> {
                     if (lastDeduplicateValue == null || lastDeduplicateValue.isEmpty()) {
                         log.warn("updatePaging(): Missing lastDeduplicateValue for request " + request);
                     }
-                    String nextPageQuery = String.format(
-                            // TODO: Test for deduplication on numeric or date field
-                            Locale.ROOT, "%s:{%s TO *]", // Range query with non-inclusive start and open end
-                            request.deduplicateFields.get(0), lastDeduplicateValue);
-                    if (originalSolrQuery.getQuery() == null) {
-                        solrQuery.setQuery(nextPageQuery);
-                    } else {
-                        solrQuery.setQuery(String.format(
-                                Locale.ROOT, "(%s) AND %s", // Range query with non-inclusive start and open end
-                                originalSolrQuery.getQuery(), nextPageQuery));
-                    }
+                    setGroupPagingQuery();
                 }
                 break;
             default:
@@ -412,6 +515,25 @@ public class SolrStreamDirect implements Iterable<SolrDocument> {
         }
     }
 
+    /**
+     * Adjust the query in {@link #solrQuery} to start after {@link #lastDeduplicateValue}, for use with
+     * {@link PAGING#group}.
+     */
+    private void setGroupPagingQuery() {
+        String nextPageQuery = String.format(
+                // TODO: Test for deduplication on numeric or date field
+                Locale.ROOT, "%s:{%s TO *]", // Range query with non-inclusive start and open end
+                request.deduplicateFields.get(0), lastDeduplicateValue);
+        // "(*:*) AND ..." matches nothing with edismax, so match-all is replaced instead of combined
+        if (originalSolrQuery.getQuery() == null || "*:*".equals(originalSolrQuery.getQuery().trim())) {
+            solrQuery.setQuery(nextPageQuery);
+        } else {
+            solrQuery.setQuery(String.format(
+                    Locale.ROOT, "(%s) AND %s", // Range query with non-inclusive start and open end
+                    originalSolrQuery.getQuery(), nextPageQuery));
+        }
+    }
+
     /**
      * If {@link SRequest#isMultiQuery()} is true and tre are more queries from {@link SRequest#queries} then
      * the next query is assigned to {@link #solrQuery} and the relevant paging structures are reset.
@@ -443,6 +565,30 @@ public class SolrStreamDirect implements Iterable<SolrDocument> {
     }
 
 
+    /**
+     * Get the paging position after the documents delivered by {@link #nextDocuments()}. Used with
+     * {@link #SolrStreamDirect(SRequest, String)} to continue the stream at a later time.
+     * <p>
+     * Note: The cursor is at page granularity and only meaningful when {@link #nextDocuments()} is called directly.
+     * Documents already delivered by {@link #iterator()} are not reflected.
+     * @return a cursor for continuing the stream or {@link #STOP_PAGING} if there are no more documents.
+     */
+    public String getCursor() {
+        if (hasFinished()) {
+            return STOP_PAGING;
+        }
+        switch (paging) {
+            case none:
+                return CursorMarkParams.CURSOR_MARK_START; // Single page, so not started yet
+            case cursorMark:
+                return solrQuery.get(CursorMarkParams.CURSOR_MARK_PARAM, CursorMarkParams.CURSOR_MARK_START);
+            case group:
+                return lastDeduplicateValue == null ? "" : lastDeduplicateValue;
+            default:
+                throw new UnsupportedOperationException("Paging strategy '" + paging + "' is not supported");
+        }
+    }
+
     /**
      * {@code hasFinished()} does not guarantee that more documents can be delivered, only that there might be more.
      * @return true if there are no more documents, false if there might be more documents.
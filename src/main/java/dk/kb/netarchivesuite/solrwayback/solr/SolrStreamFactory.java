@@ -14,6 +14,7 @@
  */
 package dk.kb.netarchivesuite.solrwayback.solr;
 
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
 import dk.kb.netarchivesuite.solrwayback.util.CollectionUtils;
 import dk.kb.netarchivesuite.solrwayback.util.SolrUtils;
 import dk.kb.netarchivesuite.solrwayback.util.ThroughputTracker;
@@ -122,23 +123,11 @@ public class SolrStreamFactory {
                               shards.size(), request.shardDivideAutoMinShards);
                     return CollectionUtils.CloseableIterator.single(SolrStreamDirect.iterate(request));
                 }
-                long hits = SolrStreamShard.getApproximateHits(request);
-                if (hits < request.shardDivideAutoMinHits) {
-                    log.debug("shardDivide == auto, but approximate hitcount {} is < limit {}. " +
-                              "Falling back to collection oriented Solr document streaming",
-                              hits, request.shardDivideAutoMinHits);
-                    return CollectionUtils.CloseableIterator.single(SolrStreamDirect.iterate(request));
-                }
-                if (hits <= request.maxResults) {
-                    log.debug("shardDivide == auto, but approximate hitcount {} is <= maxResults {}. " +
-                              "Falling back to collection oriented Solr document streaming",
-                              hits, request.maxResults);
-                    return CollectionUtils.CloseableIterator.single(SolrStreamDirect.iterate(request));
-                }
-                log.debug("shardDivide == auto, and hitcount {} is >= limit {}. " +
-                          "Using shard dividing Solr document streaming for {} shards ",
-                          hits, request.shardDivideAutoMinHits, shards.size());
-                return SolrStreamShard.iterateSharded(request, shards);
+                SolrStreamShard.ShardPlan plan = SolrStreamShard.planShardDivision(request, shards);
+                log.info("shardDivide == auto for query '{}': {}", SRequest.limit(request.query, 50), plan);
+                return plan.divide ?
+                        SolrStreamShard.iterateSharded(request, plan) :
+                        CollectionUtils.CloseableIterator.single(SolrStreamDirect.iterate(request));
 
             default:
                 throw new UnsupportedOperationException(
@@ -181,12 +170,13 @@ public class SolrStreamFactory {
         }
 
         if (request.expandResources) {
-            docs = docs.flatMap(new SolrStreamDecorators.HTMLResourceExpander(
-                    adjustedFields, request.getExpandResourcesFilterQueries(), true));
+            docs = new SolrStreamDecorators.HTMLResourceExpander(
+                    adjustedFields, request.getExpandResourcesFilterQueries(), true,
+                    request.expandResourcesLinkFields, PropertiesLoader.SOLR_EXPORT_EXPAND_WINDOW).expand(docs);
         }
 
         if (request.ensureUnique) {
-            docs = docs.filter(new UniqueFilter(request.useHashingForUnique, request.maxUnique, request.uniqueFields));
+            docs = docs.filter(new UniqueFilter(request.uniqueMode, request.maxUnique, request.uniqueFields));
         }
 
         // Reduce documents to contain requested fields only
@@ -225,13 +215,14 @@ public class SolrStreamFactory {
         }
 
         if (request.expandResources) {
-            docs = CollectionUtils.ExpandingIterator.ofStream(docs, new SolrStreamDecorators.HTMLResourceExpander(
-                    adjustedFields, request.getExpandResourcesFilterQueries(), true));
+            docs = new SolrStreamDecorators.HTMLResourceExpander(
+                    adjustedFields, request.getExpandResourcesFilterQueries(), true,
+                    request.expandResourcesLinkFields, PropertiesLoader.SOLR_EXPORT_EXPAND_WINDOW).expand(docs);
         }
 
         if (request.ensureUnique) {
             docs = CollectionUtils.ReducingIterator.of(
-                    docs, new UniqueFilter(request.useHashingForUnique, request.maxUnique, request.uniqueFields));
+                    docs, new UniqueFilter(request.uniqueMode, request.maxUnique, request.uniqueFields));
         }
 
         // Reduce documents to contain requested fields only
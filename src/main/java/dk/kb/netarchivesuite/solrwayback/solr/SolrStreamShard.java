@@ -14,11 +14,12 @@
  */
 package dk.kb.netarchivesuite.solrwayback.solr;
 
-import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import com.google.common.collect.Iterators;
 import dk.kb.netarchivesuite.solrwayback.util.CollectionUtils;
 import dk.kb.netarchivesuite.solrwayback.util.SolrUtils;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.FacetParams;
 import org.apache.solr.common.params.GroupParams;
@@ -38,15 +39,23 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.BiPredicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Handles the logistics of streaming search results from Solr Shards.
@@ -73,11 +82,6 @@ public class SolrStreamShard {
         }
     });
 
-    /**
-     * Shared gatekeeper for all shard divided requests.
-     */
-    private static final Semaphore gatekeeper = new Semaphore(PropertiesLoader.SOLR_STREAM_SHARD_DIVIDE_CONCURRENT_MAX);
-
 
     /**
      * Used by {@link dk.kb.netarchivesuite.solrwayback.solr.SRequest.CHOICE#auto} mode for {@link SRequest#shardDivide}
@@ -86,9 +90,20 @@ public class SolrStreamShard {
      * @return the raw number of hits for the request, ignoring grouping, deduplication, resource expancion etc.
      */
     public static long getApproximateHits(SRequest request) {
-        if (request.queries != null) {
-            throw new UnsupportedOperationException("Multi-queries are not yet supported for chard division");
+        if (request.isMultiQuery()) {
+            throw new UnsupportedOperationException(
+                    "Hit counting for multi-queries would consume the queries. Use planShardDivision instead");
         }
+        return countHits(request, null);
+    }
+
+    /**
+     * Resolve the raw number of hits for the request, ignoring grouping, deduplication, resource expansion etc.
+     * @param request    the request to count hits for. {@link SRequest#shards} is respected.
+     * @param collection the collection to query. If null, the default collection for the Solr client is used.
+     * @return the raw number of hits.
+     */
+    private static long countHits(SRequest request, String collection) {
         SolrQuery solrQuery = request.getMergedSolrQuery();
         solrQuery.set(CommonParams.ROWS, 0);
         solrQuery.set(GroupParams.GROUP, false);
@@ -96,16 +111,127 @@ public class SolrStreamShard {
         solrQuery.set(HighlightParams.HIGHLIGHT, false);
         solrQuery.set(StatsParams.STATS, false);
         try {
-            return request.solrClient.query(solrQuery).getResults().getNumFound();
+            return (collection == null ? request.solrClient.query(solrQuery) :
+                    request.solrClient.query(collection, solrQuery)).getResults().getNumFound();
         } catch (Exception e) {
             throw new RuntimeException("Unable to resolve hit count for " + request, e);
         }
     }
 
+    /**
+     * Used by {@link dk.kb.netarchivesuite.solrwayback.solr.SRequest.CHOICE#auto} mode for {@link SRequest#shardDivide}.
+     * Resolves the number of hits for each shard in parallel and decides whether shard division is worth it.
+     * <p>
+     * Shard division is skipped if fewer than 2 shards have hits or if the expected speedup is below
+     * {@link #MIN_DIVIDE_SPEEDUP}. The expected speedup is the total number of hits divided by the number of hits in
+     * the largest shard, as the largest shard bounds the total time for the divided streams.
+     * <p>
+     * For multi-query requests, the hits are counted for the first batch of queries only, which are put back in
+     * front of the remaining {@link SRequest#queries}. If there are more batches, the count is a lower bound and
+     * the rules for minimum hits are not applied.
+     * @param request the base request.
+     * @param shards  the candidate shards.
+     * @return a plan for streaming the request.
+     */
+    static ShardPlan planShardDivision(SRequest request, List<SolrUtils.Shard> shards) {
+        SRequest countRequest = request;
+        boolean lowerBound = false;
+        if (request.isMultiQuery()) {
+            Iterator<String> queries = request.queries.iterator();
+            List<String> firstBatch = new ArrayList<>(request.queryBatchSize);
+            while (firstBatch.size() < request.queryBatchSize && queries.hasNext()) {
+                firstBatch.add(queries.next());
+            }
+            lowerBound = queries.hasNext();
+            request.forceQueries(Stream.concat(
+                    firstBatch.stream(), StreamSupport.stream(Spliterators.spliteratorUnknownSize(queries, 0), false)));
+            if (firstBatch.isEmpty()) {
+                return new ShardPlan(request, shards, new long[shards.size()], false);
+            }
+            countRequest = request.deepCopy().forceQuery("(" + String.join(") OR (", firstBatch) + ")");
+        }
+
+        final SRequest finalCountRequest = countRequest;
+        List<CompletableFuture<Long>> counts = shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> countHits(
+                        finalCountRequest.deepCopy().collection(shard.collectionID).shards(shard.shardID),
+                        shard.collectionID), executor))
+                .collect(Collectors.toList());
+        long[] hits = counts.stream().mapToLong(CompletableFuture::join).toArray();
+        return new ShardPlan(request, shards, hits, lowerBound);
+    }
+
+    /**
+     * The minimum expected speedup from shard division for {@link #planShardDivision(SRequest, List)} to choose it.
+     */
+    static final double MIN_DIVIDE_SPEEDUP = 1.5;
+
+    /**
+     * The number of hits for each shard and the decision whether to use shard division.
+     */
+    static class ShardPlan {
+        final List<SolrUtils.Shard> shards;
+        final long[] hits;
+        final long totalHits;
+        final long maxShardHits;
+        final int activeShards;
+        final boolean lowerBound;
+        final boolean divide;
+        final String reason;
+
+        /**
+         * @param request    the request to plan for.
+         * @param shards     the candidate shards.
+         * @param hits       the number of hits for each shard.
+         * @param lowerBound if true, the hits are from the first batch of a multi-query request with more batches.
+         */
+        ShardPlan(SRequest request, List<SolrUtils.Shard> shards, long[] hits, boolean lowerBound) {
+            this.shards = shards;
+            this.hits = hits;
+            this.lowerBound = lowerBound;
+            totalHits = Arrays.stream(hits).sum();
+            maxShardHits = Arrays.stream(hits).max().orElse(0);
+            activeShards = (int) Arrays.stream(hits).filter(h -> h > 0).count();
+            double speedup = maxShardHits == 0 ? 0 : 1.0 * totalHits / maxShardHits;
+
+            if (activeShards < 2) {
+                divide = false;
+                reason = "only " + activeShards + " shards have hits";
+            } else if (!lowerBound && totalHits < request.shardDivideAutoMinHits) {
+                divide = false;
+                reason = "hits " + totalHits + " < shardDivideAutoMinHits " + request.shardDivideAutoMinHits;
+            } else if (!lowerBound && totalHits <= request.maxResults) {
+                divide = false;
+                reason = "hits " + totalHits + " <= maxResults " + request.maxResults;
+            } else if (speedup < MIN_DIVIDE_SPEEDUP) {
+                divide = false;
+                reason = String.format(Locale.ROOT, "expected speedup %.1f < %.1f due to uneven shards",
+                                       speedup, MIN_DIVIDE_SPEEDUP);
+            } else {
+                divide = true;
+                reason = String.format(Locale.ROOT, "expected speedup %.1f", speedup);
+            }
+        }
+
+        /**
+         * @return the hit count for the shard at the given index in {@link #shards}.
+         */
+        long getHits(int index) {
+            return hits[index];
+        }
+
+        @Override
+        public String toString() {
+            return "ShardPlan(divide=" + divide + " (" + reason + "), hits=" + (lowerBound ? ">=" : "") + totalHits +
+                   ", shards=" + activeShards +
+                   "/" + shards.size() + " with hits, largest shard=" + maxShardHits + ")";
+        }
+    }
+
     /**
      * Sets up an individual {@link SolrStreamDirect} for each shard in the collection, or each shard in the
      * {@code request} is shards are explicitly stated there. The resulting documents are merged using
-     * {@link dk.kb.netarchivesuite.solrwayback.util.CollectionUtils#mergeIterators(Collection, Comparator)} and
+     * {@link dk.kb.netarchivesuite.solrwayback.util.CollectionUtils#mergeKeyedBatches(Collection, Comparator)} and
      * relevant post-processors are added using {@link SolrStreamFactory#addPostProcessors(Iterator, SRequest, String)}.
      * The end result from the returned iterator should be exactly the same as a direct call to
      * {@link SolrStreamDirect#iterate(SRequest)} but with better performance for large result sized.
@@ -124,6 +250,37 @@ public class SolrStreamShard {
         if (shards == null || shards.isEmpty()) {
             throw new IllegalArgumentException("No shards specified");
         }
+        return iterateSharded(request, shards, shards.stream().map(shard -> request.pageSize).collect(Collectors.toList()));
+    }
+
+    /**
+     * Shard divided streaming as described in {@link #iterateSharded(SRequest, List)}, using only the shards that
+     * have hits according to the {@code plan}. The initial page size for each shard is bounded by its hit count.
+     * <p>
+     * For multi-query requests all shards are used, as later query batches might hit shards without hits for the
+     * first batch.
+     * @param request stream setup.
+     * @param plan    the shards and their hit counts.
+     * @return an iterator of {@code SolrDocument}s, as specified in the {@code request}.
+     */
+    protected static CollectionUtils.CloseableIterator<SolrDocument> iterateSharded(SRequest request, ShardPlan plan) {
+        if (request.isMultiQuery()) {
+            return iterateSharded(request, plan.shards);
+        }
+        List<SolrUtils.Shard> shards = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        for (int i = 0 ; i < plan.shards.size() ; i++) {
+            if (plan.getHits(i) > 0) {
+                shards.add(plan.shards.get(i));
+                // +1 to avoid an extra request for detecting depletion
+                pageSizes.add((int) Math.min(request.pageSize, plan.getHits(i) + 1));
+            }
+        }
+        return iterateSharded(request, shards, pageSizes);
+    }
+
+    private static CollectionUtils.CloseableIterator<SolrDocument> iterateSharded(
+            SRequest request, List<SolrUtils.Shard> shards, List<Integer> initialPageSizes) {
         final SRequest base = request.deepCopy();
         base.shardDivide(SRequest.CHOICE.never);
         // Ensure sort fields are delivered by the shard divided streams
@@ -135,35 +292,147 @@ public class SolrStreamShard {
         // TODO: Resolve adjustedFields (by moving it into SRequest?)
         String adjustedFields = String.join(",", fl);
         final AtomicBoolean continueProcessing = new AtomicBoolean(true);
+        // The batches of a multi-query have the same kind of query, fields and page size, so they share the limiter
+        final ShardPacer.AdaptiveLimiter limiter = new ShardPacer.AdaptiveLimiter();
 
-        // Randomize to spread the load as much as possible (without doing a deeper analysis of the topology)
-        Collections.shuffle(shards);
-        // TODO: Consider a different pageSize for shardDivide requests
-        List<Iterator<SolrDocument>> documentIterators = shards.stream()
-                .map(shard -> base.deepCopy().collection(shard.collectionID).shards(shard.shardID))
-                .map(SolrStreamDirect::new)
-                // Basic "raw results"
-                .map(SolrStreamDirect::iterator)
-                // Limit hammering on the Solr Cloud
-                .map(iterator -> CollectionUtils.SharedConstraintIterator.of(iterator, gatekeeper))
-                // Speed up processing by threading most of the deduplication
-                .map(iterator -> makeDeduplicatingIfStated(iterator, base))
-                // Speed up processing by reading ahead
-                .map(iterator -> CollectionUtils.BufferingIterator.of(iterator, executor, base.pageSize, continueProcessing))
-                .collect(Collectors.toList());
-        // Merge all shard divisions to one iterator
-        Iterator<SolrDocument> docs = CollectionUtils.mergeIterators(documentIterators, getDocumentComparator(base));
-        // Needed for proper maxResult limiting. If not here, the subsequent CloseableIterator might close too early
-        docs = makeDeduplicatingIfStated(docs, base);
+        // Multi-queries are batched the same way as SolrStreamDirect does it, with each batch being shard divided.
+        // Sorting is per batch, so the merged batches are concatenated
+        Iterator<SolrDocument> docs = base.isMultiQuery() ?
+                new BatchConcatenatingIterator(SolrStreamDirect.batchQueries(base), batchQuery -> mergeShards(
+                        base.deepCopy().forceQuery(batchQuery), shards, initialPageSizes, limiter, continueProcessing),
+                                               continueProcessing) :
+                mergeShards(base, shards, initialPageSizes, limiter, continueProcessing);
+        // Needed for proper maxResult limiting. If not here, the subsequent CloseableIterator might close too early.
+        // Single query merges are deduplicated on the sort keys, but batches are concatenated after merging
+        if (base.isMultiQuery()) {
+            docs = makeDeduplicatingIfStated(docs, base);
+        }
         // Limit the amount of results
         // Not connected to the other CloseableIterators as expandResources might result in more than maxResults docs
         docs = CollectionUtils.CloseableIterator.of(docs, new AtomicBoolean(true), base.maxResults);
         // Remove duplicates, add resources... Note that the raw request is used as this has the non-expanded fields
         docs = SolrStreamFactory.addPostProcessors(docs, request, adjustedFields);
-        // Ensure that close() propagates to the BufferingIterator to avoid Thread & buffer leaks
+        // Ensure that close() propagates to the BatchBufferingIterators to avoid Thread & buffer leaks
         return CollectionUtils.CloseableIterator.of(docs, continueProcessing);
     }
 
+    /**
+     * Issue the single-query {@code base} request against each shard in parallel and merge the results.
+     * @param base               a single-query request with the fields needed for sorting.
+     * @param shards             the shards to query.
+     * @param initialPageSizes   the initial page size for each shard.
+     * @param limiter            the concurrency limiter for the request, shared by the shard pacers.
+     * @param continueProcessing shared state for stopping the shard streams.
+     * @return the merged raw documents from all shards, in the sort order of the request.
+     */
+    private static Iterator<SolrDocument> mergeShards(
+            SRequest base, List<SolrUtils.Shard> shards, List<Integer> initialPageSizes,
+            ShardPacer.AdaptiveLimiter limiter, AtomicBoolean continueProcessing) {
+        // Randomize to spread the load as much as possible (without doing a deeper analysis of the topology)
+        List<Integer> order = IntStream.range(0, shards.size()).boxed().collect(Collectors.toList());
+        Collections.shuffle(order);
+        DocumentSortKeys sortKeys = new DocumentSortKeys(base);
+        List<Iterator<CollectionUtils.KeyedBatch<SolrDocument, SortKey>>> pageIterators = order.stream()
+                .map(index -> new SolrStreamDirect(
+                        base.deepCopy().collection(shards.get(index).collectionID).shards(shards.get(index).shardID))
+                        // Adaptive page size per shard and limited hammering on the Solr Cloud
+                        .pacer(new ShardPacer(shards.get(index).toString(), base.pageSize, initialPageSizes.get(index),
+                                              limiter)))
+                // Basic "raw results", page by page
+                .map(SolrStreamDirect::pageIterator)
+                // Speed up processing by threading the sort key extraction and most of the deduplication
+                .map(pages -> makeKeyedPages(pages, sortKeys))
+                // Speed up processing by reading ahead, handing off whole pages
+                .map(pages -> CollectionUtils.BatchBufferingIterator.of(
+                        pages, executor, SHARD_BUFFER_PAGES, continueProcessing))
+                .collect(Collectors.toList());
+        // Merge all shard divisions to one iterator, deduplicating across shards
+        return CollectionUtils.mergeKeyedBatches(
+                pageIterators, sortKeys, sortKeys.deduplicates() ? sortKeys::isDuplicate : null);
+    }
+
+    /**
+     * The number of pages to read ahead for each shard.
+     */
+    static final int SHARD_BUFFER_PAGES = 2;
+
+    /**
+     * Calculate the sort keys for the documents and deduplicate using the keys if
+     * {@link SRequest#deduplicateFields} are stated.
+     * @param pages    pages of documents from a shard.
+     * @param sortKeys sort key extractor.
+     * @return the pages as {@link CollectionUtils.KeyedBatch}es.
+     */
+    private static Iterator<CollectionUtils.KeyedBatch<SolrDocument, SortKey>> makeKeyedPages(
+            Iterator<SolrDocumentList> pages, DocumentSortKeys sortKeys) {
+        if (!sortKeys.deduplicates()) {
+            return Iterators.transform(pages, page -> CollectionUtils.KeyedBatch.of(page, sortKeys::extract));
+        }
+        // The deduplication is stateful across pages, so the last key is shared for all pages from the shard
+        SortKey[] last = new SortKey[1];
+        return Iterators.transform(pages, page -> {
+            List<SolrDocument> docs = new ArrayList<>(page.size());
+            List<SortKey> keys = new ArrayList<>(page.size());
+            for (SolrDocument doc: page) {
+                SortKey key = sortKeys.extract(doc);
+                if (!sortKeys.isDuplicate(last[0], key)) {
+                    docs.add(doc);
+                    keys.add(key);
+                    last[0] = key;
+                }
+            }
+            return CollectionUtils.KeyedBatch.of(docs, keys);
+        });
+    }
+
+    /**
+     * Concatenates the shard merged results for each batch of a multi-query request. When a batch is started,
+     * the shard requests for the following batch are also started, so that the shards are kept busy during the
+     * switch between batches.
+     */
+    static class BatchConcatenatingIterator implements Iterator<SolrDocument> {
+        private final Iterator<String> batchQueries;
+        private final Function<String, Iterator<SolrDocument>> merger;
+        private final AtomicBoolean continueProcessing;
+        private Iterator<SolrDocument> current = null;
+        private Iterator<SolrDocument> next = null;
+
+        /**
+         * @param batchQueries       the batched queries.
+         * @param merger             creates a shard merged iterator for a batched query.
+         * @param continueProcessing if false, no more batches are started.
+         */
+        BatchConcatenatingIterator(Iterator<String> batchQueries, Function<String, Iterator<SolrDocument>> merger,
+                                   AtomicBoolean continueProcessing) {
+            this.batchQueries = batchQueries;
+            this.merger = merger;
+            this.continueProcessing = continueProcessing;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (next == null && continueProcessing.get() && batchQueries.hasNext()) {
+                    next = merger.apply(batchQueries.next());
+                }
+                if (next == null) {
+                    return false;
+                }
+                current = next;
+                next = continueProcessing.get() && batchQueries.hasNext() ? merger.apply(batchQueries.next()) : null;
+            }
+            return true;
+        }
+
+        @Override
+        public SolrDocument next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more elements");
+            }
+            return current.next();
+        }
+    }
+
     private static Iterator<SolrDocument> makeDeduplicatingIfStated(Iterator<SolrDocument> iterator, SRequest request) {
         return request.deduplicateFields == null ? iterator :
                 CollectionUtils.ReducingIterator.of(
@@ -193,48 +462,194 @@ public class SolrStreamShard {
     /**
      * Limited recreation of Solr sort. Basic score & field-based sorting is supported as well as the time-proximity
      * function sort used by {@link SRequest#timeProximityDeduplication}.
+     * <p>
+     * Note: The sort values are extracted for every comparison. Use {@link DocumentSortKeys} for repeated
+     * comparisons of the same documents.
      * @param request a request with a comma separates sort chain in {@link SRequest#sort}.
      * @return a chained comparator for the sort elements.
      */
     public static Comparator<SolrDocument> getDocumentComparator(SRequest request) {
+        DocumentSortKeys sortKeys = new DocumentSortKeys(request);
+        return (doc1, doc2) -> sortKeys.compare(sortKeys.extract(doc1), sortKeys.extract(doc2));
+    }
+    public static final Pattern SORT_CLAUSES_PATTERN = Pattern.compile(" *(.*? (?:asc|desc)),? *");
+
+    /**
+     * Precomputed sort key for a single document, as produced by {@link DocumentSortKeys#extract(SolrDocument)}.
+     * Numeric values (numbers, dates, score and time proximity distances) are stored as primitive longs in
+     * {@link #numbers}, with the corresponding entry in {@link #objects} being null. Other values are stored in
+     * {@link #objects}. Missing values are marked with {@link #MISSING}.
+     */
+    static final class SortKey {
+        static final Object MISSING = new Object();
+
+        final long[] numbers;
+        final Object[] objects;
+
+        SortKey(int clauses) {
+            numbers = new long[clauses];
+            objects = new Object[clauses];
+        }
+    }
+
+    /**
+     * Sort keys for merging shard divided streams with
+     * {@link CollectionUtils#mergeKeyedBatches(Collection, Comparator, BiPredicate)}: The values used for sorting
+     * are extracted once per document by {@link #extract(SolrDocument)} and compared as primitives where possible.
+     * <p>
+     * As the {@link SRequest#deduplicateFields} are the first sort clauses, deduplication can also be done on
+     * the keys, see {@link #isDuplicate(SortKey, SortKey)}.
+     */
+    static class DocumentSortKeys implements Comparator<SortKey> {
+        private final SortClause[] clauses;
+        private final int deduplicateClauses;
+
+        DocumentSortKeys(SRequest request) {
+            clauses = getSortClauses(request).toArray(new SortClause[0]);
+            deduplicateClauses = request.deduplicateFields == null ? 0 : request.deduplicateFields.size();
+        }
+
+        /**
+         * @param doc a document with the fields needed for sorting.
+         * @return the sort key for the document.
+         */
+        SortKey extract(SolrDocument doc) {
+            SortKey key = new SortKey(clauses.length);
+            for (int i = 0 ; i < clauses.length ; i++) {
+                clauses[i].extract(doc, key, i);
+            }
+            return key;
+        }
+
+        /**
+         * Values that are missing or not {@link Comparable} are considered equal to anything.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        @Override
+        public int compare(SortKey key1, SortKey key2) {
+            for (int i = 0 ; i < clauses.length ; i++) {
+                Object o1 = key1.objects[i];
+                Object o2 = key2.objects[i];
+                int c;
+                if (o1 == null && o2 == null) {
+                    c = Long.compare(key1.numbers[i], key2.numbers[i]);
+                } else if (o1 instanceof Comparable && o2 instanceof Comparable) { // MISSING is not Comparable
+                    c = ((Comparable)o1).compareTo(o2);
+                } else {
+                    c = 0;
+                }
+                if (c != 0) {
+                    return clauses[i].direction*c;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return true if {@link SRequest#deduplicateFields} are stated for the request.
+         */
+        boolean deduplicates() {
+            return deduplicateClauses > 0;
+        }
+
+        /**
+         * Key based version of {@link SolrStreamDecorators.OrderedDeduplicator}.
+         * @param previous the key for the previously delivered document. Can be null.
+         * @param key      the key for the current document.
+         * @return true if the values for the {@link SRequest#deduplicateFields} are the same for the two keys.
+         */
+        boolean isDuplicate(SortKey previous, SortKey key) {
+            if (previous == null || deduplicateClauses == 0 || previous.objects[0] == SortKey.MISSING) {
+                return false;
+            }
+            for (int i = 0 ; i < deduplicateClauses ; i++) {
+                if (previous.objects[i] == null ?
+                        key.objects[i] != null || previous.numbers[i] != key.numbers[i] :
+                        !previous.objects[i].equals(key.objects[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A single sort clause: The field or time proximity function to sort on and the direction.
+     */
+    private static class SortClause {
+        final String field;
+        final boolean proximity;
+        final long origoMS; // Only used for proximity
+        final int direction;
+
+        SortClause(String field, boolean proximity, long origoMS, int direction) {
+            this.field = field;
+            this.proximity = proximity;
+            this.origoMS = origoMS;
+            this.direction = direction;
+        }
+
+        /**
+         * Extract the sort value for the clause from the {@code doc} and store it in the {@code key}.
+         */
+        void extract(SolrDocument doc, SortKey key, int index) {
+            Object value = doc.getFieldValue(field);
+            if (proximity) {
+                if (value instanceof Date) {
+                    key.numbers[index] = Math.abs(origoMS - ((Date) value).getTime());
+                } else {
+                    key.objects[index] = SortKey.MISSING;
+                }
+            } else if (value instanceof Date) {
+                key.numbers[index] = ((Date) value).getTime();
+            } else if (value instanceof Float || value instanceof Double) {
+                key.numbers[index] = sortableBits(((Number) value).doubleValue());
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short ||
+                       value instanceof Byte) {
+                key.numbers[index] = ((Number) value).longValue();
+            } else {
+                key.objects[index] = value == null ? SortKey.MISSING : value;
+            }
+        }
+
+        /**
+         * @return the bits of the {@code value}, adjusted so that signed comparison of the bits gives the same
+         *         order as comparison of the doubles.
+         */
+        static long sortableBits(double value) {
+            long bits = Double.doubleToLongBits(value);
+            return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @param request a request with a comma separates sort chain in {@link SRequest#sort}.
+     * @return the parsed sort clauses.
+     */
+    private static List<SortClause> getSortClauses(SRequest request) {
         // https://solr.apache.org/guide/solr/latest/query-guide/common-query-parameters.html#sort-parameter
-        Comparator<SolrDocument> comparator = null;
+        List<SortClause> clauses = new ArrayList<>();
         Matcher clauseMatcher = SORT_CLAUSES_PATTERN.matcher(request.getFullSort());
         while (clauseMatcher.find()) {
-            String clause = clauseMatcher.group(1);
-            if (comparator == null) {
-                comparator = getSingleComparator(clause);
-            } else {
-                comparator = comparator.thenComparing(getSingleComparator(clause));
-            }
+            clauses.add(getSortClause(clauseMatcher.group(1)));
         }
-        return comparator;
+        return clauses;
     }
-    public static final Pattern SORT_CLAUSES_PATTERN = Pattern.compile(" *(.*? (?:asc|desc)),? *");
 
     /**
      * Limited recreation of Solr sort. Basic score & field-based sorting is supported as well as the time-proximity
      * function sort used by {@link SRequest#timeProximityDeduplication}.
      * @param sortElement a single sort element.
-     * @return a comparator for the sort element.
+     * @return the sort clause for the sort element.
      */
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private static Comparator<SolrDocument> getSingleComparator(String sortElement) {
+    private static SortClause getSortClause(String sortElement) {
         // See org.apache.solr.search.SortSpecParsing#parseSortSpecImpl for proper parsing (requires schema)
 
         // iso_date asc
         Matcher fieldMatcher = SORT_FIELD_PATTERN.matcher(sortElement);
         if (fieldMatcher.matches()) {
-            final String field = fieldMatcher.group(1);
             int dir = "asc".equals(fieldMatcher.group(2)) ? 1 : -1;
-            return (doc1, doc2) -> {
-                Object o1 = doc1.getFieldValue(field);
-                Object o2 = doc2.getFieldValue(field);
-                if (!(o1 instanceof Comparable) || !(o2 instanceof Comparable)) { // This also checks for null
-                    return 0;
-                }
-                return dir*((Comparable)o1).compareTo(o2);
-            };
+            return new SortClause(fieldMatcher.group(1), false, 0, dir);
         }
 
         // abs(sub(ms(2014-01-03T11:56:58Z), crawl_date)) asc
@@ -243,17 +658,9 @@ public class SolrStreamShard {
             String origoS = proximityMatcher.group(1);
             String field = proximityMatcher.group(2);
             int dir = "asc".equals(proximityMatcher.group(3)) ? 1 : -1;
-            final long origoEpoch = Instant.from(DateTimeFormatter.ISO_INSTANT.parse(origoS)).getEpochSecond();
-            return (doc1, doc2) -> {
-                Object o1 = doc1.getFieldValue(field);
-                Object o2 = doc2.getFieldValue(field);
-                if (!(o1 instanceof Date) || !(o2 instanceof Date)) { // This also checks for null
-                    return 0;
-                }
-                Long timeDist1 = Math.abs(origoEpoch-((Date)o1).getTime());
-                Long timeDist2 = Math.abs(origoEpoch-((Date)o2).getTime());
-                return dir*timeDist1.compareTo(timeDist2);
-            };
+            // ms(...) in Solr is milliseconds, which Date.getTime() also is
+            long origoMS = Instant.from(DateTimeFormatter.ISO_INSTANT.parse(origoS)).toEpochMilli();
+            return new SortClause(field, true, origoMS, dir);
         }
 
         throw new UnsupportedOperationException("Unable to recognize sort clause '" + sortElement + "'");
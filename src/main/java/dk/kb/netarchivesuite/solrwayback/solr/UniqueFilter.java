@@ -14,6 +14,7 @@
  */
 package dk.kb.netarchivesuite.solrwayback.solr;
 
+import dk.kb.netarchivesuite.solrwayback.util.SpillingLongSet;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import org.apache.solr.common.SolrDocument;
@@ -29,19 +30,35 @@ import java.util.stream.Collectors;
 
 /**
  * Acts as a uniqueness filter for a {@code Stream<SolrDocument>}, using the content from given fields as unique values.
- * This filter holds values for all unique encountered documents in memory and thus does not scale indefinitely.
- * When constructed, the maximum number of unique values to track is specified. If this limit is reached, an exception
- * is thrown.
+ * <p>
+ * For {@link MODE#values} and {@link MODE#hash32} this filter holds values for all unique encountered documents in
+ * memory and thus does not scale indefinitely. When constructed, the maximum number of unique values to track is
+ * specified. If this limit is reached, an exception is thrown.
+ * <p>
+ * For {@link MODE#hash64}, the maximum number of unique values is the number of hashes to hold in heap. Beyond that,
+ * hashes are spilled to temporary files (see {@link SpillingLongSet}) and no exception is thrown.
  * <p>
  * This implementation is thread safe.
  */
 public class UniqueFilter implements Predicate<SolrDocument> {
     private static final Logger log = LoggerFactory.getLogger(UniqueFilter.class);
 
+    /**
+     * values: The values themselves are tracked. Exact but memory heavy.<br>
+     * hash32: {@code String.hashCode()} of the values is tracked. Compact, but collisions are likely when the
+     *         number of unique values reaches the hundreds of thousands.<br>
+     * hash64: A 64 bit hash of the values is tracked, with spilling to storage. Collisions are extremely unlikely
+     *         (about 1 in 3,700 for 100 million unique values) and the number of unique values is only limited by
+     *         storage.
+     */
+    public enum MODE { values, hash32, hash64 }
+
     private final List<String> fields;
+    private final MODE mode;
     private final int maxUnique;
     private final Set<String> uniqueValues;
     private final IntSet uniqueHashes;
+    private final SpillingLongSet uniqueLongHashes;
 
     public long tests = 0;
     public long duplicates = 0;
@@ -67,18 +84,82 @@ public class UniqueFilter implements Predicate<SolrDocument> {
      * @param fields the fields to use for uniqueness tracking.
      */
     public UniqueFilter(boolean useHashing, int maxElements, List<String> fields) {
+        this(useHashing ? MODE.hash32 : MODE.values, maxElements, fields);
+    }
+
+    /**
+     * @param mode how to track uniqueness. {@link MODE#hash64} is recommended for large amounts of values.
+     * @param maxUnique for {@link MODE#values} and {@link MODE#hash32}, the maximum number of unique elements
+     *                  before an exception is thrown. For {@link MODE#hash64}, the maximum number of hashes to hold
+     *                  in heap before spilling to storage.
+     * @param fields the fields to use for uniqueness tracking.
+     */
+    public UniqueFilter(MODE mode, int maxUnique, String... fields) {
+        this(mode, maxUnique, Arrays.asList(fields));
+    }
+
+    /**
+     * @param mode how to track uniqueness. {@link MODE#hash64} is recommended for large amounts of values.
+     * @param maxUnique for {@link MODE#values} and {@link MODE#hash32}, the maximum number of unique elements
+     *                  before an exception is thrown. For {@link MODE#hash64}, the maximum number of hashes to hold
+     *                  in heap before spilling to storage.
+     * @param fields the fields to use for uniqueness tracking.
+     */
+    public UniqueFilter(MODE mode, int maxUnique, List<String> fields) {
         if (fields.isEmpty()) {
             throw new IllegalArgumentException("No fields provided");
         }
         this.fields = fields;
-        this.maxUnique = maxElements;
-        if (useHashing) {
-            uniqueHashes = new IntOpenHashSet();
-            uniqueValues = null;
-        } else {
-            uniqueHashes = null;
-            uniqueValues = new HashSet<>();
-        }
+        this.mode = mode;
+        this.maxUnique = maxUnique;
+        this.uniqueValues = mode == MODE.values ? new HashSet<>() : null;
+        this.uniqueHashes = mode == MODE.hash32 ? new IntOpenHashSet() : null;
+        this.uniqueLongHashes = mode == MODE.hash64 ? new SpillingLongSet(maxUnique) : null;
+    }
+
+    /**
+     * Copy constructor, see {@link #copy()}.
+     */
+    private UniqueFilter(UniqueFilter other) {
+        this.fields = other.fields;
+        this.mode = other.mode;
+        this.maxUnique = other.maxUnique;
+        this.uniqueValues = other.uniqueValues == null ? null : new HashSet<>(other.uniqueValues);
+        this.uniqueHashes = other.uniqueHashes == null ? null : new IntOpenHashSet(other.uniqueHashes);
+        this.uniqueLongHashes = other.uniqueLongHashes == null ? null : other.uniqueLongHashes.copy();
+        this.tests = other.tests;
+        this.duplicates = other.duplicates;
+    }
+
+    /**
+     * Restore constructor, see {@link Snapshot#restore()}.
+     */
+    private UniqueFilter(Snapshot snapshot) {
+        this.fields = snapshot.fields;
+        this.mode = snapshot.mode;
+        this.maxUnique = snapshot.maxUnique;
+        this.uniqueValues = snapshot.values == null ? null : new HashSet<>(Arrays.asList(snapshot.values));
+        this.uniqueHashes = snapshot.hashes == null ? null : new IntOpenHashSet(snapshot.hashes);
+        this.uniqueLongHashes = snapshot.longHashes == null ? null : snapshot.longHashes.copy();
+        this.tests = snapshot.tests;
+        this.duplicates = snapshot.duplicates;
+    }
+
+    /**
+     * Create an independent copy of the filter, including all encountered values.
+     * @return a copy of this filter.
+     */
+    public synchronized UniqueFilter copy() {
+        return new UniqueFilter(this);
+    }
+
+    /**
+     * Capture the state of the filter in compact form. Used for checkpointing exports, where the state is held
+     * for a long time and might never be used.
+     * @return the state of the filter, which can be turned into a new filter with {@link Snapshot#restore()}.
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(this);
     }
 
     @Override
@@ -95,12 +176,22 @@ public class UniqueFilter implements Predicate<SolrDocument> {
     public synchronized boolean test(String fieldValue) {
         tests++;
         boolean ok;
-        if (uniqueValues != null) { // values
-            ok = uniqueValues.add(fieldValue);
-        } else {
-            ok = uniqueHashes.add(fieldValue.hashCode());
+        switch (mode) {
+            case values:
+                ok = uniqueValues.add(fieldValue);
+                break;
+            case hash32:
+                ok = uniqueHashes.add(fieldValue.hashCode());
+                break;
+            case hash64:
+                ok = uniqueLongHashes.add(hash64(fieldValue));
+                break;
+            default: throw new UnsupportedOperationException("The mode '" + mode + "' is unknown");
+        }
+        if (!ok) {
+            duplicates++;
         }
-        if (uniqueCount() > maxUnique) {
+        if (mode != MODE.hash64 && uniqueCount() > maxUnique) { // hash64 spills instead
             log.warn("Throwing ArrayIndexOutOfBoundsException as the unique limit of {} has been reached", maxUnique);
             throw new ArrayIndexOutOfBoundsException(
                     "The number of elements in the unique tracker exceeded the limit " + maxUnique +
@@ -109,6 +200,26 @@ public class UniqueFilter implements Predicate<SolrDocument> {
         return ok;
     }
 
+    /**
+     * 64 bit FNV-1a hash of the chars in the value, finalized with the 64 bit mixer from MurmurHash3 to spread the
+     * bits for the hash set.
+     * @param value any String.
+     * @return a 64 bit hash of the value.
+     */
+    static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0 ; i < value.length() ; i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
     /**
      * Construct the value used to check for uniqueness by concatenating the content from Solr fields.
      * The fields used are defined as {@link #fields} when constructing the {@code Uniquefilter}.
@@ -124,8 +235,20 @@ public class UniqueFilter implements Predicate<SolrDocument> {
     /**
      * @return the number of unique values encountered.
      */
-    public int uniqueCount() {
-        return uniqueValues != null ? uniqueValues.size() : uniqueHashes.size();
+    public long uniqueCount() {
+        switch (mode) {
+            case values: return uniqueValues.size();
+            case hash32: return uniqueHashes.size();
+            case hash64: return uniqueLongHashes.size();
+            default: throw new UnsupportedOperationException("The mode '" + mode + "' is unknown");
+        }
+    }
+
+    /**
+     * @return the uniqueness tracking mode.
+     */
+    public MODE getMode() {
+        return mode;
     }
 
 
@@ -142,4 +265,44 @@ public class UniqueFilter implements Predicate<SolrDocument> {
     public long duplicateCount() {
         return duplicates;
     }
+
+    /**
+     * Immutable state of a {@link UniqueFilter}. The encountered values are held in arrays instead of hash sets,
+     * which for {@link MODE#values} is a fraction of the memory as the Strings themselves are shared with the filter.
+     */
+    public static final class Snapshot {
+        private final List<String> fields;
+        private final MODE mode;
+        private final int maxUnique;
+        private final String[] values;
+        private final int[] hashes;
+        private final SpillingLongSet longHashes; // At most maxUnique values in heap
+        private final long tests;
+        private final long duplicates;
+
+        private Snapshot(UniqueFilter filter) {
+            fields = filter.fields;
+            mode = filter.mode;
+            maxUnique = filter.maxUnique;
+            values = filter.uniqueValues == null ? null : filter.uniqueValues.toArray(new String[0]);
+            hashes = filter.uniqueHashes == null ? null : filter.uniqueHashes.toIntArray();
+            longHashes = filter.uniqueLongHashes == null ? null : filter.uniqueLongHashes.copy();
+            tests = filter.tests;
+            duplicates = filter.duplicates;
+        }
+
+        /**
+         * @return a new filter with the state from the snapshot. The snapshot can be restored any number of times.
+         */
+        public UniqueFilter restore() {
+            return new UniqueFilter(this);
+        }
+
+        /**
+         * @return the number of unique values encountered by the filter when the snapshot was created.
+         */
+        public long uniqueCount() {
+            return values != null ? values.length : hashes != null ? hashes.length : longHashes.size();
+        }
+    }
 }
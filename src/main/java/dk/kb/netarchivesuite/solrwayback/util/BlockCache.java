@@ -0,0 +1,337 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache for remote (HTTP) WARC content, divided into fixed size blocks aligned to multiples of the block size.
+ * <p>
+ * Playback of a single page reads many records that are physically close together in a handful of WARCs. With
+ * block caching, neighbouring records and repeated views are served from memory instead of the remote server.
+ * <p>
+ * Blocks are held in a memory LRU bounded by bytes. If a spill folder is given, blocks evicted from memory are
+ * written to local storage, bounded by bytes with LRU eviction, and read from there before falling back to the
+ * remote server. The spill folder is cleared when the cache is created.
+ * <p>
+ * Concurrent requests for the same missing block might result in redundant remote requests. As WARCs are immutable,
+ * this does not affect correctness.
+ * <p>
+ * This implementation is thread safe.
+ * @see BlockCachedInputStream
+ */
+public class BlockCache {
+    private static final Logger log = LoggerFactory.getLogger(BlockCache.class);
+
+    private static final String SPILL_PREFIX = "block_";
+    // Attempts at getting a complete body for a Range Request
+    private static final int MAX_ATTEMPTS = 2;
+    private static BlockCache instance;
+    private static boolean instanceResolved = false;
+
+    private final int blockSize;
+    private final long maxMemoryBytes;
+    private final Path spillFolder;
+    private final long maxSpillBytes;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private final LinkedHashMap<String, Long> spilled = new LinkedHashMap<>(16, 0.75f, true); // key -> bytes
+    private long spillBytes = 0;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder spillHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder remoteRequests = new LongAdder();
+    private final LongAdder remoteBytes = new LongAdder();
+
+    /**
+     * @return the shared cache as configured with the {@code warc.file.resolver.source.http.cache.*} properties
+     *         or null if caching is disabled.
+     */
+    public static synchronized BlockCache getInstance() {
+        if (!instanceResolved) {
+            instanceResolved = true;
+            if (PropertiesLoader.WARC_SOURCE_HTTP_CACHE_BYTES > 0) {
+                instance = new BlockCache(
+                        PropertiesLoader.WARC_SOURCE_HTTP_CACHE_BLOCKSIZE, PropertiesLoader.WARC_SOURCE_HTTP_CACHE_BYTES,
+                        PropertiesLoader.WARC_SOURCE_HTTP_CACHE_SPILL_DIR.isEmpty() ? null :
+                                Paths.get(PropertiesLoader.WARC_SOURCE_HTTP_CACHE_SPILL_DIR),
+                        PropertiesLoader.WARC_SOURCE_HTTP_CACHE_SPILL_BYTES);
+                log.info("Created {}", instance);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param blockSize      the size of the blocks in bytes.
+     * @param maxMemoryBytes the maximum number of bytes to hold in memory.
+     * @param spillFolder    the folder for blocks evicted from memory. If null, evicted blocks are discarded.
+     * @param maxSpillBytes  the maximum number of bytes to hold in spillFolder.
+     */
+    public BlockCache(int blockSize, long maxMemoryBytes, Path spillFolder, long maxSpillBytes) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size must be positive but was " + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.spillFolder = spillFolder;
+        this.maxSpillBytes = maxSpillBytes;
+        if (spillFolder != null) {
+            prepareSpillFolder();
+        }
+    }
+
+    /**
+     * @return the size of the blocks in bytes.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Get the block with the given index from the resource at the given uri. On cache miss, the block and the
+     * following {@code readAhead} blocks are requested from the server in a single request and cached.
+     * @param uri        a HTTP or HTTPS URI.
+     * @param blockIndex the index of the block. The block starts at {@code blockIndex*blockSize}.
+     * @param readAhead  the number of blocks following the requested block to fetch on cache miss.
+     * @return the content of the block. This is shorter than the block size for the last block of the resource and
+     *         empty for blocks beyond the end of the resource. The array must not be modified by the caller.
+     *         Null if the server does not support HTTP Range Requests.
+     * @throws IOException if the block could not be retrieved, including if the server repeatedly delivered fewer
+     *                     bytes than stated in its Content-Range.
+     */
+    public byte[] getBlock(URI uri, long blockIndex, int readAhead) throws IOException {
+        String key = createKey(uri, blockIndex);
+        byte[] block = getCached(key);
+        if (block != null) {
+            return block;
+        }
+        misses.increment();
+        if (HTTPStorageClient.getRangeSupport(uri) == HTTPStorageClient.RANGES.unsupported) {
+            return null;
+        }
+
+        // Only read ahead until the first cached block
+        int blocks = 1;
+        synchronized (this) {
+            while (blocks <= readAhead && !memory.containsKey(createKey(uri, blockIndex + blocks))) {
+                blocks++;
+            }
+        }
+        long start = blockIndex * blockSize;
+        long end = start + (long) blocks*blockSize;
+        HTTPStorageClient.RangeResponse response;
+        byte[] content;
+        for (int attempt = 1 ; ; attempt++) {
+            response = HTTPStorageClient.get(uri, start, end);
+            try (InputStream body = response.getBody()) {
+                if (!response.isRanged()) {
+                    return null;
+                }
+                content = IOUtils.toByteArray(body);
+            }
+            remoteRequests.increment();
+            remoteBytes.add(content.length);
+            if (response.getEnd() == Long.MAX_VALUE || start + content.length >= response.getEnd()) {
+                break;
+            }
+            // The body ended before the Content-Range. Caching the short block would truncate the resource
+            if (attempt == MAX_ATTEMPTS) {
+                throw new IOException("Requested [" + start + ", " + end + ") from " + uri + " and got Content-Range " +
+                                      "ending at " + response.getEnd() + ", but only " + content.length +
+                                      " bytes were delivered in " + attempt + " attempts");
+            }
+            log.debug("Got {} bytes from {} but Content-Range ended at {}. Retrying",
+                      content.length, uri, response.getEnd());
+        }
+        // A block shorter than blockSize signals EOF, so it must only be cached if it is known to end at EOF
+        long resourceEnd = response.getLength() >= 0 ? response.getLength() :
+                response.getEnd() < end ? response.getEnd() : -1;
+
+        block = null;
+        for (int b = 0 ; b < blocks ; b++) {
+            int from = Math.min(content.length, b*blockSize);
+            int to = Math.min(content.length, from + blockSize);
+            if (to - from < blockSize && start + to != resourceEnd) {
+                if (b == 0) {
+                    throw new IOException("Requested [" + start + ", " + end + ") from " + uri + " and got " +
+                                          content.length + " bytes, which is neither a full block nor EOF at " +
+                                          resourceEnd);
+                }
+                break; // The server delivered less than requested. The rest is requested on demand
+            }
+            byte[] current = new byte[to-from];
+            System.arraycopy(content, from, current, 0, current.length);
+            if (b == 0) {
+                block = current;
+            }
+            if (current.length == 0) {
+                break; // Beyond EOF
+            }
+            put(createKey(uri, blockIndex + b), current);
+            if (current.length < blockSize) {
+                break; // EOF
+            }
+        }
+        if (response.getLength() == start + content.length && content.length % blockSize == 0) {
+            // EOF at a block boundary: Cache an empty block to avoid a remote request for detecting EOF
+            put(createKey(uri, response.getLength() / blockSize), new byte[0]);
+        }
+        return block;
+    }
+
+    private byte[] getCached(String key) {
+        synchronized (this) {
+            byte[] block = memory.get(key);
+            if (block != null) {
+                memoryHits.increment();
+                return block;
+            }
+            if (!spilled.containsKey(key)) {
+                return null;
+            }
+        }
+        try {
+            byte[] block = Files.readAllBytes(getSpillFile(key));
+            spillHits.increment();
+            put(key, block);
+            return block;
+        } catch (IOException e) {
+            log.warn("Unable to read spilled block '" + key + "'. Treating as cache miss", e);
+            synchronized (this) {
+                Long bytes = spilled.remove(key);
+                spillBytes -= bytes == null ? 0 : bytes;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Add the block to the memory cache, spilling evicted blocks.
+     */
+    private void put(String key, byte[] block) {
+        List<Map.Entry<String, byte[]>> evicted = new ArrayList<>();
+        synchronized (this) {
+            byte[] old = memory.put(key, block);
+            memoryBytes += block.length - (old == null ? 0 : old.length);
+            Iterator<Map.Entry<String, byte[]>> entries = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && entries.hasNext()) {
+                Map.Entry<String, byte[]> entry = entries.next();
+                entries.remove();
+                memoryBytes -= entry.getValue().length;
+                if (spillFolder != null && !spilled.containsKey(entry.getKey())) {
+                    evicted.add(entry);
+                }
+            }
+        }
+        for (Map.Entry<String, byte[]> entry: evicted) {
+            spill(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void spill(String key, byte[] block) {
+        try {
+            Files.write(getSpillFile(key), block);
+        } catch (IOException e) {
+            log.warn("Unable to spill block '" + key + "' to " + spillFolder, e);
+            return;
+        }
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            spilled.put(key, (long) block.length);
+            spillBytes += block.length;
+            Iterator<Map.Entry<String, Long>> entries = spilled.entrySet().iterator();
+            while (spillBytes > maxSpillBytes && entries.hasNext()) {
+                Map.Entry<String, Long> entry = entries.next();
+                entries.remove();
+                spillBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+            }
+        }
+        for (String evictedKey: evicted) {
+            try {
+                Files.deleteIfExists(getSpillFile(evictedKey));
+            } catch (IOException e) {
+                log.warn("Unable to delete spilled block '" + evictedKey + "'", e);
+            }
+        }
+    }
+
+    private void prepareSpillFolder() {
+        try {
+            Files.createDirectories(spillFolder);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(spillFolder, SPILL_PREFIX + "*")) {
+                for (Path file: files) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to prepare block cache spill folder " + spillFolder, e);
+        }
+    }
+
+    private Path getSpillFile(String key) {
+        return spillFolder.resolve(SPILL_PREFIX + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String createKey(URI uri, long blockIndex) {
+        return uri + "#" + blockIndex;
+    }
+
+    /**
+     * @return statistics for the cache.
+     */
+    public String getStats() {
+        long memoryHits = this.memoryHits.sum();
+        long spillHits = this.spillHits.sum();
+        long lookups = memoryHits + spillHits + misses.sum();
+        synchronized (this) {
+            return String.format(
+                    Locale.ROOT, "BlockCache(blockSize=%d, memory=%d/%d MB, spilled=%s, lookups=%d, " +
+                                 "memoryHits=%d, spillHits=%d, hitRatio=%.2f, remoteRequests=%d, remoteMB=%d)",
+                    blockSize, memoryBytes / 1048576, maxMemoryBytes / 1048576,
+                    spillFolder == null ? "disabled" : spillBytes / 1048576 + "/" + maxSpillBytes / 1048576 + " MB",
+                    lookups, memoryHits, spillHits, lookups == 0 ? 0.0 : (memoryHits + spillHits) * 1.0 / lookups,
+                    remoteRequests.sum(), remoteBytes.sum() / 1048576);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getStats();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+/**
+ * HTTP InputStream backed by a {@link BlockCache}. Skips are free and reads are served from cached blocks.
+ * <p>
+ * When reading sequentially, the number of blocks to read ahead on cache miss is doubled for each block, so that
+ * large records are fetched with few requests.
+ * <p>
+ * If the server does not support HTTP Range Requests, reading is delegated to a {@link SkippingHTTPInputStream}.
+ */
+public class BlockCachedInputStream extends InputStream {
+    private static final Logger log = LoggerFactory.getLogger(BlockCachedInputStream.class);
+
+    private static final int MAX_READ_AHEAD = 32;
+
+    private final URL url;
+    private final URI uri;
+    private final boolean fallbackToRead;
+    private final BlockCache cache;
+    private final int initialReadAhead;
+
+    private int readAhead;
+    private long position = 0;
+    private byte[] block = null;
+    private long blockIndex = -1;
+    private InputStream fallback = null;
+
+    /**
+     * @param url            a HTTP or HTTPS URL.
+     * @param fallbackToRead used if the server does not support Range Requests,
+     *                       see {@link SkippingHTTPInputStream#SkippingHTTPInputStream(URL, boolean)}.
+     * @param cache          the cache to use.
+     * @param readAhead      if true, the block following a missing block is fetched in the same request.
+     * @throws IOException if the stream could not be constructed.
+     */
+    public BlockCachedInputStream(URL url, boolean fallbackToRead, BlockCache cache, boolean readAhead)
+            throws IOException {
+        this.url = url;
+        try {
+            this.uri = url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Unable to convert URL to URI: " + url, e);
+        }
+        this.fallbackToRead = fallbackToRead;
+        this.cache = cache;
+        this.initialReadAhead = readAhead ? 1 : 0;
+        this.readAhead = initialReadAhead;
+    }
+
+    /**
+     * Ensure that {@link #block} contains {@link #position}.
+     * @return false if EOF has been reached.
+     */
+    private boolean ensureBlock() throws IOException {
+        long wanted = position / cache.getBlockSize();
+        if (wanted != blockIndex) {
+            boolean sequential = wanted == blockIndex + 1;
+            block = cache.getBlock(uri, wanted, readAhead);
+            blockIndex = wanted;
+            if (block == null) {
+                switchToFallback();
+                return true;
+            }
+            readAhead = sequential ? Math.min(MAX_READ_AHEAD, Math.max(1, readAhead*2)) : initialReadAhead;
+        }
+        return position - blockIndex * cache.getBlockSize() < block.length;
+    }
+
+    private void switchToFallback() throws IOException {
+        log.debug("Server does not support Range Requests. Switching to SkippingHTTPInputStream for {}", url);
+        fallback = new SkippingHTTPInputStream(url, fallbackToRead);
+        InputStreamUtils.skipFully(fallback, position);
+    }
+
+    /**
+     * @return the position in the resource, measured in bytes.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (fallback == null && !ensureBlock()) {
+            return -1;
+        }
+        if (fallback != null) {
+            return readFallback();
+        }
+        return 0xFF & block[(int) (position++ - blockIndex * cache.getBlockSize())];
+    }
+
+    private int readFallback() throws IOException {
+        int b = fallback.read();
+        if (b != -1) {
+            position++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (fallback == null && !ensureBlock()) {
+            return -1;
+        }
+        if (fallback != null) {
+            int read = fallback.read(b, off, len);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+        int blockOffset = (int) (position - blockIndex * cache.getBlockSize());
+        int read = Math.min(len, block.length - blockOffset);
+        System.arraycopy(block, blockOffset, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (fallback != null) {
+            long skipped = fallback.skip(n);
+            position += skipped;
+            return skipped;
+        }
+        position += n; // Lazy: Blocks are resolved on read
+        return n;
+    }
+
+    @Override
+    public int available() {
+        if (fallback != null || block == null || position / cache.getBlockSize() != blockIndex) {
+            return 0;
+        }
+        return (int) (block.length - (position - blockIndex * cache.getBlockSize()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        block = null;
+        if (fallback != null) {
+            fallback.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockCachedInputStream(url=" + url + ", position=" + position + ", fallback=" + (fallback != null) +
+               ")";
+    }
+}
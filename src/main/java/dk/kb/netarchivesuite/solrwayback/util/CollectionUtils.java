@@ -27,6 +27,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.PriorityQueue;
 import java.util.Spliterator;
@@ -37,8 +38,11 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -336,6 +340,188 @@ public class CollectionUtils {
         }
     }
 
+    /**
+     * Bounded single-producer/single-consumer ring buffer. Exactly one thread may call {@link #offer(Object)} and
+     * exactly one (other) thread may call {@link #poll()}. No locks are used: Visibility of the elements is ensured
+     * by ordered writes of the head and tail positions.
+     */
+    public static class RingBuffer<T> {
+        private final Object[] slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(0); // Next position to poll. Only written by the consumer
+        private final AtomicLong tail = new AtomicLong(0); // Next position to offer. Only written by the producer
+
+        /**
+         * @param capacity the minimum capacity of the buffer. This will be rounded up to the nearest power of 2.
+         */
+        public RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+            slots = new Object[size];
+            mask = size - 1;
+        }
+
+        /**
+         * Producer only.
+         * @param element the element to add to the buffer. Must not be null.
+         * @return true if the element was added, false if the buffer was full.
+         */
+        public boolean offer(T element) {
+            long t = tail.get();
+            if (t - head.get() == slots.length) {
+                return false;
+            }
+            slots[(int) (t & mask)] = element;
+            tail.lazySet(t + 1); // Publishes the slot write
+            return true;
+        }
+
+        /**
+         * Consumer only.
+         * @return the next element in the buffer or null if the buffer was empty.
+         */
+        @SuppressWarnings("unchecked")
+        public T poll() {
+            long h = head.get();
+            if (h == tail.get()) {
+                return null;
+            }
+            int index = (int) (h & mask);
+            T element = (T) slots[index];
+            slots[index] = null;
+            head.lazySet(h + 1); // Releases the slot for the producer
+            return element;
+        }
+
+        /**
+         * @return true if the buffer was empty at the time of the call.
+         */
+        public boolean isEmpty() {
+            return head.get() == tail.get();
+        }
+    }
+
+    /**
+     * Batch oriented version of {@link BufferingIterator}: The elements from {@code inner} are typically pages of
+     * documents. They are read ahead by a background thread and handed off through a {@link RingBuffer}, so that the
+     * synchronization cost is per batch instead of per element. Waiting is done by parking the threads, with the
+     * other thread unparking the waiting one on progress.
+     * <p>
+     * Note: Creating an instance of the {@code BatchBufferingIterator} will immediately result in
+     * background read-ahead, even though {@link Iterator#next()} has not been called.
+     */
+    public static class BatchBufferingIterator<B> implements Iterator<B> {
+        static long PARK_TIMEOUT_MS = 100;
+
+        private final AtomicBoolean continueIterating;
+        private final RingBuffer<B> buffer;
+        private volatile boolean innerIsEmpty = false;
+        private volatile Thread producer = null;
+        private volatile Thread consumer = null;
+        private B nextBatch = null;
+
+        /**
+         * Wrap the given {@code inner} {@link Iterator} and start a background pre-fetch of {@code bufferBatches}
+         * batches.
+         * @param inner         any iterator. Typically delivering pages of elements.
+         * @param executor      used for issuing background requests. This must be unbounded to avoid deadlocks!
+         * @param bufferBatches the maximum number of batches in the buffer.
+         * @param continueProcessing shared state for multiple iterators.
+         *                           Any failed operation on {@code inner} will result in this being set to false.
+         *                           If false, all state-sharing iterators should stop processing as soon as convenient.
+         */
+        public static <B> BatchBufferingIterator<B> of(
+                Iterator<B> inner, Executor executor, int bufferBatches, AtomicBoolean continueProcessing) {
+            return new BatchBufferingIterator<>(inner, executor, bufferBatches, continueProcessing);
+        }
+
+        /**
+         * Wrap the given {@code inner} {@link Iterator} and start a background pre-fetch of {@code bufferBatches}
+         * batches.
+         * @param inner         any iterator. Typically delivering pages of elements.
+         * @param executor      used for issuing background requests. This must be unbounded to avoid deadlocks!
+         * @param bufferBatches the maximum number of batches in the buffer.
+         * @param continueProcessing shared state for multiple iterators.
+         *                           Any failed operation on {@code inner} will result in this being set to false.
+         *                           If false, all state-sharing iterators should stop processing as soon as convenient.
+         */
+        public BatchBufferingIterator(
+                Iterator<B> inner, Executor executor, int bufferBatches, AtomicBoolean continueProcessing) {
+            this.continueIterating = continueProcessing;
+            buffer = new RingBuffer<>(bufferBatches);
+            executor.execute(() -> {
+                producer = Thread.currentThread();
+                try {
+                    while (continueProcessing.get()) {
+                        B next;
+                        try {
+                            if (!inner.hasNext()) {
+                                return;
+                            }
+                            // Typically a call that requires a remote request
+                            next = inner.next();
+                        } catch (Exception e) {
+                            log.warn("Exception while requesting next batch from inner. " +
+                                     "Signalling stop to all state sharing iterators", e);
+                            continueProcessing.set(false);
+                            throw e;
+                        }
+                        while (!buffer.offer(next)) {
+                            if (!continueProcessing.get()) {
+                                return;
+                            }
+                            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PARK_TIMEOUT_MS));
+                        }
+                        LockSupport.unpark(consumer);
+                    }
+                } finally {
+                    innerIsEmpty = true;
+                    producer = null;
+                    LockSupport.unpark(consumer);
+                }
+            });
+        }
+
+        /**
+         * Blocking call that sets {@link #nextBatch}. Setting {@code #nextBatch} to null signals no more batches.
+         */
+        private void ensureBatch() {
+            if (nextBatch != null) {
+                return;
+            }
+            consumer = Thread.currentThread();
+            while (continueIterating.get()) {
+                // innerIsEmpty must be read before polling to avoid missing a batch added just before the end
+                boolean ended = innerIsEmpty;
+                nextBatch = buffer.poll();
+                if (nextBatch != null) {
+                    LockSupport.unpark(producer);
+                    return;
+                }
+                if (ended) {
+                    return;
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PARK_TIMEOUT_MS));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            ensureBatch();
+            return nextBatch != null && continueIterating.get();
+        }
+
+        @Override
+        public B next() {
+            ensureBatch();
+            if (nextBatch == null) {
+                throw new IllegalStateException("next() called when hasNext() == false");
+            }
+            B result = nextBatch;
+            nextBatch = null;
+            return result;
+        }
+    }
+
     /**
      * Iterator wrapper that takes a source {@link Iterator} and a {@link Predicate} acting as a filter on the
      * iterator.
@@ -697,6 +883,200 @@ public class CollectionUtils {
         };
     }
 
+    /**
+     * A batch of elements with precomputed sort keys, used by {@link #mergeKeyedBatches(Collection, Comparator)}.
+     */
+    public static class KeyedBatch<T, K> {
+        final List<T> elements;
+        final Object[] keys;
+
+        /**
+         * Create a batch with a sort key for each element. Intended to be called by the producer of the batch, so
+         * that the key extraction is done outside of the merging thread.
+         * @param elements     the elements in the batch.
+         * @param keyExtractor produces the sort key for an element.
+         * @return a batch with the elements and their keys.
+         */
+        public static <T, K> KeyedBatch<T, K> of(List<T> elements, Function<T, K> keyExtractor) {
+            return new KeyedBatch<>(elements, elements.stream().map(keyExtractor).toArray());
+        }
+
+        /**
+         * @param elements the elements in the batch.
+         * @param keys     the sort keys for the elements, in the same order as the elements.
+         * @return a batch with the elements and their keys.
+         */
+        public static <T, K> KeyedBatch<T, K> of(List<T> elements, List<K> keys) {
+            if (elements.size() != keys.size()) {
+                throw new IllegalArgumentException(
+                        "There were " + elements.size() + " elements but " + keys.size() + " keys");
+            }
+            return new KeyedBatch<>(elements, keys.toArray());
+        }
+
+        private KeyedBatch(List<T> elements, Object[] keys) {
+            this.elements = elements;
+            this.keys = keys;
+        }
+
+        public int size() {
+            return elements.size();
+        }
+    }
+
+    /**
+     * Order based merge of {@code batchIterators}, delivering the elements from the batches. The keys in each
+     * {@link KeyedBatch} must be in {@code keyComparator} order, also across batches from the same iterator.
+     * <p>
+     * The merge uses a loser tree, which requires {@code log2(s)} comparisons of precomputed keys per element, where
+     * {@code s} is the number of iterators. Compared to {@link #mergeIterators(Collection, Comparator)} there is no
+     * re-heaping of iterator wrappers and the potentially costly extraction of values for comparison is done only
+     * once per element.
+     * @param batchIterators 0 or more iterators of batches. Empty batches are allowed.
+     * @param keyComparator  a comparator matching the order of the keys.
+     * @return an iterator delivering all elements in all batches in key order.
+     * @param <T> any class.
+     * @param <K> the sort key class.
+     */
+    public static <T, K> Iterator<T> mergeKeyedBatches(
+            Collection<? extends Iterator<KeyedBatch<T, K>>> batchIterators, Comparator<K> keyComparator) {
+        return mergeKeyedBatches(batchIterators, keyComparator, null);
+    }
+
+    /**
+     * Order based merge of {@code batchIterators} as {@link #mergeKeyedBatches(Collection, Comparator)}, optionally
+     * skipping elements with keys that are duplicates of the key for the previously delivered element.
+     * @param batchIterators 0 or more iterators of batches. Empty batches are allowed.
+     * @param keyComparator  a comparator matching the order of the keys.
+     * @param isDuplicate    called with the key for the previously delivered element and the key for the next
+     *                       element. If true, the next element is skipped. If null, no elements are skipped.
+     * @return an iterator delivering the elements in all batches in key order.
+     * @param <T> any class.
+     * @param <K> the sort key class.
+     */
+    public static <T, K> Iterator<T> mergeKeyedBatches(
+            Collection<? extends Iterator<KeyedBatch<T, K>>> batchIterators, Comparator<K> keyComparator,
+            BiPredicate<K, K> isDuplicate) {
+        return new LoserTreeMerger<>(new ArrayList<>(batchIterators), keyComparator, isDuplicate);
+    }
+
+    /**
+     * Loser tree for {@link #mergeKeyedBatches(Collection, Comparator)}. Internal nodes {@code 1..k-1} hold the
+     * losers of the matches and node {@code 0} holds the overall winner. Leaf {@code s} is at position
+     * {@code s+k}. During construction, index {@code k} is used as a sentinel that wins all matches.
+     */
+    private static class LoserTreeMerger<T, K> implements Iterator<T> {
+        private final List<? extends Iterator<KeyedBatch<T, K>>> sources;
+        private final Comparator<K> keyComparator;
+        private final BiPredicate<K, K> isDuplicate;
+        private final int k;
+        private final int[] tree;
+        private final KeyedBatch<T, K>[] batches; // null means depleted
+        private final int[] positions;
+        private K lastKey = null; // Only used with isDuplicate
+        private T nextElement = null;
+        private boolean hasNextElement = false;
+
+        @SuppressWarnings("unchecked")
+        LoserTreeMerger(List<? extends Iterator<KeyedBatch<T, K>>> sources, Comparator<K> keyComparator,
+                        BiPredicate<K, K> isDuplicate) {
+            this.sources = sources;
+            this.keyComparator = keyComparator;
+            this.isDuplicate = isDuplicate;
+            k = sources.size();
+            tree = new int[Math.max(1, k)];
+            batches = new KeyedBatch[k];
+            positions = new int[k];
+            for (int s = 0 ; s < k ; s++) {
+                fetchBatch(s);
+            }
+            Arrays.fill(tree, k);
+            for (int s = k-1 ; s >= 0 ; s--) {
+                adjust(s);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!hasNextElement && k > 0 && batches[tree[0]] != null) {
+                int winner = tree[0];
+                T element = batches[winner].elements.get(positions[winner]);
+                @SuppressWarnings("unchecked")
+                K key = (K) batches[winner].keys[positions[winner]];
+                if (++positions[winner] == batches[winner].size()) {
+                    fetchBatch(winner);
+                }
+                adjust(winner);
+                if (isDuplicate != null) {
+                    if (lastKey != null && isDuplicate.test(lastKey, key)) {
+                        continue;
+                    }
+                    lastKey = key;
+                }
+                nextElement = element;
+                hasNextElement = true;
+            }
+            return hasNextElement;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more elements");
+            }
+            T element = nextElement;
+            nextElement = null;
+            hasNextElement = false;
+            return element;
+        }
+
+        /**
+         * Replace the depleted batch for the given source with the next non-empty one, or null if there are none.
+         */
+        private void fetchBatch(int source) {
+            batches[source] = null;
+            positions[source] = 0;
+            Iterator<KeyedBatch<T, K>> iterator = sources.get(source);
+            while (iterator.hasNext()) {
+                KeyedBatch<T, K> batch = iterator.next();
+                if (batch.size() > 0) {
+                    batches[source] = batch;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Play the matches from the leaf for the given source to the root.
+         */
+        private void adjust(int source) {
+            int winner = source;
+            for (int node = (source + k) >> 1 ; node > 0 ; node >>= 1) {
+                if (wins(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        /**
+         * @return true if source {@code a} should be delivered before source {@code b}.
+         */
+        @SuppressWarnings("unchecked")
+        private boolean wins(int a, int b) {
+            if (a == k || b == k) { // Sentinels win
+                return a == k;
+            }
+            if (batches[a] == null || batches[b] == null) { // Depleted sources lose
+                return batches[b] == null && batches[a] != null;
+            }
+            int c = keyComparator.compare((K) batches[a].keys[positions[a]], (K) batches[b].keys[positions[b]]);
+            return c < 0 || (c == 0 && a < b);
+        }
+    }
+
     /**
      * Special purpose Iterator used by {@link #mergeIteratorsBuffered(Collection, Comparator, Executor, Semaphore, int)}
      * for signalling cancellation in case of early iterator termination.
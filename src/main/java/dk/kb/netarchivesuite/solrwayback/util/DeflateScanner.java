@@ -0,0 +1,417 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses gzip data (RFC 1952 framing around RFC 1951 deflate) and reports gzip members and the bit positions
+ * of deflate block boundaries.
+ * <p>
+ * {@link java.util.zip.Inflater} does not expose block boundaries, which are needed for starting decompression in
+ * the middle of a deflate stream. This class is a plain decoder that only keeps the last 32KB of output, as needed
+ * for back references and for checkpoint dictionaries. It is used for building a {@link GzipIndex} and is not
+ * intended for delivering content.
+ * <p>
+ * This implementation is not thread safe.
+ */
+class DeflateScanner {
+    private static final Logger log = LoggerFactory.getLogger(DeflateScanner.class);
+
+    static final int WINDOW_SIZE = 32768;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195,
+            227, 258};
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073,
+            4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+    static {
+        int[] lengths = new int[288];
+        for (int i = 0 ; i < 288 ; i++) {
+            lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        FIXED_LITERALS = new Huffman(lengths, 0, 288);
+        int[] distances = new int[30];
+        Arrays.fill(distances, 5);
+        FIXED_DISTANCES = new Huffman(distances, 0, 30);
+    }
+
+    /**
+     * Receives structural events during {@link #scan(Listener)}.
+     */
+    interface Listener {
+        /**
+         * Called at the start of each gzip member.
+         * @param compressedPosition   the position of the member header in the compressed data.
+         * @param uncompressedPosition the position in the uncompressed data.
+         */
+        void member(long compressedPosition, long uncompressedPosition) throws IOException;
+
+        /**
+         * Called at each deflate block boundary inside a member, except after the final block.
+         * {@link #getWindow()} returns the dictionary needed for decompressing from the boundary.
+         * @param bitPosition          the position of the next block header in the compressed data, measured in bits.
+         * @param uncompressedPosition the position in the uncompressed data.
+         */
+        void blockBoundary(long bitPosition, long uncompressedPosition) throws IOException;
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[65536];
+    private int bufferPos = 0;
+    private int bufferLength = 0;
+    private long bufferStart = 0; // Position of buffer[0] in the compressed data
+    private long bits = 0;
+    private int bitCount = 0;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long output = 0;
+    private long memberOutputStart = 0;
+
+    /**
+     * @param in gzip compressed data. Closing is the responsibility of the caller.
+     */
+    DeflateScanner(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Decompress all gzip members in the input. Data following the last member, that does not start with the gzip
+     * magic bytes, is ignored.
+     * @param listener receives members and block boundaries.
+     * @return the number of uncompressed bytes.
+     * @throws IOException if the input could not be read or was not valid gzip data.
+     */
+    long scan(Listener listener) throws IOException {
+        boolean first = true;
+        while (true) {
+            alignToByte();
+            long memberStart = getBitPosition() >>> 3;
+            int id1 = readAlignedByte();
+            if (id1 == -1 && !first) {
+                break;
+            }
+            int id2 = readAlignedByte();
+            if (id1 != 0x1f || id2 != 0x8b) {
+                if (first) {
+                    throw new ZipException("Not in GZIP format");
+                }
+                log.debug("Ignoring non-gzip data at position {}", memberStart);
+                break;
+            }
+            readHeader();
+            listener.member(memberStart, output);
+            memberOutputStart = output;
+
+            boolean last;
+            do {
+                last = readBits(1) == 1;
+                int type = readBits(2);
+                switch (type) {
+                    case 0:
+                        stored();
+                        break;
+                    case 1:
+                        codes(FIXED_LITERALS, FIXED_DISTANCES);
+                        break;
+                    case 2:
+                        dynamic();
+                        break;
+                    default:
+                        throw new ZipException("Invalid deflate block type 3 at bit " + getBitPosition());
+                }
+                if (!last) {
+                    listener.blockBoundary(getBitPosition(), output);
+                }
+            } while (!last);
+
+            alignToByte();
+            for (int i = 0 ; i < 8 ; i++) { // CRC32 and ISIZE
+                if (readAlignedByte() == -1) {
+                    throw new EOFException("Unexpected end of gzip trailer");
+                }
+            }
+            first = false;
+        }
+        return output;
+    }
+
+    /**
+     * @return the last 32KB (or less at the start of a member) of uncompressed data in the current member.
+     */
+    byte[] getWindow() {
+        int length = (int) Math.min(WINDOW_SIZE, output - memberOutputStart);
+        byte[] result = new byte[length];
+        for (int i = 0 ; i < length ; i++) {
+            result[i] = window[(int) ((output - length + i) & WINDOW_MASK)];
+        }
+        return result;
+    }
+
+    /**
+     * @return the position in the compressed data, measured in bits.
+     */
+    long getBitPosition() {
+        return (bufferStart + bufferPos) * 8 - bitCount;
+    }
+
+    private void readHeader() throws IOException {
+        int method = requireAlignedByte();
+        if (method != 8) {
+            throw new ZipException("Unsupported compression method " + method);
+        }
+        int flags = requireAlignedByte();
+        for (int i = 0 ; i < 6 ; i++) { // MTIME, XFL, OS
+            requireAlignedByte();
+        }
+        if ((flags & 4) != 0) { // FEXTRA
+            int length = requireAlignedByte() | (requireAlignedByte() << 8);
+            for (int i = 0 ; i < length ; i++) {
+                requireAlignedByte();
+            }
+        }
+        if ((flags & 8) != 0) { // FNAME
+            while (requireAlignedByte() != 0);
+        }
+        if ((flags & 16) != 0) { // FCOMMENT
+            while (requireAlignedByte() != 0);
+        }
+        if ((flags & 2) != 0) { // FHCRC
+            requireAlignedByte();
+            requireAlignedByte();
+        }
+    }
+
+    private void stored() throws IOException {
+        alignToByte();
+        int length = requireAlignedByte() | (requireAlignedByte() << 8);
+        int nlength = requireAlignedByte() | (requireAlignedByte() << 8);
+        if (length != (~nlength & 0xFFFF)) {
+            throw new ZipException("Invalid stored block length at bit " + getBitPosition());
+        }
+        for (int i = 0 ; i < length ; i++) {
+            window[(int) (output++ & WINDOW_MASK)] = (byte) requireAlignedByte();
+        }
+    }
+
+    private void dynamic() throws IOException {
+        int literalCount = readBits(5) + 257;
+        int distanceCount = readBits(5) + 1;
+        int codeLengthCount = readBits(4) + 4;
+        int[] codeLengthLengths = new int[19];
+        for (int i = 0 ; i < codeLengthCount ; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = readBits(3);
+        }
+        Huffman codeLengths = new Huffman(codeLengthLengths, 0, 19);
+
+        int[] lengths = new int[literalCount + distanceCount];
+        int index = 0;
+        while (index < lengths.length) {
+            int symbol = decode(codeLengths);
+            if (symbol < 16) {
+                lengths[index++] = symbol;
+                continue;
+            }
+            int repeat;
+            int value = 0;
+            if (symbol == 16) {
+                if (index == 0) {
+                    throw new ZipException("Repeat of non-existing code length at bit " + getBitPosition());
+                }
+                value = lengths[index-1];
+                repeat = 3 + readBits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + readBits(3);
+            } else {
+                repeat = 11 + readBits(7);
+            }
+            if (index + repeat > lengths.length) {
+                throw new ZipException("Too many code lengths at bit " + getBitPosition());
+            }
+            while (repeat-- > 0) {
+                lengths[index++] = value;
+            }
+        }
+        codes(new Huffman(lengths, 0, literalCount), new Huffman(lengths, literalCount, distanceCount));
+    }
+
+    private void codes(Huffman literals, Huffman distances) throws IOException {
+        while (true) {
+            int symbol = decode(literals);
+            if (symbol < 256) {
+                window[(int) (output++ & WINDOW_MASK)] = (byte) symbol;
+            } else if (symbol == 256) {
+                return;
+            } else {
+                symbol -= 257;
+                if (symbol >= 29) {
+                    throw new ZipException("Invalid length symbol at bit " + getBitPosition());
+                }
+                int length = LENGTH_BASE[symbol] + readBits(LENGTH_EXTRA[symbol]);
+                int distanceSymbol = decode(distances);
+                if (distanceSymbol >= 30) {
+                    throw new ZipException("Invalid distance symbol at bit " + getBitPosition());
+                }
+                int distance = DISTANCE_BASE[distanceSymbol] + readBits(DISTANCE_EXTRA[distanceSymbol]);
+                if (distance > output - memberOutputStart) {
+                    throw new ZipException("Distance " + distance + " too far back at bit " + getBitPosition());
+                }
+                for (int i = 0 ; i < length ; i++) {
+                    window[(int) (output & WINDOW_MASK)] = window[(int) ((output - distance) & WINDOW_MASK)];
+                    output++;
+                }
+            }
+        }
+    }
+
+    private int decode(Huffman huffman) throws IOException {
+        fillBits(huffman.maxBits);
+        int entry = huffman.table[(int) (bits & ((1 << huffman.maxBits) - 1))];
+        int length = entry & 15;
+        if (length == 0) {
+            throw new ZipException("Invalid Huffman code at bit " + getBitPosition());
+        }
+        if (length > bitCount) {
+            throw new EOFException("Unexpected end of deflate data");
+        }
+        bits >>>= length;
+        bitCount -= length;
+        return entry >>> 4;
+    }
+
+    /**
+     * Ensure that at least {@code count} bits are available, unless the input is depleted.
+     */
+    private void fillBits(int count) throws IOException {
+        while (bitCount < count) {
+            int b = nextByte();
+            if (b == -1) {
+                return;
+            }
+            bits |= (long) b << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    private int readBits(int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        fillBits(count);
+        if (bitCount < count) {
+            throw new EOFException("Unexpected end of deflate data");
+        }
+        int value = (int) (bits & ((1L << count) - 1));
+        bits >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    private void alignToByte() {
+        int drop = bitCount & 7;
+        bits >>>= drop;
+        bitCount -= drop;
+    }
+
+    /**
+     * @return the next byte or -1 if EOF. Must only be called when aligned to a byte.
+     */
+    private int readAlignedByte() throws IOException {
+        if (bitCount >= 8) {
+            int value = (int) (bits & 0xFF);
+            bits >>>= 8;
+            bitCount -= 8;
+            return value;
+        }
+        return nextByte();
+    }
+
+    private int requireAlignedByte() throws IOException {
+        int b = readAlignedByte();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of gzip data");
+        }
+        return b;
+    }
+
+    private int nextByte() throws IOException {
+        while (bufferPos == bufferLength) {
+            bufferStart += bufferLength;
+            bufferPos = 0;
+            bufferLength = in.read(buffer);
+            if (bufferLength == -1) {
+                bufferLength = 0;
+                return -1;
+            }
+        }
+        return buffer[bufferPos++] & 0xFF;
+    }
+
+    /**
+     * Canonical Huffman code as a lookup table indexed by the next {@link #maxBits} bits of input.
+     */
+    private static final class Huffman {
+        final int maxBits;
+        final short[] table; // (symbol << 4) | code length. 0 means invalid code
+
+        Huffman(int[] lengths, int offset, int count) {
+            int[] lengthCounts = new int[16];
+            int max = 1;
+            for (int i = 0 ; i < count ; i++) {
+                lengthCounts[lengths[offset + i]]++;
+                max = Math.max(max, lengths[offset + i]);
+            }
+            lengthCounts[0] = 0;
+            int[] nextCode = new int[16];
+            int code = 0;
+            for (int length = 1 ; length < 16 ; length++) {
+                code = (code + lengthCounts[length-1]) << 1;
+                nextCode[length] = code;
+            }
+
+            maxBits = max;
+            table = new short[1 << max];
+            for (int symbol = 0 ; symbol < count ; symbol++) {
+                int length = lengths[offset + symbol];
+                if (length == 0) {
+                    continue;
+                }
+                // Deflate stores Huffman codes starting with the most significant bit
+                int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+                for (int i = reversed ; i < table.length ; i += 1 << length) {
+                    table[i] = (short) ((symbol << 4) | length);
+                }
+            }
+        }
+    }
+}
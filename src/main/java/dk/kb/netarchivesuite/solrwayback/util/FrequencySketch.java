@@ -0,0 +1,107 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+/**
+ * Approximate access frequency for keys, used for TinyLFU cache admission: A new entry is only admitted to a full
+ * cache if it has been requested more often than the entry it would evict. This keeps keys that are requested
+ * once from pushing out keys that are requested often.
+ * <p>
+ * The frequencies are held in a Count-Min sketch with 4 bit counters, 16 counters to a long. Each key maps to
+ * 4 counters and the frequency is the smallest of those. When the number of increments reaches 10 times the
+ * number of longs, all counters are halved, so that the frequencies reflect recent use.
+ * <p>
+ * Memory use is 8 bytes per expected entry, rounded up to a power of 2.
+ * <p>
+ * This implementation is not thread safe.
+ * @see <a href="https://arxiv.org/abs/1512.00727">TinyLFU: A Highly Efficient Cache Admission Policy</a>
+ */
+public class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    public static final int MAX_FREQUENCY = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    /**
+     * @param expectedEntries the expected number of entries in the cache that uses the sketch.
+     */
+    public FrequencySketch(int expectedEntries) {
+        int length = Integer.highestOneBit(Math.max(16, Math.min(expectedEntries, 1 << 26)) - 1) << 1;
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+    /**
+     * Register an access to the key.
+     * @param key any Object with a well distributed hashCode.
+     */
+    public void increment(Object key) {
+        long hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0 ; i < SEEDS.length ; i++) {
+            long h = indexHash(hash, i);
+            int index = (int) h & tableMask;
+            int shift = (int) ((h >>> 40) & 15) << 2;
+            if (((table[index] >>> shift) & 15) < MAX_FREQUENCY) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @param key any Object with a well distributed hashCode.
+     * @return the approximate number of recent accesses to the key, capped at {@link #MAX_FREQUENCY}.
+     */
+    public int frequency(Object key) {
+        long hash = spread(key.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0 ; i < SEEDS.length ; i++) {
+            long h = indexHash(hash, i);
+            int count = (int) ((table[(int) h & tableMask] >>> (((int) ((h >>> 40) & 15)) << 2)) & 15);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Halve all counters.
+     */
+    private void reset() {
+        for (int i = 0 ; i < table.length ; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private static long spread(int hashCode) {
+        long h = hashCode * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static long indexHash(long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        return h + (h >>> 32);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses gzip data starting at a deflate block boundary inside a gzip member, using the native
+ * {@link Inflater}.
+ * <p>
+ * Block boundaries are not byte aligned, which the Inflater requires. The compressed input is therefore shifted
+ * by the bit offset of the boundary, so that the Inflater sees a raw deflate stream starting with the block.
+ * The preceding 32KB of uncompressed data is given to the Inflater as dictionary.
+ * <p>
+ * When the member ends, decompression continues with a {@link PooledGzipInputStream} from the start of the next
+ * member. The Inflater is taken from {@link InflaterPool} and returned when the stream is closed.
+ * @see GzipIndex
+ */
+class GzipCheckpointInputStream extends InputStream {
+    private static final int BUFFER_SIZE = InflaterPool.BUFFER_SIZE;
+
+    private final InputStream source;
+    private final int shift;
+    private final long nextMemberStart;
+    private InflaterPool.Entry entry = InflaterPool.acquire();
+    private final Inflater inflater = entry.inflater;
+
+    private long sourcePosition; // Position in the compressed data of the next byte from source
+    private final byte[] raw = entry.buffer;
+    private long rawStart = -1; // Position in the compressed data of raw[0]
+    private int rawLength = 0;
+    private final byte[] shifted;
+    private int pending; // The last byte from source, only used when shift != 0
+    private boolean sourceDepleted = false;
+    private InputStream continuation = null;
+    private boolean finished = false;
+
+    /**
+     * @param source          the compressed data, positioned at 0.
+     * @param bitPosition     the position of a deflate block boundary in the compressed data, measured in bits.
+     * @param window          the up to 32KB of uncompressed data preceding the boundary in the same member.
+     * @param nextMemberStart the position of the next gzip member in the compressed data, -1 if there are none.
+     * @throws IOException if the source could not be positioned.
+     */
+    GzipCheckpointInputStream(InputStream source, long bitPosition, byte[] window, long nextMemberStart)
+            throws IOException {
+        this.source = source;
+        this.shift = (int) (bitPosition & 7);
+        this.nextMemberStart = nextMemberStart;
+        this.sourcePosition = bitPosition >>> 3;
+        this.shifted = shift == 0 ? raw : new byte[BUFFER_SIZE];
+        InputStreamUtils.skipFully(source, sourcePosition);
+        if (shift != 0) {
+            pending = source.read();
+            if (pending == -1) {
+                throw new EOFException("Unexpected end of compressed data at position " + sourcePosition);
+            }
+            sourcePosition++;
+        }
+        if (window.length > 0) {
+            inflater.setDictionary(window);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (continuation == null) {
+            if (finished) {
+                return -1;
+            }
+            int read;
+            try {
+                read = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid deflate data: " + e.getMessage());
+            }
+            if (read > 0) {
+                return read;
+            }
+            if (inflater.finished()) {
+                continueWithNextMember();
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("Unexpected dictionary request from the Inflater");
+            } else if (inflater.needsInput() && !fill()) {
+                throw new EOFException("Unexpected end of compressed data at position " + sourcePosition);
+            }
+        }
+        return continuation.read(b, off, len);
+    }
+
+    /**
+     * Read from source and pass the bytes, shifted if needed, to the Inflater.
+     * @return false if source is depleted.
+     */
+    private boolean fill() throws IOException {
+        if (sourceDepleted) {
+            return false;
+        }
+        int read = source.read(raw, 0, BUFFER_SIZE);
+        if (read == -1) {
+            sourceDepleted = true;
+            if (shift == 0) {
+                return false;
+            }
+            shifted[0] = (byte) (pending >>> shift);
+            inflater.setInput(shifted, 0, 1);
+            return true;
+        }
+        rawStart = sourcePosition;
+        rawLength = read;
+        sourcePosition += read;
+        if (shift != 0) {
+            for (int i = 0 ; i < read ; i++) {
+                int current = raw[i] & 0xFF;
+                shifted[i] = (byte) ((pending >>> shift) | (current << (8 - shift)));
+                pending = current;
+            }
+        }
+        inflater.setInput(shifted, 0, read);
+        return true;
+    }
+
+    /**
+     * Called when the member containing the checkpoint has been fully decompressed.
+     */
+    private void continueWithNextMember() throws IOException {
+        if (nextMemberStart < 0) {
+            finished = true;
+            return;
+        }
+        InputStream next;
+        if (nextMemberStart >= sourcePosition) {
+            InputStreamUtils.skipFully(source, nextMemberStart - sourcePosition);
+            next = source;
+        } else if (rawStart >= 0 && nextMemberStart >= rawStart) {
+            int leftover = (int) (nextMemberStart - rawStart);
+            next = new SequenceInputStream(new ByteArrayInputStream(raw, leftover, rawLength - leftover), source);
+        } else {
+            throw new ZipException("The next gzip member at position " + nextMemberStart +
+                                   " has already been passed at position " + sourcePosition);
+        }
+        continuation = new PooledGzipInputStream(next);
+    }
+
+    @Override
+    public void close() throws IOException {
+        InflaterPool.release(entry); // raw is part of the entry, so it must not be released before close
+        entry = null;
+        if (continuation != null) {
+            continuation.close();
+        } else {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Random access into gzip compressed (W)ARCs that does not have a gzip member per record.
+ * <p>
+ * Standard {@code .warc.gz} files have a gzip member for each record and the offset from Solr points to the start of
+ * a member. Some tools compress the (W)ARC as a single gzip stream or put multiple records in each member. For those
+ * files the offset is the position in the uncompressed data and reaching a record requires decompressing everything
+ * before it.
+ * <p>
+ * The index holds the starts of all gzip members and checkpoints inside members for every {@code interval}
+ * uncompressed bytes. A checkpoint is the bit position of a deflate block boundary together with the preceding 32KB
+ * of uncompressed data, similar to zlib's zran example. Reaching a record costs at most {@code interval} bytes of
+ * decompression, independent of the size of the (W)ARC.
+ * <p>
+ * Indexes are stored as {@code <filename>.gzidx} next to the (W)ARC (for offline creation with {@link #main}) or in
+ * the folder stated by {@link PropertiesLoader#WARC_GZIP_INDEX_DIR}, where they are created on first use if
+ * {@link PropertiesLoader#WARC_GZIP_INDEX_LAZY} is true.
+ * <p>
+ * Before an index is created or the data are decompressed from the start, the start of the (W)ARC is probed for the
+ * standard layout with a gzip member per record. An offset that does not point to a member in such a (W)ARC is
+ * invalid and fails fast instead of triggering a scan of the full (W)ARC.
+ * <p>
+ * This implementation is thread safe.
+ */
+public class GzipIndex {
+    private static final Logger log = LoggerFactory.getLogger(GzipIndex.class);
+
+    public static final String INDEX_EXTENSION = ".gzidx";
+    private static final int MAGIC = 0x5357475A; // SWGZ
+    private static final int VERSION = 1;
+    // The windows take up most of the memory for a loaded index
+    private static final long CACHE_MAX_BYTES = 64*1024*1024L;
+    // A (W)ARC where this many members start within the first PROBE_BYTES uncompressed bytes has a member per record
+    private static final int PROBE_MEMBERS = 3;
+    private static final long PROBE_BYTES = 1024*1024L;
+
+    private static final LinkedHashMap<String, GzipIndex> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cacheBytes = 0;
+    // Never removed, so that all threads use the same lock for a given name. Only holds names that needed an index
+    private static final Map<String, Object> buildLocks = new ConcurrentHashMap<>();
+
+    private final long interval;
+    private final long uncompressedLength;
+    private final long[] memberCompressed;
+    private final long[] memberUncompressed;
+    private final long[] checkpointBits;
+    private final long[] checkpointUncompressed;
+    private final byte[][] windows;
+
+    private GzipIndex(long interval, long uncompressedLength, long[] memberCompressed, long[] memberUncompressed,
+                      long[] checkpointBits, long[] checkpointUncompressed, byte[][] windows) {
+        this.interval = interval;
+        this.uncompressedLength = uncompressedLength;
+        this.memberCompressed = memberCompressed;
+        this.memberUncompressed = memberUncompressed;
+        this.checkpointBits = checkpointBits;
+        this.checkpointUncompressed = checkpointUncompressed;
+        this.windows = windows;
+    }
+
+    /**
+     * Open a stream with uncompressed data from the given offset in gzip compressed data.
+     * <p>
+     * If the offset points to the start of a gzip member, which is the normal case for {@code .warc.gz}, the data
+     * are decompressed directly from there. Else the offset is treated as a position in the uncompressed data and
+     * a {@link GzipIndex} is used for locating it.
+     * @param name   the name of the source, typically a file path or an URL. Used for locating the index.
+     * @param source delivers the compressed data from position 0.
+     * @param offset the offset for a record as stored in Solr.
+     * @return a stream with uncompressed data, starting at the record. The caller must close the stream after use.
+     * @throws IOException if the data could not be read or if the offset does not point to a gzip member in
+     *                     data with a gzip member per record.
+     */
+    public static InputStream openDecompressed(String name, Supplier<InputStream> source, long offset)
+            throws IOException {
+        InputStream in = source.get();
+        try {
+            InputStreamUtils.skipFully(in, offset);
+            PushbackInputStream pb = new PushbackInputStream(in, 2);
+            byte[] magic = pb.readNBytes(2);
+            pb.unread(magic);
+            if (magic.length < 2 || (((magic[1] & 0xFF) << 8) | (magic[0] & 0xFF)) == GZIPInputStream.GZIP_MAGIC) {
+                return new PooledGzipInputStream(pb); // Standard case. Throws exception if magic is not complete
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        in.close();
+
+        log.debug("No gzip member at offset {} in '{}'. Using gzip index", offset, name);
+        GzipIndex index = getCached(name);
+        if (index == null && hasMemberPerRecord(source)) {
+            throw new IOException("No gzip member at offset " + offset + " in '" + name +
+                                  "', which has a gzip member per record. The offset is probably wrong");
+        }
+        if (index == null) {
+            index = getIndex(name, source);
+        }
+        if (index == null) {
+            log.warn("No gzip index available for '{}'. Decompressing {} bytes from the start to reach the record. " +
+                     "Consider creating a gzip index (see the property {})",
+                     name, offset, PropertiesLoader.WARC_GZIP_INDEX_LAZY_PROPERTY);
+            InputStream decompressed = new PooledGzipInputStream(source.get());
+            InputStreamUtils.skipFully(decompressed, offset);
+            return decompressed;
+        }
+        return index.open(source, offset);
+    }
+
+    /**
+     * Resolve the index for the given source from the in-memory cache, from storage or by building it.
+     * @return the index or null if it does not exist and lazy creation is disabled.
+     */
+    static GzipIndex getIndex(String name, Supplier<InputStream> source) throws IOException {
+        GzipIndex index = getCached(name);
+        if (index != null) {
+            return index;
+        }
+        synchronized (buildLocks.computeIfAbsent(name, key -> new Object())) {
+            index = getCached(name); // Another thread might have built it while we waited
+            if (index != null) {
+                return index;
+            }
+            Path sibling = getSiblingIndexFile(name);
+            Path stored = getIndexFolder().resolve(getFilename(name) + INDEX_EXTENSION);
+            for (Path candidate: new Path[]{sibling, stored}) {
+                if (candidate != null && Files.exists(candidate)) {
+                    try {
+                        index = load(candidate);
+                        break;
+                    } catch (IOException e) {
+                        log.warn("Unable to load gzip index '" + candidate + "'. Ignoring it", e);
+                    }
+                }
+            }
+            if (index == null && PropertiesLoader.WARC_GZIP_INDEX_LAZY) {
+                try (InputStream in = source.get()) {
+                    index = build(in, PropertiesLoader.WARC_GZIP_INDEX_INTERVAL);
+                }
+                log.info("Created gzip index for '{}': {}", name, index);
+                store(index, stored);
+            }
+            if (index != null) {
+                putCached(name, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Probe the start of the data for the standard layout with a gzip member per record: At least
+     * {@link #PROBE_MEMBERS} members starting within the first {@link #PROBE_BYTES} uncompressed bytes.
+     * @param source delivers the compressed data from position 0.
+     * @return true if the data has a member per record, false if it is a single gzip stream, has members spanning
+     *         multiple records or is so small that scanning it is cheap.
+     */
+    static boolean hasMemberPerRecord(Supplier<InputStream> source) throws IOException {
+        final int[] members = new int[1];
+        try (InputStream in = source.get()) {
+            new DeflateScanner(in).scan(new DeflateScanner.Listener() {
+                @Override
+                public void member(long compressedPosition, long uncompressedPosition) throws IOException {
+                    if (uncompressedPosition >= PROBE_BYTES) {
+                        throw new ProbeDone();
+                    }
+                    if (++members[0] >= PROBE_MEMBERS) {
+                        throw new ProbeDone();
+                    }
+                }
+
+                @Override
+                public void blockBoundary(long bitPosition, long uncompressedPosition) throws IOException {
+                    if (uncompressedPosition >= PROBE_BYTES) {
+                        throw new ProbeDone();
+                    }
+                }
+            });
+        } catch (ProbeDone e) {
+            // Expected: Enough has been seen
+        }
+        return members[0] >= PROBE_MEMBERS;
+    }
+
+    /**
+     * Stops the scan in {@link #hasMemberPerRecord(Supplier)}.
+     */
+    private static final class ProbeDone extends IOException {
+        ProbeDone() {
+            super("Probe done");
+        }
+    }
+
+    /**
+     * Open a stream with uncompressed data from the given position.
+     * @param source   delivers the compressed data from position 0.
+     * @param position the position in the uncompressed data.
+     * @return a stream with uncompressed data, starting at position.
+     * @throws IOException if the data could not be read.
+     */
+    public InputStream open(Supplier<InputStream> source, long position) throws IOException {
+        int member = lastAtOrBefore(memberUncompressed, position);
+        int checkpoint = lastAtOrBefore(checkpointUncompressed, position);
+        InputStream in = source.get();
+        InputStream decompressed;
+        long skip;
+        try {
+            if (checkpoint == -1 || (member != -1 && memberUncompressed[member] >= checkpointUncompressed[checkpoint])) {
+                InputStreamUtils.skipFully(in, memberCompressed[member]);
+                decompressed = new PooledGzipInputStream(in);
+                skip = position - memberUncompressed[member];
+            } else {
+                int nextMember = Arrays.binarySearch(memberCompressed, checkpointBits[checkpoint] >>> 3);
+                nextMember = nextMember < 0 ? -nextMember - 1 : nextMember + 1;
+                decompressed = new GzipCheckpointInputStream(
+                        in, checkpointBits[checkpoint], windows[checkpoint],
+                        nextMember < memberCompressed.length ? memberCompressed[nextMember] : -1);
+                skip = position - checkpointUncompressed[checkpoint];
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        try {
+            InputStreamUtils.skipFully(decompressed, skip);
+        } catch (IOException e) {
+            decompressed.close();
+            throw e;
+        }
+        return decompressed;
+    }
+
+    private static int lastAtOrBefore(long[] positions, long position) {
+        int index = Arrays.binarySearch(positions, position);
+        if (index >= 0) {
+            while (index + 1 < positions.length && positions[index + 1] == position) {
+                index++; // Empty members
+            }
+            return index;
+        }
+        return -index - 2;
+    }
+
+    /**
+     * Scan the gzip compressed data and create an index.
+     * @param in       gzip compressed data, positioned at 0.
+     * @param interval the minimum number of uncompressed bytes between checkpoints.
+     * @return an index for the data.
+     * @throws IOException if the data could not be read or was not valid gzip data.
+     */
+    public static GzipIndex build(InputStream in, long interval) throws IOException {
+        final LongArrayList memberCompressed = new LongArrayList();
+        final LongArrayList memberUncompressed = new LongArrayList();
+        final LongArrayList checkpointBits = new LongArrayList();
+        final LongArrayList checkpointUncompressed = new LongArrayList();
+        final List<byte[]> windows = new ArrayList<>();
+        final DeflateScanner scanner = new DeflateScanner(in);
+        final long[] last = new long[1]; // Uncompressed position for last member or checkpoint
+        long length = scanner.scan(new DeflateScanner.Listener() {
+            @Override
+            public void member(long compressedPosition, long uncompressedPosition) {
+                memberCompressed.add(compressedPosition);
+                memberUncompressed.add(uncompressedPosition);
+                last[0] = uncompressedPosition;
+            }
+
+            @Override
+            public void blockBoundary(long bitPosition, long uncompressedPosition) {
+                if (uncompressedPosition - last[0] >= interval) {
+                    checkpointBits.add(bitPosition);
+                    checkpointUncompressed.add(uncompressedPosition);
+                    windows.add(scanner.getWindow());
+                    last[0] = uncompressedPosition;
+                }
+            }
+        });
+        return new GzipIndex(interval, length, memberCompressed.toLongArray(), memberUncompressed.toLongArray(),
+                             checkpointBits.toLongArray(), checkpointUncompressed.toLongArray(),
+                             windows.toArray(new byte[0][]));
+    }
+
+    /**
+     * Store the index, using a temporary file and an atomic move. Failure is logged but otherwise ignored.
+     */
+    static void store(GzipIndex index, Path indexFile) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(indexFile.getParent());
+            // Unique name as other SolrWayback instances might store the same index at the same time
+            tmp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName() + ".", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+                index.write(out);
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to store gzip index '" + indexFile + "'", e);
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(interval);
+        out.writeLong(uncompressedLength);
+        out.writeInt(memberCompressed.length);
+        for (int i = 0 ; i < memberCompressed.length ; i++) {
+            out.writeLong(memberCompressed[i]);
+            out.writeLong(memberUncompressed[i]);
+        }
+        out.writeInt(checkpointBits.length);
+        for (int i = 0 ; i < checkpointBits.length ; i++) {
+            out.writeLong(checkpointBits[i]);
+            out.writeLong(checkpointUncompressed[i]);
+            out.writeInt(windows[i].length);
+            out.write(windows[i]);
+        }
+    }
+
+    /**
+     * @param indexFile an index stored with {@link #store(GzipIndex, Path)}.
+     * @return the loaded index.
+     * @throws IOException if the index could not be loaded.
+     */
+    public static GzipIndex load(Path indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile), 65536))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("The file '" + indexFile + "' is not a gzip index");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("The gzip index '" + indexFile + "' has version " + version +
+                                      " but only version " + VERSION + " is supported");
+            }
+            long interval = in.readLong();
+            long uncompressedLength = in.readLong();
+            long[] memberCompressed = new long[in.readInt()];
+            long[] memberUncompressed = new long[memberCompressed.length];
+            for (int i = 0 ; i < memberCompressed.length ; i++) {
+                memberCompressed[i] = in.readLong();
+                memberUncompressed[i] = in.readLong();
+            }
+            long[] checkpointBits = new long[in.readInt()];
+            long[] checkpointUncompressed = new long[checkpointBits.length];
+            byte[][] windows = new byte[checkpointBits.length][];
+            for (int i = 0 ; i < checkpointBits.length ; i++) {
+                checkpointBits[i] = in.readLong();
+                checkpointUncompressed[i] = in.readLong();
+                windows[i] = new byte[in.readInt()];
+                in.readFully(windows[i]);
+            }
+            return new GzipIndex(interval, uncompressedLength, memberCompressed, memberUncompressed,
+                                 checkpointBits, checkpointUncompressed, windows);
+        }
+    }
+
+    private static synchronized GzipIndex getCached(String name) {
+        return cache.get(name);
+    }
+
+    private static synchronized void putCached(String name, GzipIndex index) {
+        GzipIndex old = cache.put(name, index);
+        cacheBytes += index.getMemoryBytes() - (old == null ? 0 : old.getMemoryBytes());
+        Iterator<GzipIndex> entries = cache.values().iterator();
+        while (cacheBytes > CACHE_MAX_BYTES && cache.size() > 1 && entries.hasNext()) {
+            cacheBytes -= entries.next().getMemoryBytes();
+            entries.remove();
+        }
+    }
+
+    /**
+     * Clear the in-memory cache of indexes. Used for testing.
+     */
+    static synchronized void clearCache() {
+        cache.clear();
+        cacheBytes = 0;
+    }
+
+    private static Path getIndexFolder() {
+        return PropertiesLoader.WARC_GZIP_INDEX_DIR.isEmpty() ?
+                Paths.get(System.getProperty("java.io.tmpdir"), "solrwayback_gzipindex") :
+                Paths.get(PropertiesLoader.WARC_GZIP_INDEX_DIR);
+    }
+
+    /**
+     * @return {@code <name>.gzidx} if name is a local file, else null.
+     */
+    private static Path getSiblingIndexFile(String name) {
+        if (name.startsWith("http://") || name.startsWith("https://")) {
+            return null;
+        }
+        try {
+            return Paths.get(name + INDEX_EXTENSION);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String getFilename(String name) {
+        String filename = name.replaceAll("[?#].*", "");
+        return filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1);
+    }
+
+    /**
+     * @return the approximate heap usage of the index.
+     */
+    long getMemoryBytes() {
+        return memberCompressed.length * 16L + checkpointBits.length * (16L + DeflateScanner.WINDOW_SIZE);
+    }
+
+    /**
+     * @return the number of gzip members.
+     */
+    public int getMemberCount() {
+        return memberCompressed.length;
+    }
+
+    /**
+     * @return the number of checkpoints inside of gzip members.
+     */
+    public int getCheckpointCount() {
+        return checkpointBits.length;
+    }
+
+    /**
+     * @return the total number of uncompressed bytes.
+     */
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    @Override
+    public String toString() {
+        return "GzipIndex(members=" + memberCompressed.length + ", checkpoints=" + checkpointBits.length +
+               ", interval=" + interval + ", uncompressedLength=" + uncompressedLength + ")";
+    }
+
+    /**
+     * Create an index next to a local gzip compressed (W)ARC.
+     * @param args one or more gzip compressed (W)ARCs.
+     * @throws IOException if an index could not be created.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: GzipIndex <gzip compressed (W)ARC>...");
+            System.err.println("Creates <(W)ARC>" + INDEX_EXTENSION + " with checkpoints for every " +
+                               PropertiesLoader.WARC_GZIP_INDEX_INTERVAL + " uncompressed bytes");
+            System.exit(2);
+        }
+        for (String warc: args) {
+            long startTime = System.currentTimeMillis();
+            GzipIndex index;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(warc)), 65536)) {
+                index = build(in, PropertiesLoader.WARC_GZIP_INDEX_INTERVAL);
+            }
+            Path indexFile = Paths.get(warc + INDEX_EXTENSION);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(indexFile), 65536))) {
+                index.write(out);
+            }
+            System.out.println("Created " + indexFile + " in " + (System.currentTimeMillis() - startTime) / 1000 +
+                               " seconds: " + index);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Shared HTTP client for reading WARCs from HTTP servers, such as object stores.
+ * <p>
+ * Connections are pooled and kept alive between requests (HTTP/2 where the server supports it, else HTTP/1.1).
+ * Support for HTTP Range Requests is learned from the responses and cached per host, so no probing requests are
+ * needed. Request latency (time to response headers) is tracked per host, see {@link #getStats()}.
+ * <p>
+ * This class is thread safe.
+ * @see SkippingHTTPInputStream
+ */
+public class HTTPStorageClient {
+    private static final Logger log = LoggerFactory.getLogger(HTTPStorageClient.class);
+
+    public static final String USER_AGENT = "Java Client; SolrWayback";
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    /**
+     * Range Request support for a host.
+     */
+    public enum RANGES { unknown, supported, unsupported }
+
+    private static final HttpClient client = HttpClient.newBuilder().
+            version(HttpClient.Version.HTTP_2). // Falls back to HTTP/1.1
+            followRedirects(HttpClient.Redirect.NORMAL).
+            connectTimeout(CONNECT_TIMEOUT).
+            build();
+
+    private static final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    // bytes 0-1023/146515 or bytes 0-1023/*
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes +([0-9]+)-([0-9]+)/([0-9]+|\\*)");
+
+    /**
+     * Request the bytes from {@code start} to {@code end} (exclusive) from the given uri.
+     * <p>
+     * If the server does not support Range Requests, the response will contain the full resource from position 0,
+     * signalled with {@link RangeResponse#isRanged()} being false. The caller must close the returned body.
+     * @param uri   a HTTP or HTTPS URI.
+     * @param start the first byte to request.
+     * @param end   the byte after the last byte to request. {@code Long.MAX_VALUE} means the rest of the resource.
+     * @return the response, with the requested range if the server supports it.
+     * @throws FileNotFoundException if the server responded with 404 or 410.
+     * @throws IOException if the request failed.
+     */
+    public static RangeResponse get(URI uri, long start, long end) throws IOException {
+        if (start < 0 || end <= start) {
+            throw new IllegalArgumentException("Invalid range [" + start + ", " + end + ") for " + uri);
+        }
+        HostStats stats = getHostStats(uri);
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).
+                timeout(REQUEST_TIMEOUT).
+                header("User-Agent", USER_AGENT).
+                header("Accept", "*/*");
+        // https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Range
+        if (stats.ranges != RANGES.unsupported) {
+            request.header("Range", "bytes=" + start + "-" + (end == Long.MAX_VALUE ? "" : Long.toString(end-1)));
+        }
+
+        long startNS = System.nanoTime();
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            stats.failure();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + uri);
+        } catch (IOException e) {
+            stats.failure();
+            throw new IOException("Unable to request [" + start + ", " + end + ") from " + uri, e);
+        }
+        stats.request(System.nanoTime() - startNS,
+                      response.headers().firstValueAsLong("Content-Length").orElse(0));
+
+        switch (response.statusCode()) {
+            case 206: {
+                stats.ranges = RANGES.supported;
+                String contentRange = response.headers().firstValue("Content-Range").orElse("");
+                Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+                if (!matcher.matches() || Long.parseLong(matcher.group(1)) != start) {
+                    response.body().close();
+                    throw new IOException("Requested range [" + start + ", " + end + ") from " + uri +
+                                          " but got Content-Range '" + contentRange + "'");
+                }
+                return new RangeResponse(response.body(), true, start, Long.parseLong(matcher.group(2))+1,
+                                         "*".equals(matcher.group(3)) ? -1 : Long.parseLong(matcher.group(3)));
+            }
+            case 200: {
+                if (start > 0 || end != Long.MAX_VALUE) {
+                    if (stats.ranges != RANGES.unsupported) {
+                        log.info("The server for '{}' does not support HTTP Range Requests", uri);
+                    }
+                    stats.ranges = RANGES.unsupported;
+                }
+                long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+                return new RangeResponse(response.body(), false, 0, length == -1 ? Long.MAX_VALUE : length, length);
+            }
+            case 416: { // Range Not Satisfiable: start is at or beyond the end of the resource
+                response.body().close();
+                stats.ranges = RANGES.supported;
+                return new RangeResponse(new ByteArrayInputStream(new byte[0]), true, start, start, start);
+            }
+            case 404:
+            case 410:
+                response.body().close();
+                throw new FileNotFoundException("Got HTTP " + response.statusCode() + " requesting " + uri);
+            default:
+                response.body().close();
+                throw new IOException("Got HTTP " + response.statusCode() + " requesting [" + start + ", " + end +
+                                      ") from " + uri);
+        }
+    }
+
+    /**
+     * @param uri a HTTP or HTTPS URI.
+     * @return the cached Range Request support for the host in the uri.
+     */
+    public static RANGES getRangeSupport(URI uri) {
+        return getHostStats(uri).ranges;
+    }
+
+    /**
+     * Determine whether the server for the given uri supports Range Requests. If the support is not known for the
+     * host, a single byte is requested.
+     * @param uri a HTTP or HTTPS URI.
+     * @return true if the server supports HTTP Range Requests.
+     * @throws IOException if the support could not be determined.
+     */
+    public static boolean supportsRangeRequests(URI uri) throws IOException {
+        if (getRangeSupport(uri) == RANGES.unknown) {
+            get(uri, 0, 1).body.close();
+        }
+        return getRangeSupport(uri) == RANGES.supported;
+    }
+
+    /**
+     * @return per host statistics for requests.
+     */
+    public static String getStats() {
+        return "HTTPStorageClient(" + hosts.entrySet().stream().
+                map(entry -> entry.getKey() + ": " + entry.getValue()).
+                collect(Collectors.joining(", ")) + ")";
+    }
+
+    private static HostStats getHostStats(URI uri) {
+        return hosts.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(), host -> new HostStats());
+    }
+
+    /**
+     * The body of a response to a request from {@link #get(URI, long, long)}.
+     */
+    public static class RangeResponse {
+        private final InputStream body;
+        private final boolean ranged;
+        private final long start;
+        private final long end;
+        private final long length;
+
+        RangeResponse(InputStream body, boolean ranged, long start, long end, long length) {
+            this.body = body;
+            this.ranged = ranged;
+            this.start = start;
+            this.end = end;
+            this.length = length;
+        }
+
+        /**
+         * @return the content. Must be closed after use.
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * @return true if the server honoured the Range Request. If false, the body starts at position 0.
+         */
+        public boolean isRanged() {
+            return ranged;
+        }
+
+        /**
+         * @return the position in the resource of the first byte in the body.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the position in the resource after the last byte in the body. {@code Long.MAX_VALUE} if unknown.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the full length of the resource or -1 if unknown.
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+
+    private static class HostStats {
+        volatile RANGES ranges = RANGES.unknown;
+        final LongAdder requests = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder totalNS = new LongAdder();
+        final AtomicLong maxNS = new AtomicLong(0);
+
+        void request(long ns, long contentLength) {
+            requests.increment();
+            bytes.add(contentLength);
+            totalNS.add(ns);
+            maxNS.accumulateAndGet(ns, Math::max);
+        }
+
+        void failure() {
+            failures.increment();
+        }
+
+        @Override
+        public String toString() {
+            long requests = this.requests.sum();
+            return String.format(Locale.ROOT, "ranges=%s, requests=%d, failures=%d, MB=%d, " +
+                                              "avg latency=%.1f ms, max latency=%d ms",
+                                 ranges, requests, failures.sum(), bytes.sum() / 1048576,
+                                 requests == 0 ? 0.0 : totalNS.sum() / 1000000.0 / requests, maxNS.get() / 1000000);
+        }
+    }
+}
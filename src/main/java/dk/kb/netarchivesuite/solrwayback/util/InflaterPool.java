@@ -0,0 +1,86 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of raw (no zlib wrapper) {@link Inflater}s together with input buffers.
+ * <p>
+ * Creating an Inflater allocates native memory and the native memory is only freed when {@link Inflater#end()} is
+ * called or the Inflater is garbage collected. As every compressed record, and for records with
+ * {@code Content-Encoding: gzip} also the payload, gets its own Inflater, reusing them lowers both allocation
+ * overhead and native memory churn.
+ * <p>
+ * The pool is not thread local: A stream might be opened by one thread and read by another and a single thread
+ * can have multiple open streams, e.g. a gzip compressed payload inside a gzip compressed WARC record.
+ * <p>
+ * This implementation is thread safe.
+ */
+public class InflaterPool {
+    public static final int BUFFER_SIZE = 65536;
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final Queue<Entry> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger(0);
+
+    /**
+     * @return a reset raw Inflater and a buffer of {@link #BUFFER_SIZE} bytes. Call {@link #release(Entry)} when
+     *         it is no longer used.
+     */
+    public static Entry acquire() {
+        Entry entry = pool.poll();
+        if (entry == null) {
+            return new Entry();
+        }
+        pooled.decrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Reset the Inflater and return it to the pool. If the pool is full, the Inflater is ended.
+     * @param entry an entry from {@link #acquire()}. The caller must not use it after this call.
+     */
+    public static void release(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        if (pooled.incrementAndGet() > MAX_POOLED) {
+            pooled.decrementAndGet();
+            entry.inflater.end();
+            return;
+        }
+        entry.inflater.reset();
+        pool.offer(entry);
+    }
+
+    /**
+     * @return the number of idle Inflaters in the pool.
+     */
+    public static int size() {
+        return pooled.get();
+    }
+
+    /**
+     * A raw Inflater and an input buffer.
+     */
+    public static class Entry {
+        public final Inflater inflater = new Inflater(true);
+        public final byte[] buffer = new byte[BUFFER_SIZE];
+    }
+}
@@ -40,7 +40,7 @@ public class InputStreamUtils {
 
     if(header == GZIPInputStream.GZIP_MAGIC) {
      log.debug("GZIP stream detected");  
-      return new GZIPInputStream(pb);
+      return new PooledGzipInputStream(pb);
     } else {
         return pb;
     }
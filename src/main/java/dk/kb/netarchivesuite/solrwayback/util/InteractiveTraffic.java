@@ -0,0 +1,77 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+/**
+ * Keeps track of the number of interactive requests, such as searches and playback, that are being processed, so
+ * that background work such as export jobs can yield to them.
+ * <p>
+ * Requests are registered by {@code InteractiveTrafficFilter}.
+ * <p>
+ * This implementation is thread safe.
+ */
+public class InteractiveTraffic {
+    private static final Object lock = new Object();
+    private static int active = 0;
+
+    /**
+     * Register the start of an interactive request. Must be followed by {@link #end()}.
+     */
+    public static void begin() {
+        synchronized (lock) {
+            active++;
+        }
+    }
+
+    /**
+     * Register the end of an interactive request.
+     */
+    public static void end() {
+        synchronized (lock) {
+            if (--active <= 0) {
+                active = 0;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of interactive requests being processed.
+     */
+    public static int getActive() {
+        synchronized (lock) {
+            return active;
+        }
+    }
+
+    /**
+     * Wait until no interactive requests are being processed or until {@code maxWaitMS} has passed.
+     * @param maxWaitMS the maximum number of milliseconds to wait.
+     * @return the number of milliseconds waited.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    public static long awaitIdle(long maxWaitMS) throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        final long endTime = startTime + maxWaitMS;
+        synchronized (lock) {
+            long now = startTime;
+            while (active > 0 && now < endTime) {
+                lock.wait(endTime - now);
+                now = System.currentTimeMillis();
+            }
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+}
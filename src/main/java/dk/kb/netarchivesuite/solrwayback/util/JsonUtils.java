@@ -1,10 +1,14 @@
 package dk.kb.netarchivesuite.solrwayback.util;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -14,9 +18,10 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class JsonUtils {
+	static ObjectMapper mapper;
 	static ObjectWriter jsonWriter;
 	static {
-		ObjectMapper mapper = JsonMapper.builder().build();
+		mapper = JsonMapper.builder().build();
 		mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
 		jsonWriter = mapper.writer(new MinimalPrettyPrinter());
 	}
@@ -144,4 +149,19 @@ public class JsonUtils {
 			throw new RuntimeException("Unable to write Object of class " + o.getClass() + " as JSON", e);
 		}
 	}
+
+	/**
+	 * Create a generator for writing multiple JSON values directly to the given stream as UTF-8 bytes, using the same
+	 * configuration as {@link #toJSON(Object)}. No separator is written between root level values and the stream is
+	 * not closed when the generator is closed.
+	 * @param out the destination for the JSON.
+	 * @return a generator writing to out. Remember to call {@link JsonGenerator#flush()} after use.
+	 * @throws IOException if the generator could not be created.
+	 */
+	public static JsonGenerator createGenerator(OutputStream out) throws IOException {
+		JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		generator.setRootValueSeparator(null);
+		return generator;
+	}
 }
@@ -0,0 +1,302 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Drop-in replacement for {@link GZIPInputStream} that uses an {@link Inflater} and input buffer from
+ * {@link InflaterPool}, which are returned to the pool when the stream is closed.
+ * <p>
+ * Compared to GZIPInputStream, the input is read in blocks of {@link InflaterPool#BUFFER_SIZE} bytes instead of
+ * 512 bytes, so the source does not need to be wrapped in a BufferedInputStream and the number of calls to the
+ * native inflater is lowered. Decompression is done directly into the buffer given by the caller.
+ * <p>
+ * Errors and end of stream are handled as in GZIPInputStream: Invalid gzip data gives a {@link ZipException},
+ * truncated gzip data gives an {@link EOFException}, and concatenated gzip members are delivered as a single stream.
+ * <p>
+ * The stream must be closed after use for the Inflater to be returned to the pool. The stream can be closed from
+ * another Thread while a read is in progress, e.g. to abort a blocking read: The Inflater is then returned to the
+ * pool by the reading Thread when the read has finished.
+ */
+public class PooledGzipInputStream extends InputStream {
+    private static final int FHCRC    = 2;
+    private static final int FEXTRA   = 4;
+    private static final int FNAME    = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream source;
+    private InflaterPool.Entry entry; // Guarded by lock after construction
+    private final Inflater inflater;
+    private final byte[] buffer;
+    private int bufferPos = 0;   // Next byte in buffer that has not been given to the Inflater
+    private int bufferLimit = 0;
+    private final CRC32 crc = new CRC32();
+    private boolean eos = false;
+    private final Object lock = new Object();
+    private boolean closed = false; // Guarded by lock
+    private int activeReads = 0;    // Guarded by lock
+    private final byte[] single = new byte[1];
+
+    /**
+     * Read the gzip header from source and prepare for decompression.
+     * @param source gzip compressed data. This will be closed when the PooledGzipInputStream is closed.
+     * @throws ZipException if the data does not start with a valid gzip header.
+     * @throws IOException if the header could not be read.
+     */
+    public PooledGzipInputStream(InputStream source) throws IOException {
+        this.source = source;
+        entry = InflaterPool.acquire();
+        inflater = entry.inflater;
+        buffer = entry.buffer;
+        try {
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            InflaterPool.release(entry);
+            entry = null;
+            throw e;
+        }
+        passBufferToInflater();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            activeReads++;
+        }
+        try {
+            return inflate(b, off, len);
+        } finally {
+            synchronized (lock) {
+                if (--activeReads == 0 && closed) {
+                    releaseEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Only called from {@link #read(byte[], int, int)}, which ensures that {@link #entry} is not released
+     * while this is running.
+     */
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!eos) {
+            int read;
+            try {
+                read = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid ZLIB data format");
+            }
+            if (read > 0) {
+                crc.update(b, off, read);
+                return read;
+            }
+            if (inflater.finished() || inflater.needsDictionary()) {
+                eos = readTrailer();
+            } else if (inflater.needsInput()) {
+                fill();
+                passBufferToInflater();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative skip length");
+        }
+        synchronized (lock) {
+            ensureOpen();
+        }
+        byte[] skipBuffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return 0 after end of stream, else 1. Same as {@link GZIPInputStream#available()}.
+     */
+    @Override
+    public int available() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+        }
+        return eos ? 0 : 1;
+    }
+
+    /**
+     * Close the source and return the Inflater to the pool. If a read is in progress in another Thread, the
+     * Inflater is returned when that read has finished.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (activeReads == 0) {
+                releaseEntry();
+            }
+        }
+        source.close();
+    }
+
+    /**
+     * @return true if the Inflater has not been returned to the pool yet.
+     */
+    boolean holdsInflater() {
+        synchronized (lock) {
+            return entry != null;
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     */
+    private void releaseEntry() {
+        InflaterPool.release(entry);
+        entry = null;
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Verify the trailer for the current member and start the next member, if present.
+     * @return true if there are no more members.
+     */
+    private boolean readTrailer() throws IOException {
+        bufferPos = bufferLimit - inflater.getRemaining();
+        long expectedCRC = readInt();
+        long expectedSize = readInt();
+        if (expectedCRC != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        // Same logic as GZIPInputStream: Only attempt to read a new member if there is data available
+        if (bufferPos == bufferLimit && source.available() <= 0) {
+            return true;
+        }
+        try {
+            readHeader();
+        } catch (IOException e) {
+            return true; // Trailing garbage is ignored
+        }
+        inflater.reset();
+        passBufferToInflater();
+        return false;
+    }
+
+    private void readHeader() throws IOException {
+        crc.reset();
+        if (readHeaderByte() != 0x1F || readHeaderByte() != 0x8B) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readHeaderByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readHeaderByte();
+        for (int i = 0 ; i < 6 ; i++) { // MTIME, XFL and OS
+            readHeaderByte();
+        }
+        if ((flags & FEXTRA) != 0) {
+            int extraLength = readHeaderByte() | (readHeaderByte() << 8);
+            for (int i = 0 ; i < extraLength ; i++) {
+                readHeaderByte();
+            }
+        }
+        if ((flags & FNAME) != 0) {
+            while (readHeaderByte() != 0);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readHeaderByte() != 0);
+        }
+        if ((flags & FHCRC) != 0) {
+            int expected = (int) (crc.getValue() & 0xFFFF);
+            if ((readByte() | (readByte() << 8)) != expected) {
+                throw new ZipException("Corrupt GZIP header");
+            }
+        }
+        crc.reset();
+    }
+
+    private int readHeaderByte() throws IOException {
+        int b = readByte();
+        crc.update(b);
+        return b;
+    }
+
+    private long readInt() throws IOException {
+        return (readByte() | (readByte() << 8) | (readByte() << 16) | ((long) readByte() << 24));
+    }
+
+    private int readByte() throws IOException {
+        if (bufferPos == bufferLimit) {
+            fill();
+        }
+        return buffer[bufferPos++] & 0xFF;
+    }
+
+    /**
+     * Read the next block from source into the buffer.
+     * @throws EOFException if source is depleted.
+     */
+    private void fill() throws IOException {
+        int read;
+        do {
+            read = source.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read == -1) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        bufferPos = 0;
+        bufferLimit = read;
+    }
+
+    private void passBufferToInflater() {
+        inflater.setInput(buffer, bufferPos, bufferLimit - bufferPos);
+        bufferPos = bufferLimit;
+    }
+}
@@ -14,33 +14,44 @@
  */
 package dk.kb.netarchivesuite.solrwayback.util;
 
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
 /**
  * HTTP InputStream with the special feature that {@link InputStream#skip(long)} uses HTTP Range Request to perform
  * efficient skipping.
+ * <p>
+ * Skips are lazy: No request is issued before the first read after a skip. Content is requested in bounded ranges,
+ * starting with {@link PropertiesLoader#WARC_SOURCE_HTTP_RANGE_WINDOW} bytes and doubling for each subsequent range,
+ * using the pooled connections of {@link HTTPStorageClient}.
  */
 public class SkippingHTTPInputStream extends InputStream {
     private static final Logger log = LoggerFactory.getLogger(SkippingHTTPInputStream.class);
 
     // Skips smaller than this are handled by reads instead of creating a new connection
     private static final long TRIVIAL_SKIP = 8192;
+    // When closing, ranges with at most this many remaining bytes are drained so that the connection can be reused
+    private static final long MAX_DRAIN = 65536;
+    private static final long MAX_WINDOW = 64L*1024*1024;
 
     private final boolean fallbackToRead;
     private final URL url;
+    private final URI uri;
+    private final long initialWindow;
 
-    private final boolean supportsRangeRequests;
+    private long window;
     private long position = 0;
+    private long length = -1; // Unknown
     private InputStream inner;
+    private long innerEnd = 0; // Position after the last byte in inner
 
     /**
      * Construct an InputStream for the given url, with the special feature that calling {@link InputStream#skip(long)}
@@ -65,65 +76,109 @@ public class SkippingHTTPInputStream extends InputStream {
      * @see "https://developer.mozilla.org/en-US/docs/Web/HTTP/Range_requests"
      */
     public SkippingHTTPInputStream(URL url, boolean fallbackToRead) throws IOException {
+        this(url, fallbackToRead, PropertiesLoader.WARC_SOURCE_HTTP_RANGE_WINDOW);
+    }
+
+    /**
+     * @param url a HTTP or HTTPS URL.
+     * @param fallbackToRead if true, the implementation will use {@link InputStream#read} if the server does not
+     *                       support Range Requests. If false, calls to {@link InputStream#skip(long)} will fail.
+     * @param initialWindow the size of the first range to request after construction or skip.
+     * @throws java.io.IOException if the stream could not be constructed.
+     */
+    public SkippingHTTPInputStream(URL url, boolean fallbackToRead, long initialWindow) throws IOException {
         this.url = url;
+        try {
+            this.uri = url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Unable to convert URL to URI: " + url, e);
+        }
         this.fallbackToRead = fallbackToRead;
-        supportsRangeRequests = supportsRangeRequests(url);
+        this.initialWindow = Math.max(1, initialWindow);
+        this.window = this.initialWindow;
         log.debug("Created " + this);
     }
 
     /**
+     * Support is cached per host by {@link HTTPStorageClient}, so this only issues a request the first time a host
+     * is encountered.
      * @param url a HTTP or HTTPS URL.
-     * @return true if the server supports HTTP Range Requests.
+     * @return true if the server supports HTTP Range Requests, false if not or if the server could not be reached.
      */
     public static boolean supportsRangeRequests(URL url) throws IOException {
-        URLConnection urlCon = url.openConnection();
-        // There is no explicit close() for URLConnection. Hopefully getHeaderFields closes after itself
-        Map<String, List<String>> map = urlCon.getHeaderFields();
-        List<String> acceptRanges = map.get("Accept-Ranges");
-        return acceptRanges != null && acceptRanges.contains("bytes");
+        try {
+            return HTTPStorageClient.supportsRangeRequests(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Unable to convert URL to URI: " + url, e);
+        } catch (IOException e) {
+            log.warn("Unable to determine HTTP Range Request support for '" + url + "'", e);
+            return false;
+        }
     }
 
     /**
-     * Connect to the url given in the constructor, using a Range Request if {@code startOffset != 0}.
-     * @param startOffset start position in the data.
-     * @return startOffset.
-     * @throws IOException if the connection at the given offset could not be established.
+     * Request the next range, starting at {@link #position}.
+     * @throws IOException if the range could not be requested.
      */
-    long connect(long startOffset) throws IOException {
-        if (inner != null) {
-            try {
-                inner.close();
-            } catch (IOException e) {
-                log.warn("IOException closing existing inner as preparation for Range Request to pos " + startOffset);
+    private void connect() throws IOException {
+        closeInner();
+        if (length != -1 && position >= length) { // EOF
+            innerEnd = position;
+            return;
+        }
+        long end = window >= Long.MAX_VALUE - position ? Long.MAX_VALUE : position + window;
+        HTTPStorageClient.RangeResponse response = HTTPStorageClient.get(uri, position, end);
+        inner = response.getBody();
+        innerEnd = response.getEnd();
+        length = response.getLength();
+        if (!response.isRanged() && position > 0) {
+            if (!fallbackToRead) {
+                closeInner();
+                throw new IOException("Request for position " + position + " for server that does not " +
+                                      "support HTTP Range Requests and fallbackToRead == false: " + url);
+            }
+            long skipped = InputStreamUtils.skip(inner, position); // HTTP streams skip by reading
+            if (skipped != position) {
+                throw new IOException(String.format(
+                        Locale.ROOT, "Unable to delegate-skip to position %d. Only skipped to %d: %s",
+                        position, skipped, url));
             }
         }
+        window = Math.min(MAX_WINDOW, window*2);
+    }
 
-        URLConnection urlCon = createURLConnection(startOffset);
-        inner = urlCon.getInputStream();
-        position = startOffset;
-        return startOffset;
+    /**
+     * Ensure that {@link #inner} is ready for reading at {@link #position}.
+     * @return false if EOF has been reached.
+     */
+    private boolean ensureInner() throws IOException {
+        if (inner == null || position >= innerEnd) {
+            if (length != -1 && position >= length) {
+                return false;
+            }
+            connect();
+        }
+        return inner != null && position < innerEnd;
     }
 
     /**
-     * Create a URLConnection where the available inputStream starts at startOffset.
-     * @param startOffset start position in the data.
-     * @return a URLConnection where the available inputStream starts at startOffset.
-     * @throws IOException if the connection at the given offset could not be established.
+     * Close the current range, draining it first if it is nearly consumed so that the connection can be reused.
      */
-    URLConnection createURLConnection(long startOffset) throws IOException {
-        URLConnection urlCon = url.openConnection();
-        urlCon.setRequestProperty("User-Agent", "Java Client; SolrWayback");
-        urlCon.setRequestProperty("Accept", "*/*");
-        urlCon.setRequestProperty("Connection", "close");
-        if (startOffset > 0) {
-            if (!supportsRangeRequests) {
-                throw new IOException("connect(startOffset=" + startOffset + ") called for server that does not " +
-                                      "support HTTP Range Requests: " + url);
+    private void closeInner() throws IOException {
+        if (inner == null) {
+            return;
+        }
+        try {
+            if (innerEnd - position <= MAX_DRAIN) {
+                byte[] buffer = new byte[8192];
+                while (inner.read(buffer) != -1) {
+                    // Drain
+                }
             }
-            // https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Range
-            urlCon.setRequestProperty("Range", "bytes=" + startOffset + "-");
+        } finally {
+            inner.close();
+            inner = null;
         }
-        return urlCon;
     }
 
     /**
@@ -141,26 +196,25 @@ public class SkippingHTTPInputStream extends InputStream {
         if (n == 0) {
             return 0;
         }
+        if (length != -1) {
+            n = Math.min(n, length - position);
+        }
 
-        if (n < TRIVIAL_SKIP || (!supportsRangeRequests && fallbackToRead)) {
-            // Skip by delegating to the standard HTTP/HTTPS-InputStream which uses read for skips
+        if (inner != null && position + n <= innerEnd &&
+            (n < TRIVIAL_SKIP || HTTPStorageClient.getRangeSupport(uri) == HTTPStorageClient.RANGES.unsupported)) {
+            // Skip within the current range by reading
             return skipByDelegation(n);
-        };
+        }
 
-        if (!supportsRangeRequests) {
+        if (HTTPStorageClient.getRangeSupport(uri) == HTTPStorageClient.RANGES.unsupported && !fallbackToRead) {
             throw new IOException("Skip of " + n + " bytes requested but the server does not support " +
                                   "HTTP Range Requests and fallbackToRead == false: " + url);
         }
 
-        // Skip by creating a new connection
-        long oldPosition = position;
-        connect(position + n);
-        if (position != oldPosition + n) {
-            throw new IOException(String.format(
-                    Locale.ROOT,
-                    "Unable to (re)connect and skip %d bytes from %d to %d. Only skipped %d bytes to %d: %s",
-                    n, oldPosition, oldPosition + n, position - oldPosition, position, url));
-        }
+        // Lazy skip: The range is requested when reading
+        closeInner();
+        position += n;
+        window = initialWindow;
         return n;
     }
 
@@ -168,10 +222,6 @@ public class SkippingHTTPInputStream extends InputStream {
      * Delegates skipping to inner, which typically means reading instead of skipping.
      */
     long skipByDelegation(long n) throws IOException {
-        if (inner == null) {
-            connect(0);
-        }
-
         long skipped = inner.skip(n); // Note that skip does not guarantee skipping n, only <= n
         if (skipped != n) {
             log.debug(String.format(
@@ -179,18 +229,19 @@ public class SkippingHTTPInputStream extends InputStream {
                     n, position, position + n, skipped, position + skipped, url));
         }
         position += skipped;
-        return n;
+        return skipped;
     }
 
     @Override
     public int read() throws IOException {
-        if (inner == null) {
-            connect(0);
+        if (!ensureInner()) {
+            return -1;
         }
         int b = inner.read();
-        if (b != -1) {
-            ++position;
+        if (b == -1) {
+            return endOfInner();
         }
+        ++position;
         return b;
     }
 
@@ -201,27 +252,44 @@ public class SkippingHTTPInputStream extends InputStream {
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        if (inner == null) {
-            connect(0);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureInner()) {
+            return -1;
+        }
+        int read = inner.read(b, off, (int) Math.min(len, innerEnd - position));
+        if (read == -1) {
+            return endOfInner();
         }
-        int read = inner.read(b, off, len);
         position += read;
         return read;
     }
 
+    /**
+     * Handle EOF from {@link #inner} before {@link #innerEnd}.
+     * @return -1 if the length of the resource was unknown.
+     * @throws IOException if the range ended prematurely.
+     */
+    private int endOfInner() throws IOException {
+        if (innerEnd == Long.MAX_VALUE) { // Unknown length
+            length = position;
+            innerEnd = position;
+            return -1;
+        }
+        throw new IOException(String.format(
+                Locale.ROOT, "Premature end of range at position %d, expected end %d: %s",
+                position, innerEnd, url));
+    }
+
     @Override
     public int available() throws IOException {
-        if (inner == null) {
-            connect(0);
-        }
-        return inner.available();
+        return inner == null ? 0 : (int) Math.min(inner.available(), innerEnd - position);
     }
 
     @Override
     public void close() throws IOException {
-        if (inner != null) {
-            inner.close();
-        }
+        closeInner();
     }
 
     @Override
@@ -229,8 +297,9 @@ public class SkippingHTTPInputStream extends InputStream {
         return "SkippingHTTPInputStream(" +
                "url=" + url +
                ", fallbackToRead=" + fallbackToRead +
-               ", supportsRangeRequests=" + supportsRangeRequests +
+               ", ranges=" + HTTPStorageClient.getRangeSupport(uri) +
                ", position=" + position +
+               ", length=" + length +
                ')';
     }
 }
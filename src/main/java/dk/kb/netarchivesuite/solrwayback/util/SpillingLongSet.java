@@ -0,0 +1,300 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Set of {@code long}s with bounded heap usage.
+ * <p>
+ * Values are added to a primitive open addressing hash set. When that holds {@code maxInMemory} values, they are
+ * sorted and spilled to a temporary file, which is memory mapped and deleted right away so that the operating
+ * system reclaims the space when the set is garbage collected. Spilled runs are merged when a run is at least half
+ * the size of the run before it, keeping the number of runs logarithmic to the number of values.
+ * <p>
+ * Lookups in spilled runs use a sparse in-heap index with every {@link #INDEX_STEP}th value, so a lookup touches at
+ * most a single page of the mapped file per run.
+ * <p>
+ * This implementation is not thread safe.
+ */
+public class SpillingLongSet {
+    private static final Logger log = LoggerFactory.getLogger(SpillingLongSet.class);
+
+    /**
+     * Every INDEX_STEP'th value in a spilled run is kept in heap. 512 longs = 4KB = a common page size.
+     */
+    static final int INDEX_STEP = 512;
+    private static final int INDEX_SHIFT = 9;
+    // Memory mapping is limited to 2GB per buffer
+    private static final int CHUNK_SHIFT = 27; // 1GB
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final int maxInMemory;
+    private final Path spillFolder;
+    private final LongOpenHashSet recent;
+    // Runs are immutable and the list is replaced on change, so copies can share the runs
+    private List<SortedRun> runs = Collections.emptyList();
+    private long spilledSize = 0;
+
+    /**
+     * Create a set spilling to the folder stated by the system property {@code java.io.tmpdir}.
+     * @param maxInMemory the maximum number of values to hold in heap before spilling.
+     */
+    public SpillingLongSet(int maxInMemory) {
+        this(maxInMemory, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param maxInMemory the maximum number of values to hold in heap before spilling.
+     * @param spillFolder the folder for temporary files.
+     */
+    public SpillingLongSet(int maxInMemory, Path spillFolder) {
+        if (maxInMemory < 1) {
+            throw new IllegalArgumentException("maxInMemory must be at least 1 but was " + maxInMemory);
+        }
+        this.maxInMemory = maxInMemory;
+        this.spillFolder = spillFolder;
+        this.recent = new LongOpenHashSet();
+    }
+
+    /**
+     * Copy constructor, see {@link #copy()}.
+     */
+    private SpillingLongSet(SpillingLongSet other) {
+        this.maxInMemory = other.maxInMemory;
+        this.spillFolder = other.spillFolder;
+        this.recent = new LongOpenHashSet(other.recent);
+        this.runs = other.runs;
+        this.spilledSize = other.spilledSize;
+    }
+
+    /**
+     * Create an independent copy of the set. Spilled runs are immutable and shared with the copy.
+     * @return a copy of this set.
+     */
+    public SpillingLongSet copy() {
+        return new SpillingLongSet(this);
+    }
+
+    /**
+     * @param value the value to add.
+     * @return true if the value was not already in the set.
+     * @throws UncheckedIOException if spilling to storage failed.
+     */
+    public boolean add(long value) {
+        if (recent.contains(value) || spilledContains(value)) {
+            return false;
+        }
+        recent.add(value);
+        if (recent.size() >= maxInMemory) {
+            spill();
+        }
+        return true;
+    }
+
+    /**
+     * @param value the value to look for.
+     * @return true if the value is in the set.
+     */
+    public boolean contains(long value) {
+        return recent.contains(value) || spilledContains(value);
+    }
+
+    /**
+     * @return the number of values in the set.
+     */
+    public long size() {
+        return spilledSize + recent.size();
+    }
+
+    /**
+     * @return the number of values that has been spilled to storage.
+     */
+    public long spilledSize() {
+        return spilledSize;
+    }
+
+    /**
+     * @return the number of spilled runs.
+     */
+    int runCount() {
+        return runs.size();
+    }
+
+    private boolean spilledContains(long value) {
+        for (SortedRun run: runs) {
+            if (run.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sort the in-memory values, write them as a new run and merge runs if needed.
+     */
+    private void spill() {
+        long startNS = System.nanoTime();
+        long[] values = recent.toLongArray();
+        LongArrays.radixSort(values);
+        List<SortedRun> newRuns = new ArrayList<>(runs);
+        try {
+            newRuns.add(SortedRun.write(spillFolder, values));
+            // Merge while the newest run is at least half the size of the one before it
+            while (newRuns.size() > 1 &&
+                   newRuns.get(newRuns.size()-1).size*2 >= newRuns.get(newRuns.size()-2).size) {
+                SortedRun last = newRuns.remove(newRuns.size()-1);
+                SortedRun previous = newRuns.remove(newRuns.size()-1);
+                newRuns.add(SortedRun.merge(spillFolder, previous, last));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to spill " + values.length + " values to " + spillFolder, e);
+        }
+        runs = Collections.unmodifiableList(newRuns);
+        spilledSize += values.length;
+        recent.clear();
+        log.debug("Spilled {} values in {} ms. Total spilled values: {} in {} runs",
+                  values.length, (System.nanoTime()-startNS)/1000000, spilledSize, runs.size());
+    }
+
+    @Override
+    public String toString() {
+        return "SpillingLongSet(size=" + size() + ", inMemory=" + recent.size() + ", maxInMemory=" + maxInMemory +
+               ", runs=" + runs.size() + ")";
+    }
+
+    /**
+     * Immutable sorted sequence of longs, memory mapped from a deleted temporary file.
+     */
+    private static final class SortedRun {
+        final long size;
+        private final LongBuffer[] chunks;
+        private final long[] index;
+
+        private SortedRun(long size, LongBuffer[] chunks) {
+            this.size = size;
+            this.chunks = chunks;
+            this.index = new long[(int) ((size + INDEX_STEP - 1) >>> INDEX_SHIFT)];
+            for (int i = 0 ; i < index.length ; i++) {
+                index[i] = get((long) i << INDEX_SHIFT);
+            }
+        }
+
+        static SortedRun write(Path folder, long[] values) throws IOException {
+            Path file = Files.createTempFile(folder, "spillingset_", ".bin");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                for (long value: values) {
+                    out.writeLong(value);
+                }
+            }
+            return map(file, values.length);
+        }
+
+        static SortedRun merge(Path folder, SortedRun first, SortedRun second) throws IOException {
+            Path file = Files.createTempFile(folder, "spillingset_", ".bin");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                long i1 = 0;
+                long i2 = 0;
+                while (i1 < first.size && i2 < second.size) {
+                    long v1 = first.get(i1);
+                    long v2 = second.get(i2);
+                    // Runs are disjoint as only new values are added
+                    if (v1 < v2) {
+                        out.writeLong(v1);
+                        i1++;
+                    } else {
+                        out.writeLong(v2);
+                        i2++;
+                    }
+                }
+                for ( ; i1 < first.size ; i1++) {
+                    out.writeLong(first.get(i1));
+                }
+                for ( ; i2 < second.size ; i2++) {
+                    out.writeLong(second.get(i2));
+                }
+            }
+            return map(file, first.size + second.size);
+        }
+
+        private static SortedRun map(Path file, long size) throws IOException {
+            LongBuffer[] chunks = new LongBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (int c = 0 ; c < chunks.length ; c++) {
+                    long start = (long) c << CHUNK_SHIFT;
+                    long longs = Math.min(size - start, 1L << CHUNK_SHIFT);
+                    chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start*Long.BYTES, longs*Long.BYTES).
+                            asLongBuffer();
+                }
+            }
+            try {
+                Files.delete(file); // The mapping stays valid until garbage collected
+            } catch (IOException e) {
+                log.debug("Unable to delete mapped file '{}'. Marking for delete on exit", file);
+                file.toFile().deleteOnExit();
+            }
+            return new SortedRun(size, chunks);
+        }
+
+        long get(long i) {
+            return chunks[(int) (i >>> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+        }
+
+        boolean contains(long value) {
+            int block = Arrays.binarySearch(index, value);
+            if (block >= 0) {
+                return true;
+            }
+            block = -block - 2; // The last index entry below value
+            if (block < 0) {
+                return false;
+            }
+            long low = ((long) block << INDEX_SHIFT) + 1;
+            long high = Math.min(size, low - 1 + INDEX_STEP) - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                long midValue = get(mid);
+                if (midValue < value) {
+                    low = mid + 1;
+                } else if (midValue > value) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
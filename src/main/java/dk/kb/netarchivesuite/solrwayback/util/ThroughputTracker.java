@@ -171,6 +171,21 @@ public class ThroughputTracker implements Predicate<Object>, Closeable {
         return this;
     }
 
+    /**
+     * @return the number of objects that has passed through the tracker.
+     */
+    public synchronized long getCount() {
+        return callCounter;
+    }
+
+    /**
+     * @return the number of objects per second since the tracker was created.
+     */
+    public synchronized double getRate() {
+        long deltaMS = System.currentTimeMillis() - startTime;
+        return deltaMS == 0 ? 0 : callCounter * 1000.0 / deltaMS;
+    }
+
     @Override
     public void close() {
         performLog();
@@ -3,12 +3,9 @@ package dk.kb.netarchivesuite.solrwayback.wordcloud;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,10 +13,8 @@ import com.kennycason.kumo.CollisionMode;
 import com.kennycason.kumo.WordCloud;
 import com.kennycason.kumo.WordFrequency;
 import com.kennycason.kumo.font.scale.LinearFontScalar;
-import com.kennycason.kumo.nlp.FrequencyAnalyzer;
 import com.kennycason.kumo.palette.ColorPalette;
 
-import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoaderWeb;
 import dk.kb.netarchivesuite.solrwayback.service.dto.WordCloudWordAndCount;
 
 
@@ -27,17 +22,15 @@ public class WordCloudImageGenerator {
 
   private static final Logger log = LoggerFactory.getLogger(WordCloudImageGenerator.class);
   
-  public static BufferedImage wordCloudForDomain(String text) throws Exception {
-    InputStream in = IOUtils.toInputStream(text, "UTF-8");
-    
-    final FrequencyAnalyzer frequencyAnalyzer = new FrequencyAnalyzer(); //this has the normalizers, but too many bugs in them. Write one that both lower case, remove non letters and trim's corrext
-    frequencyAnalyzer.setWordFrequenciesToReturn(250); //If more than 250 withs 800*600 resolution/scale 20/100, , most of the longer more frequent words will not be plottet!
-    frequencyAnalyzer.setMinWordLength(4); 
-         
-    List<String> stopWords= PropertiesLoaderWeb.WORDCLOUD_STOPWORDS;
-    frequencyAnalyzer.setStopWords(stopWords); //Configured in solrwaybackweb.properties
-          
-    final List<WordFrequency> wordFrequencies = frequencyAnalyzer.load(in);
+  /**
+   * Render a wordcloud image for the most frequent words in the given counter.
+   * @param counter word frequencies, typically from
+   *        {@link dk.kb.netarchivesuite.solrwayback.solr.NetarchiveSolrClient#countWordsFromHtmlForQuery(String, String)}.
+   * @return an 800*600 wordcloud image.
+   */
+  public static BufferedImage wordCloudForDomain(WordFrequencyCounter counter) throws Exception {
+    // If more than 250 words with 800*600 resolution/scale 20/100, most of the longer more frequent words will not be plottet!
+    final List<WordFrequency> wordFrequencies = counter.getTopWords(WordFrequencyCounter.DEFAULT_TOP_WORDS);
     
     final Dimension dimension = new Dimension(800, 600);
     final WordCloud wordCloud = new WordCloud(dimension, CollisionMode.PIXEL_PERFECT);
@@ -51,27 +44,18 @@ public class WordCloudImageGenerator {
     return bufferedImage;       
  }
   
- 
-  
-  
-  public static List<WordCloudWordAndCount> wordCloudWordWithCount(String text) throws Exception {
-    log.info("generating wordcloud from text size:"+text.length());
-    InputStream in = IOUtils.toInputStream(text, "UTF-8");
-    
-    final FrequencyAnalyzer frequencyAnalyzer = new FrequencyAnalyzer(); //this has the normalizers, but too many bugs in them. Write one that both lower case, remove non letters and trim's corrext
-    frequencyAnalyzer.setWordFrequenciesToReturn(250); //If more than 250 withs 800*600 resolution/scale 20/100, , most of the longer more frequent words will not be plottet!
-    frequencyAnalyzer.setMinWordLength(4); 
-         
-    List<String> stopWords= PropertiesLoaderWeb.WORDCLOUD_STOPWORDS;
-    frequencyAnalyzer.setStopWords(stopWords); //Configured in solrwaybackweb.properties
-          
-    final List<WordFrequency> wordFrequencies = frequencyAnalyzer.load(in);
-    Collections.sort(wordFrequencies);
+  /**
+   * @param counter word frequencies, typically from
+   *        {@link dk.kb.netarchivesuite.solrwayback.solr.NetarchiveSolrClient#countWordsFromHtmlForQuery(String, String)}.
+   * @return the most frequent words and their counts, sorted by descending count.
+   */
+  public static List<WordCloudWordAndCount> wordCloudWordWithCount(WordFrequencyCounter counter) throws Exception {
+    log.info("generating wordcloud word counts from " + counter);
+    final List<WordFrequency> wordFrequencies = counter.getTopWords(WordFrequencyCounter.DEFAULT_TOP_WORDS);
     //need to wrap in DTO for service
-    List<WordCloudWordAndCount> result = new ArrayList<WordCloudWordAndCount>();
+    List<WordCloudWordAndCount> result = new ArrayList<WordCloudWordAndCount>(wordFrequencies.size());
     
     for (WordFrequency current : wordFrequencies) {
-      log.info(current.getWord());
       WordCloudWordAndCount item = new WordCloudWordAndCount(current.getWord(),current.getFrequency());
       result.add(item);
     }
@@ -0,0 +1,241 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package dk.kb.netarchivesuite.solrwayback.wordcloud;
+
+import com.kennycason.kumo.WordFrequency;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Incremental word counter for word clouds.
+ * <p>
+ * Text is fed piecemeal with {@link #add(CharSequence)}, typically one document at a time, so that the full text
+ * for a query never has to be held in memory. Words are sequences of letters, lower cased and filtered by minimum
+ * length and stop words. Counts are held in a primitive {@link Object2IntOpenHashMap}.
+ * <p>
+ * Memory is bounded by {@code maxVocabulary}: When the number of distinct words exceeds it, the least frequent words
+ * are discarded until the vocabulary is at most 3/4 of {@code maxVocabulary}. Pruning below the limit means that it
+ * is not repeated for every new word. This is a heuristic that has little impact on the top words for real world text.
+ * <p>
+ * This implementation is not thread safe.
+ */
+public class WordFrequencyCounter {
+    private static final Logger log = LoggerFactory.getLogger(WordFrequencyCounter.class);
+
+    /**
+     * If more than 250 words with 800*600 resolution, most of the longer more frequent words will not be plotted.
+     */
+    public static final int DEFAULT_TOP_WORDS = 250;
+    public static final int DEFAULT_MIN_WORD_LENGTH = 4;
+    public static final int DEFAULT_MAX_VOCABULARY = 1_000_000;
+    // Pruning reduces the vocabulary to this fraction of maxVocabulary
+    static final double PRUNE_FRACTION = 0.75;
+    // Counts above this are not distinguished when selecting words to prune
+    private static final int MAX_PRUNE_COUNT = 1024;
+
+    private final Object2IntOpenHashMap<String> counts = new Object2IntOpenHashMap<>();
+    private final Set<String> stopWords;
+    private final int minWordLength;
+    private final int maxVocabulary;
+    private int pruneLimit;
+    private final StringBuilder word = new StringBuilder();
+
+    private long textCount = 0;
+    private long wordCount = 0;
+    private long prunes = 0;
+
+    /**
+     * Create a counter with {@link #DEFAULT_MIN_WORD_LENGTH} and {@link #DEFAULT_MAX_VOCABULARY}.
+     * @param stopWords words to ignore. Matching is case insensitive. Can be null.
+     */
+    public WordFrequencyCounter(Collection<String> stopWords) {
+        this(stopWords, DEFAULT_MIN_WORD_LENGTH, DEFAULT_MAX_VOCABULARY);
+    }
+
+    /**
+     * @param stopWords     words to ignore. Matching is case insensitive. Can be null.
+     * @param minWordLength words shorter than this are ignored.
+     * @param maxVocabulary when the number of distinct words exceeds this, the least frequent words are discarded.
+     */
+    public WordFrequencyCounter(Collection<String> stopWords, int minWordLength, int maxVocabulary) {
+        this.stopWords = new HashSet<>();
+        if (stopWords != null) {
+            for (String stopWord: stopWords) {
+                this.stopWords.add(stopWord.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        this.minWordLength = minWordLength;
+        this.maxVocabulary = maxVocabulary;
+        this.pruneLimit = maxVocabulary;
+    }
+
+    /**
+     * Tokenize the given text and update the word counts.
+     * @param text any text. null is ignored.
+     * @return the counter itself, for chaining.
+     */
+    public WordFrequencyCounter add(CharSequence text) {
+        if (text == null) {
+            return this;
+        }
+        textCount++;
+        final int length = text.length();
+        for (int i = 0 ; i < length ; i++) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                word.append(Character.toLowerCase(c));
+            } else {
+                flushWord();
+            }
+        }
+        flushWord();
+        return this;
+    }
+
+    private void flushWord() {
+        if (word.length() == 0) {
+            return;
+        }
+        if (word.length() >= minWordLength) {
+            String candidate = word.toString();
+            if (!stopWords.contains(candidate)) {
+                counts.addTo(candidate, 1);
+                wordCount++;
+                if (counts.size() > pruneLimit) {
+                    prune();
+                }
+            }
+        }
+        word.setLength(0);
+    }
+
+    /**
+     * Remove the least frequent words, so that at most {@link #PRUNE_FRACTION} of maxVocabulary words remain.
+     * The count threshold is derived from a histogram of the counts, so this takes two passes over the vocabulary.
+     */
+    private void prune() {
+        int before = counts.size();
+        int target = (int) (maxVocabulary * PRUNE_FRACTION);
+        int[] histogram = new int[MAX_PRUNE_COUNT + 1];
+        ObjectIterator<Object2IntMap.Entry<String>> entries = counts.object2IntEntrySet().fastIterator();
+        while (entries.hasNext()) {
+            histogram[Math.min(MAX_PRUNE_COUNT, entries.next().getIntValue())]++;
+        }
+        int threshold = 0;
+        int remaining = before;
+        while (remaining > target && threshold < MAX_PRUNE_COUNT - 1) {
+            remaining -= histogram[++threshold];
+        }
+
+        entries = counts.object2IntEntrySet().fastIterator();
+        while (entries.hasNext()) {
+            if (entries.next().getIntValue() <= threshold) {
+                entries.remove();
+            }
+        }
+        counts.trim();
+        // If the words are too frequent to be pruned to the target, postpone the next prune to keep it amortized
+        pruneLimit = Math.max(maxVocabulary, counts.size() + maxVocabulary - target);
+        prunes++;
+        log.debug("prune(): Reduced vocabulary from {} to {} distinct words by removing words with count <= {}",
+                  before, counts.size(), threshold);
+    }
+
+    /**
+     * Extract the most frequent words using a bounded min-heap, so that only {@code topWords} entries are
+     * allocated regardless of vocabulary size.
+     * @param topWords the maximum number of words to return.
+     * @return the most frequent words, sorted by descending frequency and secondarily by word.
+     */
+    public List<WordFrequency> getTopWords(int topWords) {
+        if (topWords <= 0) {
+            return Collections.emptyList();
+        }
+        Comparator<WordFrequency> leastFirst = Comparator.comparingInt(WordFrequency::getFrequency).
+                thenComparing(WordFrequency::getWord, Comparator.reverseOrder());
+        PriorityQueue<WordFrequency> heap = new PriorityQueue<>(topWords + 1, leastFirst);
+        ObjectIterator<Object2IntMap.Entry<String>> entries = counts.object2IntEntrySet().fastIterator();
+        while (entries.hasNext()) {
+            Object2IntMap.Entry<String> entry = entries.next();
+            if (heap.size() < topWords) {
+                heap.add(new WordFrequency(entry.getKey(), entry.getIntValue()));
+            } else if (entry.getIntValue() > heap.peek().getFrequency() ||
+                       (entry.getIntValue() == heap.peek().getFrequency() &&
+                        entry.getKey().compareTo(heap.peek().getWord()) < 0)) {
+                // Ties are resolved by word, so that the result does not depend on hash order
+                heap.poll();
+                heap.add(new WordFrequency(entry.getKey(), entry.getIntValue()));
+            }
+        }
+        List<WordFrequency> result = new ArrayList<>(heap);
+        result.sort(leastFirst.reversed());
+        return result;
+    }
+
+    /**
+     * @return the {@link #DEFAULT_TOP_WORDS} most frequent words.
+     * @see #getTopWords(int)
+     */
+    public List<WordFrequency> getTopWords() {
+        return getTopWords(DEFAULT_TOP_WORDS);
+    }
+
+    /**
+     * @return the number of texts given to {@link #add(CharSequence)}.
+     */
+    public long getTextCount() {
+        return textCount;
+    }
+
+    /**
+     * @return the number of counted words, after stop word and length filtering.
+     */
+    public long getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * @return the number of distinct words currently tracked.
+     */
+    public int getVocabularySize() {
+        return counts.size();
+    }
+
+    /**
+     * @return the number of times the vocabulary has been pruned.
+     */
+    long getPruneCount() {
+        return prunes;
+    }
+
+    @Override
+    public String toString() {
+        return "WordFrequencyCounter(texts=" + textCount + ", words=" + wordCount + ", vocabulary=" + counts.size() +
+               ", prunes=" + prunes + ", minWordLength=" + minWordLength + ", stopWords=" + stopWords.size() + ")";
+    }
+}
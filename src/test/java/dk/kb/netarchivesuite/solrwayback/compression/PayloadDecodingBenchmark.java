@@ -0,0 +1,107 @@
+package dk.kb.netarchivesuite.solrwayback.compression;
+
+import dk.kb.netarchivesuite.solrwayback.UnitTestUtils;
+import dk.kb.netarchivesuite.solrwayback.parsers.ArcParserFileResolver;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+import dk.kb.netarchivesuite.solrwayback.util.PooledGzipInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Manual benchmark of payload decoding throughput.
+ * <p>
+ * The first part measures {@link ArcEntry#getBinaryDecoded()} for the gzip, chunked gzip and Brotli records in
+ * {@code compressions_warc}, which covers WARC decompression, de-chunking and Content-Encoding decompression.
+ * The records are small, so this is dominated by per-record overhead.
+ * <p>
+ * The second part compares {@link GZIPInputStream} with {@link PooledGzipInputStream} for a larger payload.
+ */
+public class PayloadDecodingBenchmark {
+    private static final String[][] RECORDS = {
+            {"gzip",         "compressions_warc/transfer_compression_gzip.warc.gz", "899"},
+            {"gzip chunked", "compressions_warc/transfer_compression_gzip_chunked.warc.gz", "275"},
+            {"brotli",       "compressions_warc/transfer_compression_brotli.warc.gz", "898"}
+    };
+    private static final int RECORD_ITERATIONS = 5000;
+    private static final int PAYLOAD_SIZE = 10*1024*1024;
+    private static final int PAYLOAD_ITERATIONS = 20;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        byte[] buffer = new byte[8192];
+        for (int run = 0 ; run < RUNS ; run++) {
+            for (String[] record: RECORDS) {
+                String warc = UnitTestUtils.getFile(record[1]).getCanonicalPath();
+                long offset = Long.parseLong(record[2]);
+                long bytes = 0;
+                long ns = -System.nanoTime();
+                for (int i = 0 ; i < RECORD_ITERATIONS ; i++) {
+                    ArcEntry entry = ArcParserFileResolver.getArcEntry(warc, offset);
+                    try (InputStream in = entry.getBinaryDecoded()) {
+                        bytes += drain(in, buffer);
+                    }
+                }
+                ns += System.nanoTime();
+                System.out.printf(Locale.ROOT, "Run %d: %-12s %,7d records/s (%d bytes/record)%n",
+                                  run, record[0], RECORD_ITERATIONS*1_000_000_000L/ns, bytes/RECORD_ITERATIONS);
+            }
+        }
+
+        byte[] compressed = createCompressedPayload();
+        for (int run = 0 ; run < RUNS ; run++) {
+            long jdkNS = -System.nanoTime();
+            for (int i = 0 ; i < PAYLOAD_ITERATIONS ; i++) {
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                    drain(in, buffer);
+                }
+            }
+            jdkNS += System.nanoTime();
+
+            long pooledNS = -System.nanoTime();
+            for (int i = 0 ; i < PAYLOAD_ITERATIONS ; i++) {
+                try (InputStream in = new PooledGzipInputStream(new ByteArrayInputStream(compressed))) {
+                    drain(in, buffer);
+                }
+            }
+            pooledNS += System.nanoTime();
+
+            long mb = (long) PAYLOAD_SIZE * PAYLOAD_ITERATIONS / 1048576;
+            System.out.printf(Locale.ROOT, "Run %d: GZIPInputStream %,5d MB/s, PooledGzipInputStream %,5d MB/s (x%.1f)%n",
+                              run, mb*1_000_000_000L/jdkNS, mb*1_000_000_000L/pooledNS, jdkNS*1.0/pooledNS);
+        }
+    }
+
+    private static long drain(InputStream in, byte[] buffer) throws IOException {
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * HTML-like content, which compresses about as well as typical web resources.
+     */
+    private static byte[] createCompressedPayload() throws IOException {
+        Random random = new Random(87);
+        String[] words = {"<div class=\"", "</div>", "<a href=\"http://example.com/", "\">", "</a>", "\n", " "};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            long written = 0;
+            while (written < PAYLOAD_SIZE) {
+                byte[] word = (words[random.nextInt(words.length)] + random.nextInt(10000)).getBytes("UTF-8");
+                gzip.write(word);
+                written += word.length;
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+package dk.kb.netarchivesuite.solrwayback.concurrency;
+
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntryDescriptor;
+import dk.kb.netarchivesuite.solrwayback.service.dto.IndexDoc;
+import org.apache.solr.common.SolrDocument;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class ImageSearchExecutorTest {
+
+    @Test
+    public void directImages() {
+        List<IndexDoc> docs = Arrays.asList(
+                createImage("img_1", "sha1:A"),
+                createImage("img_2", "sha1:B"),
+                createImage("img_3", "sha1:A"), // Duplicate hash
+                createImage("img_4", null),
+                createImage("img_5", null));    // Missing hashes are treated as one image
+
+        List<String> images = streamImages(docs, ImageSearchExecutorTest::unexpectedPage);
+        assertEquals("Direct images should be unique on hash, including missing hashes",
+                     "[img_1, img_2, img_4]", images.toString());
+    }
+
+    @Test
+    public void htmlPages() {
+        IndexDoc withLinks = createPage("page_1", "2020-01-01T00:00:00Z", "http://example.com/a.png");
+        IndexDoc withoutLinks = createPage("page_2", "2020-01-01T00:00:00Z");
+        IndexDoc withoutCrawlDate = createPage("page_3", null);
+        List<IndexDoc> docs = Arrays.asList(createImage("img_1", "sha1:A"), withLinks, withoutLinks, withoutCrawlDate);
+
+        List<String> resolved = Collections.synchronizedList(new ArrayList<>());
+        List<String> images = streamImages(docs, page -> () -> {
+            resolved.add(page.getUrl_norm());
+            switch (page.getUrl_norm()) {
+                case "page_1": return Stream.of(createResolved("page_1_img_1", "sha1:A"),  // Same as direct image
+                                                createResolved("page_1_img_2", "sha1:C"));
+                case "page_3": return Stream.of(createResolved("page_3_img_1", "sha1:C"),  // Same as page_1 image
+                                                createResolved("page_3_img_2", "sha1:D"));
+                default: throw new IllegalStateException("Unexpected page " + page.getUrl_norm());
+            }
+        });
+
+        Collections.sort(resolved);
+        assertEquals("Pages with links and pages without crawl_date should be resolved, pages without links not",
+                     "[page_1, page_3]", resolved.toString());
+        assertEquals("Images should be delivered in order and unique on hash",
+                     "[img_1, page_1_img_2, page_3_img_2]", images.toString());
+    }
+
+    private static List<String> streamImages(
+            List<IndexDoc> docs, Function<IndexDoc, Callable<Stream<SolrDocument>>> pageImages) {
+        return ImageSearchExecutor.streamImages(docs, pageImages).
+                map(ArcEntryDescriptor::getUrl_norm).
+                collect(Collectors.toList());
+    }
+
+    private static Callable<Stream<SolrDocument>> unexpectedPage(IndexDoc page) {
+        throw new IllegalStateException("No HTML pages should be resolved, but got " + page.getUrl_norm());
+    }
+
+    private static IndexDoc createImage(String urlNorm, String hash) {
+        IndexDoc doc = new IndexDoc();
+        doc.setContentTypeNorm("image");
+        doc.setUrl_norm(urlNorm);
+        doc.setHash(hash);
+        doc.setSource_file_path("images.warc");
+        return doc;
+    }
+
+    private static IndexDoc createPage(String urlNorm, String crawlDate, String... imageLinks) {
+        IndexDoc doc = new IndexDoc();
+        doc.setContentTypeNorm("html");
+        doc.setUrl_norm(urlNorm);
+        doc.setCrawlDate(crawlDate);
+        doc.setImageUrls(new ArrayList<>(Arrays.asList(imageLinks)));
+        doc.setSource_file_path("pages.warc");
+        return doc;
+    }
+
+    private static SolrDocument createResolved(String urlNorm, String hash) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("url", urlNorm);
+        doc.setField("url_norm", urlNorm);
+        doc.setField("source_file_path", "images.warc");
+        doc.setField("source_file_offset", 0L);
+        doc.setField("hash", hash);
+        doc.setField("content_type", "image/png");
+        return doc;
+    }
+}
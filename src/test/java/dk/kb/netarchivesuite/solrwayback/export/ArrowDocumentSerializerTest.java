@@ -0,0 +1,345 @@
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.UnitTestUtils;
+import dk.kb.netarchivesuite.solrwayback.solr.SolrSchema;
+import org.apache.solr.common.SolrDocument;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class ArrowDocumentSerializerTest {
+    private static final byte HEADER_SCHEMA = 1;
+    private static final byte HEADER_RECORD_BATCH = 3;
+
+    @Test
+    public void streamStructure() throws IOException {
+        ByteBuffer stream = serialize(createDocs(5), 2);
+        List<Integer> headerTypes = new ArrayList<>();
+        List<Long> batchLengths = new ArrayList<>();
+        while (true) {
+            assertEquals("Messages should start at 8 byte boundaries", 0, stream.position() % 8);
+            assertEquals("Messages should start with the continuation marker", -1, stream.getInt());
+            int metadataLength = stream.getInt();
+            if (metadataLength == 0) {
+                break;
+            }
+            assertEquals("Metadata length should be padded to 8 bytes", 0, metadataLength % 8);
+            ByteBuffer metadata = slice(stream, stream.position(), metadataLength);
+            int message = metadata.getInt(0);
+            assertEquals("Metadata version should be V5", 4, metadata.getShort(field(metadata, message, 0)));
+            byte headerType = metadata.get(field(metadata, message, 1));
+            long bodyLength = metadata.getLong(field(metadata, message, 3));
+            headerTypes.add((int) headerType);
+            if (headerType == HEADER_RECORD_BATCH) {
+                assertEquals("Body length should be padded to 8 bytes", 0, bodyLength % 8);
+                batchLengths.add(metadata.getLong(field(metadata, reference(metadata, message, 2), 0)));
+            }
+            stream.position(stream.position() + metadataLength + (int) bodyLength);
+        }
+        assertEquals("The whole stream should be consumed", stream.limit(), stream.position());
+        assertEquals("The stream should hold a schema followed by record batches",
+                     Arrays.asList(1, 3, 3, 3), headerTypes);
+        assertEquals("Record batches should respect the row group size", Arrays.asList(2L, 2L, 1L), batchLengths);
+    }
+
+    @Test
+    public void schemaTypes() throws IOException {
+        ByteBuffer stream = serialize(createDocs(3), 10);
+        ByteBuffer metadata = slice(stream, 8, stream.getInt(4));
+        int message = metadata.getInt(0);
+        assertEquals("First message should be the schema", HEADER_SCHEMA, metadata.get(field(metadata, message, 1)));
+        int fields = reference(metadata, reference(metadata, message, 2), 1);
+
+        assertEquals("All requested fields should be columns", 4, metadata.getInt(fields));
+        String[] expectedNames = {"url", "links", "crawl_date", "source_file_offset"};
+        byte[] expectedTypes = {5, 12, 10, 2}; // Utf8, List, Timestamp, Int
+        for (int i = 0 ; i < 4 ; i++) {
+            int field = fields + 4 + i*4 + metadata.getInt(fields + 4 + i*4);
+            assertEquals("Field name should match", expectedNames[i], getString(metadata, reference(metadata, field, 0)));
+            assertEquals("Type of field '" + expectedNames[i] + "' should match",
+                         expectedTypes[i], metadata.get(field(metadata, field, 2)));
+        }
+    }
+
+    @Test
+    public void stringAndLongValues() throws IOException {
+        List<SolrDocument> docs = createDocs(3);
+        docs.get(1).removeFields("url");
+        ByteBuffer stream = serialize(docs, 10);
+
+        int batchStart = 8 + stream.getInt(4);
+        ByteBuffer metadata = slice(stream, batchStart + 8, stream.getInt(batchStart + 4));
+        int message = metadata.getInt(0);
+        int bodyLength = (int) metadata.getLong(field(metadata, message, 3));
+        ByteBuffer body = slice(stream, batchStart + 8 + metadata.limit(), bodyLength);
+        int recordBatch = reference(metadata, message, 2);
+        int nodes = reference(metadata, recordBatch, 1);
+        int buffers = reference(metadata, recordBatch, 2);
+        assertEquals("url should have a null", 1, metadata.getLong(nodes + 4 + 8));
+
+        // url: validity, offsets, data
+        ByteBuffer offsets = getBuffer(metadata, buffers, 1, body);
+        ByteBuffer data = getBuffer(metadata, buffers, 2, body);
+        assertEquals("First url should match", "http://example.com/0",
+                     getUTF8(data, offsets.getInt(0), offsets.getInt(4)));
+        assertEquals("Null url should be empty", offsets.getInt(4), offsets.getInt(8));
+        assertEquals("Last url should match", "http://example.com/2",
+                     getUTF8(data, offsets.getInt(8), offsets.getInt(12)));
+
+        // links (validity, offsets, item validity, item offsets, item data), crawl_date (validity, values),
+        // source_file_offset (validity, values)
+        ByteBuffer sourceFileOffsets = getBuffer(metadata, buffers, 11, body);
+        assertEquals("Offsets should match", -2L, sourceFileOffsets.getLong(16));
+        ByteBuffer crawlDates = getBuffer(metadata, buffers, 9, body);
+        assertEquals("Crawl dates should be epoch milliseconds", 1234567890123L + 1000, crawlDates.getLong(8));
+    }
+
+    @Test
+    public void empty() throws IOException {
+        ByteBuffer stream = serialize(new ArrayList<>(), 10);
+        int metadataLength = stream.getInt(4);
+        assertTrue("There should be a schema", metadataLength > 0);
+        assertEquals("The schema should be followed by end of stream", 8 + metadataLength + 8, stream.limit());
+    }
+
+    @Test
+    public void mixedNumbersWidened() throws IOException {
+        ByteBuffer stream = serialize(createValueDocs(1L, 2.5, 3L), "value", 2);
+        assertEquals("Mixed integer and floating point numbers should be Float", 3, getSchemaType(stream, 0));
+
+        // value: validity, values
+        ByteBuffer first = getBatchBuffer(stream, 0, 1);
+        assertEquals("The integer in the first row group should be converted", 1.0, first.getDouble(0), 0.0);
+        assertEquals("The floating point number should be kept", 2.5, first.getDouble(8), 0.0);
+        ByteBuffer second = getBatchBuffer(stream, 1, 1);
+        assertEquals("The integer in the later row group should be converted", 3.0, second.getDouble(0), 0.0);
+    }
+
+    @Test
+    public void mixedTypesWidened() throws IOException {
+        ByteBuffer stream = serialize(createValueDocs(1L, "foo", 2L), "value", 2);
+        assertEquals("Mixed numbers and Strings should be Utf8", 5, getSchemaType(stream, 0));
+
+        // value: validity, offsets, data
+        ByteBuffer offsets = getBatchBuffer(stream, 0, 1);
+        ByteBuffer data = getBatchBuffer(stream, 0, 2);
+        assertEquals("The number should be converted to String", "1",
+                     getUTF8(data, offsets.getInt(0), offsets.getInt(4)));
+        assertEquals("The String should be kept", "foo", getUTF8(data, offsets.getInt(4), offsets.getInt(8)));
+        offsets = getBatchBuffer(stream, 1, 1);
+        data = getBatchBuffer(stream, 1, 2);
+        assertEquals("The number in the later row group should be converted to String", "2",
+                     getUTF8(data, offsets.getInt(0), offsets.getInt(4)));
+    }
+
+    @Test
+    public void laterMismatchFails() {
+        try {
+            serialize(createValueDocs(1L, 2L, "foo"), "value", 2);
+            fail("A String in a later row group for an Int column should fail the export");
+        } catch (IOException e) {
+            assertTrue("The exception should name the field, but was '" + e.getMessage() + "'",
+                       e.getMessage().contains("'value'"));
+        }
+    }
+
+    @Test
+    public void solrSchemaTypes() throws IOException {
+        SolrSchema solrSchema = new SolrSchema(
+                Arrays.asList(new SolrSchema.Field("value", "solr.LongPointField", false),
+                              new SolrSchema.Field("url", "solr.StrField", false)),
+                Collections.singletonList(new SolrSchema.Field("*_dts", "solr.DatePointField", true)));
+        List<SolrDocument> docs = createValueDocs(null, null, 3L);
+        docs.get(0).setField("url", 1L);
+        docs.get(1).setField("crawl_dts", new Date(1234567890123L));
+        ByteBuffer stream = serialize(docs, "value, url, crawl_dts, unknown", solrSchema, 2);
+        assertEquals("The type of a field without values in the first row group should come from the Solr schema",
+                     2, getSchemaType(stream, 0));
+        assertEquals("The type of a String field with a number value should come from the Solr schema",
+                     5, getSchemaType(stream, 1));
+        assertEquals("A multi-valued dynamic field with a single value should be a list",
+                     12, getSchemaType(stream, 2));
+        assertEquals("A field that is not in the Solr schema should be derived from the values",
+                     5, getSchemaType(stream, 3));
+
+        // value: validity, values
+        ByteBuffer second = getBatchBuffer(stream, 1, 1);
+        assertEquals("The value in the later row group should be written", 3L, second.getLong(0));
+    }
+
+    /**
+     * Compare with a stream written and verified before: Changes to the output must be deliberate.
+     * <p>
+     * {@code example_arrow/golden.arrows} holds the schema
+     * {@code url: string, links: list<item: string>, crawl_date: timestamp[ms, tz=UTC], source_file_offset: int64}
+     * and 2 rows in a single record batch:
+     * {@code ("http://example.com/æ", ["a", "b"], 2020-01-01T00:00:00Z, 42)} and {@code (null, null, null, -1)}.
+     * <p>
+     * It has been checked field by field against the Arrow Columnar and IPC specifications. The FlatBuffers metadata
+     * is laid out front to back by {@link FlatBufferWriter}, so the bytes differ from the output of the C++ based
+     * writers in pyarrow, even though the logical content is the same.
+     * {@code pyarrow.ipc.open_stream(open("golden.arrows", "rb")).read_all()} reads the content above.
+     */
+    @Test
+    public void goldenFile() throws IOException {
+        SolrSchema solrSchema = new SolrSchema(
+                Arrays.asList(new SolrSchema.Field("url", "solr.StrField", false),
+                              new SolrSchema.Field("links", "solr.StrField", true),
+                              new SolrSchema.Field("crawl_date", "solr.DatePointField", false),
+                              new SolrSchema.Field("source_file_offset", "solr.LongPointField", false)),
+                Collections.emptyList());
+        SolrDocument first = new SolrDocument();
+        first.setField("url", "http://example.com/æ");
+        first.setField("links", Arrays.asList("a", "b"));
+        first.setField("crawl_date", new Date(1577836800000L)); // 2020-01-01T00:00:00Z
+        first.setField("source_file_offset", 42L);
+        SolrDocument second = new SolrDocument();
+        second.setField("source_file_offset", -1L);
+        ByteBuffer stream = serialize(Arrays.asList(first, second), "url, links, crawl_date, source_file_offset",
+                                      solrSchema, 10);
+
+        byte[] expected = Files.readAllBytes(UnitTestUtils.getFile("example_arrow/golden.arrows").toPath());
+        assertArrayEquals("The stream should match the golden file byte for byte", expected, stream.array());
+    }
+
+    private ByteBuffer serialize(List<SolrDocument> docs, int rowGroupSize) throws IOException {
+        return serialize(docs, "url, links, crawl_date, source_file_offset", rowGroupSize);
+    }
+
+    private ByteBuffer serialize(List<SolrDocument> docs, String fields, int rowGroupSize) throws IOException {
+        return serialize(docs, fields, null, rowGroupSize);
+    }
+
+    private ByteBuffer serialize(List<SolrDocument> docs, String fields, SolrSchema solrSchema, int rowGroupSize)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DocumentSerializer serializer = new ArrowDocumentSerializer(
+                fields.split(", *"), solrSchema, out, rowGroupSize, 1000000);
+        for (SolrDocument doc: docs) {
+            serializer.write(doc);
+        }
+        serializer.finish();
+        return ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private List<SolrDocument> createDocs(int count) {
+        List<SolrDocument> docs = new ArrayList<>();
+        for (int i = 0 ; i < count ; i++) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField("url", "http://example.com/" + i);
+            doc.setField("links", Arrays.asList("http://example.com/a" + i, "http://example.com/æ"));
+            doc.setField("crawl_date", new Date(1234567890123L + i*1000));
+            doc.setField("source_file_offset", -1L*i);
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private List<SolrDocument> createValueDocs(Object... values) {
+        List<SolrDocument> docs = new ArrayList<>();
+        for (Object value: values) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField("value", value);
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    /**
+     * @return the type ID of the schema field with the given index.
+     */
+    private static byte getSchemaType(ByteBuffer stream, int index) {
+        ByteBuffer metadata = slice(stream, 8, stream.getInt(4));
+        int message = metadata.getInt(0);
+        assertEquals("First message should be the schema", HEADER_SCHEMA, metadata.get(field(metadata, message, 1)));
+        int fields = reference(metadata, reference(metadata, message, 2), 1);
+        int field = fields + 4 + index*4 + metadata.getInt(fields + 4 + index*4);
+        return metadata.get(field(metadata, field, 2));
+    }
+
+    /**
+     * @return the body buffer with the given index from the record batch with the given index.
+     */
+    private static ByteBuffer getBatchBuffer(ByteBuffer stream, int batch, int index) {
+        int position = 0;
+        int batches = -1;
+        while (true) {
+            int metadataLength = stream.getInt(position + 4);
+            assertTrue("Record batch " + batch + " should exist", metadataLength != 0);
+            ByteBuffer metadata = slice(stream, position + 8, metadataLength);
+            int message = metadata.getInt(0);
+            int bodyLength = (int) metadata.getLong(field(metadata, message, 3));
+            if (metadata.get(field(metadata, message, 1)) == HEADER_RECORD_BATCH && ++batches == batch) {
+                ByteBuffer body = slice(stream, position + 8 + metadataLength, bodyLength);
+                return getBuffer(metadata, reference(metadata, reference(metadata, message, 2), 2), index, body);
+            }
+            position += 8 + metadataLength + bodyLength;
+        }
+    }
+
+    /* Minimal FlatBuffers reading */
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset).limit(offset + length);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int field(ByteBuffer buffer, int table, int id) {
+        int vtable = table - buffer.getInt(table);
+        int offset = 4 + id*2 < buffer.getShort(vtable) ? buffer.getShort(vtable + 4 + id*2) : 0;
+        assertTrue("Field " + id + " should be present", offset != 0);
+        return table + offset;
+    }
+
+    private static int reference(ByteBuffer buffer, int table, int id) {
+        int field = field(buffer, table, id);
+        return field + buffer.getInt(field);
+    }
+
+    private static String getString(ByteBuffer buffer, int pos) {
+        return getUTF8(buffer, pos + 4, pos + 4 + buffer.getInt(pos));
+    }
+
+    private static String getUTF8(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        slice(buffer, start, end - start).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer getBuffer(ByteBuffer metadata, int buffers, int index, ByteBuffer body) {
+        long offset = metadata.getLong(buffers + 4 + index*16);
+        long length = metadata.getLong(buffers + 4 + index*16 + 8);
+        assertEquals("Buffers should be 8 byte aligned", 0, offset % 8);
+        return slice(body, (int) offset, (int) length);
+    }
+}
@@ -0,0 +1,93 @@
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.util.JsonUtils;
+import org.apache.solr.common.SolrDocument;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class DocumentSerializerTest {
+    private static final String FIELDS = "url, links, crawl_date, source_file_offset, missing";
+
+    @Test
+    public void csvMatchesLegacy() throws IOException {
+        List<SolrDocument> docs = new ArrayList<>(createDocs());
+        SolrDocument astral = new SolrDocument();
+        astral.setField("url", "http://example.com/😀"); // Jackson escapes these in JSON, so only tested for CSV
+        docs.add(astral);
+        GenerateCSV legacy = new GenerateCSV(FIELDS.split(", *"));
+        StringBuilder expected = new StringBuilder();
+        docs.forEach(doc -> expected.append(legacy.toCVSLine(doc)));
+
+        assertEquals("Byte level CSV should match the legacy CSV generator",
+                     expected.toString(), serialize(ContentStreams.FORMAT.csv, docs));
+    }
+
+    @Test
+    public void jsonLinesMatchesLegacy() throws IOException {
+        List<SolrDocument> docs = createDocs();
+        StringBuilder expected = new StringBuilder();
+        docs.forEach(doc -> expected.append(JsonUtils.toJSON(doc)).append("\n"));
+
+        assertEquals("Streaming JSON-Lines should match per-document Jackson serialization",
+                     expected.toString(), serialize(ContentStreams.FORMAT.jsonl, docs));
+    }
+
+    @Test
+    public void jsonMatchesLegacy() throws IOException {
+        List<SolrDocument> docs = createDocs();
+        String expected = "[\n" + JsonUtils.toJSON(docs.get(0)) + ",\n" + JsonUtils.toJSON(docs.get(1)) + "\n]\n";
+
+        assertEquals("Streaming JSON should match per-document Jackson serialization",
+                     expected, serialize(ContentStreams.FORMAT.json, docs));
+        assertEquals("Empty JSON export should be an empty array",
+                     "[\n\n]\n", serialize(ContentStreams.FORMAT.json, new ArrayList<>()));
+    }
+
+    private String serialize(ContentStreams.FORMAT format, List<SolrDocument> docs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DocumentSerializer serializer = DocumentSerializer.create(format, FIELDS, out);
+        for (SolrDocument doc: docs) {
+            serializer.write(doc);
+        }
+        serializer.finish();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private List<SolrDocument> createDocs() {
+        SolrDocument doc1 = new SolrDocument();
+        doc1.setField("url", "http://example.com/\"quoted\"/æblegrød");
+        doc1.setField("links", Arrays.asList("http://example.com/a", "http://example.com/b"));
+        doc1.setField("crawl_date", new Date(1234567890123L));
+        doc1.setField("source_file_offset", -87L);
+
+        SolrDocument doc2 = new SolrDocument();
+        doc2.setField("url", "http://example.com/中");
+        doc2.setField("source_file_offset", 0L);
+        doc2.setField("score", 1.5f);
+        doc2.setField("status_code", 200);
+        return Arrays.asList(doc1, doc2);
+    }
+}
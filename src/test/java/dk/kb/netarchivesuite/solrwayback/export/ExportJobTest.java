@@ -0,0 +1,156 @@
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoaderWeb;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ExportJobStatus;
+import dk.kb.netarchivesuite.solrwayback.service.exception.InvalidArgumentServiceException;
+import dk.kb.netarchivesuite.solrwayback.service.exception.NotFoundServiceException;
+import dk.kb.netarchivesuite.solrwayback.util.InteractiveTraffic;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class ExportJobTest {
+
+    @BeforeClass
+    public static void setSpoolFolder() throws IOException {
+        PropertiesLoaderWeb.EXPORT_JOBS_DIR = Files.createTempDirectory("exportjobtest").toString();
+    }
+
+    @Test
+    public void finishedJob() throws Exception {
+        ExportJob job = ExportJob.submit("csv", "*:*", (out, documentTracker) -> {
+            for (int i = 0 ; i < 10 ; i++) {
+                documentTracker.test(i);
+                out.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        waitForEnd(job);
+
+        ExportJobStatus status = job.getStatus();
+        assertEquals("The job should be finished", "finished", status.getState());
+        assertEquals("All documents should be counted", 10, status.getDocuments());
+        assertEquals("All bytes should be counted", Files.size(job.getFile()), status.getBytes());
+        assertTrue("The file should have the right extension", job.getFile().toString().endsWith(".csv"));
+        assertEquals("The file should contain all lines",
+                     10, Files.readAllLines(job.getFile(), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void failedJob() throws Exception {
+        ExportJob job = ExportJob.submit("csv", "*:*", (out, documentTracker) -> {
+            out.write(1);
+            throw new IOException("Simulated failure");
+        });
+        waitForEnd(job);
+
+        assertEquals("The job should have failed", "failed", job.getStatus().getState());
+        assertEquals("The error should be stated", "Simulated failure", job.getStatus().getError());
+        try {
+            job.getFile();
+            fail("Requesting the file for a failed job should fail");
+        } catch (InvalidArgumentServiceException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void removeRunningJob() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        ExportJob job = ExportJob.submit("warc", "*:*", (out, documentTracker) -> {
+            running.countDown();
+            while (true) {
+                out.write(new byte[1000]);
+                Thread.sleep(1);
+            }
+        });
+        running.await();
+        ExportJob.remove(job.getId());
+        long cancelled = job.getStatus().getFinished();
+        waitForEnd(job);
+        Thread.sleep(100); // Allow the job thread to finish
+
+        assertEquals("The job should be cancelled", "cancelled", job.getStatus().getState());
+        assertEquals("The end time should be the time of cancellation", cancelled, job.getStatus().getFinished());
+        assertFalse("The job should not be listed", ExportJob.list().contains(job));
+        try {
+            ExportJob.get(job.getId());
+            fail("Requesting a removed job should fail");
+        } catch (NotFoundServiceException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void yieldToInteractive() throws Exception {
+        int yieldMS = PropertiesLoaderWeb.EXPORT_JOBS_YIELD_MS;
+        PropertiesLoaderWeb.EXPORT_JOBS_YIELD_MS = 10000;
+        InteractiveTraffic.begin();
+        try {
+            ExportJob job = ExportJob.submit("csv", "*:*", (out, documentTracker) -> out.write(new byte[100000]));
+            Thread.sleep(500);
+            assertEquals("The job should wait for the interactive request to finish",
+                         ExportJob.STATE.running, job.getState());
+            assertEquals("Nothing should be written while waiting", 0, job.getStatus().getBytes());
+
+            InteractiveTraffic.end();
+            waitForEnd(job);
+            assertEquals("The job should finish when the interactive request has finished",
+                         ExportJob.STATE.finished, job.getState());
+            assertEquals("All bytes should be written", 100000, job.getStatus().getBytes());
+        } finally {
+            if (InteractiveTraffic.getActive() > 0) {
+                InteractiveTraffic.end();
+            }
+            PropertiesLoaderWeb.EXPORT_JOBS_YIELD_MS = yieldMS;
+        }
+    }
+
+    @Test
+    public void removeOrphans() throws Exception {
+        Path folder = Files.createTempDirectory("exportjoborphans");
+        Path old = Files.write(folder.resolve(ExportJob.FILE_PREFIX + "old.csv"), new byte[1]);
+        Path recent = Files.write(folder.resolve(ExportJob.FILE_PREFIX + "recent.csv.part"), new byte[1]);
+        Path unrelated = Files.write(folder.resolve("12345678-1234-1234-1234-123456789012.csv"), new byte[1]);
+        FileTime longAgo = FileTime.fromMillis(System.currentTimeMillis() - 2*60*60*1000L);
+        Files.setLastModifiedTime(old, longAgo);
+        Files.setLastModifiedTime(unrelated, longAgo);
+
+        ExportJob.removeOrphans(folder, 60*60*1000L);
+        assertFalse("An old export job file should be removed", Files.exists(old));
+        assertTrue("A recently modified export job file should be kept", Files.exists(recent));
+        assertTrue("A file without the export job prefix should be kept", Files.exists(unrelated));
+    }
+
+    private void waitForEnd(ExportJob job) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (job.getState() == ExportJob.STATE.queued || job.getState() == ExportJob.STATE.running) {
+            assertTrue("The job should end within 10 seconds", System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+    }
+}
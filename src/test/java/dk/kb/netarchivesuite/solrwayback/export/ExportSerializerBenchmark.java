@@ -0,0 +1,74 @@
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.util.JsonUtils;
+import dk.kb.netarchivesuite.solrwayback.util.StreamBridge;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.solr.common.SolrDocument;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Manual benchmark of export serialization, comparing the legacy String based serialization with the
+ * {@link DocumentSerializer}s. Output is discarded, so only serialization is measured.
+ */
+public class ExportSerializerBenchmark {
+    private static final int DOCS = 1_000_000;
+    private static final int RUNS = 3;
+    private static final String FIELDS = "id, url, links, crawl_date, source_file_offset, content_type_norm";
+
+    public static void main(String[] args) throws IOException {
+        SolrDocument[] docs = new SolrDocument[1000];
+        for (int i = 0 ; i < docs.length ; i++) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField("id", "20200315123151/" + i);
+            doc.setField("url", "https://www.example.com/section_" + i%17 + "/article_" + i + ".html?id=\"" + i + "\"");
+            doc.setField("links", Arrays.asList("https://www.example.com/", "https://www.example.com/img_" + i + ".png"));
+            doc.setField("crawl_date", new Date(1584275511000L + i*1000L));
+            doc.setField("source_file_offset", i*12345L);
+            doc.setField("content_type_norm", "html");
+            docs[i] = doc;
+        }
+
+        for (int run = 0 ; run < RUNS ; run++) {
+            for (ContentStreams.FORMAT format: ContentStreams.FORMAT.values()) {
+                if (format == ContentStreams.FORMAT.arrows) { // No legacy implementation
+                    System.out.printf(Locale.ROOT, "Run %d, %-6s: serializer %,10d docs/s%n",
+                                      run, format, measureSerializer(format, docs));
+                    continue;
+                }
+                long legacy = measureLegacy(format, docs);
+                long serializer = measureSerializer(format, docs);
+                System.out.printf(Locale.ROOT, "Run %d, %-6s: legacy %,10d docs/s, serializer %,10d docs/s (x%.1f)%n",
+                                  run, format, legacy, serializer, serializer*1.0/legacy);
+            }
+        }
+    }
+
+    private static long measureLegacy(ContentStreams.FORMAT format, SolrDocument[] docs) {
+        StreamBridge.SafeOutputStream out = new StreamBridge.SafeOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        GenerateCSV csv = new GenerateCSV(FIELDS.split(", *"));
+        long startNS = System.nanoTime();
+        for (int i = 0 ; i < DOCS ; i++) {
+            SolrDocument doc = docs[i % docs.length];
+            if (format == ContentStreams.FORMAT.csv) {
+                out.write(csv.toCVSLine(doc));
+            } else {
+                out.writeln(JsonUtils.toJSON(doc));
+            }
+        }
+        return DOCS * 1_000_000_000L / (System.nanoTime() - startNS);
+    }
+
+    private static long measureSerializer(ContentStreams.FORMAT format, SolrDocument[] docs) throws IOException {
+        DocumentSerializer serializer = DocumentSerializer.create(format, FIELDS, NullOutputStream.NULL_OUTPUT_STREAM);
+        long startNS = System.nanoTime();
+        for (int i = 0 ; i < DOCS ; i++) {
+            serializer.write(docs[i % docs.length]);
+        }
+        serializer.finish();
+        return DOCS * 1_000_000_000L / (System.nanoTime() - startNS);
+    }
+}
@@ -0,0 +1,152 @@
+package dk.kb.netarchivesuite.solrwayback.export;
+
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntryDescriptor;
+import dk.kb.netarchivesuite.solrwayback.service.exception.InvalidArgumentServiceException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class StreamingImageSearchTest {
+
+    @Test
+    public void paging() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        StreamingImageSearch search = StreamingImageSearch.register(createSearch(5, closed));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals("The first page should be full", 3, search.write(out, 3, ArcEntryDescriptor::getOffset));
+        assertEquals("The first page should hold the first images",
+                     "0\n1\n2\n", out.toString(StandardCharsets.UTF_8.name()));
+        assertFalse("The search should not be closed before it is depleted", closed.get());
+
+        out.reset();
+        StreamingImageSearch resumed = StreamingImageSearch.resume(search.getCursor());
+        assertSame("Resuming should deliver the same search", search, resumed);
+        assertEquals("The last page should hold the remaining images",
+                     2, resumed.write(out, 3, ArcEntryDescriptor::getOffset));
+        assertEquals("The last page should continue where the first ended",
+                     "3\n4\n", out.toString(StandardCharsets.UTF_8.name()));
+        assertTrue("A depleted search should be closed", closed.get());
+        assertFalse("A depleted search should be discarded", StreamingImageSearch.isActive(search.getCursor()));
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        StreamingImageSearch search = StreamingImageSearch.register(createSearch(5, closed));
+        search.setLastAccess(System.currentTimeMillis() - StreamingImageSearch.MAX_IDLE_MS - 1000);
+
+        // Registering another search discards idle searches
+        StreamingImageSearch.register(createSearch(1, new AtomicBoolean(false)));
+        assertTrue("An expired search should be closed", closed.get());
+        try {
+            StreamingImageSearch.resume(search.getCursor());
+            fail("Resuming an expired search should fail");
+        } catch (InvalidArgumentServiceException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void expiryOnResume() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        StreamingImageSearch search = StreamingImageSearch.register(createSearch(5, closed));
+        search.setLastAccess(System.currentTimeMillis() - StreamingImageSearch.MAX_IDLE_MS - 1000);
+        try {
+            StreamingImageSearch.resume(search.getCursor());
+            fail("Resuming an expired search should fail");
+        } catch (InvalidArgumentServiceException e) {
+            assertTrue("An expired search should be closed when resumed", closed.get());
+        }
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        StreamingImageSearch first = StreamingImageSearch.register(createSearch(5, closed));
+        for (int i = 0 ; i < StreamingImageSearch.MAX_SEARCHES ; i++) {
+            StreamingImageSearch.register(createSearch(1, new AtomicBoolean(false)));
+        }
+        assertTrue("An evicted search should be closed", closed.get());
+        assertFalse("The least recently used search should be evicted", StreamingImageSearch.isActive(first.getCursor()));
+    }
+
+    @Test
+    public void errorRemoval() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        Stream<ArcEntryDescriptor> failing = IntStream.range(0, 5).mapToObj(i -> {
+            if (i == 2) {
+                throw new IllegalStateException("Solr failure");
+            }
+            return createDescriptor(i);
+        }).onClose(() -> closed.set(true));
+        StreamingImageSearch search = StreamingImageSearch.register(
+                new StreamingImageSearch(UUID.randomUUID().toString(), "*:*", failing));
+        try {
+            search.write(new ByteArrayOutputStream(), 10, ArcEntryDescriptor::getOffset);
+            fail("The failure from the underlying stream should be passed on");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertTrue("A failed search should be closed", closed.get());
+        assertFalse("A failed search should be discarded", StreamingImageSearch.isActive(search.getCursor()));
+    }
+
+    @Test
+    public void writeErrorRemoval() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        StreamingImageSearch search = StreamingImageSearch.register(createSearch(5, closed));
+        try {
+            search.write(new ByteArrayOutputStream() {
+                @Override
+                public void flush() throws IOException {
+                    throw new IOException("Connection closed");
+                }
+            }, 10, ArcEntryDescriptor::getOffset);
+            fail("The write failure should be passed on");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue("A failed search should be closed", closed.get());
+        assertFalse("A failed search should be discarded", StreamingImageSearch.isActive(search.getCursor()));
+    }
+
+    private static StreamingImageSearch createSearch(int images, AtomicBoolean closed) {
+        Stream<ArcEntryDescriptor> stream = IntStream.range(0, images).
+                mapToObj(StreamingImageSearchTest::createDescriptor).
+                onClose(() -> closed.set(true));
+        return new StreamingImageSearch(UUID.randomUUID().toString(), "*:*", stream);
+    }
+
+    private static ArcEntryDescriptor createDescriptor(long offset) {
+        ArcEntryDescriptor descriptor = new ArcEntryDescriptor();
+        descriptor.setOffset(offset);
+        return descriptor;
+    }
+}
@@ -0,0 +1,78 @@
+package dk.kb.netarchivesuite.solrwayback.image;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class ImageUtilsTest {
+
+    @Test
+    public void scaledDecode() throws Exception {
+        byte[] png = createPNG(1000, 800);
+        BufferedImage thumbnail = ImageUtils.getScaledImageFromBinary(
+                new ByteArrayInputStream(png), 200, 200, Long.MAX_VALUE);
+        assertEquals("The thumbnail should have the expected width", 200, thumbnail.getWidth());
+        assertEquals("The thumbnail should have the expected height", 160, thumbnail.getHeight());
+    }
+
+    @Test
+    public void smallImageUnchanged() throws Exception {
+        byte[] png = createPNG(100, 50);
+        BufferedImage image = ImageUtils.getScaledImageFromBinary(
+                new ByteArrayInputStream(png), 200, 200, Long.MAX_VALUE);
+        assertEquals("The image should keep its width", 100, image.getWidth());
+        assertEquals("The image should keep its height", 50, image.getHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeGuard() throws Exception {
+        byte[] png = createPNG(1000, 800);
+        ImageUtils.getScaledImageFromBinary(new ByteArrayInputStream(png), 1000, 1000, 1000);
+    }
+
+    @Test
+    public void unsupportedFormat() throws Exception {
+        assertNull("Non-image content should give null",
+                   ImageUtils.getScaledImageFromBinary(new ByteArrayInputStream(new byte[100]), 200, 200, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void subsampling() {
+        assertEquals("No subsampling for small images", 1, ImageUtils.determineSubsampling(300, 300, 200, 200));
+        assertEquals("Subsampling should keep twice the target size", 5, ImageUtils.determineSubsampling(2000, 3000, 200, 200));
+    }
+
+    private byte[] createPNG(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, width/2, height/2);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
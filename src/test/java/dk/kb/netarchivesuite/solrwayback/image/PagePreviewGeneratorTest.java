@@ -0,0 +1,159 @@
+package dk.kb.netarchivesuite.solrwayback.image;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class PagePreviewGeneratorTest {
+
+    @Test
+    public void existingPreviews() throws Exception {
+        Path folder = Files.createTempDirectory("pagepreview");
+        try {
+            File old = createPreview(folder, "/warcs/a.warc", 10, 1000);
+            File newer = createPreview(folder, "/warcs/a.warc", 20, 2000);
+            File newest = createPreview(folder, "/warcs/b.warc", 10, 3000);
+            File stale = folder.resolve("rendering_foo.png").toFile();
+            assertTrue(stale.createNewFile());
+
+            PagePreviewGenerator generator = new PagePreviewGenerator(folder.toFile(), 2, 1, 1);
+
+            assertFalse("The oldest preview should be evicted", old.exists());
+            assertFalse("Partial renderings should be removed", stale.exists());
+            assertTrue("Newer previews should be kept", newer.exists() && newest.exists());
+            assertEquals("Cached previews should be delivered without rendering",
+                         "/warcs/b.warc#10", new String(generator.getPreview("/warcs/b.warc", 10), "UTF-8"));
+        } finally {
+            for (File file: folder.toFile().listFiles()) {
+                file.delete();
+            }
+            Files.delete(folder);
+        }
+    }
+
+    @Test
+    public void concurrentRequestsShareRendering() throws Exception {
+        Path folder = Files.createTempDirectory("pagepreview");
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountingGenerator generator = new CountingGenerator(folder.toFile(), 0, release);
+
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0 ; i < 4 ; i++) {
+                results.add(callers.submit(() -> generator.getPreview("/warcs/a.warc", 10)));
+            }
+            // Wait for the first caller to start rendering, then give the others time to join it
+            assertTrue("Rendering should start", generator.started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<byte[]> result: results) {
+                assertArrayEquals("All callers should get the preview even though it is not kept",
+                                  previewContent("/warcs/a.warc", 10), result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals("Concurrent requests should share a single rendering", 1, generator.captures.get());
+            assertEquals("The preview should be deleted after delivery with maxFiles=0",
+                         0, folder.toFile().listFiles().length);
+        } finally {
+            callers.shutdownNow();
+            deleteFolder(folder);
+        }
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        Path folder = Files.createTempDirectory("pagepreview");
+        try {
+            CountingGenerator generator = new CountingGenerator(folder.toFile(), 2, new CountDownLatch(0));
+            for (long offset = 1 ; offset <= 3 ; offset++) {
+                assertArrayEquals("The rendered preview should be delivered",
+                                  previewContent("/warcs/a.warc", offset), generator.getPreview("/warcs/a.warc", offset));
+            }
+            assertEquals("Only maxFiles previews should be kept on disk", 2, folder.toFile().listFiles().length);
+            assertEquals("Three previews should be rendered", 3, generator.captures.get());
+
+            generator.getPreview("/warcs/a.warc", 3);
+            assertEquals("A cached preview should not be rendered again", 3, generator.captures.get());
+
+            assertArrayEquals("An evicted preview should be rendered again",
+                              previewContent("/warcs/a.warc", 1), generator.getPreview("/warcs/a.warc", 1));
+            assertEquals("An evicted preview should be rendered again", 4, generator.captures.get());
+            assertEquals("Only maxFiles previews should be kept on disk", 2, folder.toFile().listFiles().length);
+        } finally {
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Writes a preview with a content derived from the url instead of starting Chrome.
+     */
+    private static class CountingGenerator extends PagePreviewGenerator {
+        final AtomicInteger captures = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release;
+
+        CountingGenerator(File cacheFolder, int maxFiles, CountDownLatch release) {
+            super(cacheFolder, maxFiles, 2, 10);
+            this.release = release;
+        }
+
+        @Override
+        void capture(String url, File rendering) throws Exception {
+            captures.incrementAndGet();
+            started.countDown();
+            assertTrue("Rendering should be released", release.await(10, TimeUnit.SECONDS));
+            String source = url.replaceAll(".*source_file_path=([^&]+)&offset=([0-9]+).*", "$1#$2");
+            Files.write(rendering.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] previewContent(String sourceFilePath, long offset) {
+        return (sourceFilePath + "#" + offset).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void deleteFolder(Path folder) throws Exception {
+        for (File file: folder.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(folder);
+    }
+
+    private File createPreview(Path folder, String sourceFilePath, long offset, long lastModified) throws Exception {
+        File preview = folder.resolve(
+                "preview_" + PagePreviewGenerator.createKey(sourceFilePath, offset) + ".png").toFile();
+        Files.write(preview.toPath(), (sourceFilePath + "#" + offset).getBytes("UTF-8"));
+        assertTrue(preview.setLastModified(lastModified));
+        return preview;
+    }
+}
@@ -0,0 +1,62 @@
+package dk.kb.netarchivesuite.solrwayback.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class ThumbnailCacheTest {
+
+    @Test
+    public void boundedByBytes() {
+        int entryBytes = 1000 + ThumbnailCache.ENTRY_OVERHEAD;
+        ThumbnailCache cache = new ThumbnailCache(1000, 3 * entryBytes, 60_000);
+        // The same image requested in many sizes
+        for (int size = 100 ; size < 110 ; size++) {
+            cache.putThumbnail("a.warc#10#" + size + "x" + size, new byte[1000]);
+        }
+        assertEquals("The number of thumbnails should be bounded by bytes", 3, cache.size());
+        assertTrue("The cache should not exceed max bytes", cache.bytes() <= 3 * entryBytes);
+        assertNull("The least recently used thumbnail should be evicted", cache.getThumbnail("a.warc#10#100x100"));
+        assertNotNull("The most recently added thumbnail should be cached", cache.getThumbnail("a.warc#10#109x109"));
+    }
+
+    @Test
+    public void boundedByEntries() {
+        ThumbnailCache cache = new ThumbnailCache(2, 1024 * 1024, 60_000);
+        cache.putThumbnail("a", new byte[10]);
+        cache.putThumbnail("b", new byte[10]);
+        cache.getThumbnail("a");
+        cache.putThumbnail("c", new byte[10]);
+        assertEquals("The number of thumbnails should be bounded by entries", 2, cache.size());
+        assertNull("The least recently used thumbnail should be evicted", cache.getThumbnail("b"));
+        assertNotNull("A recently used thumbnail should be kept", cache.getThumbnail("a"));
+    }
+
+    @Test
+    public void tooLarge() {
+        ThumbnailCache cache = new ThumbnailCache(10, 2000, 60_000);
+        cache.putThumbnail("a", new byte[100]);
+        cache.putThumbnail("b", new byte[5000]);
+        assertNull("A thumbnail larger than max bytes should not be cached", cache.getThumbnail("b"));
+        assertNotNull("A thumbnail larger than max bytes should not evict others", cache.getThumbnail("a"));
+        assertEquals("The byte count should only include cached thumbnails",
+                     100 + ThumbnailCache.ENTRY_OVERHEAD, cache.bytes());
+    }
+}
@@ -56,6 +56,99 @@ public class AutoFileResolverTest {
         }
     }
 
+    @Test
+    public void testPersistentIndex() throws IOException {
+        Path tmpdir = createWARCFolders();
+        Path index = tmpdir.resolve("autoresolver.idx");
+        Map<String, String> config = new HashMap<>();
+        config.put(AutoFileResolver.ROOTS_KEY, tmpdir.toString());
+        config.put(AutoFileResolver.INDEX_FILE_KEY, index.toString());
+
+        AutoFileResolver resolver = new AutoFileResolver();
+        resolver.setParameters(config);
+        assertFalse("Loading a non-existing index should fail", resolver.loadIndex());
+        resolver.scan();
+        assertTrue("The index file should be created by the scan", Files.exists(index));
+
+        AutoFileResolver reloaded = new AutoFileResolver();
+        reloaded.setParameters(config);
+        assertTrue("Loading the index stored by the previous resolver should succeed", reloaded.loadIndex());
+        assertEquals("The reloaded resolver should resolve the WARC in the subfolder",
+                     tmpdir.resolve("a").resolve("b").resolve("zoo.arc").toString(),
+                     reloaded.resolveArcFileLocation("zoo.arc").getSource());
+
+        config.put(AutoFileResolver.PATTERN_KEY, ".*[.]warc");
+        AutoFileResolver otherSetup = new AutoFileResolver();
+        otherSetup.setParameters(config);
+        assertFalse("An index created with another pattern should not be loaded", otherSetup.loadIndex());
+    }
+
+    @Test
+    public void testIncrementalRescan() throws IOException {
+        Path tmpdir = createWARCFolders();
+        Map<String, String> config = new HashMap<>();
+        config.put(AutoFileResolver.ROOTS_KEY, tmpdir.toString());
+        config.put(AutoFileResolver.INDEX_FILE_KEY, "");
+        config.put(AutoFileResolver.SCAN_THREADS_KEY, "2");
+        AutoFileResolver resolver = new AutoFileResolver();
+        resolver.setParameters(config);
+        resolver.scan();
+
+        for (String warc: Arrays.asList("foo.warc", "bar.WARC.gz", "zoo.arc", "baz.arc.gz")) {
+            assertNotEquals("The (W)ARC '" + warc + "' should be resolvable",
+                            warc, resolver.resolveArcFileLocation(warc).getSource());
+        }
+
+        Files.createDirectory(tmpdir.resolve("a").resolve("c"));
+        Files.write(tmpdir.resolve("a").resolve("c").resolve("new.warc"), "moo".getBytes(StandardCharsets.UTF_8));
+        Files.delete(tmpdir.resolve("foo.warc"));
+        resolver.scan();
+
+        assertEquals("The new WARC should be resolved after rescan",
+                     tmpdir.resolve("a").resolve("c").resolve("new.warc").toString(),
+                     resolver.resolveArcFileLocation("new.warc").getSource());
+        assertEquals("The deleted WARC should not be resolved after rescan",
+                     "foo.warc", resolver.resolveArcFileLocation("foo.warc").getSource());
+        assertNotEquals("The unchanged WARC in the subfolder should still be resolvable",
+                        "zoo.arc", resolver.resolveArcFileLocation("zoo.arc").getSource());
+    }
+
+    @Test
+    public void testDuplicatesLastFolderWins() throws IOException {
+        Path tmpdir = createWARCFolders();
+        for (Path folder: Arrays.asList(tmpdir.resolve("b"), tmpdir.resolve("a"), tmpdir.resolve("a").resolve("b"))) {
+            Files.createDirectories(folder);
+            Files.write(folder.resolve("dup.warc"), "moo".getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, String> config = new HashMap<>();
+        config.put(AutoFileResolver.ROOTS_KEY, tmpdir.toString());
+        config.put(AutoFileResolver.INDEX_FILE_KEY, "");
+        config.put(AutoFileResolver.SCAN_THREADS_KEY, "4");
+        AutoFileResolver resolver = new AutoFileResolver();
+        resolver.setParameters(config);
+
+        String expected = tmpdir.resolve("b").resolve("dup.warc").toString();
+        for (int i = 0 ; i < 10 ; i++) {
+            resolver.scan();
+            assertEquals("The duplicate WARC should resolve to the last folder by path in scan #" + i,
+                         expected, resolver.resolveArcFileLocation("dup.warc").getSource());
+        }
+    }
+
+    /**
+     * Creates 4 (W)ARCs in a temporary folder, one of them in the sub folder {@code a/b}.
+     */
+    private Path createWARCFolders() throws IOException {
+        Path tmpdir = Files.createTempDirectory("autoresolver_");
+        tmpdir.toFile().deleteOnExit();
+        Files.write(tmpdir.resolve("foo.warc"), "moo".getBytes(StandardCharsets.UTF_8));
+        Files.write(tmpdir.resolve("bar.WARC.gz"), "moo".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(tmpdir.resolve("a").resolve("b"));
+        Files.write(tmpdir.resolve("a").resolve("b").resolve("zoo.arc"), "moo".getBytes(StandardCharsets.UTF_8));
+        Files.write(tmpdir.resolve("baz.arc.gz"), "moo".getBytes(StandardCharsets.UTF_8));
+        return tmpdir;
+    }
+
     
     /**
     @Test
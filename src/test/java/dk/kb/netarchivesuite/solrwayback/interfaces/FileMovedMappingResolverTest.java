@@ -3,6 +3,9 @@ package dk.kb.netarchivesuite.solrwayback.interfaces;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import org.junit.Test;
 
 import dk.kb.netarchivesuite.solrwayback.UnitTestUtils;
@@ -37,4 +40,24 @@ public class FileMovedMappingResolverTest extends UnitTestUtils {
     
   }
   
+  @Test
+  public void testMappedIndex() throws Exception {
+    File file = getFile("src/test/resources/arc_resolvers/FileMovedMappingTest.txt");
+    Path index = Files.createTempFile("filemovedmapping_", ".idx");
+    index.toFile().deleteOnExit();
+    MappedFileLocationIndex.build(file.toPath(), index);
+
+    FileMovedMappingResolver resolver = new FileMovedMappingResolver();
+    resolver.setMappingFile(index.toString());
+    resolver.initialize();
+
+    String warc1="/abc/test/example.warc";
+    assertEquals("A WARC not in the index should be returned unchanged",
+                 warc1, resolver.resolveArcFileLocation(warc1).getSource());
+    String warc4_moved= resolver.resolveArcFileLocation("/oldlocation/test-00000.warc.gz").getSource();
+    warc4_moved = warc4_moved.replace("\\", "/"); //When running unittest on windows...
+    assertEquals("A WARC in the index should be resolved to the new location",
+                 "/mount/netarchive/test-00000.warc.gz", warc4_moved);
+  }
+
 }
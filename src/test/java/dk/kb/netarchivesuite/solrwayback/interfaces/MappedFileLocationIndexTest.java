@@ -0,0 +1,109 @@
+package dk.kb.netarchivesuite.solrwayback.interfaces;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class MappedFileLocationIndexTest {
+
+    @Test
+    public void testRandomLookups() throws IOException {
+        final String[] folders = new String[]{"/storage/a", "/storage/b", "/netmount/æøå/c"};
+        Random random = new Random(87);
+        Map<String, String> expected = new HashMap<>();
+        FileLocationTable.Builder builder = new FileLocationTable.Builder();
+        for (int i = 0 ; i < 5000 ; i++) {
+            // Shared prefixes as with real WARC names
+            String name = "12345-" + random.nextInt(100) + "-2021" + random.nextInt(1000000) + "-00000.warc.gz";
+            int folderID = random.nextInt(folders.length);
+            if (!expected.containsKey(name)) {
+                expected.put(name, folders[folderID]);
+                builder.add(name, folderID);
+            }
+        }
+
+        for (int blockSize: new int[]{1, 3, MappedFileLocationIndex.DEFAULT_BLOCK_SIZE}) {
+            MappedFileLocationIndex index = createIndex(builder.build(folders), blockSize);
+            assertEquals("The index should contain all files for block size " + blockSize,
+                         expected.size(), index.size());
+            for (Map.Entry<String, String> entry: expected.entrySet()) {
+                assertEquals("The folder for '" + entry.getKey() + "' should be as expected for block size " +
+                             blockSize, entry.getValue(), index.getFolder(entry.getKey()));
+            }
+            for (String missing: new String[]{"", "0", "12345-", "12345-1-2021", "zzz.warc", "12345-99-20219999999"}) {
+                assertNull("There should be no folder for '" + missing + "' for block size " + blockSize,
+                           index.getFolder(missing));
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        MappedFileLocationIndex index = createIndex(FileLocationTable.EMPTY, MappedFileLocationIndex.DEFAULT_BLOCK_SIZE);
+        assertEquals("The empty index should have no files", 0, index.size());
+        assertNull("Lookups in the empty index should return null", index.getFolder("foo.warc"));
+    }
+
+    @Test
+    public void testDuplicatesKeepLast() throws IOException {
+        Path text = Files.createTempFile("mappedindex_", ".txt");
+        text.toFile().deleteOnExit();
+        Files.write(text, "/storage/a/foo.warc\n/storage/b/foo.warc\n/storage/c/bar.warc\n/storage/d/foo.warc\n".
+                getBytes("UTF-8"));
+        Path indexFile = Files.createTempFile("mappedindex_", ".idx");
+        indexFile.toFile().deleteOnExit();
+        MappedFileLocationIndex.build(text, indexFile);
+
+        MappedFileLocationIndex index = MappedFileLocationIndex.open(indexFile);
+        assertEquals("Duplicates should be collapsed", 2, index.size());
+        assertEquals("The last line for a duplicate filename should be used, as for the text mapping",
+                     "/storage/d", index.getFolder("foo.warc"));
+        assertEquals("Non-duplicates should be resolved", "/storage/c", index.getFolder("bar.warc"));
+    }
+
+    @Test
+    public void testIsIndex() throws IOException {
+        Path text = Files.createTempFile("mappedindex_", ".txt");
+        text.toFile().deleteOnExit();
+        Files.write(text, "/storage/a/foo.warc\n".getBytes("UTF-8"));
+        assertFalse("A text mapping should not be detected as an index", MappedFileLocationIndex.isIndex(text));
+
+        Path indexFile = Files.createTempFile("mappedindex_", ".idx");
+        indexFile.toFile().deleteOnExit();
+        MappedFileLocationIndex.build(text, indexFile);
+        assertTrue("A built index should be detected as an index", MappedFileLocationIndex.isIndex(indexFile));
+        assertEquals("The built index should resolve the file in the text mapping",
+                     "/storage/a", MappedFileLocationIndex.open(indexFile).getFolder("foo.warc"));
+    }
+
+    private MappedFileLocationIndex createIndex(FileLocationTable table, int blockSize) throws IOException {
+        Path indexFile = Files.createTempFile("mappedindex_", ".idx");
+        indexFile.toFile().deleteOnExit();
+        MappedFileLocationIndex.write(table, indexFile, blockSize);
+        return MappedFileLocationIndex.open(indexFile);
+    }
+}
@@ -150,18 +150,19 @@ public class TestExportWarcStreaming extends UnitTestUtils {
     @Test
   public void testNoCompressionTruncated() throws Exception {
     final String[][] ENTRIES = new String[][]{
-            {"compressions_warc/transfer_compression_none_truncated.warc.gz", "881"} // Expected 856
+            {"compressions_warc/transfer_compression_none_truncated.warc.gz", "881"} // Expected 915
     };
-    assertExportSize(ENTRIES, 856, true);
+    // 852 bytes of headers, the 59 bytes of content that can be decompressed before the truncation and the trailer
+    assertExportSize(ENTRIES, 915, true);
   }
 
     @Test
   public void testGzipExportTruncated() throws Exception {
     final String[][] ENTRIES = new String[][]{
-            {"compressions_warc/transfer_compression_none_truncated.warc.gz", "881"}, // expected export 856
+            {"compressions_warc/transfer_compression_none_truncated.warc.gz", "881"}, // expected export 915
             {"compressions_warc/transfer_compression_none.warc.gz", "881"} // expected export 1102
     };
-    assertExportSize(ENTRIES, 856+1102, true);
+    assertExportSize(ENTRIES, 915+1102, true);
   }
 
   @Test
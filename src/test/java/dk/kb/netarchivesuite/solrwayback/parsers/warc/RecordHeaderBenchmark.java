@@ -0,0 +1,122 @@
+package dk.kb.netarchivesuite.solrwayback.parsers.warc;
+
+import dk.kb.netarchivesuite.solrwayback.UnitTestUtils;
+import dk.kb.netarchivesuite.solrwayback.parsers.RecordHeader;
+import dk.kb.netarchivesuite.solrwayback.parsers.RecordHeaderParser;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Manual benchmark of header parsing throughput for the records in the test WARC, comparing
+ * {@link RecordHeaderParser} with line-by-line parsing into Strings, which was used by {@code WarcParser} before.
+ * <p>
+ * The records are decompressed up front, so only the header parsing is measured.
+ */
+public class RecordHeaderBenchmark {
+    private static final String WARC = "src/test/resources/example_warc/IAH-20080430204825-00000-blackbook.warc.gz";
+    private static final int PREFIX = 16384; // Bytes to keep from the start of each record
+    private static final int ITERATIONS = 200;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws IOException {
+        List<byte[]> records = loadRecordPrefixes();
+        for (int run = 0 ; run < RUNS ; run++) {
+            long checksum = 0;
+            long linesNS = -System.nanoTime();
+            for (int i = 0 ; i < ITERATIONS ; i++) {
+                for (byte[] record: records) {
+                    checksum += parseLines(new BufferedInputStream(new ByteArrayInputStream(record)));
+                }
+            }
+            linesNS += System.nanoTime();
+
+            long bytesNS = -System.nanoTime();
+            for (int i = 0 ; i < ITERATIONS ; i++) {
+                for (byte[] record: records) {
+                    RecordHeader header = RecordHeaderParser.parse(
+                            new ByteArrayInputStream(record), ArcEntry.FORMAT.WARC);
+                    checksum += header.getStatusCode() + header.getLength();
+                }
+            }
+            bytesNS += System.nanoTime();
+
+            long parsed = (long) ITERATIONS * records.size();
+            System.out.printf(Locale.ROOT, "Run %d: line Strings %,9d records/s, RecordHeaderParser %,9d records/s " +
+                                           "(x%.1f) (checksum %d)%n",
+                              run, parsed*1_000_000_000L/linesNS, parsed*1_000_000_000L/bytesNS,
+                              linesNS*1.0/bytesNS, checksum);
+        }
+    }
+
+    /**
+     * The previous approach: A String per line, a StringBuffer with all lines and String prefix matching.
+     */
+    private static long parseLines(BufferedInputStream bis) throws IOException {
+        StringBuffer headerLines = new StringBuffer();
+        long checksum = 0;
+        boolean http = false;
+        boolean resource = false;
+        while (true) {
+            String line = readLine(bis);
+            if (line == null) {
+                break;
+            }
+            headerLines.append(line).append("\r\n");
+            if (line.startsWith("WARC-Type:")) {
+                resource = line.contains("resource");
+            } else if (line.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+                checksum += Long.parseLong(line.split(":")[1].trim());
+            } else if (line.toLowerCase(Locale.ROOT).startsWith("content-type:")) {
+                checksum += line.split(":")[1].split(";")[0].trim().length();
+            }
+            if (line.isEmpty()) {
+                if (http || resource) {
+                    break;
+                }
+                http = true;
+            }
+        }
+        return checksum + headerLines.length();
+    }
+
+    private static String readLine(BufferedInputStream bis) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int current;
+        while ((current = bis.read()) != '\r' && current != '\n') {
+            if (current == -1) {
+                return null;
+            }
+            baos.write((byte) current);
+        }
+        if (current == '\r') {
+            bis.read();
+        }
+        return baos.toString("ISO-8859-1");
+    }
+
+    private static List<byte[]> loadRecordPrefixes() throws IOException {
+        byte[] warc = Files.readAllBytes(UnitTestUtils.getFile(WARC).toPath());
+        List<String> cdx = Files.readAllLines(UnitTestUtils.getFile(WARC + ".cdx").toPath());
+        List<byte[]> records = new ArrayList<>();
+        for (String line: cdx.subList(1, cdx.size())) {
+            String[] tokens = line.split(" ");
+            int offset = Integer.parseInt(tokens[tokens.length-2]);
+            try (InputStream in = new GZIPInputStream(
+                    new ByteArrayInputStream(warc, offset, warc.length - offset))) {
+                records.add(in.readNBytes(PREFIX));
+            }
+        }
+        System.out.println("Loaded " + records.size() + " records from " + WARC);
+        return records;
+    }
+}
@@ -0,0 +1,155 @@
+package dk.kb.netarchivesuite.solrwayback.parsers.warc;
+
+import dk.kb.netarchivesuite.solrwayback.UnitTestUtils;
+import dk.kb.netarchivesuite.solrwayback.parsers.ArcParserFileResolver;
+import dk.kb.netarchivesuite.solrwayback.parsers.RecordHeader;
+import dk.kb.netarchivesuite.solrwayback.parsers.RecordHeaderParser;
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class RecordHeaderTest extends UnitTestUtils {
+
+    @Test
+    public void testAllRecordsInWarc() throws Exception {
+        String warc = getFile("src/test/resources/example_warc/IAH-20080430204825-00000-blackbook.warc.gz").
+                getCanonicalPath();
+        List<String> cdx = Files.readAllLines(
+                getFile("src/test/resources/example_warc/IAH-20080430204825-00000-blackbook.warc.gz.cdx").toPath());
+        int responses = 0;
+        for (String line: cdx.subList(1, cdx.size())) {
+            String[] tokens = line.split(" ");
+            long offset = Long.parseLong(tokens[tokens.length-2]);
+            RecordHeader header = ArcParserFileResolver.getRecordHeader(warc, offset);
+            assertSameHeader(ArcParserFileResolver.getArcEntry(warc, offset), header, "offset " + offset);
+            if (header.getType() == ArcEntry.TYPE.RESPONSE && header.getUrl().startsWith("http")) {
+                assertTrue("The HTTP status should be set for the response at offset " + offset,
+                           header.getStatusCode() >= 100);
+                assertTrue("The binary size should be at most the WARC content length at offset " + offset,
+                           header.getBinaryArraySize() <= header.getWarcEntryContentLength());
+                responses++;
+            }
+        }
+        assertTrue("Most records should be responses, but only " + responses + " were", responses > 100);
+    }
+
+    @Test
+    public void testArc() throws Exception {
+        String arc = getFile("src/test/resources/example_arc/IAH-20080430204825-00000-blackbook.arc.gz").
+                getCanonicalPath();
+        for (long offset: new long[]{1306, 7733}) {
+            RecordHeader header = ArcParserFileResolver.getRecordHeader(arc, offset);
+            assertEquals("The format should be ARC", ArcEntry.FORMAT.ARC, header.getFormat());
+            assertSameHeader(ArcParserFileResolver.getArcEntry(arc, offset), header, "ARC offset " + offset);
+        }
+    }
+
+    @Test
+    public void testEvilHeaders() throws Exception {
+        String warc = getFile("src/test/resources/example_warc/Evil-Warc-Headers.warc").getCanonicalPath();
+        RecordHeader header = ArcParserFileResolver.getRecordHeader(warc, 0);
+        assertEquals("Content-Length with extra whitespace should be parsed", 5155, header.getContentLength());
+        assertSameHeader(ArcParserFileResolver.getArcEntry(warc, 0), header, "evil");
+        assertSame("The second lookup should be served from the cache",
+                   header, ArcParserFileResolver.getRecordHeader(warc, 0));
+    }
+
+    @Test
+    public void testLargeHeaderAndLineFeeds() throws Exception {
+        StringBuilder cookies = new StringBuilder();
+        for (int i = 0 ; i < 1000 ; i++) {
+            cookies.append("Set-Cookie: cookie").append(i).append("=some_value\n");
+        }
+        String http = "HTTP/1.1 301 Moved Permanently\n" +
+                      "content-type: text/html; charset=\"utf-8\"\n" +
+                      cookies +
+                      "Location: http://example.com/new\n" +
+                      "Transfer-Encoding: chunked\n" +
+                      "\n";
+        String warc = "WARC/1.0\r\n" +
+                      "WARC-Type: response\r\n" +
+                      "WARC-Target-URI: http://example.com/old\r\n" +
+                      "WARC-Date: 2020-04-28T08:17:36Z\r\n" +
+                      "Content-Length: " + (http.length() + 10) + "\r\n" +
+                      "\r\n" +
+                      http + "0123456789";
+        RecordHeader header = RecordHeaderParser.parse(
+                new ByteArrayInputStream(warc.getBytes(StandardCharsets.ISO_8859_1)), ArcEntry.FORMAT.WARC);
+        assertEquals("The status should be parsed", 301, header.getStatusCode());
+        assertEquals("The content type should be parsed", "text/html", header.getContentType());
+        assertEquals("The quoted charset should be parsed", "utf-8", header.getContentCharset());
+        assertEquals("The redirect should be parsed", "http://example.com/new", header.getRedirectUrl());
+        assertTrue("Chunking should be detected", header.isChunked());
+        assertEquals("The wayback date should be derived", "20200428081736", header.getWaybackDate());
+        assertEquals("The binary size should be the bytes after the HTTP headers", 10, header.getBinaryArraySize());
+        assertEquals("The first value for a header should be available, case-insensitive",
+                     "cookie0=some_value", header.getValue("set-cookie"));
+        assertNull("Unknown headers should be null", header.getValue("X-Not-There"));
+        assertTrue("All lines should be in the header", header.getHeader().contains("cookie500=some_value\r\n"));
+    }
+
+    @Test
+    public void testResource() throws Exception {
+        String warc = "WARC/1.0\r\n" +
+                      "WARC-Type: resource\r\n" +
+                      "WARC-Target-URI: http://example.com/logo.png\r\n" +
+                      "WARC-Date: 2002-03-08T00:00:00Z\r\n" +
+                      "Content-Type: image/png\r\n" +
+                      "Content-Length: 5\r\n" +
+                      "\r\n" +
+                      "HTTP/Not really\r\n\r\n";
+        RecordHeader header = RecordHeaderParser.parse(
+                new ByteArrayInputStream(warc.getBytes(StandardCharsets.ISO_8859_1)), ArcEntry.FORMAT.WARC);
+        assertEquals("The type should be resource", ArcEntry.TYPE.RESOURCE, header.getType());
+        assertEquals("The status should be faked for resources", 200, header.getStatusCode());
+        assertNull("There should be no HTTP content type", header.getContentType());
+        assertEquals("All of the WARC content should be binary", 5, header.getBinaryArraySize());
+        assertEquals("The file name should be the last part of the URL", "logo.png", header.getFileName());
+    }
+
+    private void assertSameHeader(ArcEntry expected, RecordHeader header, String designation) {
+        ArcEntry actual = header.toArcEntry(null, 0);
+        assertEquals("Header should match for " + designation, expected.getHeader(), actual.getHeader());
+        assertEquals("Type should match for " + designation, expected.getType(), actual.getType());
+        assertEquals("URL should match for " + designation, expected.getUrl(), actual.getUrl());
+        assertEquals("File name should match for " + designation, expected.getFileName(), actual.getFileName());
+        assertEquals("Crawl date should match for " + designation, expected.getCrawlDate(), actual.getCrawlDate());
+        assertEquals("Wayback date should match for " + designation,
+                     expected.getWaybackDate(), actual.getWaybackDate());
+        assertEquals("Status should match for " + designation, expected.getStatus_code(), actual.getStatus_code());
+        assertEquals("Content type should match for " + designation,
+                     expected.getContentType(), actual.getContentType());
+        assertEquals("Content encoding should match for " + designation,
+                     expected.getContentEncoding(), actual.getContentEncoding());
+        assertEquals("Redirect should match for " + designation, expected.getRedirectUrl(), actual.getRedirectUrl());
+        assertEquals("Content length should match for " + designation,
+                     expected.getContentLength(), actual.getContentLength());
+        assertEquals("WARC content length should match for " + designation,
+                     expected.getWarcEntryContentLength(), actual.getWarcEntryContentLength());
+        assertEquals("Binary size should match for " + designation,
+                     expected.getBinaryArraySize(), actual.getBinaryArraySize());
+    }
+}
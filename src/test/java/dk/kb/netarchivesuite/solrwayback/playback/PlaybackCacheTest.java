@@ -0,0 +1,99 @@
+package dk.kb.netarchivesuite.solrwayback.playback;
+
+import dk.kb.netarchivesuite.solrwayback.service.dto.ArcEntry;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class PlaybackCacheTest {
+    private static final int RESOURCE_SIZE = 1000;
+    private static final long ENTRY_SIZE = RESOURCE_SIZE + PlaybackCache.ENTRY_OVERHEAD;
+
+    @Test
+    public void testHitsAreCopies() throws Exception {
+        PlaybackCache cache = new PlaybackCache(10*ENTRY_SIZE, RESOURCE_SIZE, 60000);
+        AtomicInteger loads = new AtomicInteger();
+        ArcEntry first = cache.getEntry("a", () -> createEntry(loads, 'a'));
+        ArcEntry second = cache.getEntry("a", () -> createEntry(loads, 'a'));
+        assertEquals("The resource should only be loaded once", 1, loads.get());
+        assertNotSame("Each call should get its own entry", first, second);
+        assertEquals("The cached entry should deliver the content", RESOURCE_SIZE, read(second).length);
+
+        second.setContentEncoding("gzip");
+        assertEquals("Changing a delivered entry should not affect the cache",
+                     "identity", cache.getEntry("a", () -> createEntry(loads, 'a')).getContentEncoding());
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        PlaybackCache cache = new PlaybackCache(10*ENTRY_SIZE, RESOURCE_SIZE - 1, 60000);
+        AtomicInteger loads = new AtomicInteger();
+        cache.getEntry("a", () -> createEntry(loads, 'a'));
+        cache.getEntry("a", () -> createEntry(loads, 'a'));
+        assertEquals("Resources above the max resource size should not be cached", 2, loads.get());
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        PlaybackCache cache = new PlaybackCache(2*ENTRY_SIZE, RESOURCE_SIZE, 60000);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0 ; i < 3 ; i++) {
+            cache.getEntry("hot1", () -> createEntry(loads, 'h'));
+            cache.getEntry("hot2", () -> createEntry(loads, 'h'));
+        }
+        assertEquals("The hot resources should be cached", 2, cache.size());
+
+        cache.getEntry("oneHit", () -> createEntry(loads, 'o'));
+        assertFalse("A resource requested once should not evict frequent resources", cache.contains("oneHit"));
+        assertTrue("The hot resources should remain", cache.contains("hot1") && cache.contains("hot2"));
+
+        for (int i = 0 ; i < 5 ; i++) {
+            cache.getEntry("popular", () -> createEntry(loads, 'p'));
+        }
+        assertTrue("A resource requested more often than the least recently used should be admitted",
+                   cache.contains("popular"));
+        assertFalse("The least recently used resource should be evicted", cache.contains("hot1"));
+        assertEquals("The cache should stay within its size", 2, cache.size());
+    }
+
+    private static ArcEntry createEntry(AtomicInteger loads, char content) {
+        loads.incrementAndGet();
+        ArcEntry entry = new ArcEntry();
+        entry.setContentCharset("UTF-8");
+        entry.setContentEncoding("identity");
+        StringBuilder sb = new StringBuilder(RESOURCE_SIZE);
+        for (int i = 0 ; i < RESOURCE_SIZE ; i++) {
+            sb.append(content);
+        }
+        entry.setStringContent(sb.toString());
+        return entry;
+    }
+
+    private static byte[] read(ArcEntry entry) throws IOException {
+        try (InputStream in = entry.getBinaryNoChunking()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
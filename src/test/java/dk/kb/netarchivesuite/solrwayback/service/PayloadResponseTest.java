@@ -0,0 +1,96 @@
+package dk.kb.netarchivesuite.solrwayback.service;
+
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class PayloadResponseTest {
+    private static final byte[] PAYLOAD = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testParseRange() {
+        assertNull("No header should give the full payload", PayloadResponse.parseRange(null, 10));
+        assertArrayEquals("Closed range", new long[]{2, 5}, PayloadResponse.parseRange("bytes=2-5", 10));
+        assertArrayEquals("Open range", new long[]{2, 9}, PayloadResponse.parseRange("bytes=2-", 10));
+        assertArrayEquals("Range past the end should be capped", new long[]{2, 9},
+                          PayloadResponse.parseRange("bytes=2-100", 10));
+        assertArrayEquals("Suffix range", new long[]{7, 9}, PayloadResponse.parseRange("bytes=-3", 10));
+        assertArrayEquals("Suffix range larger than the payload", new long[]{0, 9},
+                          PayloadResponse.parseRange("bytes=-30", 10));
+        assertSame("Start beyond the payload", PayloadResponse.UNSATISFIABLE,
+                   PayloadResponse.parseRange("bytes=10-", 10));
+        assertNull("Multiple ranges should be ignored", PayloadResponse.parseRange("bytes=0-1,3-4", 10));
+        assertNull("Reversed ranges should be ignored", PayloadResponse.parseRange("bytes=5-2", 10));
+        assertNull("Other units should be ignored", PayloadResponse.parseRange("items=0-1", 10));
+    }
+
+    @Test
+    public void testPartial() throws IOException {
+        Response response = PayloadResponse.ok(new ByteArrayInputStream(PAYLOAD), PAYLOAD.length, "bytes=3-6").build();
+        assertEquals("The status should be partial content", 206, response.getStatus());
+        assertEquals("The Content-Range should be set",
+                     "bytes 3-6/10", response.getHeaderString("Content-Range"));
+        assertEquals("The delivered bytes should be the range", "3456", deliver(response));
+    }
+
+    @Test
+    public void testFullAndUnknownLength() throws IOException {
+        Response full = PayloadResponse.ok(new ByteArrayInputStream(PAYLOAD), PAYLOAD.length, null).build();
+        assertEquals("The status should be OK", 200, full.getStatus());
+        assertEquals("Ranges should be advertised", "bytes", full.getHeaderString("Accept-Ranges"));
+        assertEquals("The full payload should be delivered", "0123456789", deliver(full));
+
+        Response unknown = PayloadResponse.ok(new ByteArrayInputStream(PAYLOAD), -1, "bytes=3-6").build();
+        assertEquals("The range should be ignored for unknown length", 200, unknown.getStatus());
+        assertNull("Ranges should not be advertised for unknown length", unknown.getHeaderString("Accept-Ranges"));
+        assertEquals("The full payload should be delivered for unknown length", "0123456789", deliver(unknown));
+
+        Response unsatisfiable = PayloadResponse.ok(
+                new ByteArrayInputStream(PAYLOAD), PAYLOAD.length, "bytes=20-").build();
+        assertEquals("The status should be range not satisfiable", 416, unsatisfiable.getStatus());
+    }
+
+    @Test
+    public void testTruncatedPayload() {
+        // The stated length is larger than the payload, as for a truncated record
+        Response response = PayloadResponse.ok(new ByteArrayInputStream(PAYLOAD), 20, "bytes=5-").build();
+        assertEquals("The status should be partial content", 206, response.getStatus());
+        try {
+            deliver(response);
+            fail("Delivering fewer bytes than stated in Content-Range should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static String deliver(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,48 @@
+package dk.kb.netarchivesuite.solrwayback.service.dto;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class ArcEntryTest {
+
+    @Test
+    public void testNoChunkingSizeFollowsSniffing() throws IOException {
+        byte[] chunked = "5\r\nhello\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        ArcEntry entry = new ArcEntry();
+        entry.setBinaryArraySize(chunked.length);
+        entry.setChunked(false); // The HTTP header does not state chunking, but the content is chunked
+
+        try (InputStream dechunked = ArcEntry.maybeDechunk(new ByteArrayInputStream(chunked))) {
+            assertEquals("The size should be unknown when the content is de-chunked, regardless of the header",
+                         -1, entry.getBinaryNoChunkingSize(dechunked));
+        }
+
+        byte[] plain = "Plain content".getBytes(StandardCharsets.US_ASCII);
+        entry.setBinaryArraySize(plain.length);
+        entry.setChunked(true); // The HTTP header states chunking, but the content is not chunked
+        try (InputStream passthrough = ArcEntry.maybeDechunk(new ByteArrayInputStream(plain))) {
+            assertEquals("The size should be known when the content is passed through, regardless of the header",
+                         plain.length, entry.getBinaryNoChunkingSize(passthrough));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package dk.kb.netarchivesuite.solrwayback.solr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class ShardPacerTest {
+
+    @Test
+    public void limiterAIMD() {
+        ShardPacer.AdaptiveLimiter limiter = new ShardPacer.AdaptiveLimiter(20);
+        assertEquals("The initial limit should be the maximum", 20, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(1000, 10); // 100 ns/doc
+        limiter.acquire();
+        limiter.release(1000000, 10); // 100,000 ns/doc
+        assertEquals("The limit should be halved for congested requests", 10, limiter.getLimit());
+
+        for (int i = 0 ; i < 50 ; i++) {
+            limiter.acquire();
+            limiter.release(1000, 10); // 100 ns/doc
+        }
+        int increased = limiter.getLimit();
+        assertTrue("The limit should increase additively for fast requests, but was " + increased,
+                   increased > 10 && increased < 20);
+    }
+
+    @Test
+    public void pageSizeIncrease() {
+        ShardPacer pacer = new ShardPacer("test", 100, 20, new ShardPacer.AdaptiveLimiter(20));
+        assertEquals("The first page size should be the initial one", 20, pacer.acquire());
+        pacer.release(20, 20, false);
+        assertEquals("A fast full page should increase the page size additively", 70, pacer.acquire());
+        pacer.release(70, 30, true);
+        assertEquals("A partial page should not change the page size", 70, pacer.acquire());
+        pacer.release(70, 70, false);
+        for (int i = 0 ; i < 20 ; i++) {
+            int rows = pacer.acquire();
+            pacer.release(rows, rows, false);
+        }
+        assertEquals("The page size should be capped at 4 times the base", 400, pacer.acquire());
+        pacer.release(400, 0, true);
+    }
+
+    @Test
+    public void limiterPerRequest() {
+        ShardPacer.AdaptiveLimiter cheap = new ShardPacer.AdaptiveLimiter(20);
+        ShardPacer.AdaptiveLimiter heavy = new ShardPacer.AdaptiveLimiter(20);
+        for (int i = 0 ; i < 10 ; i++) {
+            cheap.acquire();
+            cheap.release(1000, 10); // 100 ns/doc
+        }
+        heavy.acquire();
+        heavy.release(1000, 10); // 100 ns/doc
+        heavy.acquire();
+        heavy.release(1000000, 10); // 100,000 ns/doc: Congested
+
+        assertEquals("The congested request should back off", 10, heavy.getLimit());
+        assertEquals("Other requests should not be limited by the congested request", 20, cheap.getLimit());
+    }
+
+    @Test
+    public void interruptedAcquire() {
+        ShardPacer.AdaptiveLimiter limiter = new ShardPacer.AdaptiveLimiter(1);
+        limiter.acquire();
+
+        Thread.currentThread().interrupt();
+        try {
+            limiter.acquire();
+            fail("Acquire should fail when interrupted");
+        } catch (RuntimeException e) {
+            assertTrue("The interrupt flag should be restored", Thread.interrupted());
+        }
+        limiter.release(1000, 10);
+        limiter.acquire(); // The failed acquire should not hold a permission
+        limiter.release(1000, 10);
+    }
+}
@@ -19,20 +19,29 @@ import dk.kb.netarchivesuite.solrwayback.util.CollectionUtils;
 import dk.kb.netarchivesuite.solrwayback.util.SolrUtils;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -287,6 +296,42 @@ public class ShardStreamingTest {
         assertDocsEquals(request);
     }
 
+    @Test
+    public void testShardDivideMultiQuery() {
+        if (!AVAILABLE) {
+            return;
+        }
+        List<String> urlQueries = new SRequest()
+                .solrClient(solrClient)
+                .query("*:*")
+                .fields("url_norm")
+                .shardDivide("never")
+                .maxResults(100)
+                .stream()
+                .map(doc -> "url_norm:" + SolrUtils.createPhrase(doc.getFieldValue("url_norm").toString()))
+                .collect(Collectors.toList());
+        // The queries Stream can only be used once, so the requests are created separately
+        List<String> plainIDs = multiQueryRequest(urlQueries).shardDivide("never").stream()
+                .map(doc -> doc.getFieldValue("id").toString())
+                .collect(Collectors.toList());
+        List<String> shardIDs;
+        try (Stream<SolrDocument> docs = multiQueryRequest(urlQueries).shardDivide("always").stream()) {
+            shardIDs = docs.map(doc -> doc.getFieldValue("id").toString()).collect(Collectors.toList());
+        }
+        assertFalse("There should be results for the multi query", plainIDs.isEmpty());
+        assertEquals("Shard divided multi query should give the same result as plain multi query",
+                     plainIDs, shardIDs);
+    }
+
+    private SRequest multiQueryRequest(List<String> queries) {
+        return new SRequest()
+                .solrClient(solrClient)
+                .queries(queries.stream())
+                .queryBatchSize(10) // Several batches
+                .fields("id")
+                .timeProximityDeduplication("2023-10-10T19:47:00Z", "url_norm");
+    }
+
     @Test
     public void testShardDivideSore() {
         if (!AVAILABLE) {
@@ -484,6 +529,177 @@ public class ShardStreamingTest {
                      1, desc.compare(doc1, doc2));
     }
 
+    @Test
+    public void testSortKeys() {
+        SRequest request = new SRequest().sort("crawl_date desc, id asc");
+        SolrStreamShard.DocumentSortKeys sortKeys = new SolrStreamShard.DocumentSortKeys(request);
+        Comparator<SolrDocument> comparator = SolrStreamShard.getDocumentComparator(request);
+
+        List<SolrDocument> docs = new ArrayList<>();
+        for (int i = 0 ; i < 20 ; i++) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField("id", Integer.toString(i));
+            doc.setField("crawl_date", new Date(1000L * (i % 3)));
+            docs.add(doc);
+        }
+        for (SolrDocument doc1: docs) {
+            for (SolrDocument doc2: docs) {
+                assertEquals("Sort keys should order " + doc1 + " and " + doc2 + " the same way as the comparator",
+                             Integer.signum(comparator.compare(doc1, doc2)),
+                             Integer.signum(sortKeys.compare(sortKeys.extract(doc1), sortKeys.extract(doc2))));
+            }
+        }
+    }
+
+    @Test
+    public void testSortKeysTimeProximity() {
+        SRequest request = new SRequest().timeProximityDeduplication("2023-10-10T19:47:00Z", "url_norm");
+        SolrStreamShard.DocumentSortKeys sortKeys = new SolrStreamShard.DocumentSortKeys(request);
+        long origo = Instant.parse("2023-10-10T19:47:00Z").toEpochMilli();
+
+        SolrStreamShard.SortKey near = sortKeys.extract(proximityDoc("a", "http://example.com/", origo - 10, 1.0f));
+        SolrStreamShard.SortKey far = sortKeys.extract(proximityDoc("b", "http://example.com/", origo + 20, 2.0f));
+        SolrStreamShard.SortKey other = sortKeys.extract(proximityDoc("c", "http://example.org/", origo, 1.0f));
+
+        assertTrue("The nearest crawl_date should sort first, also for millisecond differences",
+                   sortKeys.compare(near, far) < 0);
+        assertTrue("url_norm should take precedence over time proximity", sortKeys.compare(far, other) < 0);
+        assertTrue("Documents with the same url_norm should be duplicates", sortKeys.isDuplicate(near, far));
+        assertFalse("Documents with different url_norm should not be duplicates", sortKeys.isDuplicate(far, other));
+        assertFalse("There should be no duplicate without a previous document", sortKeys.isDuplicate(null, near));
+    }
+
+    @Test
+    public void testSortKeysScore() {
+        SRequest request = new SRequest(); // score desc, id asc
+        SolrStreamShard.DocumentSortKeys sortKeys = new SolrStreamShard.DocumentSortKeys(request);
+        SolrStreamShard.SortKey high = sortKeys.extract(proximityDoc("b", "http://example.com/", 0, 1.5f));
+        SolrStreamShard.SortKey low = sortKeys.extract(proximityDoc("a", "http://example.com/", 0, -0.5f));
+        SolrStreamShard.SortKey tie = sortKeys.extract(proximityDoc("c", "http://example.com/", 0, 1.5f));
+        assertTrue("Higher score should sort first", sortKeys.compare(high, low) < 0);
+        assertTrue("Equal scores should be ordered by id", sortKeys.compare(high, tie) < 0);
+    }
+
+    private SolrDocument proximityDoc(String id, String urlNorm, long crawlDate, float score) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", id);
+        doc.setField("url_norm", urlNorm);
+        doc.setField("crawl_date", new Date(crawlDate));
+        doc.setField("score", score);
+        return doc;
+    }
+
+    @Test
+    public void testBatchConcatenation() {
+        List<String> started = new ArrayList<>();
+        Iterator<SolrDocument> docs = new SolrStreamShard.BatchConcatenatingIterator(
+                Arrays.asList("a", "b", "c", "d").iterator(), batch -> {
+                    started.add(batch);
+                    return "c".equals(batch) ? Collections.<SolrDocument>emptyIterator() :
+                            Arrays.asList(idDoc(batch + "1"), idDoc(batch + "2")).iterator();
+                }, new AtomicBoolean(true));
+
+        assertTrue("There should be documents", docs.hasNext());
+        assertEquals("The next batch should be started together with the first batch",
+                     Arrays.asList("a", "b"), started);
+        List<String> ids = new ArrayList<>();
+        docs.forEachRemaining(doc -> ids.add(doc.getFieldValue("id").toString()));
+        assertEquals("The batches should be concatenated in order, skipping empty batches",
+                     Arrays.asList("a1", "a2", "b1", "b2", "d1", "d2"), ids);
+        assertEquals("All batches should be started", Arrays.asList("a", "b", "c", "d"), started);
+    }
+
+    @Test
+    public void testBatchConcatenationStop() {
+        AtomicBoolean continueProcessing = new AtomicBoolean(true);
+        List<String> started = new ArrayList<>();
+        Iterator<SolrDocument> docs = new SolrStreamShard.BatchConcatenatingIterator(
+                Arrays.asList("a", "b", "c", "d").iterator(), batch -> {
+                    started.add(batch);
+                    return Collections.singletonList(idDoc(batch + "1")).iterator();
+                }, continueProcessing);
+
+        assertEquals("The first document should be delivered", "a1", docs.next().getFieldValue("id"));
+        continueProcessing.set(false);
+        assertEquals("The already started batch should be delivered", "b1", docs.next().getFieldValue("id"));
+        assertFalse("No more batches should be started when processing is stopped", docs.hasNext());
+        assertEquals("Only the first two batches should be started", Arrays.asList("a", "b"), started);
+    }
+
+    @Test
+    public void testPlanShardDivisionMultiQuery() {
+        HitCountingSolrClient client = new HitCountingSolrClient(Map.of("c1", 1000L, "c2", 800L, "c3", 0L));
+        List<SolrUtils.Shard> shards = Arrays.asList(
+                new SolrUtils.Shard("c1", "s1"), new SolrUtils.Shard("c2", "s1"), new SolrUtils.Shard("c3", "s1"));
+        SRequest request = new SRequest()
+                .solrClient(client)
+                .queries(Stream.of("url:a", "url:b", "url:c", "url:d", "url:e"))
+                .queryBatchSize(2)
+                .shardDivideAutoMinHits(1_000_000);
+
+        SolrStreamShard.ShardPlan plan = SolrStreamShard.planShardDivision(request, shards);
+        assertTrue("The hit count should be a lower bound as there are more batches", plan.lowerBound);
+        assertEquals("The hits should be summed over the shards", 1800, plan.totalHits);
+        assertEquals("2 shards should have hits", 2, plan.activeShards);
+        assertTrue("Shard division should be chosen despite few hits, as the count is a lower bound: " + plan,
+                   plan.divide);
+        assertEquals("Only the first batch should be counted, once for each shard",
+                     Collections.nCopies(3, "(url:a) OR (url:b)"), client.queries);
+        assertEquals("The counted queries should be put back in front of the remaining queries",
+                     Arrays.asList("url:a", "url:b", "url:c", "url:d", "url:e"),
+                     request.queries.collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testPlanShardDivisionSingleBatch() {
+        HitCountingSolrClient client = new HitCountingSolrClient(Map.of("c1", 1000L, "c2", 800L));
+        List<SolrUtils.Shard> shards = Arrays.asList(
+                new SolrUtils.Shard("c1", "s1"), new SolrUtils.Shard("c2", "s1"));
+        SRequest request = new SRequest()
+                .solrClient(client)
+                .queries(Stream.of("url:a", "url:b"))
+                .queryBatchSize(10)
+                .shardDivideAutoMinHits(1_000_000);
+
+        SolrStreamShard.ShardPlan plan = SolrStreamShard.planShardDivision(request, shards);
+        assertFalse("The hit count should be exact when all queries fit in the first batch", plan.lowerBound);
+        assertFalse("Shard division should not be chosen with fewer hits than the minimum: " + plan, plan.divide);
+        assertEquals("All queries should be available for the request",
+                     Arrays.asList("url:a", "url:b"), request.queries.collect(Collectors.toList()));
+    }
+
+    private SolrDocument idDoc(String id) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", id);
+        return doc;
+    }
+
+    /**
+     * Answers all requests with an empty result where numFound is stated per collection.
+     */
+    private static class HitCountingSolrClient extends SolrClient {
+        final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, Long> hits;
+
+        HitCountingSolrClient(Map<String, Long> hits) {
+            this.hits = hits;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest<?> request, String collection) {
+            queries.add(request.getParams().get(CommonParams.Q));
+            SolrDocumentList docs = new SolrDocumentList();
+            docs.setNumFound(hits.getOrDefault(collection, 0L));
+            NamedList<Object> response = new NamedList<>();
+            response.add("response", docs);
+            return response;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     /**
      * Calls {@link SolrStreamShard#iterateSharded(SRequest, List)} on the {@code request} and extracts all IDs,
      * also sets {@link SRequest#shardDivide} to {@code false} and call {@link SolrStreamDirect#iterate(SRequest)}
@@ -15,8 +15,10 @@
 package dk.kb.netarchivesuite.solrwayback.solr;
 
 import dk.kb.netarchivesuite.solrwayback.UnitTestUtils;
+import dk.kb.netarchivesuite.solrwayback.export.ExportSession;
 import dk.kb.netarchivesuite.solrwayback.facade.Facade;
 import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import dk.kb.netarchivesuite.solrwayback.service.exception.ConflictServiceException;
 import dk.kb.netarchivesuite.solrwayback.service.exception.InvalidArgumentServiceException;
 import dk.kb.netarchivesuite.solrwayback.util.DateUtils;
 import org.apache.commons.fileupload.util.Streams;
@@ -33,8 +35,13 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
@@ -284,6 +291,42 @@ public class SolrStreamDirectTest {
         }
     }
 
+    /**
+     * Group based deduplication for {@code q=*:*} with more than one page. Subsequent pages are requested with a
+     * range query on the deduplication field, which must not be combined with the match-all query.
+     */
+    @Test
+    public void testGroupingMatchAllPaged() {
+        List<SolrDocument> docs = SRequest.builder().
+                query("*:*").
+                fields("url", "source_file_offset").
+                deduplicateFields("url").
+                pageSize(3).
+                stream().collect(Collectors.toList());
+
+        Set<String> urls = new HashSet<>();
+        for (SolrDocument doc: docs) {
+            String url = doc.getFieldValue("url").toString();
+            assertTrue("The URL '" + url + "' should not have been seen before", urls.add(url));
+        }
+        assertEquals("All unique URLs should be delivered across 4 pages of size 3", 10, urls.size());
+    }
+
+    @Test
+    public void solrSchema() throws SolrServerException, IOException {
+        SolrSchema schema = SolrSchema.retrieve(embeddedServer);
+        assertEquals("The type of 'url' should be resolved", "StrField", schema.getField("url").getTypeClassName());
+        assertFalse("'url' should be single-valued", schema.getField("url").multiValued);
+        assertTrue("'links' should be multi-valued", schema.getField("links").multiValued);
+        assertEquals("The type of 'crawl_date' should be resolved",
+                     "DatePointField", schema.getField("crawl_date").getTypeClassName());
+        SolrSchema.Field dynamic = schema.getField("foo_ls");
+        assertEquals("Dynamic field 'foo_ls' should match the pattern '*_ls'", "*_ls", dynamic.name);
+        assertTrue("Dynamic field 'foo_ls' should be multi-valued", dynamic.multiValued);
+        assertEquals("The type of 'foo_ls' should be resolved", "LongPointField", dynamic.getTypeClassName());
+        assertNull("Unknown fields should not be resolved", schema.getField("nonexisting"));
+    }
+
     @Test
     public void testExportGroupingFacade() throws SolrServerException, InvalidArgumentServiceException, IOException {
         String csv = Streams.asString(Facade.exportFields(
@@ -325,6 +368,62 @@ public class SolrStreamDirectTest {
         }
     }
 
+    /**
+     * Resource expansion using indexed links instead of WARC parsing, with merged lookups across pages.
+     */
+    @Test
+    public void expandFromLinkFields() {
+        SolrDocument page1 = createPage("page_1", "2019-03-15T12:31:00Z", "https://example.COM/3", "http://example.com/7");
+        SolrDocument nonPage = new SolrDocument();
+        nonPage.setField("id", "nonpage");
+        SolrDocument page2 = createPage("page_2", "2019-03-15T12:31:30Z", "http://example.com/7", "data:foo");
+        SolrDocument page3 = createPage("page_3", "2021-03-15T12:31:51Z", "http://example.com/missing");
+
+        List<SolrDocument> docs = new SolrStreamDecorators.HTMLResourceExpander(
+                "id,url_norm,crawl_date", new String[0], true, List.of("links_images"), 10).
+                expand(Stream.of(page1, nonPage, page2, page3)).
+                collect(Collectors.toList());
+
+        assertEquals("Pages should be delivered in order, each followed by their resources",
+                     "[page_1, http://example.com/3, http://example.com/7, nonpage, " +
+                     "page_2, http://example.com/7, page_3]",
+                     docs.stream().
+                             map(doc -> doc.containsKey("url_norm") ?
+                                     doc.getFieldValue("url_norm") : doc.getFieldValue("id")).
+                             collect(Collectors.toList()).toString());
+        assertEquals("Resources should be the ones nearest in time to the pages",
+                     "2019-03-15T12:31:51Z", DateUtils.getSolrDate((Date) docs.get(1).getFieldValue("crawl_date")));
+    }
+
+    /**
+     * {@code url_norm} is needed for merged lookups, but should not be delivered if it was not requested.
+     */
+    @Test
+    public void expandWithoutURLNorm() {
+        SolrDocument page1 = createPage("page_1", "2019-03-15T12:31:00Z", "https://example.COM/3", "http://example.com/7");
+
+        List<SolrDocument> docs = new SolrStreamDecorators.HTMLResourceExpander(
+                "id, url, url_norm_x, crawl_date", new String[0], false, List.of("links_images"), 10).
+                expand(Stream.of(page1)).
+                collect(Collectors.toList());
+
+        assertEquals("The resources should be delivered", 2, docs.size());
+        for (SolrDocument doc: docs) {
+            assertTrue("The resource should have the requested field 'url'", doc.containsKey("url"));
+            assertFalse("The resource should not have the field 'url_norm' as it was not requested",
+                        doc.containsKey("url_norm"));
+        }
+    }
+
+    private static SolrDocument createPage(String id, String crawlDate, String... links) {
+        SolrDocument page = new SolrDocument();
+        page.setField("id", id);
+        page.setField("content_type_norm", "html");
+        page.setField("crawl_date", DateUtils.solrTimestampToJavaDate(crawlDate));
+        page.setField("links_images", Arrays.asList(links));
+        return page;
+    }
+
     /**
      * Quite misplaced as it tests a {@link Facade} method. TODO: Consider creating a Facade test class.
      */
@@ -415,6 +514,127 @@ public class SolrStreamDirectTest {
         assertEquals("The right number of lines should be returned", 21, csv.size()); // First line is header
     }
 
+    @Test
+    public void checkpointResume() throws SolrServerException, IOException {
+        assertCheckpointResume(SRequest.builder().query("*:*").fields("id", "url").pageSize(7).ensureUnique(true));
+    }
+
+    @Test
+    public void checkpointResumeGroup() throws SolrServerException, IOException {
+        assertCheckpointResume(SRequest.builder().query("*:*").fields("id", "url_norm").pageSize(2).deduplicateFields("url_norm"));
+    }
+
+    private void assertCheckpointResume(SRequest request) throws SolrServerException, IOException {
+        List<Object> all = readIDs(new CheckpointedStream(request), Integer.MAX_VALUE);
+        assertTrue("There should be more than 3 pages of documents", all.size() > 3*request.pageSize);
+
+        CheckpointedStream first = new CheckpointedStream(request);
+        List<Object> start = readIDs(first, 3);
+        CheckpointedStream.Checkpoint checkpoint = first.checkpoint(87);
+        assertEquals("The checkpoint should state the number of records", start.size(), checkpoint.getRecords());
+        assertEquals("The checkpoint should state the number of bytes", 87, checkpoint.getBytes());
+
+        List<Object> rest = readIDs(new CheckpointedStream(request, checkpoint), Integer.MAX_VALUE);
+        List<Object> resumed = new ArrayList<>(start);
+        resumed.addAll(rest);
+        assertEquals("Continuing from a checkpoint should deliver the remaining documents", all, resumed);
+    }
+
+    private List<Object> readIDs(CheckpointedStream docs, int maxChunks) throws SolrServerException, IOException {
+        List<Object> ids = new ArrayList<>();
+        List<SolrDocument> chunk;
+        for (int i = 0 ; i < maxChunks && (chunk = docs.nextChunk()) != null ; i++) {
+            chunk.forEach(doc -> ids.add(doc.getFieldValue("id")));
+        }
+        return ids;
+    }
+
+    @Test
+    public void exportSessionResume() throws Exception {
+        SRequest request = SRequest.builder().query("*:*").fields("id", "url").pageSize(10);
+        ExportSession session = ExportSession.createFieldsExport(request, "id, url", false, "csv", true);
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        session.write(full, 0);
+        String csv = IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(full.toByteArray())),
+                                      StandardCharsets.UTF_8);
+        assertEquals("All documents should be exported", TEST_DOCS + 1, csv.split("\n").length);
+
+        int offset = full.size() / 3;
+        ByteArrayOutputStream rest = new ByteArrayOutputStream();
+        ExportSession.resume(session.getToken()).write(rest, offset);
+        assertArrayEquals("Resuming should deliver the bytes after the offset",
+                          Arrays.copyOfRange(full.toByteArray(), offset, full.size()), rest.toByteArray());
+    }
+
+    @Test
+    public void exportSessionIndexChanged() throws Exception {
+        SRequest request = SRequest.builder().query("title:title_3").fields("id", "url").pageSize(2);
+        ExportSession session = ExportSession.createFieldsExport(request, "id, url", false, "csv", false);
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        session.write(full, 0);
+        session.checkOffset(full.size() / 2); // Unchanged index
+
+        SolrInputDocument extra = new SolrInputDocument();
+        extra.setField("id", "doc_extra");
+        extra.setField("title", "title_3");
+        extra.setField("url", "https://example.COM/extra");
+        embeddedServer.add(extra);
+        embeddedServer.commit();
+        try {
+            try {
+                session.checkOffset(full.size() / 2);
+                fail("Resuming after the index has changed should fail");
+            } catch (ConflictServiceException e) {
+                // Expected
+            }
+            try {
+                session.write(new ByteArrayOutputStream(), full.size() / 2);
+                fail("Writing from an offset after the index has changed should fail");
+            } catch (ConflictServiceException e) {
+                // Expected
+            }
+            ByteArrayOutputStream restarted = new ByteArrayOutputStream();
+            session.write(restarted, 0);
+            assertEquals("Restarting the export should include the new document",
+                         full.toString(StandardCharsets.UTF_8.name()).split("\n").length + 1,
+                         restarted.toString(StandardCharsets.UTF_8.name()).split("\n").length);
+        } finally {
+            embeddedServer.deleteById("doc_extra");
+            embeddedServer.commit();
+        }
+    }
+
+    @Test
+    public void exportSessionSuperseded() throws Exception {
+        SRequest request = SRequest.builder().query("*:*").fields("id", "url").pageSize(10);
+        ExportSession session = ExportSession.createFieldsExport(request, "id, url", false, "csv", false);
+        ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+        OutputStream dropped = new OutputStream() {
+            boolean first = true;
+            @Override
+            public void write(int b) throws IOException {
+                if (first) { // Simulate a resume while the original write is still active
+                    first = false;
+                    try {
+                        ExportSession.resume(session.getToken()).write(resumed, 0);
+                    } catch (InvalidArgumentServiceException | ConflictServiceException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        };
+        try {
+            session.write(dropped, 0);
+            fail("The original write should fail when superseded");
+        } catch (IOException e) {
+            assertTrue("The exception should state that the write was superseded, but was " + e.getMessage(),
+                       e.getMessage().contains("superseded"));
+        }
+        assertEquals("The resumed write should deliver all documents",
+                     TEST_DOCS + 1, resumed.toString(StandardCharsets.UTF_8.name()).split("\n").length);
+        assertTrue("The size should be known after a completed write", session.getTotalBytes() > 0);
+    }
+
     private static void fillSolr() throws SolrServerException, IOException {
         log.info("Filling embedded server with {} documents", TEST_DOCS);
         final Random r = new Random(87); // Random but not too random
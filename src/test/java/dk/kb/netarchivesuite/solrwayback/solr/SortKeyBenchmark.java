@@ -0,0 +1,58 @@
+package dk.kb.netarchivesuite.solrwayback.solr;
+
+import org.apache.solr.common.SolrDocument;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Manual benchmark of the comparison cost for shard divided merging, comparing {@link SolrDocument}s with
+ * {@link SolrStreamShard#getDocumentComparator(SRequest)}, where the sort values are resolved for each comparison,
+ * with precomputed {@link SolrStreamShard.SortKey}s.
+ * <p>
+ * The request uses time proximity deduplication on {@code url_norm}, which is the sort used for URL resolving.
+ */
+public class SortKeyBenchmark {
+    private static final int COMPARISONS = 20_000_000;
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        SRequest request = new SRequest().timeProximityDeduplication("2019-04-15T12:31:51Z", "url_norm");
+        SolrDocument[] docs = new SolrDocument[1000];
+        for (int i = 0 ; i < docs.length ; i++) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField("id", "20200315123151/" + i);
+            doc.setField("url_norm", "http://example.com/section_" + i%3 + "/");
+            doc.setField("crawl_date", new Date(1555331511000L + (i%7)*1000L));
+            doc.setField("score", 1.0f + i%5);
+            docs[i] = doc;
+        }
+        SolrStreamShard.DocumentSortKeys sortKeys = new SolrStreamShard.DocumentSortKeys(request);
+        SolrStreamShard.SortKey[] keys = new SolrStreamShard.SortKey[docs.length];
+
+        for (int run = 0 ; run < RUNS ; run++) {
+            Comparator<SolrDocument> comparator = SolrStreamShard.getDocumentComparator(request);
+            long checksum = 0;
+            long comparatorNS = -System.nanoTime();
+            for (int i = 0 ; i < COMPARISONS ; i++) {
+                checksum += comparator.compare(docs[i % docs.length], docs[(i*7) % docs.length]);
+            }
+            comparatorNS += System.nanoTime();
+
+            long keysNS = -System.nanoTime();
+            for (int i = 0 ; i < docs.length ; i++) { // Once per document, as done in the shard threads
+                keys[i] = sortKeys.extract(docs[i]);
+            }
+            for (int i = 0 ; i < COMPARISONS ; i++) {
+                checksum += sortKeys.compare(keys[i % keys.length], keys[(i*7) % keys.length]);
+            }
+            keysNS += System.nanoTime();
+
+            System.out.printf(Locale.ROOT, "Run %d: comparator %,6d ns/1000 comparisons, " +
+                                           "sort keys %,6d ns/1000 comparisons (x%.1f) (checksum %d)%n",
+                              run, comparatorNS*1000/COMPARISONS, keysNS*1000/COMPARISONS,
+                              comparatorNS*1.0/keysNS, checksum);
+        }
+    }
+}
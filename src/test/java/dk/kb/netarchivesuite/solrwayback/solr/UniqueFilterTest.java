@@ -0,0 +1,84 @@
+package dk.kb.netarchivesuite.solrwayback.solr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class UniqueFilterTest {
+
+    @Test
+    public void testHash32Limit() {
+        UniqueFilter filter = new UniqueFilter(UniqueFilter.MODE.hash32, 10, "id");
+        try {
+            for (int i = 0 ; i < 20 ; i++) {
+                filter.test("id" + i);
+            }
+            fail("Exceeding the unique limit in hash32 mode should throw an exception");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testHash64Spilling() {
+        UniqueFilter filter = new UniqueFilter(UniqueFilter.MODE.hash64, 100, "id");
+        for (int i = 0 ; i < 1000 ; i++) {
+            assertTrue("The first encounter of id" + i + " should pass", filter.test("id" + i));
+        }
+        for (int i = 0 ; i < 1000 ; i += 7) {
+            assertFalse("The second encounter of id" + i + " should be filtered", filter.test("id" + i));
+        }
+        assertEquals("The unique count should be beyond the in-memory limit", 1000, filter.uniqueCount());
+        assertEquals("The duplicate count should match", 143, filter.duplicateCount());
+
+        UniqueFilter copy = filter.copy();
+        assertTrue("A new value should pass in the original", filter.test("new"));
+        assertTrue("A new value should pass in the copy independently of the original", copy.test("new"));
+
+        UniqueFilter.Snapshot snapshot = filter.snapshot();
+        assertEquals("The snapshot should hold all unique values", 1001, snapshot.uniqueCount());
+        UniqueFilter restored = snapshot.restore();
+        assertFalse("A known value should be filtered in the restored filter", restored.test("id1"));
+        assertTrue("A new value should pass in the restored filter", restored.test("new2"));
+        assertTrue("Restoring again should be independent of earlier restores", snapshot.restore().test("new2"));
+    }
+
+    @Test
+    public void testValuesSnapshot() {
+        UniqueFilter filter = new UniqueFilter(UniqueFilter.MODE.values, 100, "id");
+        filter.test("a");
+        filter.test("b");
+        UniqueFilter.Snapshot snapshot = filter.snapshot();
+        filter.test("c");
+        assertEquals("The snapshot should not be affected by later tests", 2, snapshot.uniqueCount());
+        UniqueFilter restored = snapshot.restore();
+        assertFalse("A value from before the snapshot should be filtered", restored.test("a"));
+        assertTrue("A value from after the snapshot should pass", restored.test("c"));
+    }
+
+    @Test
+    public void testHash64() {
+        // "Aa" and "BB" are a classic String.hashCode() collision
+        assertEquals("The Strings should collide for hashCode", "Aa".hashCode(), "BB".hashCode());
+        assertNotEquals("The Strings should not collide for hash64",
+                        UniqueFilter.hash64("Aa"), UniqueFilter.hash64("BB"));
+    }
+}
@@ -0,0 +1,171 @@
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class BlockCacheTest {
+    private static final Pattern RANGE = Pattern.compile("bytes=([0-9]+)-([0-9]*)");
+
+    private final byte[] content = new byte[10000];
+    private final AtomicInteger requests = new AtomicInteger(0);
+    private final AtomicInteger truncations = new AtomicInteger(0);
+    private HttpServer server;
+    private URL url;
+
+    @Before
+    public void startServer() throws IOException {
+        for (int i = 0 ; i < content.length ; i++) {
+            content[i] = (byte) (i * 31 + (i >> 8));
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/content", exchange -> {
+            requests.incrementAndGet();
+            Matcher matcher = RANGE.matcher(exchange.getRequestHeaders().getFirst("Range"));
+            assertTrue("The request should be a Range Request", matcher.matches());
+            int start = Integer.parseInt(matcher.group(1));
+            int end = matcher.group(2).isEmpty() ? content.length :
+                    Math.min(content.length, Integer.parseInt(matcher.group(2)) + 1);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (end-1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, end-start);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, end-start);
+            }
+        });
+        // Delivers at most 1500 bytes per request, stating so in Content-Range
+        server.createContext("/clamped", exchange -> {
+            requests.incrementAndGet();
+            Matcher matcher = RANGE.matcher(exchange.getRequestHeaders().getFirst("Range"));
+            assertTrue("The request should be a Range Request", matcher.matches());
+            int start = Integer.parseInt(matcher.group(1));
+            int end = Math.min(start + 1500, content.length);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (end-1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, end-start);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, end-start);
+            }
+        });
+        // Delivers half of the stated Content-Range as long as there are truncations left
+        server.createContext("/truncated", exchange -> {
+            requests.incrementAndGet();
+            Matcher matcher = RANGE.matcher(exchange.getRequestHeaders().getFirst("Range"));
+            assertTrue("The request should be a Range Request", matcher.matches());
+            int start = Integer.parseInt(matcher.group(1));
+            int end = matcher.group(2).isEmpty() ? content.length :
+                    Math.min(content.length, Integer.parseInt(matcher.group(2)) + 1);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (end-1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, 0); // Chunked, so that the short body is not detected by the client
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, truncations.getAndDecrement() > 0 ? (end-start)/2 : end-start);
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/content");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testNeighbourReads() throws IOException {
+        BlockCache cache = new BlockCache(1000, 100000, null, 0);
+        assertRead(cache, 2100, 300);
+        assertEquals("The first read should request the block and the read ahead block", 1, requests.get());
+        assertRead(cache, 2500, 1000);
+        assertRead(cache, 2100, 300);
+        assertEquals("Neighbouring and repeated reads should be served from the cache", 1, requests.get());
+
+        assertRead(cache, 5000, 5000);
+        assertEquals("A long sequential read should use few requests", 3, requests.get());
+        assertTrue("The cache should report hits: " + cache.getStats(), cache.getStats().contains("memoryHits=7,"));
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        Path spillFolder = Files.createTempDirectory("blockcache");
+        BlockCache cache = new BlockCache(1000, 2000, spillFolder, 100000);
+        assertRead(cache, 0, 10000);
+        int remote = requests.get();
+        assertRead(cache, 0, 3000);
+        assertEquals("Blocks evicted from memory should be served from the spill folder", remote, requests.get());
+        assertTrue("The cache should report spill hits: " + cache.getStats(),
+                   !cache.getStats().contains("spillHits=0,"));
+    }
+
+    @Test
+    public void testClampedRange() throws IOException {
+        url = new URL(url, "/clamped");
+        BlockCache cache = new BlockCache(1000, 100000, null, 0);
+        assertRead(cache, 0, content.length);
+        assertRead(cache, 1000, 1000);
+        assertRead(cache, 9000, 1000);
+    }
+
+    @Test
+    public void testTruncatedBody() throws IOException {
+        url = new URL(url, "/truncated");
+        BlockCache cache = new BlockCache(1000, 100000, null, 0);
+        truncations.set(1);
+        assertRead(cache, 0, 1000);
+        assertEquals("A truncated body should be requested again", 2, requests.get());
+
+        truncations.set(10);
+        try {
+            assertRead(cache, 6000, 1000);
+            fail("Repeated truncated bodies should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        truncations.set(0);
+        assertRead(cache, 6000, content.length - 6000);
+    }
+
+    private void assertRead(BlockCache cache, int offset, int length) throws IOException {
+        try (InputStream in = new BlockCachedInputStream(url, false, cache, true)) {
+            InputStreamUtils.skipFully(in, offset);
+            byte[] buffer = new byte[length];
+            IOUtils.readFully(in, buffer);
+            byte[] expected = new byte[length];
+            System.arraycopy(content, offset, expected, 0, length);
+            assertArrayEquals("Reading " + length + " bytes from offset " + offset + " should give the expected bytes",
+                              expected, buffer);
+            if (offset + length == content.length) {
+                assertEquals("Reading at the end should signal EOF", -1, in.read());
+            }
+        }
+    }
+}
@@ -5,8 +5,11 @@ import org.junit.Test;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
@@ -207,6 +210,92 @@ public class CollectionUtilsTest {
         };
     }
 
+    @Test
+    public void testRingBuffer() {
+        CollectionUtils.RingBuffer<Integer> buffer = new CollectionUtils.RingBuffer<>(3);
+        assertNull("Polling an empty buffer should return null", buffer.poll());
+        for (int i = 0 ; i < 4 ; i++) {
+            assertTrue("Offer #" + i + " should succeed as capacity is rounded up to 4", buffer.offer(i));
+        }
+        assertFalse("Offering to a full buffer should fail", buffer.offer(4));
+        assertEquals("The first element should be polled first", Integer.valueOf(0), buffer.poll());
+        assertTrue("Offering after a poll should succeed", buffer.offer(4));
+        for (int i = 1 ; i <= 4 ; i++) {
+            assertEquals("Elements should be polled in order", Integer.valueOf(i), buffer.poll());
+        }
+        assertTrue("The buffer should be empty", buffer.isEmpty());
+    }
+
+    @Test
+    public void testBatchBufferingIterator() throws InterruptedException {
+        Executor executor = Executors.newCachedThreadPool();
+        AtomicBoolean continueProcessing = new AtomicBoolean(true);
+        List<List<Integer>> batches = new ArrayList<>();
+        for (int i = 0 ; i < 1000 ; i++) {
+            batches.add(Arrays.asList(i, i));
+        }
+        CountingIterator<List<Integer>> pic = new CountingIterator<>(batches.iterator());
+        Iterator<List<Integer>> pib = CollectionUtils.BatchBufferingIterator.of(pic, executor, 2, continueProcessing);
+        Thread.sleep(100); // Leave time for reading ahead
+        assertEquals("The buffer plus the batch being offered should have been read ahead", 3, pic.delivered);
+        List<List<Integer>> received = new ArrayList<>();
+        pib.forEachRemaining(received::add);
+        assertEquals("All batches should be delivered in order", batches, received);
+    }
+
+    @Test
+    public void testBatchBufferingIteratorStop() throws InterruptedException {
+        Executor executor = Executors.newCachedThreadPool();
+        AtomicBoolean continueProcessing = new AtomicBoolean(true);
+        Iterator<Integer> pib = CollectionUtils.BatchBufferingIterator.of(
+                Arrays.asList(1, 2, 3).iterator(), executor, 1, continueProcessing);
+        assertTrue("First hasNext() should provide the expected result", pib.hasNext());
+        continueProcessing.set(false);
+        assertFalse("Second hasNext() should provide the expected result", pib.hasNext());
+    }
+
+    @Test
+    public void testMergeKeyedBatches() {
+        Random random = new Random(87);
+        for (int sources = 0 ; sources <= 9 ; sources++) {
+            List<Integer> all = new ArrayList<>();
+            List<Iterator<CollectionUtils.KeyedBatch<Integer, Integer>>> batchIterators = new ArrayList<>();
+            for (int source = 0 ; source < sources ; source++) {
+                // Descending values as the keys are negated
+                List<Integer> values = random.ints(random.nextInt(20), 0, 50).boxed()
+                        .sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+                all.addAll(values);
+                // Split in batches of random size, including empty batches
+                List<CollectionUtils.KeyedBatch<Integer, Integer>> batches = new ArrayList<>();
+                int start = 0;
+                while (start < values.size()) {
+                    int end = Math.min(values.size(), start + random.nextInt(4));
+                    batches.add(CollectionUtils.KeyedBatch.of(values.subList(start, end), v -> -v));
+                    start = end;
+                }
+                batchIterators.add(batches.iterator());
+            }
+            all.sort(Comparator.reverseOrder());
+            List<Integer> merged = new ArrayList<>();
+            CollectionUtils.mergeKeyedBatches(batchIterators, Integer::compare).forEachRemaining(merged::add);
+            assertEquals("Merging " + sources + " sources should deliver all elements in key order", all, merged);
+        }
+    }
+
+    @Test
+    public void testMergeKeyedBatchesDeduplicate() {
+        Iterator<CollectionUtils.KeyedBatch<String, Integer>> i1 = Arrays.asList(
+                CollectionUtils.KeyedBatch.of(Arrays.asList("1a", "2a"), Arrays.asList(1, 2)),
+                CollectionUtils.KeyedBatch.of(Arrays.asList("2b", "4a"), Arrays.asList(2, 4))).iterator();
+        Iterator<CollectionUtils.KeyedBatch<String, Integer>> i2 = Collections.singletonList(
+                CollectionUtils.KeyedBatch.of(Arrays.asList("1b", "3a", "4b"), Arrays.asList(1, 3, 4))).iterator();
+        List<String> merged = new ArrayList<>();
+        CollectionUtils.mergeKeyedBatches(Arrays.asList(i1, i2), Integer::compare, Integer::equals)
+                .forEachRemaining(merged::add);
+        assertEquals("Only the first element for each key should be delivered",
+                     "[1a, 2a, 3a, 4a]", merged.toString());
+    }
+
 
     private static class CountingIterator<T> implements Iterator<T> {
         private final Iterator<T> inner;
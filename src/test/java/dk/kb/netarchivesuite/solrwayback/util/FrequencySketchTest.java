@@ -0,0 +1,55 @@
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void testFrequency() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        assertEquals("An unseen key should have frequency 0", 0, sketch.frequency("unseen"));
+        for (int i = 0 ; i < 5 ; i++) {
+            sketch.increment("hot");
+        }
+        sketch.increment("cold");
+        assertEquals("The hot key should be counted", 5, sketch.frequency("hot"));
+        assertEquals("The cold key should be counted", 1, sketch.frequency("cold"));
+
+        for (int i = 0 ; i < 100 ; i++) {
+            sketch.increment("hot");
+        }
+        assertEquals("The frequency should saturate",
+                     FrequencySketch.MAX_FREQUENCY, sketch.frequency("hot"));
+    }
+
+    @Test
+    public void testAging() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0 ; i < 10 ; i++) {
+            sketch.increment("old");
+        }
+        // Sample size for 16 entries is 160 increments
+        for (int i = 0 ; i < 200 ; i++) {
+            sketch.increment("other" + i);
+        }
+        int old = sketch.frequency("old");
+        assertTrue("The frequency for the old key should be halved, but was " + old, old <= 5);
+    }
+}
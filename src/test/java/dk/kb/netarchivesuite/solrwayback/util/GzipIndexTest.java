@@ -0,0 +1,186 @@
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import dk.kb.netarchivesuite.solrwayback.properties.PropertiesLoader;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class GzipIndexTest {
+    private final String oldIndexDir = PropertiesLoader.WARC_GZIP_INDEX_DIR;
+    private final boolean oldLazy = PropertiesLoader.WARC_GZIP_INDEX_LAZY;
+
+    @After
+    public void restore() {
+        PropertiesLoader.WARC_GZIP_INDEX_DIR = oldIndexDir;
+        PropertiesLoader.WARC_GZIP_INDEX_LAZY = oldLazy;
+        GzipIndex.clearCache();
+    }
+
+    @Test
+    public void testSingleStream() throws IOException {
+        byte[] content = createContent(3_000_000, 87);
+        for (int level: new int[]{Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION}) {
+            byte[] compressed = gzip(level, content);
+            GzipIndex index = GzipIndex.build(new ByteArrayInputStream(compressed), 65536);
+            assertEquals("The uncompressed length should match for level " + level,
+                         content.length, index.getUncompressedLength());
+            assertEquals("There should be a single member for level " + level, 1, index.getMemberCount());
+            assertTrue("There should be checkpoints for level " + level + ": " + index,
+                       index.getCheckpointCount() > 10);
+            assertRandomAccess(index, compressed, content, "level " + level);
+        }
+    }
+
+    @Test
+    public void testMultipleMembers() throws IOException {
+        byte[] content = createContent(2_000_000, 88);
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        int[] splits = {0, 300_000, 300_000, 1_200_000, content.length}; // Also an empty member
+        for (int i = 1 ; i < splits.length ; i++) {
+            members.write(gzip(Deflater.DEFAULT_COMPRESSION, Arrays.copyOfRange(content, splits[i-1], splits[i])));
+        }
+        byte[] compressed = members.toByteArray();
+        GzipIndex index = GzipIndex.build(new ByteArrayInputStream(compressed), 100_000);
+        assertEquals("The number of members should match", 4, index.getMemberCount());
+        assertEquals("The uncompressed length should match", content.length, index.getUncompressedLength());
+        assertRandomAccess(index, compressed, content, "members");
+
+        // Reading from a checkpoint into the following members
+        try (InputStream in = index.open(() -> new ByteArrayInputStream(compressed), 250_000)) {
+            assertArrayEquals("Reading across members should deliver the content",
+                              Arrays.copyOfRange(content, 250_000, content.length), IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void testOpenDecompressed() throws IOException {
+        Path indexDir = Files.createTempDirectory("gzipindex_");
+        indexDir.toFile().deleteOnExit();
+        PropertiesLoader.WARC_GZIP_INDEX_DIR = indexDir.toString();
+        PropertiesLoader.WARC_GZIP_INDEX_LAZY = true;
+
+        byte[] content = createContent(1_000_000, 89);
+        byte[] compressed = gzip(Deflater.DEFAULT_COMPRESSION, content);
+        Supplier<InputStream> source = () -> new ByteArrayInputStream(compressed);
+        try (InputStream in = GzipIndex.openDecompressed("/warcs/single.warc.gz", source, 700_000)) {
+            assertArrayEquals("The content from the uncompressed offset should be delivered",
+                              Arrays.copyOfRange(content, 700_000, 700_100), in.readNBytes(100));
+        }
+        assertTrue("The index should have been stored",
+                   Files.exists(indexDir.resolve("single.warc.gz" + GzipIndex.INDEX_EXTENSION)));
+        Files.delete(indexDir.resolve("single.warc.gz" + GzipIndex.INDEX_EXTENSION));
+
+        // Standard layout: The offset points to a member
+        byte[] first = gzip(Deflater.DEFAULT_COMPRESSION, "first".getBytes(StandardCharsets.UTF_8));
+        byte[] second = gzip(Deflater.DEFAULT_COMPRESSION, "second".getBytes(StandardCharsets.UTF_8));
+        byte[] standard = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, standard, first.length, second.length);
+        try (InputStream in = GzipIndex.openDecompressed(
+                "/warcs/standard.warc.gz", () -> new ByteArrayInputStream(standard), first.length)) {
+            assertEquals("The member at the offset should be delivered",
+                         "second", new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testMemberPerRecordProbe() throws IOException {
+        PropertiesLoader.WARC_GZIP_INDEX_LAZY = true;
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (int i = 0 ; i < 5 ; i++) {
+            records.write(gzip(Deflater.DEFAULT_COMPRESSION, ("record " + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        byte[] perRecord = records.toByteArray();
+        assertTrue("A member per record should be detected",
+                   GzipIndex.hasMemberPerRecord(() -> new ByteArrayInputStream(perRecord)));
+        try {
+            GzipIndex.openDecompressed("/warcs/perrecord.warc.gz", () -> new ByteArrayInputStream(perRecord), 3);
+            fail("An offset not pointing to a member should fail for a WARC with a member per record");
+        } catch (IOException e) {
+            assertTrue("The exception should state that the offset is wrong, but was " + e.getMessage(),
+                       e.getMessage().contains("offset is probably wrong"));
+        }
+
+        byte[] single = gzip(Deflater.DEFAULT_COMPRESSION, createContent(2_000_000, 90));
+        assertFalse("A single gzip stream should not be detected as a member per record",
+                    GzipIndex.hasMemberPerRecord(() -> new ByteArrayInputStream(single)));
+    }
+
+    private void assertRandomAccess(GzipIndex index, byte[] compressed, byte[] content, String designation)
+            throws IOException {
+        Random random = new Random(87);
+        for (int i = 0 ; i < 50 ; i++) {
+            int position = i == 0 ? 0 : i == 1 ? content.length - 10 : random.nextInt(content.length);
+            int length = Math.min(content.length - position, 1 + random.nextInt(100_000));
+            try (InputStream in = index.open(() -> new ByteArrayInputStream(compressed), position)) {
+                assertArrayEquals("Content at position " + position + " should match for " + designation,
+                                  Arrays.copyOfRange(content, position, position + length), in.readNBytes(length));
+            }
+        }
+    }
+
+    /**
+     * Mix of text and random bytes, to get varying deflate block types.
+     */
+    private static byte[] createContent(int length, int seed) {
+        Random random = new Random(seed);
+        String[] words = {"WARC/1.0", "Content-Length:", "<html>", "</div>", "http://example.com/", "\r\n", " "};
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        while (out.size() < length) {
+            if (random.nextInt(50) == 0) {
+                byte[] noise = new byte[random.nextInt(5000)];
+                random.nextBytes(noise);
+                out.write(noise, 0, noise.length);
+            } else {
+                byte[] word = (words[random.nextInt(words.length)] + random.nextInt(1000)).
+                        getBytes(StandardCharsets.UTF_8);
+                out.write(word, 0, word.length);
+            }
+        }
+        return Arrays.copyOf(out.toByteArray(), length);
+    }
+
+    private static byte[] gzip(int level, byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+}
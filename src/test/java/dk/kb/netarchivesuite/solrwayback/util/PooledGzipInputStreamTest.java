@@ -0,0 +1,188 @@
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class PooledGzipInputStreamTest {
+
+    @Test
+    public void testSameAsGZIPInputStream() throws IOException {
+        Random random = new Random(87);
+        for (int length: new int[]{0, 1, 1000, 65535, 65536, 65537, 1_000_000}) {
+            byte[] content = new byte[length];
+            for (int i = 0 ; i < length ; i++) {
+                content[i] = (byte) (random.nextInt(20) == 0 ? random.nextInt() : 'a' + random.nextInt(4));
+            }
+            byte[] compressed = gzip(content);
+            try (InputStream in = new PooledGzipInputStream(new ByteArrayInputStream(compressed))) {
+                assertArrayEquals("Content should match for length " + length, content, IOUtils.toByteArray(in));
+            }
+        }
+    }
+
+    @Test
+    public void testMultipleMembersAndTrailingGarbage() throws IOException {
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(gzip("first ".getBytes(StandardCharsets.UTF_8)));
+        members.write(gzip(new byte[0]));
+        members.write(gzip("second".getBytes(StandardCharsets.UTF_8)));
+        members.write("garbage".getBytes(StandardCharsets.UTF_8));
+        byte[] compressed = members.toByteArray();
+        try (InputStream in = new PooledGzipInputStream(new ByteArrayInputStream(compressed))) {
+            assertEquals("All members should be delivered",
+                         "first second", new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+        }
+        assertEquals("The JDK GZIPInputStream should agree",
+                     "first second", new String(IOUtils.toByteArray(
+                             new GZIPInputStream(new ByteArrayInputStream(compressed))), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testHeaderFields() throws IOException {
+        byte[] plain = gzip("payload".getBytes(StandardCharsets.UTF_8));
+        byte[] raw = Arrays.copyOfRange(plain, 10, plain.length); // Deflate data and trailer
+        ByteArrayOutputStream withHeader = new ByteArrayOutputStream();
+        // FEXTRA + FNAME + FCOMMENT
+        withHeader.write(new byte[]{0x1F, (byte) 0x8B, 8, 4 | 8 | 16, 0, 0, 0, 0, 0, 3});
+        withHeader.write(new byte[]{3, 0, 'x', 'y', 'z'});
+        withHeader.write("name.txt\0comment\0".getBytes(StandardCharsets.ISO_8859_1));
+        withHeader.write(raw, 0, raw.length);
+        try (InputStream in = new PooledGzipInputStream(new ByteArrayInputStream(withHeader.toByteArray()))) {
+            assertEquals("The payload should be delivered after the optional header fields",
+                         "payload", new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testInvalidData() throws IOException {
+        try {
+            new PooledGzipInputStream(new ByteArrayInputStream("Not gzip".getBytes(StandardCharsets.UTF_8)));
+            fail("Non-gzip data should fail");
+        } catch (ZipException e) {
+            // Expected
+        }
+
+        byte[] compressed = gzip("Some content that will be truncated".getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = new PooledGzipInputStream(
+                new ByteArrayInputStream(Arrays.copyOf(compressed, compressed.length - 10)))) {
+            IOUtils.toByteArray(in);
+            fail("Truncated data should fail");
+        } catch (EOFException e) {
+            // Expected, as with GZIPInputStream
+        }
+
+        compressed[compressed.length-8] ^= 1; // CRC
+        try (InputStream in = new PooledGzipInputStream(new ByteArrayInputStream(compressed))) {
+            IOUtils.toByteArray(in);
+            fail("Wrong CRC should fail");
+        } catch (ZipException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testPoolReuse() throws IOException {
+        byte[] compressed = gzip("reuse".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0 ; i < 10 ; i++) {
+            try (InputStream in = new PooledGzipInputStream(new ByteArrayInputStream(compressed))) {
+                assertEquals("Content should match for iteration " + i,
+                             "reuse", new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+            }
+            assertTrue("The Inflater should be returned to the pool after close", InflaterPool.size() > 0);
+        }
+    }
+
+    @Test
+    public void testCloseDuringRead() throws Exception {
+        byte[] compressed = gzip("blocked".getBytes(StandardCharsets.UTF_8));
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        // Delivers the header first and blocks on the next read, as a slow network source would
+        InputStream source = new ByteArrayInputStream(compressed) {
+            private boolean first = true;
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (first) {
+                    first = false;
+                    return super.read(b, off, 10);
+                }
+                reading.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, len);
+            }
+        };
+        PooledGzipInputStream in = new PooledGzipInputStream(source);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte[]> content = executor.submit(() -> IOUtils.toByteArray(in));
+            assertTrue("The reader should block in the source", reading.await(10, TimeUnit.SECONDS));
+
+            in.close();
+            assertTrue("The Inflater should not be returned to the pool while a read is in progress",
+                       in.holdsInflater());
+
+            proceed.countDown();
+            try {
+                content.get(10, TimeUnit.SECONDS);
+                fail("Reading after close should fail");
+            } catch (ExecutionException e) {
+                assertTrue("Reading after close should fail with an IOException, but got " + e.getCause(),
+                           e.getCause() instanceof IOException);
+            }
+            assertFalse("The Inflater should be returned to the pool when the read has finished",
+                        in.holdsInflater());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,15 +1,26 @@
 package dk.kb.netarchivesuite.solrwayback.util;
 
+import com.sun.net.httpserver.HttpServer;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /*
  *  Licensed under the Apache License, Version 2.0 (the "License");
@@ -72,6 +83,108 @@ public class SkippingHTTPInputStreamTest {
         }
     }
 
+    @Test
+    public void testLocalRanges() throws IOException {
+        byte[] content = createContent(100000);
+        List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = startServer(content, true, ranges);
+        try (InputStream is = new SkippingHTTPInputStream(getLocalURL(server), false, 1000)) {
+            InputStreamUtils.skipFully(is, 50000);
+            assertTrue("Skipping should not issue any requests but got " + ranges, ranges.isEmpty());
+
+            byte[] buffer = new byte[3000];
+            IOUtils.readFully(is, buffer);
+            assertArrayEquals("Reading after skip should deliver the expected bytes",
+                              slice(content, 50000, 3000), buffer);
+            assertEquals("Reading should use bounded ranges with doubling size",
+                         "[bytes=50000-50999, bytes=51000-52999]", ranges.toString());
+
+            InputStreamUtils.skipFully(is, content.length - 53000 - 10);
+            assertEquals("Reading to the end should deliver the remaining bytes",
+                         10, IOUtils.read(is, new byte[100]));
+            assertEquals("Reading at the end should signal EOF", -1, is.read());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testLocalNoRanges() throws IOException {
+        byte[] content = createContent(100000);
+        HttpServer server = startServer(content, false, new ArrayList<>());
+        try {
+            try (InputStream is = new SkippingHTTPInputStream(getLocalURL(server), true, 1000)) {
+                InputStreamUtils.skipFully(is, 50000);
+                byte[] buffer = new byte[3000];
+                IOUtils.readFully(is, buffer);
+                assertArrayEquals("Reading after skip with read fallback should deliver the expected bytes",
+                                  slice(content, 50000, 3000), buffer);
+            }
+            assertEquals("Missing range support should be cached for the host", HTTPStorageClient.RANGES.unsupported,
+                         HTTPStorageClient.getRangeSupport(URI.create(getLocalURL(server).toString())));
+            try (InputStream is = new SkippingHTTPInputStream(getLocalURL(server), false, 1000)) {
+                InputStreamUtils.skipFully(is, 50000);
+                fail("Skipping without range support and without read fallback should fail");
+            } catch (IOException e) {
+                // Expected
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Start a local HTTP server for the given content.
+     * @param content       the content to deliver.
+     * @param supportRanges if true, HTTP Range Requests are supported.
+     * @param ranges        received Range headers are added to this list.
+     * @return a started server.
+     */
+    private HttpServer startServer(byte[] content, boolean supportRanges, List<String> ranges) throws IOException {
+        final Pattern RANGE = Pattern.compile("bytes=([0-9]+)-([0-9]*)");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/content", exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = 0;
+            int end = content.length;
+            if (range != null && supportRanges) {
+                ranges.add(range);
+                Matcher matcher = RANGE.matcher(range);
+                assertTrue("The Range header should be valid: " + range, matcher.matches());
+                start = Integer.parseInt(matcher.group(1));
+                end = matcher.group(2).isEmpty() ? end : Math.min(end, Integer.parseInt(matcher.group(2)) + 1);
+                exchange.getResponseHeaders().add(
+                        "Content-Range", "bytes " + start + "-" + (end-1) + "/" + content.length);
+                exchange.sendResponseHeaders(206, end-start);
+            } else {
+                exchange.sendResponseHeaders(200, content.length);
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, end-start);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private URL getLocalURL(HttpServer server) throws MalformedURLException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/content");
+    }
+
+    private byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0 ; i < length ; i++) {
+            content[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return content;
+    }
+
+    private byte[] slice(byte[] content, int offset, int length) {
+        byte[] slice = new byte[length];
+        System.arraycopy(content, offset, slice, 0, length);
+        return slice;
+    }
+
     private void skipSafe(InputStream is, long distance) {
         try {
             InputStreamUtils.skipFully(is, distance);
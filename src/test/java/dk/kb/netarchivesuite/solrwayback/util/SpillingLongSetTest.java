@@ -0,0 +1,60 @@
+package dk.kb.netarchivesuite.solrwayback.util;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class SpillingLongSetTest {
+
+    @Test
+    public void testSpilling() {
+        Random random = new Random(87);
+        SpillingLongSet set = new SpillingLongSet(1000);
+        LongOpenHashSet expected = new LongOpenHashSet();
+        for (int i = 0 ; i < 50000 ; i++) {
+            long value = random.nextInt(40000) - 20000L; // Plenty of duplicates and negative values
+            assertEquals("Adding " + value + " at iteration " + i + " should match the expected set",
+                         expected.add(value), set.add(value));
+        }
+        assertEquals("The size should match the expected set", expected.size(), set.size());
+        assertTrue("Values should have been spilled", set.spilledSize() > 0);
+        assertTrue("Runs should have been merged, but there were " + set.runCount(), set.runCount() < 10);
+        for (long value = -20001 ; value < 20001 ; value++) {
+            assertEquals("Contains(" + value + ") should match the expected set",
+                         expected.contains(value), set.contains(value));
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        SpillingLongSet set = new SpillingLongSet(10);
+        for (long value = 0 ; value < 100 ; value++) {
+            set.add(value);
+        }
+        SpillingLongSet copy = set.copy();
+        set.add(1000);
+        assertFalse("The copy should not be affected by additions to the original", copy.contains(1000));
+        assertTrue("The copy should contain spilled values", copy.contains(42));
+        assertTrue("The copy should accept new values", copy.add(2000));
+        assertFalse("The original should not be affected by additions to the copy", set.contains(2000));
+    }
+}
@@ -0,0 +1,104 @@
+package dk.kb.netarchivesuite.solrwayback.wordcloud;
+
+import com.kennycason.kumo.WordFrequency;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+public class WordFrequencyCounterTest {
+
+    @Test
+    public void basicCounting() {
+        WordFrequencyCounter counter = new WordFrequencyCounter(Arrays.asList("that", "with"));
+        counter.add("Archive archive, ARCHIVE! That is a web-archive with pages.");
+        counter.add("Pages with more pages");
+
+        assertEquals("Words should be lower cased, split on non-letters and filtered",
+                     "[archive:4, pages:3, more:1]", toString(counter.getTopWords(10)));
+        assertEquals("The number of texts should be as expected", 2, counter.getTextCount());
+    }
+
+    @Test
+    public void topWords() {
+        WordFrequencyCounter counter = new WordFrequencyCounter(null);
+        counter.add("aaaa bbbb bbbb cccc cccc cccc dddd dddd dddd dddd");
+
+        assertEquals("Only the top words should be returned, most frequent first",
+                     "[dddd:4, cccc:3]", toString(counter.getTopWords(2)));
+    }
+
+    @Test
+    public void pruning() {
+        WordFrequencyCounter counter = new WordFrequencyCounter(null, 4, 3);
+        counter.add("keep keep aaaa bbbb cccc");
+
+        assertEquals("Singletons should be pruned when the vocabulary overflows",
+                     "[keep:2]", toString(counter.getTopWords(10)));
+    }
+
+    @Test
+    public void pruningWithoutSingletons() {
+        WordFrequencyCounter counter = new WordFrequencyCounter(null, 4, 100);
+        StringBuilder frequent = new StringBuilder();
+        for (int i = 0 ; i < 100 ; i++) {
+            frequent.append(createWord(i)).append(" ").append(createWord(i)).append(" ");
+        }
+        counter.add(frequent);
+        for (int i = 100 ; i < 1100 ; i++) {
+            counter.add(createWord(i));
+        }
+        assertTrue("The vocabulary should be bounded but was " + counter.getVocabularySize(),
+                   counter.getVocabularySize() <= 100);
+        assertTrue("Pruning should not be repeated for each new word but was done " + counter.getPruneCount() + " times",
+                   counter.getPruneCount() < 100);
+    }
+
+    @Test
+    public void tiesAreOrdered() {
+        WordFrequencyCounter counter = new WordFrequencyCounter(null);
+        StringBuilder text = new StringBuilder();
+        for (int i = 199 ; i >= 0 ; i--) {
+            text.append(createWord(i)).append(" ");
+        }
+        counter.add(text);
+        assertEquals("Ties should be resolved by word, independent of hash order",
+                     "[aaaa:1, aaab:1, aaac:1]", toString(counter.getTopWords(3)));
+    }
+
+    /**
+     * @return a 4 letter word, unique for the number.
+     */
+    private String createWord(int number) {
+        char[] word = new char[4];
+        for (int i = 3 ; i >= 0 ; i--) {
+            word[i] = (char) ('a' + number % 26);
+            number /= 26;
+        }
+        return new String(word);
+    }
+
+    private String toString(List<WordFrequency> words) {
+        return words.stream().
+                map(word -> word.getWord() + ":" + word.getFrequency()).
+                collect(Collectors.toList()).toString();
+    }
+}